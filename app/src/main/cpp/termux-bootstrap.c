@@ -9,3 +9,14 @@ JNIEXPORT jbyteArray JNICALL Java_com_termux_app_TermuxInstaller_getZip(JNIEnv *
     (*env)->SetByteArrayRegion(env, ret, 0, blob_size, blob);
     return ret;
 }
+
+/*
+ * Return a direct ByteBuffer for the zip embedded in this library, so that it can be
+ * extracted without copying it to the Java heap. The buffer points to read only memory and must
+ * not be written to. The library is never unloaded, so the buffer stays valid for the lifetime
+ * of the process.
+ */
+JNIEXPORT jobject JNICALL Java_com_termux_app_TermuxInstaller_getZipBuffer(JNIEnv *env, __attribute__((__unused__)) jobject This)
+{
+    return (*env)->NewDirectByteBuffer(env, blob, blob_size);
+}
@@ -1,23 +1,55 @@
 package com.termux.app;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.termux.shared.logger.Logger;
 
+import java.nio.ByteBuffer;
+
 /**
  * Bootstrap Extractor using Rust implementation
- * Uses Rust to extract bootstrap zip bytes to target directory
+ * Uses Rust to extract bootstrap zip to target directory
  */
 public class BootstrapExtractor {
-    
+
     private static final String LOG_TAG = "BootstrapExtractor";
-    
+
+    /** The index in the timings array of the time taken to read the zip central directory. */
+    public static final int PHASE_INDEX = 0;
+    /** The index in the timings array of the time taken to create the directories. */
+    public static final int PHASE_DIRECTORIES = 1;
+    /** The index in the timings array of the time taken to extract the files in parallel. */
+    public static final int PHASE_FILES = 2;
+    /** The index in the timings array of the time taken to create the symlinks in SYMLINKS.txt. */
+    public static final int PHASE_SYMLINKS = 3;
+    /** The length of the timings array. */
+    public static final int PHASE_COUNT = 4;
+
+    /** The index in the repair timings array of the time taken to read the zip central directory. */
+    public static final int REPAIR_PHASE_INDEX = 0;
+    /** The index in the repair timings array of the time taken to compare the installed files with the zip. */
+    public static final int REPAIR_PHASE_COMPARE = 1;
+    /** The index in the repair timings array of the time taken to extract the changed files to staging. */
+    public static final int REPAIR_PHASE_STAGE = 2;
+    /** The index in the repair timings array of the time taken to move the changed files to prefix and verify them. */
+    public static final int REPAIR_PHASE_SWAP = 3;
+    /** The length of the repair timings array. */
+    public static final int REPAIR_PHASE_COUNT = 4;
+
+    /** The {@link #repairFromBuffer(ByteBuffer, String, String, long[])} error code if reading the dpkg database or extracting to staging failed and prefix was not modified. */
+    public static final long REPAIR_ERROR_STAGE = -4;
+    /** The {@link #repairFromBuffer(ByteBuffer, String, String, long[])} error code if moving to prefix or verification failed and prefix may be partially repaired. */
+    public static final long REPAIR_ERROR_SWAP = -6;
+
     // Load the Rust library from terminal-emulator module
     static {
         System.loadLibrary("termux_rust");
     }
-    
+
     /**
      * Extract bootstrap zip from bytes to target directory
-     * 
+     *
      * @param zipBytes The bootstrap zip file as byte array
      * @param targetDir The target directory path to extract to
      * @return Number of files extracted, or negative error code:
@@ -27,24 +59,90 @@ public class BootstrapExtractor {
      *         -4: Extract error
      */
     public static native long extractFromBytes(byte[] zipBytes, String targetDir);
-    
+
+    /**
+     * Extract bootstrap zip from a direct buffer to target directory without copying the zip.
+     *
+     * @param zipBuffer The bootstrap zip file as a direct {@link ByteBuffer}
+     * @param targetDir The target directory path to extract to
+     * @param timings The optional array of length {@link #PHASE_COUNT} to set the time in
+     *                milliseconds taken by each extraction phase in
+     * @return Number of files extracted, or negative error code:
+     *         -1: JNI error
+     *         -2: Path error
+     *         -4: Extract error
+     *         -5: Buffer is not a direct buffer
+     */
+    public static native long extractFromBuffer(ByteBuffer zipBuffer, String targetDir, long[] timings);
+
+    /**
+     * Repair an installed prefix from a direct buffer. The CRC-32 and size of each file in the zip
+     * central directory and the SYMLINKS.txt entries are used as the manifest that the installed
+     * files are compared against. The dpkg database in the prefix limits what is restored: files
+     * whose md5sum is still the bootstrap one are restored if missing or their CRC-32 differs,
+     * other entries of installed bootstrap packages only if missing, and the dpkg database,
+     * conffiles and upgraded or removed packages are never touched. The entries to restore are
+     * extracted to the staging directory, verified, renamed over the prefix entries one by one
+     * and verified again. Files in the prefix that are not part of the bootstrap are not touched.
+     *
+     * @param zipBuffer The bootstrap zip file as a direct {@link ByteBuffer}
+     * @param prefixDir The installed prefix directory path to repair
+     * @param stagingDir The empty or missing staging directory path to extract changed entries to
+     * @param timings The optional array of length {@link #REPAIR_PHASE_COUNT} to set the time in
+     *                milliseconds taken by each repair phase in
+     * @return Number of files and symlinks rewritten, or negative error code:
+     *         -1: JNI error
+     *         -2: Path error
+     *         -4: dpkg database or extract to staging error ({@link #REPAIR_ERROR_STAGE})
+     *         -5: Buffer is not a direct buffer
+     *         -6: Move to prefix or verification error ({@link #REPAIR_ERROR_SWAP})
+     */
+    public static native long repairFromBuffer(ByteBuffer zipBuffer, String prefixDir, String stagingDir, long[] timings);
+
     /**
      * Extract bootstrap zip using Rust implementation
-     * 
+     *
      * @param zipBytes The bootstrap zip file as byte array
      * @param targetDir The target directory path to extract to
      * @return true if successful, false otherwise
      */
     public static boolean extractBootstrap(byte[] zipBytes, String targetDir) {
         Logger.logInfo(LOG_TAG, "Starting Rust bootstrap extraction to: " + targetDir);
-        
+
         long result = extractFromBytes(zipBytes, targetDir);
-        
+
+        if (result < 0) {
+            Logger.logError(LOG_TAG, "Bootstrap extraction failed with error code: " + result);
+            return false;
+        }
+
+        Logger.logInfo(LOG_TAG, "Bootstrap extraction completed successfully. Extracted " + result + " files.");
+        return true;
+    }
+
+    /**
+     * Extract bootstrap zip from a direct buffer using Rust implementation. The entries are
+     * decompressed in parallel and the symlinks are created in a final pass.
+     *
+     * @param zipBuffer The bootstrap zip file as a direct {@link ByteBuffer}
+     * @param targetDir The target directory path to extract to
+     * @param timings The optional array of length {@link #PHASE_COUNT} to set the time in
+     *                milliseconds taken by each extraction phase in
+     * @return true if successful, false otherwise
+     */
+    public static boolean extractBootstrap(@NonNull ByteBuffer zipBuffer, String targetDir, @Nullable long[] timings) {
+        if (timings != null && timings.length < PHASE_COUNT)
+            throw new IllegalArgumentException("The timings array length must be at least " + PHASE_COUNT);
+
+        Logger.logInfo(LOG_TAG, "Starting Rust bootstrap extraction from buffer to: " + targetDir);
+
+        long result = extractFromBuffer(zipBuffer, targetDir, timings);
+
         if (result < 0) {
             Logger.logError(LOG_TAG, "Bootstrap extraction failed with error code: " + result);
             return false;
         }
-        
+
         Logger.logInfo(LOG_TAG, "Bootstrap extraction completed successfully. Extracted " + result + " files.");
         return true;
     }
@@ -191,6 +191,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
     private static final int CONTEXT_MENU_HELP_ID = 7;
     private static final int CONTEXT_MENU_SETTINGS_ID = 8;
     private static final int CONTEXT_MENU_REPORT_ID = 9;
+    private static final int CONTEXT_MENU_REPAIR_BOOTSTRAP_ID = 12;
 
     private static final String ARG_TERMINAL_TOOLBAR_TEXT_INPUT = "terminal_toolbar_text_input";
     private static final String ARG_ACTIVITY_RECREATED = "activity_recreated";
@@ -406,7 +407,11 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
                         if (intent != null && intent.getExtras() != null) {
                             launchFailsafe = intent.getExtras().getBoolean(TERMUX_ACTIVITY.EXTRA_FAILSAFE_SESSION, false);
                         }
-                        mTermuxTerminalSessionActivityClient.addNewSession(launchFailsafe, null);
+                        // Recreate the sessions that were running before the app process was killed
+                        if (!launchFailsafe && mTermuxService.restoreTermuxSessionsFromSnapshots() > 0)
+                            mTermuxTerminalSessionActivityClient.setCurrentSession(mTermuxTerminalSessionActivityClient.getCurrentStoredSessionOrLast());
+                        else
+                            mTermuxTerminalSessionActivityClient.addNewSession(launchFailsafe, null);
                     } catch (WindowManager.BadTokenException e) {
                         // Activity finished - ignore.
                     }
@@ -652,6 +657,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         menu.add(Menu.NONE, CONTEXT_MENU_HELP_ID, Menu.NONE, R.string.action_open_help);
         menu.add(Menu.NONE, CONTEXT_MENU_SETTINGS_ID, Menu.NONE, R.string.action_open_settings);
         menu.add(Menu.NONE, CONTEXT_MENU_REPORT_ID, Menu.NONE, R.string.action_report_issue);
+        menu.add(Menu.NONE, CONTEXT_MENU_REPAIR_BOOTSTRAP_ID, Menu.NONE, R.string.action_repair_bootstrap);
     }
 
     /** Hook system menu to show context menu instead. */
@@ -702,6 +708,9 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
             case CONTEXT_MENU_REPORT_ID:
                 mTermuxTerminalViewClient.reportIssueFromTranscript();
                 return true;
+            case CONTEXT_MENU_REPAIR_BOOTSTRAP_ID:
+                showRepairBootstrapDialog();
+                return true;
             default:
                 return super.onContextItemSelected(item);
         }
@@ -728,6 +737,18 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         b.show();
     }
 
+    private void showRepairBootstrapDialog() {
+        final AlertDialog.Builder b = new AlertDialog.Builder(this);
+        b.setIcon(android.R.drawable.ic_dialog_alert);
+        b.setMessage(R.string.title_confirm_repair_bootstrap);
+        b.setPositiveButton(android.R.string.yes, (dialog, id) -> {
+            dialog.dismiss();
+            TermuxInstaller.repairBootstrap(this, () -> showToast(getString(R.string.msg_bootstrap_repaired), true));
+        });
+        b.setNegativeButton(android.R.string.no, null);
+        b.show();
+    }
+
     private void onResetTerminalSession(TerminalSession session) {
         if (session != null) {
             session.reset();
@@ -866,7 +887,10 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
 
     public void termuxSessionListNotifyUpdated() {
-        mTermuxSessionListViewController.notifyDataSetChanged();
+        if (mTermuxService != null)
+            mTermuxSessionListViewController.updateSessions(mTermuxService.getTermuxSessions());
+        else
+            mTermuxSessionListViewController.notifyDataSetChanged();
     }
 
     public boolean isVisible() {
@@ -5,6 +5,7 @@ import android.content.Context;
 
 import com.termux.BuildConfig;
 import com.termux.shared.errors.Error;
+import com.termux.shared.logger.LogFile;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
@@ -17,6 +18,8 @@ import com.termux.shared.termux.shell.am.TermuxAmSocketServer;
 import com.termux.shared.termux.shell.TermuxShellManager;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
 
+import java.io.File;
+
 public class TermuxApplication extends Application {
 
     private static final String LOG_TAG = "TermuxApplication";
@@ -59,6 +62,9 @@ public class TermuxApplication extends Application {
                 return;
             }
 
+            // Keep a persistent log that survives the app process being killed
+            Logger.setLogFile(LogFile.start(new File(TermuxConstants.TERMUX_APP.LOGS_DIR_PATH), LogFile.DEFAULT_MAX_SIZE));
+
             // Setup termux-am-socket server
             TermuxAmSocketServer.setupTermuxAmSocketServer(context);
         } else {
@@ -9,6 +9,8 @@ import android.os.Environment;
 import android.system.Os;
 import android.view.WindowManager;
 
+import androidx.annotation.Nullable;
+
 import com.termux.R;
 import com.termux.shared.file.FileUtils;
 import com.termux.shared.termux.crash.TermuxCrashUtils;
@@ -24,6 +26,7 @@ import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import static com.termux.shared.termux.TermuxConstants.TERMUX_PREFIX_DIR;
 import static com.termux.shared.termux.TermuxConstants.TERMUX_PREFIX_DIR_PATH;
@@ -40,9 +43,10 @@ import static com.termux.shared.termux.TermuxConstants.TERMUX_STAGING_PREFIX_DIR
  * <p/>
  * (3) A staging directory, $STAGING_PREFIX, is cleared if left over from broken installation below.
  * <p/>
- * (4) The zip file is loaded from a shared library.
+ * (4) The zip file is mapped from a shared library as a direct buffer, without copying it to the Java heap.
  * <p/>
- * (5) The zip is extracted using Rust implementation to $STAGING_PREFIX.
+ * (5) The zip is extracted in parallel using Rust implementation to $STAGING_PREFIX, and the
+ * symlinks in SYMLINKS.txt are created in a final pass.
  */
 final class TermuxInstaller {
 
@@ -136,6 +140,14 @@ final class TermuxInstaller {
             Logger.logInfo(LOG_TAG, "[PROCEED] PREFIX does not exist, file at path: " + fileExistsAtPath + ", will install bootstrap.");
         }
 
+        startBootstrapInstallation(activity, whenDone);
+    }
+
+    /**
+     * Delete $STAGING_PREFIX and $PREFIX, extract the bootstrap to $STAGING_PREFIX and move it to
+     * $PREFIX. Must be called on the main thread while holding the {@link TermuxInstaller} lock.
+     */
+    private static void startBootstrapInstallation(final Activity activity, final Runnable whenDone) {
         // Step 5: Start bootstrap installation
         Logger.logInfo(LOG_TAG, "[Step 5] Starting bootstrap installation...");
         sIsBootstrapInstallationRunning = true;
@@ -188,19 +200,32 @@ final class TermuxInstaller {
                     }
                     Logger.logInfo(LOG_TAG, "[OK] PREFIX directory created at: " + TERMUX_PREFIX_DIR_PATH);
 
-                    // Step 5.6: Load and extract bootstrap zip
-                    Logger.logInfo(LOG_TAG, "[Step 5.6] Loading bootstrap zip bytes...");
-                    final byte[] zipBytes = loadZipBytes();
-                    Logger.logInfo(LOG_TAG, "[OK] Loaded bootstrap zip, size: " + zipBytes.length + " bytes");
+                    // Step 5.6: Map the bootstrap zip embedded in the shared library
+                    Logger.logInfo(LOG_TAG, "[Step 5.6] Loading bootstrap zip buffer...");
+                    long startTime = System.currentTimeMillis();
+                    final ByteBuffer zipBuffer = loadZipBuffer();
+                    if (zipBuffer != null)
+                        Logger.logInfo(LOG_TAG, "[OK] Loaded bootstrap zip, size: " + zipBuffer.capacity() + " bytes, took: " + (System.currentTimeMillis() - startTime) + "ms");
+                    else
+                        Logger.logWarn(LOG_TAG, "[WARN] Direct buffers not supported, falling back to loading bootstrap zip bytes");
 
                     Logger.logInfo(LOG_TAG, "[Step 5.7] Extracting bootstrap using Rust to: " + TERMUX_STAGING_PREFIX_DIR_PATH);
-                    long startTime = System.currentTimeMillis();
-                    
-                    // Use Rust to extract bootstrap
-                    boolean extractSuccess = BootstrapExtractor.extractBootstrap(zipBytes, TERMUX_STAGING_PREFIX_DIR_PATH);
+                    startTime = System.currentTimeMillis();
+
+                    // Use Rust to extract bootstrap directly from the buffer
+                    final long[] timings = new long[BootstrapExtractor.PHASE_COUNT];
+                    boolean extractSuccess;
+                    if (zipBuffer != null)
+                        extractSuccess = BootstrapExtractor.extractBootstrap(zipBuffer, TERMUX_STAGING_PREFIX_DIR_PATH, timings);
+                    else
+                        extractSuccess = BootstrapExtractor.extractBootstrap(loadZipBytes(), TERMUX_STAGING_PREFIX_DIR_PATH);
                     long extractTime = System.currentTimeMillis() - startTime;
-                    Logger.logInfo(LOG_TAG, "[Step 5.7 Complete] Extraction took: " + extractTime + "ms, success: " + extractSuccess);
-                    
+                    Logger.logInfo(LOG_TAG, "[Step 5.7 Complete] Extraction took: " + extractTime + "ms, success: " + extractSuccess +
+                        " (index: " + timings[BootstrapExtractor.PHASE_INDEX] + "ms" +
+                        ", directories: " + timings[BootstrapExtractor.PHASE_DIRECTORIES] + "ms" +
+                        ", files: " + timings[BootstrapExtractor.PHASE_FILES] + "ms" +
+                        ", symlinks: " + timings[BootstrapExtractor.PHASE_SYMLINKS] + "ms)");
+
                     if (!extractSuccess) {
                         Logger.logError(LOG_TAG, "[ERROR] Bootstrap extraction failed");
                         showBootstrapErrorDialog(activity, whenDone, "Bootstrap extraction failed with error");
@@ -276,6 +301,164 @@ final class TermuxInstaller {
         }.start();
     }
 
+    /**
+     * Repair the bootstrap packages in an installed $PREFIX without deleting it. The dpkg database
+     * in $PREFIX decides which bootstrap files may be restored:
+     * - Files whose checksum in `var/lib/dpkg/info/*.md5sums` is still the bootstrap one are
+     *   restored if they are missing or their CRC-32 does not match the bootstrap zip.
+     * - Other files and symlinks of installed bootstrap packages are only restored if missing.
+     * - The dpkg database, conffiles, and upgraded or removed packages are never touched.
+     * The entries to restore are extracted to $STAGING_PREFIX, verified and moved over the
+     * $PREFIX entries.
+     *
+     * A failed repair never deletes $PREFIX by itself. If the repair failed before $PREFIX was
+     * modified, an error dialog is shown. If moving the entries to $PREFIX failed partway, the
+     * user is asked to confirm a full reinstall, which deletes all installed packages. If $PREFIX
+     * does not exist or is empty, this is the same as {@link #setupBootstrapIfNeeded(Activity, Runnable)}.
+     */
+    static synchronized void repairBootstrap(final Activity activity, final Runnable whenDone) {
+        Logger.logInfo(LOG_TAG, "========== [Bootstrap Repair Start] ==========");
+
+        if (sIsBootstrapInstallationRunning) {
+            Logger.logWarn(LOG_TAG, "[SKIP] Bootstrap installation is already running, skipping.");
+            return;
+        }
+
+        if (!FileUtils.directoryFileExists(TERMUX_PREFIX_DIR_PATH, true) || TermuxFileUtils.isTermuxPrefixDirectoryEmpty()) {
+            Logger.logInfo(LOG_TAG, "[Repair] PREFIX does not exist or is empty, installing bootstrap instead.");
+            setupBootstrapIfNeeded(activity, whenDone);
+            return;
+        }
+
+        sIsBootstrapInstallationRunning = true;
+        final ProgressDialog progress = ProgressDialog.show(activity, null, activity.getString(R.string.bootstrap_repair_body), true, false);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Logger.logInfo(LOG_TAG, "[Repair 1] Deleting staging directory: " + TERMUX_STAGING_PREFIX_DIR_PATH);
+                    Error error = FileUtils.deleteFile("termux prefix staging directory", TERMUX_STAGING_PREFIX_DIR_PATH, true);
+                    if (error != null) {
+                        Logger.logError(LOG_TAG, "[ERROR] Failed to delete staging directory: " + error.getMessage());
+                        showBootstrapRepairErrorDialog(activity, Error.getErrorMarkdownString(error), false, whenDone);
+                        return;
+                    }
+
+                    Logger.logInfo(LOG_TAG, "[Repair 2] Loading bootstrap zip buffer...");
+                    ByteBuffer zipBuffer = loadZipBuffer();
+                    if (zipBuffer == null) {
+                        // Copy the zip to a direct buffer, since the native repair only reads direct buffers
+                        Logger.logWarn(LOG_TAG, "[WARN] Direct buffers not supported, copying bootstrap zip bytes");
+                        byte[] zipBytes = loadZipBytes();
+                        zipBuffer = ByteBuffer.allocateDirect(zipBytes.length);
+                        zipBuffer.put(zipBytes);
+                        zipBuffer.flip();
+                    }
+
+                    Logger.logInfo(LOG_TAG, "[Repair 3] Restoring missing and corrupt bootstrap files in: " + TERMUX_PREFIX_DIR_PATH);
+                    long startTime = System.currentTimeMillis();
+                    final long[] timings = new long[BootstrapExtractor.REPAIR_PHASE_COUNT];
+                    long result = BootstrapExtractor.repairFromBuffer(zipBuffer, TERMUX_PREFIX_DIR_PATH, TERMUX_STAGING_PREFIX_DIR_PATH, timings);
+                    Logger.logInfo(LOG_TAG, "[Repair 3 Complete] Repair took: " + (System.currentTimeMillis() - startTime) + "ms, result: " + result +
+                        " (index: " + timings[BootstrapExtractor.REPAIR_PHASE_INDEX] + "ms" +
+                        ", compare: " + timings[BootstrapExtractor.REPAIR_PHASE_COMPARE] + "ms" +
+                        ", stage: " + timings[BootstrapExtractor.REPAIR_PHASE_STAGE] + "ms" +
+                        ", swap: " + timings[BootstrapExtractor.REPAIR_PHASE_SWAP] + "ms)");
+
+                    FileUtils.deleteFile("termux prefix staging directory", TERMUX_STAGING_PREFIX_DIR_PATH, true);
+
+                    if (result < 0) {
+                        // Only a failed swap may have left $PREFIX partially repaired
+                        boolean prefixModified = result == BootstrapExtractor.REPAIR_ERROR_SWAP;
+                        Logger.logError(LOG_TAG, "[ERROR] Bootstrap repair failed with error code " + result +
+                            (prefixModified ? ", PREFIX may be partially repaired" : ", PREFIX was not modified"));
+                        showBootstrapRepairErrorDialog(activity, "Bootstrap repair failed with error code " + result, prefixModified, whenDone);
+                        return;
+                    }
+                    Logger.logInfo(LOG_TAG, "[OK] Restored " + result + " bootstrap files and symlinks");
+
+                    TermuxShellEnvironment.writeEnvironmentToFile(activity);
+
+                    synchronized (TermuxInstaller.class) {
+                        sIsBootstrapInstallationRunning = false;
+                    }
+                    Logger.logInfo(LOG_TAG, "========== [Bootstrap Repair Complete] ==========");
+                    activity.runOnUiThread(whenDone);
+
+                } catch (final Exception e) {
+                    Logger.logError(LOG_TAG, "[EXCEPTION] Bootstrap repair failed: " + e.getMessage());
+                    showBootstrapRepairErrorDialog(activity, Logger.getStackTracesMarkdownString(null, Logger.getStackTracesStringArray(e)), false, whenDone);
+
+                } finally {
+                    activity.runOnUiThread(() -> {
+                        try {
+                            progress.dismiss();
+                        } catch (RuntimeException e) {
+                            Logger.logWarn(LOG_TAG, "[Cleanup] Failed to dismiss progress: " + e.getMessage());
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Show the error dialog for a failed {@link #repairBootstrap(Activity, Runnable)}. Unlike
+     * {@link #showBootstrapErrorDialog(Activity, Runnable, String)}, $PREFIX is never deleted
+     * without the user confirming it, and a full reinstall is only offered if $PREFIX may have
+     * been partially modified.
+     */
+    private static void showBootstrapRepairErrorDialog(Activity activity, String message, boolean prefixModified, Runnable whenDone) {
+        synchronized (TermuxInstaller.class) {
+            sIsBootstrapInstallationRunning = false;
+        }
+        Logger.logErrorExtended(LOG_TAG, "Bootstrap Repair Error:\n" + message);
+
+        sendBootstrapCrashReportNotification(activity, message);
+
+        activity.runOnUiThread(() -> {
+            try {
+                AlertDialog.Builder builder = new AlertDialog.Builder(activity).setTitle(R.string.bootstrap_repair_error_title);
+                if (prefixModified) {
+                    builder.setMessage(R.string.bootstrap_repair_error_partial_body)
+                        .setNegativeButton(android.R.string.cancel, (dialog, which) -> dialog.dismiss())
+                        .setPositiveButton(R.string.bootstrap_repair_error_reinstall, (dialog, which) -> {
+                            dialog.dismiss();
+                            showConfirmBootstrapReinstallDialog(activity, whenDone);
+                        });
+                } else {
+                    builder.setMessage(R.string.bootstrap_repair_error_body)
+                        .setPositiveButton(android.R.string.ok, (dialog, which) -> dialog.dismiss());
+                }
+                builder.show();
+            } catch (WindowManager.BadTokenException e1) {
+                // Activity already dismissed - ignore.
+            }
+        });
+    }
+
+    /** Ask the user to confirm deleting $PREFIX and reinstalling the bootstrap after a failed repair. */
+    private static void showConfirmBootstrapReinstallDialog(Activity activity, Runnable whenDone) {
+        try {
+            new AlertDialog.Builder(activity).setIcon(android.R.drawable.ic_dialog_alert)
+                .setMessage(R.string.title_confirm_reinstall_bootstrap)
+                .setNegativeButton(android.R.string.no, (dialog, which) -> dialog.dismiss())
+                .setPositiveButton(android.R.string.yes, (dialog, which) -> {
+                    dialog.dismiss();
+                    synchronized (TermuxInstaller.class) {
+                        if (sIsBootstrapInstallationRunning) {
+                            Logger.logWarn(LOG_TAG, "[SKIP] Bootstrap installation is already running, skipping reinstall.");
+                            return;
+                        }
+                        sIsBootstrapInstallationRunning = true;
+                        startBootstrapInstallation(activity, whenDone);
+                    }
+                }).show();
+        } catch (WindowManager.BadTokenException e1) {
+            // Activity already dismissed - ignore.
+        }
+    }
+
     public static void showBootstrapErrorDialog(Activity activity, Runnable whenDone, String message) {
         synchronized (TermuxInstaller.class) {
             sIsBootstrapInstallationRunning = false;
@@ -434,6 +617,22 @@ final class TermuxInstaller {
         return getZip();
     }
 
+    /**
+     * Get a direct {@link ByteBuffer} for the zip embedded in the shared library. Unlike
+     * {@link #loadZipBytes()}, the zip is not copied to the Java heap and only the pages read
+     * during extraction are loaded in memory.
+     *
+     * @return Returns the buffer, or {@code null} if the JVM does not support direct buffer access from JNI.
+     */
+    @Nullable
+    public static ByteBuffer loadZipBuffer() {
+        // Only load the shared library when necessary to save memory usage.
+        System.loadLibrary("termux-bootstrap");
+        return getZipBuffer();
+    }
+
     public static native byte[] getZip();
 
+    public static native ByteBuffer getZipBuffer();
+
 }
@@ -27,8 +27,11 @@ import com.termux.shared.termux.plugins.TermuxPluginUtils;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.net.uri.UriUtils;
 import com.termux.shared.errors.Errno;
+import com.termux.shared.shell.ShellRegistry;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.command.runner.app.AppShell;
+import com.termux.shared.shell.command.runner.app.AppShellScheduler;
+import com.termux.shared.shell.command.runner.app.WarmShellPool;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
 import com.termux.shared.termux.shell.TermuxShellUtils;
@@ -43,15 +46,28 @@ import com.termux.shared.logger.Logger;
 import com.termux.shared.notification.NotificationUtils;
 import com.termux.shared.android.PermissionUtils;
 import com.termux.shared.data.DataUtils;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.ExecutionCommand.Runner;
 import com.termux.shared.shell.command.ExecutionCommand.ShellCreateMode;
+import com.termux.shared.shell.command.result.OutputCapture;
+import com.termux.shared.shell.command.result.ResultData;
+import com.termux.terminal.SnapshotHeader;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A service holding a list of {@link TermuxSession} in {@link TermuxShellManager#mTermuxSessions} and background {@link AppShell}
@@ -106,6 +122,30 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
+    /** The interval at which terminal session snapshots are checkpointed. */
+    private static final long TERMINAL_SNAPSHOT_CHECKPOINT_INTERVAL_MS = 15_000;
+
+    /** The file extension of terminal session snapshot files. */
+    private static final String TERMINAL_SNAPSHOT_FILE_EXTENSION = ".snap";
+
+    /** The terminal size used for sessions started before they are shown in the terminal view. */
+    private static final int DETACHED_SESSION_COLUMNS = 80;
+    private static final int DETACHED_SESSION_ROWS = 24;
+
+    /** The file extension of the spilled raw output files of headless sessions. */
+    private static final String HEADLESS_SESSION_OUTPUT_FILE_EXTENSION = ".out";
+
+    /** Single background thread that writes terminal session snapshots and deletes stale files off the main thread. */
+    private final ExecutorService mSnapshotExecutor = Executors.newSingleThreadExecutor();
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkpointTermuxSessions();
+            mHandler.postDelayed(this, TERMINAL_SNAPSHOT_CHECKPOINT_INTERVAL_MS);
+        }
+    };
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -120,7 +160,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         runStartForeground();
 
+        mShellManager.mTermuxSessions.addListener(mTermuxSessionsListener);
+        mShellManager.mTermuxTasks.addListener(mTermuxTasksListener);
+
         SystemEventReceiver.registerPackageUpdateEvents(this);
+
+        deleteStaleAppShellOutputSpillFiles();
+
+        mHandler.postDelayed(mCheckpointRunnable, TERMINAL_SNAPSHOT_CHECKPOINT_INTERVAL_MS);
     }
 
     @Override
@@ -137,6 +184,38 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             case TRIM_MEMORY_COMPLETE: levelName = "COMPLETE (High Risk of Killing)"; break;
         }
         Logger.logWarn(LOG_TAG, "[STAGE:MEMORY_TRIM] Level: " + levelName + ". Phantom process killer may be active soon.");
+
+        // The process may be killed soon, so persist the latest terminal state first
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            checkpointTermuxSessions();
+
+        if (level >= TRIM_MEMORY_RUNNING_LOW)
+            hibernateDetachedTermuxSessions();
+    }
+
+    /**
+     * Hibernate all {@link TermuxSession} whose {@link TerminalSession} is not currently attached
+     * to the terminal view. Hibernated sessions keep their process and parser running, but their
+     * scrollback is compressed and render caches are freed. They are thawed automatically when
+     * attached to the terminal view again.
+     */
+    private void hibernateDetachedTermuxSessions() {
+        List<TermuxSession> termuxSessions = mShellManager.mTermuxSessions.getShells();
+
+        int hibernatedCount = 0;
+        long compressedBytes = 0;
+        for (TermuxSession termuxSession : termuxSessions) {
+            TerminalSession terminalSession = termuxSession.getTerminalSession();
+            if (terminalSession == null || terminalSession.isHibernated()) continue;
+            long bytes = terminalSession.hibernate();
+            if (bytes >= 0) {
+                hibernatedCount++;
+                compressedBytes += bytes;
+            }
+        }
+
+        Logger.logInfo(LOG_TAG, "Hibernated " + hibernatedCount + " of " + termuxSessions.size() +
+            " sessions, compressed scrollback size: " + compressedBytes + " bytes");
     }
 
     @SuppressLint("Wakelock")
@@ -192,6 +271,13 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         if (!mWantsToStop)
             killAllTermuxExecutionCommands();
 
+        mShellManager.mTermuxSessions.removeListener(mTermuxSessionsListener);
+        mShellManager.mTermuxTasks.removeListener(mTermuxTasksListener);
+
+        mHandler.removeCallbacks(mCheckpointRunnable);
+        mSnapshotExecutor.shutdown();
+        WarmShellPool.getInstance().shutdown();
+
         TermuxShellManager.onAppExit(this);
 
         SystemEventReceiver.unregisterPackageUpdateEvents(this);
@@ -280,24 +366,14 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      * stuck if termux app process gets killed, so for this case reasonable timeout values should
      * be used, like in Tasker for the Termux:Tasker actions.
      *
-     * We make copies of each list since items are removed inside the loop.
+     * We iterate the immutable snapshots of each registry since items are removed inside the loop.
      */
     private void killAllTermuxExecutionCommands() {
         boolean processResult;
 
-        List<TermuxSession> termuxSessions;
-        List<AppShell> termuxTasks;
-        List<ExecutionCommand> pendingPluginExecutionCommands;
-
-        synchronized (mShellManager.mTermuxSessions) {
-            termuxSessions = new ArrayList<>(mShellManager.mTermuxSessions);
-        }
-        synchronized (mShellManager.mTermuxTasks) {
-            termuxTasks = new ArrayList<>(mShellManager.mTermuxTasks);
-        }
-        synchronized (mShellManager.mPendingPluginExecutionCommands) {
-            pendingPluginExecutionCommands = new ArrayList<>(mShellManager.mPendingPluginExecutionCommands);
-        }
+        List<TermuxSession> termuxSessions = mShellManager.mTermuxSessions.getShells();
+        List<AppShell> termuxTasks = mShellManager.mTermuxTasks.getShells();
+        List<ExecutionCommand> pendingPluginExecutionCommands = new ArrayList<>(mShellManager.mPendingPluginExecutionCommands);
 
         Logger.logDebug(LOG_TAG, "Killing TermuxSessions=" + termuxSessions.size() +
             ", TermuxTasks=" + termuxTasks.size() +
@@ -307,22 +383,20 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             ExecutionCommand executionCommand = termuxSessions.get(i).getExecutionCommand();
             processResult = mWantsToStop || executionCommand.isPluginExecutionCommandWithPendingResult();
             termuxSessions.get(i).killIfExecuting(this, processResult);
-            if (!processResult) {
-                synchronized (mShellManager.mTermuxSessions) {
-                    mShellManager.mTermuxSessions.remove(termuxSessions.get(i));
-                }
-            }
+            if (!processResult)
+                mShellManager.mTermuxSessions.remove(termuxSessions.get(i));
         }
 
 
         for (int i = 0; i < termuxTasks.size(); i++) {
             ExecutionCommand executionCommand = termuxTasks.get(i).getExecutionCommand();
-            if (executionCommand.isPluginExecutionCommandWithPendingResult())
+            if (executionCommand.isPluginExecutionCommandWithPendingResult()) {
+                // The spilled output is deleted by onAppShellExited() once the result has been sent
                 termuxTasks.get(i).killIfExecuting(this, true);
-            else {
-                synchronized (mShellManager.mTermuxTasks) {
-                    mShellManager.mTermuxTasks.remove(termuxTasks.get(i));
-                }
+            } else {
+                mShellManager.mTermuxTasks.remove(termuxTasks.get(i));
+                // No result will be sent for the task, so its spilled output is no longer needed
+                executionCommand.resultData.deleteOutputCaptures();
             }
         }
 
@@ -338,6 +412,43 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
 
 
+    /**
+     * Delete the {@link AppShell} output spill files in {@link AppShell#OUTPUT_SPILL_DIRECTORY_NAME}
+     * that are not owned by a running {@link AppShell} command, like the ones left behind when the
+     * app process was killed before the results of its commands were processed. Files modified after
+     * the sweep started are kept since they may belong to commands started meanwhile.
+     */
+    private void deleteStaleAppShellOutputSpillFiles() {
+        long sweepStartTime = System.currentTimeMillis();
+        Set<File> liveSpillFiles = new HashSet<>();
+        for (AppShell termuxTask : mShellManager.mTermuxTasks.getShells()) {
+            ResultData resultData = termuxTask.getExecutionCommand().resultData;
+            for (OutputCapture outputCapture : new OutputCapture[]{resultData.stdoutCapture, resultData.stderrCapture}) {
+                File spillFile = outputCapture != null ? outputCapture.getSpillFile() : null;
+                if (spillFile != null) liveSpillFiles.add(spillFile.getAbsoluteFile());
+            }
+        }
+
+        File spillDirectory = new File(getCacheDir(), AppShell.OUTPUT_SPILL_DIRECTORY_NAME);
+        mSnapshotExecutor.execute(() -> {
+            File[] spillFiles = spillDirectory.listFiles();
+            if (spillFiles == null) return;
+
+            int deletedCount = 0;
+            for (File spillFile : spillFiles) {
+                if (liveSpillFiles.contains(spillFile.getAbsoluteFile()) || spillFile.lastModified() >= sweepStartTime)
+                    continue;
+                if (spillFile.delete())
+                    deletedCount++;
+                else
+                    Logger.logError(LOG_TAG, "Failed to delete stale AppShell output spill file \"" + spillFile + "\"");
+            }
+
+            if (deletedCount > 0)
+                Logger.logInfo(LOG_TAG, "Deleted " + deletedCount + " stale AppShell output spill files");
+        });
+    }
+
     /** Process action to acquire Power and Wi-Fi WakeLocks. */
     @SuppressLint({"WakelockTimeout", "BatteryLife"})
     private void actionAcquireWakeLock() {
@@ -443,19 +554,22 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             executionCommand.resultConfig.resultFileOutputFormat = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILE_OUTPUT_FORMAT, null);
             executionCommand.resultConfig.resultFileErrorFormat = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILE_ERROR_FORMAT, null);
             executionCommand.resultConfig.resultFilesSuffix = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILES_SUFFIX, null);
+            executionCommand.resultConfig.resultStreaming = intent.getBooleanExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAMING, false);
+            // The result directory must be resolved before the command starts to stream to it
+            if (executionCommand.resultConfig.resultStreaming && !executionCommand.resultConfig.resultSingleFile)
+                TermuxPluginUtils.setPluginResultDirectoryVariables(executionCommand);
         }
 
         if (executionCommand.shellCreateMode == null)
             executionCommand.shellCreateMode = ShellCreateMode.ALWAYS.getMode();
 
         // Add the execution command to pending plugin execution commands list
-        synchronized (mShellManager.mPendingPluginExecutionCommands) {
-            mShellManager.mPendingPluginExecutionCommands.add(executionCommand);
-        }
+        mShellManager.mPendingPluginExecutionCommands.add(executionCommand);
 
         if (Runner.APP_SHELL.equalsRunner(executionCommand.runner))
             executeTermuxTaskCommand(executionCommand);
-        else if (Runner.TERMINAL_SESSION.equalsRunner(executionCommand.runner))
+        else if (Runner.TERMINAL_SESSION.equalsRunner(executionCommand.runner) ||
+            Runner.HEADLESS_SESSION.equalsRunner(executionCommand.runner))
             executeTermuxSessionCommand(executionCommand);
         else {
             String errmsg = getString(R.string.error_termux_service_unsupported_execution_command_runner, executionCommand.runner);
@@ -472,7 +586,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     private void executeTermuxTaskCommand(ExecutionCommand executionCommand) {
         if (executionCommand == null) return;
 
-        Logger.logDebug(LOG_TAG, "Executing background \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask command");
+        Logger.logDebug(LOG_TAG, () -> "Executing background \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask command");
 
         // Transform executable path to shell/session name, e.g. "/bin/do-something.sh" => "do-something.sh".
         if (executionCommand.shellName == null && executionCommand.executable != null)
@@ -505,7 +619,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     public AppShell createTermuxTask(ExecutionCommand executionCommand) {
         if (executionCommand == null) return null;
 
-        Logger.logDebug(LOG_TAG, "Creating \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask");
+        Logger.logDebug(LOG_TAG, () -> "Creating \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask");
 
         if (!Runner.APP_SHELL.equalsRunner(executionCommand.runner)) {
             Logger.logDebug(LOG_TAG, "Ignoring wrong runner \"" + executionCommand.runner + "\" command passed to createTermuxTask()");
@@ -517,6 +631,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
             Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
 
+        // Tasks beyond the limit wait in the scheduler queue until a running task exits
+        AppShellScheduler.getInstance().setMaxConcurrency(mProperties.getBackgroundTasksMaxConcurrency());
+        // Plugin commands run in pre-started shells if enabled
+        WarmShellPool.getInstance().configure(TermuxConstants.TERMUX_BIN_PREFIX_DIR_PATH + "/sh",
+            mProperties.getWarmShellPoolSize(), WarmShellPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+
         AppShell newTermuxTask = AppShell.execute(this, executionCommand, this,
             new TermuxShellEnvironment(), null,false);
         if (newTermuxTask == null) {
@@ -531,19 +651,13 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return null;
         }
 
-        synchronized (mShellManager.mTermuxTasks) {
-            mShellManager.mTermuxTasks.add(newTermuxTask);
-        }
+        // The notification is updated by mTermuxTasksListener
+        mShellManager.mTermuxTasks.add(newTermuxTask);
 
         // Remove the execution command from the pending plugin execution commands list since it has
         // now been processed
-        if (executionCommand.isPluginExecutionCommand) {
-            synchronized (mShellManager.mPendingPluginExecutionCommands) {
-                mShellManager.mPendingPluginExecutionCommands.remove(executionCommand);
-            }
-        }
-
-        updateNotification();
+        if (executionCommand.isPluginExecutionCommand)
+            mShellManager.mPendingPluginExecutionCommands.remove(executionCommand);
 
         return newTermuxTask;
     }
@@ -555,21 +669,32 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             if (termuxTask != null) {
                 ExecutionCommand executionCommand = termuxTask.getExecutionCommand();
 
-                Logger.logVerbose(LOG_TAG, "The onTermuxTaskExited() callback called for \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask command");
+                Logger.logVerbose(LOG_TAG, () -> "The onTermuxTaskExited() callback called for \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxTask command");
 
+                if (termuxTask.getProcess() == null && executionCommand.isStateFailed() && executionCommand.resultData.exitCode == null) {
+                    // The queued task failed to start, an exit code is only set if it was killed while queued
+                    Logger.logError(LOG_TAG, "Failed to execute queued TermuxTask command for:\n" + executionCommand.getCommandIdAndLabelLogString());
+                    if (executionCommand.isPluginExecutionCommand)
+                        TermuxPluginUtils.processPluginExecutionCommandError(this, LOG_TAG, executionCommand, false);
+                }
                 // If the execution command was started for a plugin, then process the results
-                if (executionCommand != null && executionCommand.isPluginExecutionCommand)
+                else if (executionCommand.isPluginExecutionCommand)
                     TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
-                synchronized (mShellManager.mTermuxTasks) {
-                    mShellManager.mTermuxTasks.remove(termuxTask);
-                }
-            }
+                // The result has been sent, so the spilled output is no longer needed
+                executionCommand.resultData.deleteOutputCaptures();
 
-            updateNotification();
+                mShellManager.mTermuxTasks.remove(termuxTask);
+            }
         });
     }
 
+    /** Callback received when a queued TermuxTask process starts and its pid is known. */
+    @Override
+    public void onAppShellStarted(final AppShell termuxTask) {
+        mShellManager.mTermuxTasks.reindex(termuxTask);
+    }
+
 
 
 
@@ -578,7 +703,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     private void executeTermuxSessionCommand(ExecutionCommand executionCommand) {
         if (executionCommand == null) return;
 
-        Logger.logDebug(LOG_TAG, "Executing foreground \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession command");
+        Logger.logDebug(LOG_TAG, () -> "Executing foreground \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession command");
 
         // Transform executable path to shell/session name, e.g. "/bin/do-something.sh" => "do-something.sh".
         if (executionCommand.shellName == null && executionCommand.executable != null)
@@ -599,6 +724,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             newTermuxSession = createTermuxSession(executionCommand);
         if (newTermuxSession == null) return;
 
+        // Headless sessions run in the background until the user opens them from the sessions list
+        if (newTermuxSession.getTerminalSession().isHeadless()) return;
+
         handleSessionAction(DataUtils.getIntFromString(executionCommand.sessionAction,
             TERMUX_SERVICE.VALUE_EXTRA_SESSION_ACTION_SWITCH_TO_NEW_SESSION_AND_OPEN_ACTIVITY),
             newTermuxSession.getTerminalSession());
@@ -622,9 +750,10 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     public TermuxSession createTermuxSession(ExecutionCommand executionCommand) {
         if (executionCommand == null) return null;
 
-        Logger.logDebug(LOG_TAG, "Creating \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
+        Logger.logDebug(LOG_TAG, () -> "Creating \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
 
-        if (!Runner.TERMINAL_SESSION.equalsRunner(executionCommand.runner)) {
+        boolean isHeadless = Runner.HEADLESS_SESSION.equalsRunner(executionCommand.runner);
+        if (!Runner.TERMINAL_SESSION.equalsRunner(executionCommand.runner) && !isHeadless) {
             Logger.logDebug(LOG_TAG, "Ignoring wrong runner \"" + executionCommand.runner + "\" command passed to createTermuxSession()");
             return null;
         }
@@ -652,26 +781,26 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return null;
         }
 
-        synchronized (mShellManager.mTermuxSessions) {
-            mShellManager.mTermuxSessions.add(newTermuxSession);
-        }
+        // Only sessions started by the user are restored after process death, plugin sessions
+        // report their result to the caller and must not be silently recreated
+        if (!executionCommand.isPluginExecutionCommand)
+            newTermuxSession.getTerminalSession().setSnapshotFile(getTerminalSessionSnapshotFile(newTermuxSession.getTerminalSession()));
+
+        // The sessions list and notification are updated by mTermuxSessionsListener
+        mShellManager.mTermuxSessions.add(newTermuxSession);
 
         // Remove the execution command from the pending plugin execution commands list since it has
         // now been processed
-        if (executionCommand.isPluginExecutionCommand) {
-            synchronized (mShellManager.mPendingPluginExecutionCommands) {
-                mShellManager.mPendingPluginExecutionCommands.remove(executionCommand);
-            }
-        }
-
-        // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
-        // activity in is foreground
-        if (mTermuxTerminalSessionActivityClient != null) {
-            mHandler.post(() -> mTermuxTerminalSessionActivityClient.termuxSessionListNotifyUpdated());
+        if (executionCommand.isPluginExecutionCommand)
+            mShellManager.mPendingPluginExecutionCommands.remove(executionCommand);
+
+        // Headless sessions start right away without an emulator instead of waiting for the terminal view
+        if (isHeadless) {
+            TerminalSession terminalSession = newTermuxSession.getTerminalSession();
+            terminalSession.startHeadless(DETACHED_SESSION_COLUMNS, DETACHED_SESSION_ROWS,
+                new File(TermuxConstants.TERMUX_APP.HEADLESS_SESSIONS_OUTPUT_DIR_PATH, terminalSession.mHandle + HEADLESS_SESSION_OUTPUT_FILE_EXTENSION));
         }
 
-        mHandler.post(() -> updateNotification());
-
         // No need to recreate the activity since it likely just started and theme should already have applied
         mHandler.post(() -> TermuxActivity.updateTermuxActivityStyling(this, false));
 
@@ -680,13 +809,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
     /** Remove a TermuxSession. */
     public int removeTermuxSession(TerminalSession sessionToRemove) {
-        TermuxSession termuxSession = null;
-        int index;
-        synchronized (mShellManager.mTermuxSessions) {
-            index = getIndexOfSession(sessionToRemove);
-            if (index >= 0)
-                termuxSession = mShellManager.mTermuxSessions.get(index);
-        }
+        TermuxSession termuxSession = getTermuxSessionForTerminalSession(sessionToRemove);
+        int index = mShellManager.mTermuxSessions.indexOf(termuxSession);
 
         if (termuxSession != null)
             termuxSession.finish();
@@ -700,28 +824,181 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         if (termuxSession != null) {
             ExecutionCommand executionCommand = termuxSession.getExecutionCommand();
 
-            Logger.logVerbose(LOG_TAG, "The onTermuxSessionExited() callback called for \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession command");
+            Logger.logVerbose(LOG_TAG, () -> "The onTermuxSessionExited() callback called for \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession command");
 
             // If the execution command was started for a plugin, then process the results
             if (executionCommand != null && executionCommand.isPluginExecutionCommand)
                 TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
-            synchronized (mShellManager.mTermuxSessions) {
-                mShellManager.mTermuxSessions.remove(termuxSession);
-            }
+            // The sessions list and notification are updated by mTermuxSessionsListener
+            mShellManager.mTermuxSessions.remove(termuxSession);
 
-            // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
-            // activity in is foreground
-            if (mTermuxTerminalSessionActivityClient != null)
-                mTermuxTerminalSessionActivityClient.termuxSessionListNotifyUpdated();
+            deleteTerminalSessionSnapshot(termuxSession.getTerminalSession());
+            deleteHeadlessSessionOutput(termuxSession.getTerminalSession());
         }
+    }
+
+    /**
+     * Update the shell name and pid lookups of a {@link TermuxSession} after they have changed,
+     * like when the shell pid becomes known or the session is renamed.
+     */
+    public void reindexTermuxSession(@Nullable TermuxSession termuxSession) {
+        mShellManager.mTermuxSessions.reindex(termuxSession);
+    }
+
+    /**
+     * Listener for changes in {@link TermuxShellManager#mTermuxSessions}, which may be called from
+     * any thread, so updates to the sessions list and notification are posted to the main thread.
+     */
+    private final ShellRegistry.Listener<TermuxSession> mTermuxSessionsListener = termuxSessions -> mHandler.post(() -> {
+        // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
+        // activity in is foreground
+        if (mTermuxTerminalSessionActivityClient != null)
+            mTermuxTerminalSessionActivityClient.termuxSessionListNotifyUpdated();
 
         updateNotification();
+    });
+
+    /** Listener for changes in {@link TermuxShellManager#mTermuxTasks} to update the notification on the main thread. */
+    private final ShellRegistry.Listener<AppShell> mTermuxTasksListener = termuxTasks -> mHandler.post(this::updateNotification);
+
+
+
+
+
+    /** Get the snapshot file used to persist the state of a {@link TerminalSession}. */
+    @NonNull
+    private static File getTerminalSessionSnapshotFile(@NonNull TerminalSession terminalSession) {
+        return new File(TermuxConstants.TERMUX_APP.TERMINAL_SNAPSHOTS_DIR_PATH, terminalSession.mHandle + TERMINAL_SNAPSHOT_FILE_EXTENSION);
     }
 
+    private void deleteTerminalSessionSnapshot(@Nullable TerminalSession terminalSession) {
+        if (terminalSession == null) return;
+        File snapshotFile = terminalSession.getSnapshotFile();
+        if (snapshotFile == null) return;
+        terminalSession.setSnapshotFile(null);
+        mSnapshotExecutor.execute(() -> {
+            Error error = FileUtils.deleteRegularFile("terminal session snapshot", snapshotFile.getAbsolutePath(), true);
+            if (error != null)
+                Logger.logErrorExtended(LOG_TAG, error.toString());
+        });
+    }
 
+    private void deleteHeadlessSessionOutput(@Nullable TerminalSession terminalSession) {
+        if (terminalSession == null) return;
+        File outputFile = terminalSession.getHeadlessOutputFile();
+        if (outputFile == null) return;
+        Runnable deleteRunnable = () -> {
+            Error error = FileUtils.deleteRegularFile("headless session output", outputFile.getAbsolutePath(), true);
+            if (error != null)
+                Logger.logErrorExtended(LOG_TAG, error.toString());
+        };
+        try {
+            mSnapshotExecutor.execute(deleteRunnable);
+        } catch (RejectedExecutionException e) {
+            // Executor has been shutdown in onDestroy(), the output may contain secrets so delete it anyway
+            deleteRunnable.run();
+        }
+    }
+
+    /**
+     * Write a checkpoint of all {@link TermuxSession} that have a snapshot file on the snapshot
+     * executor. Checkpoints are incremental, so only rows scrolled into the transcript since the
+     * previous checkpoint are written.
+     */
+    private void checkpointTermuxSessions() {
+        List<TerminalSession> terminalSessions = new ArrayList<>();
+        for (TermuxSession termuxSession : mShellManager.mTermuxSessions.getShells()) {
+            TerminalSession terminalSession = termuxSession.getTerminalSession();
+            if (terminalSession != null && terminalSession.getSnapshotFile() != null)
+                terminalSessions.add(terminalSession);
+        }
+        if (terminalSessions.isEmpty()) return;
+
+        try {
+            mSnapshotExecutor.execute(() -> {
+                Error error = FileUtils.createDirectoryFile("terminal snapshots directory", TermuxConstants.TERMUX_APP.TERMINAL_SNAPSHOTS_DIR_PATH);
+                if (error != null) {
+                    Logger.logErrorExtended(LOG_TAG, error.toString());
+                    return;
+                }
+
+                long bytes = 0;
+                for (TerminalSession terminalSession : terminalSessions) {
+                    long written = terminalSession.checkpoint();
+                    if (written > 0) bytes += written;
+                }
+                Logger.logVerbose(LOG_TAG, "Checkpointed " + terminalSessions.size() + " terminal sessions, wrote " + bytes + " bytes");
+            });
+        } catch (RejectedExecutionException e) {
+            // Executor has been shutdown in onDestroy()
+        }
+    }
+
+    /**
+     * Recreate the {@link TermuxSession} whose state was persisted before the app process was
+     * killed. Each restored session runs a new login shell in the working directory and with the
+     * name of the original session, and its screen and transcript are preloaded from the snapshot
+     * before the shell output is attached. The shells are started
+     * right away as lightweight sessions, and the full engine is only materialized when a session
+     * is shown.
+     *
+     * Currently called by {@link TermuxActivity} when the service has no sessions.
+     *
+     * @return Returns the number of sessions restored.
+     */
+    public int restoreTermuxSessionsFromSnapshots() {
+        File[] snapshotFiles = new File(TermuxConstants.TERMUX_APP.TERMINAL_SNAPSHOTS_DIR_PATH)
+            .listFiles((dir, name) -> name.endsWith(TERMINAL_SNAPSHOT_FILE_EXTENSION));
+        if (snapshotFiles == null || snapshotFiles.length == 0) return 0;
+
+        // Restore in the order the sessions were originally created, which is stored in the
+        // snapshot header along with the session name and working directory
+        Map<File, SnapshotHeader> snapshotHeaders = new HashMap<>();
+        List<File> validSnapshotFiles = new ArrayList<>();
+        for (File snapshotFile : snapshotFiles) {
+            SnapshotHeader header = SnapshotHeader.read(snapshotFile);
+            if (header == null) {
+                Logger.logError(LOG_TAG, "Deleting invalid terminal session snapshot \"" + snapshotFile + "\"");
+                if (!snapshotFile.delete())
+                    Logger.logError(LOG_TAG, "Failed to delete terminal session snapshot \"" + snapshotFile + "\"");
+                continue;
+            }
+            snapshotHeaders.put(snapshotFile, header);
+            validSnapshotFiles.add(snapshotFile);
+        }
+        validSnapshotFiles.sort((a, b) -> Long.compare(snapshotHeaders.get(a).order, snapshotHeaders.get(b).order));
+
+        int restored = 0;
+        for (File snapshotFile : validSnapshotFiles) {
+            SnapshotHeader header = snapshotHeaders.get(snapshotFile);
+            String workingDirectory = header.cwd != null && new File(header.cwd).isDirectory() ?
+                header.cwd : mProperties.getDefaultWorkingDirectory();
+            TermuxSession termuxSession = createTermuxSession(null, null, null, workingDirectory, false, header.sessionName);
+            if (termuxSession == null) break;
+
+            TerminalSession terminalSession = termuxSession.getTerminalSession();
+            terminalSession.setSnapshotOrder(header.order);
+
+            // The emulator is initialized lazily once the terminal view has a size, so renaming
+            // the old snapshot to the new session handle before that makes it get restored
+            File newSnapshotFile = getTerminalSessionSnapshotFile(terminalSession);
+            if (snapshotFile.renameTo(newSnapshotFile)) {
+                restored++;
+            } else {
+                // The old snapshot must not be restored again next time, since this session
+                // replaces it and would otherwise be duplicated
+                Logger.logError(LOG_TAG, "Failed to move terminal session snapshot \"" + snapshotFile + "\" to \"" + newSnapshotFile + "\"");
+                if (!snapshotFile.delete())
+                    Logger.logError(LOG_TAG, "Failed to delete terminal session snapshot \"" + snapshotFile + "\"");
+            }
 
+            terminalSession.startDetached(DETACHED_SESSION_COLUMNS, DETACHED_SESSION_ROWS);
+        }
 
+        Logger.logInfo(LOG_TAG, "Restored " + restored + " terminal sessions from snapshots");
+        return restored;
+    }
 
     private ShellCreateMode processShellCreateMode(@NonNull ExecutionCommand executionCommand) {
         if (ShellCreateMode.ALWAYS.equalsMode(executionCommand.shellCreateMode))
@@ -825,10 +1102,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             mTermuxTerminalSessionActivityClient = termuxTerminalSessionActivityClient;
         }
 
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0; i < mShellManager.mTermuxSessions.size(); i++)
-                mShellManager.mTermuxSessions.get(i).getTerminalSession().updateTerminalSessionClient(termuxTerminalSessionActivityClient);
-        }
+        for (TermuxSession termuxSession : mShellManager.mTermuxSessions.getShells())
+            termuxSession.getTerminalSession().updateTerminalSessionClient(termuxTerminalSessionActivityClient);
     }
 
     /** This should be called when {@link TermuxActivity} has been destroyed and in {@link #onUnbind(Intent)}
@@ -836,10 +1111,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      * clients do not hold an activity references.
      */
     public void unsetTermuxTerminalSessionClient() {
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0; i < mShellManager.mTermuxSessions.size(); i++)
-                mShellManager.mTermuxSessions.get(i).getTerminalSession().updateTerminalSessionClient(mTermuxTerminalSessionServiceClient);
-        }
+        for (TermuxSession termuxSession : mShellManager.mTermuxSessions.getShells())
+            termuxSession.getTerminalSession().updateTerminalSessionClient(mTermuxTerminalSessionServiceClient);
 
         synchronized (this) {
             mTermuxTerminalSessionActivityClient = null;
@@ -860,10 +1133,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         // Set notification text
         int sessionCount = getTermuxSessionsSize();
-        int taskCount;
-        synchronized (mShellManager.mTermuxTasks) {
-            taskCount = mShellManager.mTermuxTasks.size();
-        }
+        int taskCount = mShellManager.mTermuxTasks.size();
         String notificationText = sessionCount + " session" + (sessionCount == 1 ? "" : "s");
         if (taskCount > 0) {
             notificationText += ", " + taskCount + " task" + (taskCount == 1 ? "" : "s");
@@ -924,12 +1194,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
     /** Update the shown foreground service notification after making any changes that affect it. */
     private void updateNotification() {
-        boolean isEmpty;
-        synchronized (mShellManager.mTermuxSessions) {
-            synchronized (mShellManager.mTermuxTasks) {
-                isEmpty = mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty();
-            }
-        }
+        boolean isEmpty = mShellManager.mTermuxSessions.isEmpty() && mShellManager.mTermuxTasks.isEmpty();
 
         if (mWakeLock == null && isEmpty) {
             // Exit if we are updating after the user disabled all locks with no sessions or tasks running.
@@ -955,103 +1220,59 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     }
 
     public boolean isTermuxSessionsEmpty() {
-        synchronized (mShellManager.mTermuxSessions) {
-            return mShellManager.mTermuxSessions.isEmpty();
-        }
+        return mShellManager.mTermuxSessions.isEmpty();
     }
 
     public int getTermuxSessionsSize() {
-        synchronized (mShellManager.mTermuxSessions) {
-            return mShellManager.mTermuxSessions.size();
-        }
+        return mShellManager.mTermuxSessions.size();
     }
 
+    /** Get the immutable snapshot of current {@link TermuxSession}s. */
+    @NonNull
     public List<TermuxSession> getTermuxSessions() {
-        synchronized (mShellManager.mTermuxSessions) {
-            return mShellManager.mTermuxSessions;
-        }
+        return mShellManager.mTermuxSessions.getShells();
     }
 
     @Nullable
     public TermuxSession getTermuxSession(int index) {
-        synchronized (mShellManager.mTermuxSessions) {
-            if (index >= 0 && index < mShellManager.mTermuxSessions.size())
-                return mShellManager.mTermuxSessions.get(index);
-            else
-                return null;
-        }
+        return mShellManager.mTermuxSessions.get(index);
     }
 
     @Nullable
     public TermuxSession getTermuxSessionForTerminalSession(TerminalSession terminalSession) {
         if (terminalSession == null) return null;
-
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0; i < mShellManager.mTermuxSessions.size(); i++) {
-                if (mShellManager.mTermuxSessions.get(i).getTerminalSession().equals(terminalSession))
-                    return mShellManager.mTermuxSessions.get(i);
-            }
-        }
-
-        return null;
+        return mShellManager.mTermuxSessions.getForHandle(terminalSession.mHandle);
     }
 
     public TermuxSession getLastTermuxSession() {
-        synchronized (mShellManager.mTermuxSessions) {
-            return mShellManager.mTermuxSessions.isEmpty() ? null : mShellManager.mTermuxSessions.get(mShellManager.mTermuxSessions.size() - 1);
-        }
+        return mShellManager.mTermuxSessions.getLast();
     }
 
     public int getIndexOfSession(TerminalSession terminalSession) {
-        if (terminalSession == null) return -1;
-
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0; i < mShellManager.mTermuxSessions.size(); i++) {
-                if (mShellManager.mTermuxSessions.get(i).getTerminalSession().equals(terminalSession))
-                    return i;
-            }
-        }
-        return -1;
+        return mShellManager.mTermuxSessions.indexOf(getTermuxSessionForTerminalSession(terminalSession));
     }
 
     public TerminalSession getTerminalSessionForHandle(String sessionHandle) {
-        TerminalSession terminalSession;
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0, len = mShellManager.mTermuxSessions.size(); i < len; i++) {
-                terminalSession = mShellManager.mTermuxSessions.get(i).getTerminalSession();
-                if (terminalSession.mHandle.equals(sessionHandle))
-                    return terminalSession;
-            }
-        }
-        return null;
+        TermuxSession termuxSession = mShellManager.mTermuxSessions.getForHandle(sessionHandle);
+        return termuxSession != null ? termuxSession.getTerminalSession() : null;
     }
 
     public AppShell getTermuxTaskForShellName(String name) {
-        if (DataUtils.isNullOrEmpty(name)) return null;
-        AppShell appShell;
-        synchronized (mShellManager.mTermuxTasks) {
-            for (int i = 0, len = mShellManager.mTermuxTasks.size(); i < len; i++) {
-                appShell = mShellManager.mTermuxTasks.get(i);
-                String shellName = appShell.getExecutionCommand().shellName;
-                if (shellName != null && shellName.equals(name))
-                    return appShell;
-            }
-        }
-        return null;
+        return mShellManager.mTermuxTasks.getForShellName(name);
     }
 
     public TermuxSession getTermuxSessionForShellName(String name) {
-        if (DataUtils.isNullOrEmpty(name)) return null;
-        TermuxSession termuxSession;
-        synchronized (mShellManager.mTermuxSessions) {
-            for (int i = 0, len = mShellManager.mTermuxSessions.size(); i < len; i++) {
-                termuxSession = mShellManager.mTermuxSessions.get(i);
-                String shellName = termuxSession.getExecutionCommand().shellName;
-                if (shellName != null && shellName.equals(name))
-                    return termuxSession;
-            }
-        }
-        return null;
+        return mShellManager.mTermuxSessions.getForShellName(name);
+    }
+
+    @Nullable
+    public TermuxSession getTermuxSessionForPid(int pid) {
+        return mShellManager.mTermuxSessions.getForPid(pid);
+    }
+
+    @Nullable
+    public AppShell getTermuxTaskForPid(int pid) {
+        return mShellManager.mTermuxTasks.getForPid(pid);
     }
 
 
@@ -61,6 +61,8 @@ public class SystemEventReceiver extends BroadcastReceiver {
         if (data != null && TermuxUtils.isUriDataForTermuxPluginPackage(data)) {
             Logger.logDebug(LOG_TAG, intent.getAction().replaceAll("^android.intent.action.", "") +
                 " event received for \"" + data.toString().replaceAll("^package:", "") + "\"");
+            // The plugin app variables exported in the environment may have changed
+            TermuxShellEnvironment.invalidateEnvironmentCache();
             if (TermuxFileUtils.isTermuxFilesDirectoryAccessible(context, false, false) == null)
                 TermuxShellEnvironment.writeEnvironmentToFile(context);
         }
@@ -77,6 +79,10 @@ public class SystemEventReceiver extends BroadcastReceiver {
      *  https://developer.android.com/guide/components/broadcast-exceptions
      */
     public synchronized static void registerPackageUpdateEvents(@NonNull Context context) {
+        // The environment cache lives as long as the process, but plugin apps may have changed
+        // while the receiver was not registered, like while TermuxService was stopped
+        TermuxShellEnvironment.invalidateEnvironmentCache();
+
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
         intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
@@ -25,6 +25,7 @@ import com.termux.shared.theme.NightMode;
 import com.termux.shared.theme.ThemeUtils;
 import com.termux.terminal.TerminalSession;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession> implements AdapterView.OnItemClickListener, AdapterView.OnItemLongClickListener {
@@ -34,11 +35,23 @@ public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession
     final StyleSpan boldSpan = new StyleSpan(Typeface.BOLD);
     final StyleSpan italicSpan = new StyleSpan(Typeface.ITALIC);
 
+    /**
+     * @param sessionList The snapshot of sessions to show. It is copied since the snapshots
+     *                    published by the service are immutable.
+     */
     public TermuxSessionsListViewController(TermuxActivity activity, List<TermuxSession> sessionList) {
-        super(activity.getApplicationContext(), R.layout.item_terminal_sessions_list, sessionList);
+        super(activity.getApplicationContext(), R.layout.item_terminal_sessions_list, new ArrayList<>(sessionList));
         this.mActivity = activity;
     }
 
+    /** Replace the shown sessions with a new snapshot. Must be called on the UI thread. */
+    public void updateSessions(List<TermuxSession> sessionList) {
+        setNotifyOnChange(false);
+        clear();
+        addAll(sessionList);
+        notifyDataSetChanged();
+    }
+
     @SuppressLint("SetTextI18n")
     @NonNull
     @Override
@@ -46,8 +46,6 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
     private final Handler mRefreshHandler;
     private final Runnable mRefreshRunnable;
 
-    private static final int MAX_SESSIONS = 8;
-
     private SoundPool mBellSoundPool;
 
     private int mBellSoundId;
@@ -177,6 +175,9 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
                 Logger.logVerbose(LOG_TAG, "The \"" + finishedSession.mSessionName + "\" session will be force finished automatically since result in pending.");
         }
 
+        // Headless sessions that were never opened are finished automatically as well
+        boolean forceFinish = isPluginExecutionCommandWithPendingResult || finishedSession.isHeadless();
+
         if (mActivity.isVisible() && finishedSession != mActivity.getCurrentSession()) {
             // Show toast for non-current sessions that exit.
             // Verify that session was not removed before we got told about it finishing:
@@ -187,13 +188,13 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         if (mActivity.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
             // On Android TV devices we need to use older behaviour because we may
             // not be able to have multiple launcher icons.
-            if (service.getTermuxSessionsSize() > 1 || isPluginExecutionCommandWithPendingResult) {
+            if (service.getTermuxSessionsSize() > 1 || forceFinish) {
                 removeFinishedSession(finishedSession);
             }
         } else {
             // Once we have a separate launcher icon for the failsafe session, it
             // should be safe to auto-close session on exit code '0' or '130'.
-            if (finishedSession.getExitStatus() == 0 || finishedSession.getExitStatus() == 130 || isPluginExecutionCommandWithPendingResult) {
+            if (finishedSession.getExitStatus() == 0 || finishedSession.getExitStatus() == 130 || forceFinish) {
                 removeFinishedSession(finishedSession);
             }
         }
@@ -261,8 +262,10 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         if (service == null) return;
         
         TermuxSession termuxSession = service.getTermuxSessionForTerminalSession(terminalSession);
-        if (termuxSession != null)
+        if (termuxSession != null) {
             termuxSession.getExecutionCommand().mPid = pid;
+            service.reindexTermuxSession(termuxSession);
+        }
     }
 
 
@@ -377,8 +380,10 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         TermuxService service = mActivity.getTermuxService();
         if (service != null) {
             TermuxSession termuxSession = service.getTermuxSessionForTerminalSession(sessionToRename);
-            if (termuxSession != null)
+            if (termuxSession != null) {
                 termuxSession.getExecutionCommand().shellName = text;
+                service.reindexTermuxSession(termuxSession);
+            }
         }
     }
 
@@ -390,7 +395,7 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
             return;
         }
 
-        if (service.getTermuxSessionsSize() >= MAX_SESSIONS) {
+        if (service.getTermuxSessionsSize() >= mActivity.getProperties().getTerminalMaxSessions()) {
             android.util.Log.w("TermuxTrace", "[TRACE_SESSION] Max sessions reached");
             new AlertDialog.Builder(mActivity).setTitle(R.string.title_max_terminals_reached).setMessage(R.string.msg_max_terminals_reached)
                 .setPositiveButton(android.R.string.ok, null).show();
@@ -24,8 +24,18 @@ public class TermuxTerminalSessionServiceClient extends TermuxTerminalSessionCli
     @Override
     public void setTerminalShellPid(@NonNull TerminalSession terminalSession, int pid) {
         TermuxSession termuxSession = mService.getTermuxSessionForTerminalSession(terminalSession);
-        if (termuxSession != null)
+        if (termuxSession != null) {
             termuxSession.getExecutionCommand().mPid = pid;
+            mService.reindexTermuxSession(termuxSession);
+        }
+    }
+
+    @Override
+    public void onSessionFinished(@NonNull TerminalSession finishedSession) {
+        // Headless sessions that were never opened have no user to press enter, so finish them
+        // right away to send their result, like the activity client does for plugin commands
+        if (finishedSession.isHeadless())
+            mService.removeTermuxSession(finishedSession);
     }
 
 }
@@ -0,0 +1,500 @@
+package com.termux.filepicker;
+
+import android.os.Build;
+import android.os.FileObserver;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A filename index of a directory tree that {@link TermuxDocumentsProvider} searches read from,
+ * instead of walking the tree on every query.
+ * <p/>
+ * The index is kept as an immutable {@link Snapshot} in which all the names are joined in a single
+ * {@link String}, so that a search is a series of {@link String#indexOf(String, int)} calls. It is
+ * refreshed on a background thread with an incremental scan that only lists the directories whose
+ * modification time changed since the last scan, and persisted to a compact file so that it is
+ * available right away the next time the process starts. A {@link FileObserver} on the first
+ * {@link #MAX_WATCHED_DIRECTORIES} directories schedules a refresh when entries are created,
+ * deleted or moved. Changes in deeper directories are picked up by the refresh that is requested
+ * when a search is run on an index older than {@link #MAX_INDEX_AGE_MILLIS}.
+ * <p/>
+ * Symlinks are indexed as entries but never followed.
+ */
+public class HomeFileIndex {
+
+    /** Listener for index updates. It is called on the index thread. */
+    public interface Listener {
+        void onIndexUpdated();
+    }
+
+    /** The max number of directories watched with a {@link FileObserver}. */
+    public static final int MAX_WATCHED_DIRECTORIES = 1024;
+
+    /** The delay before refreshing after a watched directory changed, so that bursts of changes cause a single refresh. */
+    public static final long REFRESH_DELAY_MILLIS = 2000;
+
+    /** The age after which a search requests a refresh, for changes in directories that are not watched. */
+    public static final long MAX_INDEX_AGE_MILLIS = 60_000;
+
+    private static final int INDEX_FILE_MAGIC = 0x54584458;
+    private static final int INDEX_FILE_VERSION = 1;
+
+    private static final int WATCH_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final String LOG_TAG = "HomeFileIndex";
+
+    private final File mRoot;
+    private final File mIndexFile;
+    private final Listener mListener;
+
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+    private final AtomicBoolean mRefreshScheduled = new AtomicBoolean();
+    private volatile ScheduledExecutorService mExecutor;
+    private final List<FileObserver> mFileObservers = new ArrayList<>();
+
+    private volatile Snapshot mSnapshot;
+    private volatile boolean mRefreshing;
+    private volatile long mLastRefreshTime;
+
+    /**
+     * @param root The root directory to index.
+     * @param indexFile The file to persist the index to.
+     * @param listener The optional {@link Listener} called after each refresh.
+     */
+    public HomeFileIndex(@NonNull File root, @NonNull File indexFile, @Nullable Listener listener) {
+        mRoot = root;
+        mIndexFile = indexFile;
+        mListener = listener;
+    }
+
+    /**
+     * Load the persisted index and start the first refresh in the background. Subsequent calls
+     * do nothing.
+     */
+    public void start() {
+        if (!mStarted.compareAndSet(false, true)) return;
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HomeFileIndex");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        mRefreshing = true;
+        mExecutor.execute(() -> {
+            if (mSnapshot == null) {
+                load();
+                if (mSnapshot != null && mListener != null)
+                    mListener.onIndexUpdated();
+            }
+        });
+        requestRefresh(0);
+    }
+
+    /** Stop watching and refreshing the index. */
+    public void stop() {
+        if (mExecutor != null)
+            mExecutor.shutdownNow();
+        stopWatching();
+    }
+
+    /** Schedule a refresh on the index thread after {@code delayMillis}, unless one is already scheduled. */
+    public void requestRefresh(long delayMillis) {
+        if (mExecutor == null || !mRefreshScheduled.compareAndSet(false, true)) return;
+        mRefreshing = true;
+        mExecutor.schedule(() -> {
+            mRefreshScheduled.set(false);
+            refresh();
+            startWatching();
+            if (mListener != null)
+                mListener.onIndexUpdated();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Whether a refresh is scheduled or running, so the results of a search may be incomplete. */
+    public boolean isRefreshing() {
+        return mRefreshing;
+    }
+
+    /**
+     * Search the index for files whose name contains {@code query}, ignoring case. Directories
+     * are not returned.
+     *
+     * @param query The query.
+     * @param maxResults The max number of results.
+     * @return Returns the matching files, or {@code null} if the index is not available yet.
+     */
+    @Nullable
+    public List<File> search(@NonNull String query, int maxResults) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) return null;
+
+        if (!mRefreshing && System.currentTimeMillis() - mLastRefreshTime > MAX_INDEX_AGE_MILLIS)
+            requestRefresh(0);
+
+        return snapshot.search(mRoot, query, maxResults);
+    }
+
+    /** Scan the tree and update the index synchronously, reusing the current index for unchanged directories. */
+    void refresh() {
+        long start = System.currentTimeMillis();
+        try {
+            Snapshot snapshot = Snapshot.scan(mRoot, mSnapshot);
+            mSnapshot = snapshot;
+            mLastRefreshTime = System.currentTimeMillis();
+            long millis = mLastRefreshTime - start;
+            Logger.logDebug(LOG_TAG, () -> "Indexed " + snapshot.getEntryCount() + " entries in " +
+                snapshot.getDirectoryCount() + " directories in " + millis + "ms");
+            save(snapshot);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to refresh index of \"" + mRoot + "\"", e);
+        } finally {
+            mRefreshing = mRefreshScheduled.get();
+        }
+    }
+
+    /** Load the persisted index, if it exists and is for the same root. */
+    void load() {
+        if (!mIndexFile.isFile()) return;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile), 64 * 1024))) {
+            mSnapshot = Snapshot.read(inputStream, mRoot);
+        } catch (Exception e) {
+            Logger.logWarn(LOG_TAG, "Failed to load index from \"" + mIndexFile + "\": " + e.getMessage());
+        }
+    }
+
+    private void save(@NonNull Snapshot snapshot) {
+        File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+                snapshot.write(outputStream, mRoot);
+            }
+            if (!tmpFile.renameTo(mIndexFile))
+                throw new IOException("Failed to rename \"" + tmpFile + "\" to \"" + mIndexFile + "\"");
+        } catch (IOException e) {
+            Logger.logWarn(LOG_TAG, "Failed to save index to \"" + mIndexFile + "\": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void startWatching() {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) return;
+
+        stopWatching();
+        int count = Math.min(snapshot.getDirectoryCount(), MAX_WATCHED_DIRECTORIES);
+        List<File> directories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            directories.add(snapshot.getDirectoryFile(mRoot, i));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mFileObservers.add(new IndexFileObserver(directories));
+        } else {
+            for (File directory : directories)
+                mFileObservers.add(new IndexFileObserver(directory));
+        }
+        for (FileObserver fileObserver : mFileObservers)
+            fileObserver.startWatching();
+    }
+
+    private void stopWatching() {
+        for (FileObserver fileObserver : mFileObservers)
+            fileObserver.stopWatching();
+        mFileObservers.clear();
+    }
+
+    private class IndexFileObserver extends FileObserver {
+
+        @SuppressWarnings("deprecation")
+        IndexFileObserver(@NonNull File directory) {
+            super(directory.getAbsolutePath(), WATCH_EVENTS);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.Q)
+        IndexFileObserver(@NonNull List<File> directories) {
+            super(directories, WATCH_EVENTS);
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            requestRefresh(REFRESH_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * An immutable index of a directory tree. Directories are numbered in breadth first order and
+     * the entries of each directory are stored contiguously, so that the entries of an unchanged
+     * directory can be copied from the previous snapshot without listing it again.
+     */
+    static final class Snapshot {
+
+        /** The entry index of each directory, or -1 for the root. */
+        final int[] directoryEntries;
+        /** The modification time of each directory when it was listed. */
+        final long[] directoryModifiedTimes;
+        /** The index of the first entry of each directory. */
+        final int[] directoryFirstEntries;
+        /** The number of entries of each directory. */
+        final int[] directoryEntryCounts;
+        /** The path of each directory relative to the root, built from the entries. */
+        final String[] directoryPaths;
+
+        /** The parent directory of each entry. */
+        final int[] entryParents;
+        /** The directory index of each entry, or -1 if the entry is not a directory. */
+        final int[] entryDirectories;
+        /** The names of all the entries, each followed by a '\0'. */
+        final String names;
+        /** The offset in {@link #names} of each entry, followed by the length of {@link #names}. */
+        final int[] nameOffsets;
+        /** The lower case names of all the entries, each followed by a '\0'. */
+        final String lowerCaseNames;
+        /** The offset in {@link #lowerCaseNames} of each entry, followed by the length of {@link #lowerCaseNames}. */
+        final int[] lowerCaseNameOffsets;
+
+        private Snapshot(Builder builder) {
+            int directoryCount = builder.directoryCount;
+            int entryCount = builder.entryCount;
+            directoryEntries = Arrays.copyOf(builder.directoryEntries, directoryCount);
+            directoryModifiedTimes = Arrays.copyOf(builder.directoryModifiedTimes, directoryCount);
+            directoryFirstEntries = Arrays.copyOf(builder.directoryFirstEntries, directoryCount);
+            directoryEntryCounts = Arrays.copyOf(builder.directoryEntryCounts, directoryCount);
+            entryParents = Arrays.copyOf(builder.entryParents, entryCount);
+            entryDirectories = Arrays.copyOf(builder.entryDirectories, entryCount);
+            names = builder.names.toString();
+            nameOffsets = Arrays.copyOf(builder.nameOffsets, entryCount + 1);
+            nameOffsets[entryCount] = names.length();
+
+            StringBuilder lowerCaseNamesBuilder = new StringBuilder(names.length());
+            lowerCaseNameOffsets = new int[entryCount + 1];
+            for (int i = 0; i < entryCount; i++) {
+                lowerCaseNameOffsets[i] = lowerCaseNamesBuilder.length();
+                lowerCaseNamesBuilder.append(getName(i).toLowerCase(Locale.ROOT)).append('\0');
+            }
+            lowerCaseNameOffsets[entryCount] = lowerCaseNamesBuilder.length();
+            lowerCaseNames = lowerCaseNamesBuilder.toString();
+
+            directoryPaths = new String[directoryCount];
+            for (int i = 0; i < directoryCount; i++) {
+                int entry = directoryEntries[i];
+                directoryPaths[i] = entry < 0 ? "" :
+                    (directoryPaths[entryParents[entry]].isEmpty() ? "" : directoryPaths[entryParents[entry]] + "/") + getName(entry);
+            }
+        }
+
+        int getEntryCount() {
+            return entryParents.length;
+        }
+
+        int getDirectoryCount() {
+            return directoryEntries.length;
+        }
+
+        String getName(int entry) {
+            return names.substring(nameOffsets[entry], nameOffsets[entry + 1] - 1);
+        }
+
+        File getDirectoryFile(File root, int directory) {
+            return directory == 0 ? root : new File(root, directoryPaths[directory]);
+        }
+
+        File getEntryFile(File root, int entry) {
+            return new File(getDirectoryFile(root, entryParents[entry]), getName(entry));
+        }
+
+        List<File> search(File root, String query, int maxResults) {
+            List<File> results = new ArrayList<>();
+            String lowerCaseQuery = query.toLowerCase(Locale.ROOT);
+            if (lowerCaseQuery.isEmpty() || lowerCaseQuery.indexOf('\0') >= 0) return results;
+
+            int from = 0;
+            while (results.size() < maxResults) {
+                int index = lowerCaseNames.indexOf(lowerCaseQuery, from);
+                if (index < 0) break;
+
+                // The query does not contain '\0', so the match is within a single name
+                int entry = Arrays.binarySearch(lowerCaseNameOffsets, index);
+                if (entry < 0) entry = -entry - 2;
+                if (entryDirectories[entry] < 0)
+                    results.add(getEntryFile(root, entry));
+                from = lowerCaseNameOffsets[entry + 1];
+            }
+            return results;
+        }
+
+        /**
+         * Scan {@code root} breadth first. Directories whose modification time is the same as in
+         * {@code previous} are not listed and their entries are copied from {@code previous}.
+         */
+        static Snapshot scan(File root, @Nullable Snapshot previous) {
+            Map<String, Integer> previousDirectories = new HashMap<>();
+            if (previous != null) {
+                for (int i = 0; i < previous.getDirectoryCount(); i++)
+                    previousDirectories.put(previous.directoryPaths[i], i);
+            }
+
+            Builder builder = new Builder();
+            List<String> directoryPaths = new ArrayList<>();
+            builder.addDirectory(-1);
+            directoryPaths.add("");
+
+            for (int directory = 0; directory < builder.directoryCount; directory++) {
+                String path = directoryPaths.get(directory);
+                File directoryFile = path.isEmpty() ? root : new File(root, path);
+                String prefix = path.isEmpty() ? "" : path + "/";
+
+                // Get the modification time before listing, so that changes made while listing cause a relist next time
+                long modifiedTime = directoryFile.lastModified();
+                builder.startDirectory(directory, modifiedTime);
+
+                Integer previousDirectory = previousDirectories.get(path);
+                if (previousDirectory != null && modifiedTime != 0 &&
+                    previous.directoryModifiedTimes[previousDirectory] == modifiedTime) {
+                    int first = previous.directoryFirstEntries[previousDirectory];
+                    for (int entry = first; entry < first + previous.directoryEntryCounts[previousDirectory]; entry++) {
+                        String name = previous.getName(entry);
+                        boolean isDirectory = previous.entryDirectories[entry] >= 0;
+                        builder.addEntry(directory, name, isDirectory);
+                        if (isDirectory) directoryPaths.add(prefix + name);
+                    }
+                } else {
+                    String[] names = directoryFile.list();
+                    if (names == null) continue;
+                    for (String name : names) {
+                        boolean isDirectory = Files.isDirectory(new File(directoryFile, name).toPath(), LinkOption.NOFOLLOW_LINKS);
+                        builder.addEntry(directory, name, isDirectory);
+                        if (isDirectory) directoryPaths.add(prefix + name);
+                    }
+                }
+            }
+
+            return new Snapshot(builder);
+        }
+
+        void write(DataOutputStream outputStream, File root) throws IOException {
+            outputStream.writeInt(INDEX_FILE_MAGIC);
+            outputStream.writeInt(INDEX_FILE_VERSION);
+            outputStream.writeUTF(root.getAbsolutePath());
+            outputStream.writeInt(getDirectoryCount());
+            for (long modifiedTime : directoryModifiedTimes)
+                outputStream.writeLong(modifiedTime);
+            outputStream.writeInt(getEntryCount());
+            for (int i = 0; i < getEntryCount(); i++) {
+                outputStream.writeInt(entryParents[i]);
+                outputStream.writeBoolean(entryDirectories[i] >= 0);
+                outputStream.writeUTF(getName(i));
+            }
+        }
+
+        static Snapshot read(DataInputStream inputStream, File root) throws IOException {
+            if (inputStream.readInt() != INDEX_FILE_MAGIC || inputStream.readInt() != INDEX_FILE_VERSION)
+                throw new IOException("Unsupported index file");
+            if (!root.getAbsolutePath().equals(inputStream.readUTF()))
+                throw new IOException("Index file is for a different root");
+
+            long[] modifiedTimes = new long[inputStream.readInt()];
+            for (int i = 0; i < modifiedTimes.length; i++)
+                modifiedTimes[i] = inputStream.readLong();
+
+            // The entries are written in directory order, so the directories are added in the same order as when scanning
+            Builder builder = new Builder();
+            builder.addDirectory(-1);
+            int entryCount = inputStream.readInt();
+            int currentDirectory = -1;
+            for (int i = 0; i < entryCount; i++) {
+                int parent = inputStream.readInt();
+                if (parent < currentDirectory || parent >= builder.directoryCount || parent >= modifiedTimes.length)
+                    throw new IOException("Invalid index file entry " + i);
+                while (currentDirectory < parent)
+                    builder.startDirectory(++currentDirectory, modifiedTimes[currentDirectory]);
+                boolean isDirectory = inputStream.readBoolean();
+                builder.addEntry(parent, inputStream.readUTF(), isDirectory);
+            }
+            while (currentDirectory < builder.directoryCount - 1 && currentDirectory < modifiedTimes.length - 1)
+                builder.startDirectory(++currentDirectory, modifiedTimes[currentDirectory]);
+            if (builder.directoryCount != modifiedTimes.length)
+                throw new IOException("Invalid index file directory count");
+
+            return new Snapshot(builder);
+        }
+
+    }
+
+    /** Growable arrays that a {@link Snapshot} is built from. */
+    private static final class Builder {
+
+        int directoryCount;
+        int[] directoryEntries = new int[256];
+        long[] directoryModifiedTimes = new long[256];
+        int[] directoryFirstEntries = new int[256];
+        int[] directoryEntryCounts = new int[256];
+
+        int entryCount;
+        int[] entryParents = new int[4096];
+        int[] entryDirectories = new int[4096];
+        final StringBuilder names = new StringBuilder();
+        int[] nameOffsets = new int[4097];
+
+        int addDirectory(int entry) {
+            if (directoryCount == directoryEntries.length) {
+                int length = directoryCount * 2;
+                directoryEntries = Arrays.copyOf(directoryEntries, length);
+                directoryModifiedTimes = Arrays.copyOf(directoryModifiedTimes, length);
+                directoryFirstEntries = Arrays.copyOf(directoryFirstEntries, length);
+                directoryEntryCounts = Arrays.copyOf(directoryEntryCounts, length);
+            }
+            directoryEntries[directoryCount] = entry;
+            return directoryCount++;
+        }
+
+        void startDirectory(int directory, long modifiedTime) {
+            directoryModifiedTimes[directory] = modifiedTime;
+            directoryFirstEntries[directory] = entryCount;
+        }
+
+        void addEntry(int parent, String name, boolean isDirectory) {
+            if (entryCount == entryParents.length) {
+                int length = entryCount * 2;
+                entryParents = Arrays.copyOf(entryParents, length);
+                entryDirectories = Arrays.copyOf(entryDirectories, length);
+                nameOffsets = Arrays.copyOf(nameOffsets, length + 1);
+            }
+            entryParents[entryCount] = parent;
+            entryDirectories[entryCount] = isDirectory ? addDirectory(entryCount) : -1;
+            nameOffsets[entryCount] = names.length();
+            names.append(name).append('\0');
+            directoryEntryCounts[parent]++;
+            entryCount++;
+        }
+
+    }
+
+}
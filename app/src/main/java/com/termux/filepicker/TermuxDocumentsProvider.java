@@ -1,24 +1,40 @@
 package com.termux.filepicker;
 
+import android.content.Context;
+import android.content.pm.ProviderInfo;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
+import android.net.Uri;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.provider.DocumentsContract.Root;
 import android.provider.DocumentsProvider;
 import android.webkit.MimeTypeMap;
 
 import com.termux.R;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileAttributes;
+import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A document provider for the Storage Access Framework which exposes the files in the
@@ -37,6 +53,34 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
 
     private static final File BASE_DIR = TermuxConstants.TERMUX_HOME_DIR;
 
+    /** The max number of results returned by {@link #querySearchDocuments(String, String, String[])}. */
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    /**
+     * The number of children of a directory that are returned right away by
+     * {@link #queryChildDocuments(String, String[], String)}. The rest are loaded in the background.
+     */
+    private static final int CHILD_DOCUMENTS_PAGE_SIZE = 200;
+
+    /** The max number of directories whose loaded children are cached. */
+    private static final int MAX_CACHED_CHILD_DOCUMENTS = 4;
+
+    private static final String LOG_TAG = "TermuxDocumentsProvider";
+
+    private String mAuthority;
+    private HomeFileIndex mHomeFileIndex;
+    private final ExecutorService mChildDocumentsExecutor = Executors.newSingleThreadExecutor();
+
+    /** The children of large directories loaded in the background, mapped to the parent document id. */
+    private final Map<String, ChildDocuments> mChildDocumentsCache = new LinkedHashMap<String, ChildDocuments>(MAX_CACHED_CHILD_DOCUMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChildDocuments> eldest) {
+            return size() > MAX_CACHED_CHILD_DOCUMENTS;
+        }
+    };
+    /** The parent document ids whose children are being loaded. */
+    private final Set<String> mLoadingChildDocuments = new HashSet<>();
+
 
     // The default columns to return information about a root if no specific
     // columns are requested in a query.
@@ -76,6 +120,9 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
         row.add(Root.COLUMN_MIME_TYPES, ALL_MIME_TYPES);
         row.add(Root.COLUMN_AVAILABLE_BYTES, BASE_DIR.getFreeSpace());
         row.add(Root.COLUMN_ICON, R.mipmap.ic_launcher);
+
+        // The picker is being opened, so start building the search index
+        mHomeFileIndex.start();
         return result;
     }
 
@@ -90,9 +137,60 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
         final File parent = getFileForDocId(parentDocumentId);
-        for (File file : parent.listFiles()) {
-            includeFile(result, null, file);
+        final long lastModified = parent.lastModified();
+        // List and stat the children with a single native call instead of a stat call per child
+        // for each of the File methods used by getDocumentRow(String, File)
+        final DirectoryListing children = FileUtils.listDirectoryWithAttributes(parent.getAbsolutePath(), true);
+        if (children == null) return result;
+        final boolean parentWritable = isWritable(parent);
+
+        if (children.size() <= CHILD_DOCUMENTS_PAGE_SIZE) {
+            for (int i = 0; i < children.size(); i++) {
+                getDocumentRow(children, i, parentWritable).addTo(result);
+            }
+            return result;
         }
+
+        // Large directories return the first page right away and build the rest in the background
+        ChildDocuments childDocuments;
+        synchronized (mChildDocumentsCache) {
+            childDocuments = mChildDocumentsCache.get(parentDocumentId);
+        }
+        if (childDocuments != null && childDocuments.lastModified == lastModified) {
+            for (DocumentRow row : childDocuments.rows) {
+                row.addTo(result);
+            }
+            return result;
+        }
+
+        for (int i = 0; i < CHILD_DOCUMENTS_PAGE_SIZE; i++) {
+            getDocumentRow(children, i, parentWritable).addTo(result);
+        }
+
+        final Uri uri = DocumentsContract.buildChildDocumentsUri(mAuthority, parentDocumentId);
+        setLoading(result, uri);
+
+        synchronized (mChildDocumentsCache) {
+            if (!mLoadingChildDocuments.add(parentDocumentId)) return result;
+        }
+        mChildDocumentsExecutor.execute(() -> {
+            try {
+                List<DocumentRow> rows = new ArrayList<>(children.size());
+                for (int i = 0; i < children.size(); i++) {
+                    rows.add(getDocumentRow(children, i, parentWritable));
+                }
+                synchronized (mChildDocumentsCache) {
+                    mChildDocumentsCache.put(parentDocumentId, new ChildDocuments(lastModified, rows));
+                }
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load child documents of \"" + parentDocumentId + "\"", e);
+            } finally {
+                synchronized (mChildDocumentsCache) {
+                    mLoadingChildDocuments.remove(parentDocumentId);
+                }
+                notifyChange(uri);
+            }
+        });
         return result;
     }
 
@@ -110,8 +208,17 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
         return new AssetFileDescriptor(pfd, 0, file.length());
     }
 
+    @Override
+    public void attachInfo(Context context, ProviderInfo info) {
+        mAuthority = info.authority;
+        super.attachInfo(context, info);
+    }
+
     @Override
     public boolean onCreate() {
+        // The index is only started when the picker queries the roots, not on every app start
+        mHomeFileIndex = new HomeFileIndex(BASE_DIR, new File(getContext().getCacheDir(), "documents-index"),
+            () -> notifyChange(DocumentsContract.buildRootUri(mAuthority, getDocIdForFile(BASE_DIR))));
         return true;
     }
 
@@ -155,37 +262,26 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     @Override
     public Cursor querySearchDocuments(String rootId, String query, String[] projection) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
-        final File parent = getFileForDocId(rootId);
-
-        // This example implementation searches file names for the query and doesn't rank search
-        // results, so we can stop as soon as we find a sufficient number of matches.  Other
-        // implementations might rank results and use other data about files, rather than the file
-        // name, to produce a match.
-        final LinkedList<File> pending = new LinkedList<>();
-        pending.add(parent);
-
-        final int MAX_SEARCH_RESULTS = 50;
-        while (!pending.isEmpty() && result.getCount() < MAX_SEARCH_RESULTS) {
-            final File file = pending.removeFirst();
-            // Avoid directories outside the $HOME directory linked with symlinks (to avoid e.g. search
-            // through the whole SD card).
-            boolean isInsideHome;
-            try {
-                isInsideHome = file.getCanonicalPath().startsWith(TermuxConstants.TERMUX_HOME_DIR_PATH);
-            } catch (IOException e) {
-                isInsideHome = true;
-            }
-            if (isInsideHome) {
-                if (file.isDirectory()) {
-                    Collections.addAll(pending, file.listFiles());
-                } else {
-                    if (file.getName().toLowerCase().contains(query)) {
-                        includeFile(result, null, file);
-                    }
-                }
+        getFileForDocId(rootId);
+
+        // Search file names in the index instead of walking $HOME. The index does not follow
+        // symlinks, so directories outside the $HOME directory are not searched (to avoid e.g.
+        // search through the whole SD card). The cursor is updated when the index is refreshed.
+        mHomeFileIndex.start();
+        final List<File> files = mHomeFileIndex.search(query, MAX_SEARCH_RESULTS);
+        if (files != null) {
+            for (File file : files) {
+                if (file.exists())
+                    includeFile(result, null, file);
             }
         }
 
+        final Uri uri = DocumentsContract.buildRootUri(mAuthority, rootId);
+        if (files == null || mHomeFileIndex.isRefreshing()) {
+            setLoading(result, uri);
+        } else {
+            result.setNotificationUri(getContext().getContentResolver(), uri);
+        }
         return result;
     }
 
@@ -214,10 +310,13 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     }
 
     private static String getMimeType(File file) {
-        if (file.isDirectory()) {
+        return getMimeType(file.getName(), file.isDirectory());
+    }
+
+    private static String getMimeType(String name, boolean isDirectory) {
+        if (isDirectory) {
             return Document.MIME_TYPE_DIR;
         } else {
-            final String name = file.getName();
             final int lastDot = name.lastIndexOf('.');
             if (lastDot >= 0) {
                 final String extension = name.substring(lastDot + 1).toLowerCase();
@@ -243,26 +342,123 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
             file = getFileForDocId(docId);
         }
 
+        getDocumentRow(docId, file).addTo(result);
+    }
+
+    /** Get the representation of a file that is added to a cursor. */
+    private static DocumentRow getDocumentRow(String docId, File file) {
+        final boolean writable = isWritable(file);
+
         int flags = 0;
         if (file.isDirectory()) {
-            if (file.canWrite()) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
-        } else if (file.canWrite()) {
+            if (writable) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
+        } else if (writable) {
             flags |= Document.FLAG_SUPPORTS_WRITE;
         }
-        if (file.getParentFile().canWrite()) flags |= Document.FLAG_SUPPORTS_DELETE;
+        if (isWritable(file.getParentFile())) flags |= Document.FLAG_SUPPORTS_DELETE;
 
         final String displayName = file.getName();
         final String mimeType = getMimeType(file);
         if (mimeType.startsWith("image/")) flags |= Document.FLAG_SUPPORTS_THUMBNAIL;
 
-        final MatrixCursor.RowBuilder row = result.newRow();
-        row.add(Document.COLUMN_DOCUMENT_ID, docId);
-        row.add(Document.COLUMN_DISPLAY_NAME, displayName);
-        row.add(Document.COLUMN_SIZE, file.length());
-        row.add(Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(Document.COLUMN_LAST_MODIFIED, file.lastModified());
-        row.add(Document.COLUMN_FLAGS, flags);
-        row.add(Document.COLUMN_ICON, R.mipmap.ic_launcher);
+        return new DocumentRow(docId, displayName, file.length(), mimeType, file.lastModified(), flags);
+    }
+
+    /**
+     * Check if {@code file} is writable by the app with the same owner and permission bits rule
+     * that is used for the children in a {@link DirectoryListing}, so that the write flags of a
+     * document do not depend on whether it was queried directly or as a child.
+     */
+    private static boolean isWritable(File file) {
+        FileAttributes fileAttributes;
+        try {
+            fileAttributes = FileAttributes.get(file.getAbsolutePath(), true);
+        } catch (IOException e) {
+            // Like in a directory listing, a dangling symlink gets the attributes of the link itself
+            try {
+                fileAttributes = FileAttributes.get(file.getAbsolutePath(), false);
+            } catch (IOException e2) {
+                return false;
+            }
+        }
+        return fileAttributes.isWritableBy(Process.myUid());
+    }
+
+    /**
+     * Get the representation of the child at {@code index} of a directory listing. The write
+     * flags are decided from the owner and permission bits in the listing instead of an access()
+     * call for each child, like {@link #isWritable(File)} does for a single file.
+     */
+    private static DocumentRow getDocumentRow(DirectoryListing children, int index, boolean parentWritable) {
+        final boolean isDirectory = children.isDirectory(index);
+        final boolean writable = children.isWritableBy(index, Process.myUid());
+
+        int flags = 0;
+        if (isDirectory) {
+            if (writable) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
+        } else if (writable) {
+            flags |= Document.FLAG_SUPPORTS_WRITE;
+        }
+        if (parentWritable) flags |= Document.FLAG_SUPPORTS_DELETE;
+
+        final String displayName = children.getName(index);
+        final String mimeType = getMimeType(displayName, isDirectory);
+        if (mimeType.startsWith("image/")) flags |= Document.FLAG_SUPPORTS_THUMBNAIL;
+
+        return new DocumentRow(children.getPath(index), displayName, children.getSize(index), mimeType,
+            children.getLastModifiedMillis(index), flags);
+    }
+
+    /** Mark the cursor as still loading, so the picker shows a progress bar and requeries when {@code uri} changes. */
+    private void setLoading(MatrixCursor result, Uri uri) {
+        final Bundle extras = new Bundle();
+        extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+        result.setExtras(extras);
+        result.setNotificationUri(getContext().getContentResolver(), uri);
+    }
+
+    private void notifyChange(Uri uri) {
+        getContext().getContentResolver().notifyChange(uri, null, false);
+    }
+
+    private static class DocumentRow {
+        final String docId;
+        final String displayName;
+        final long size;
+        final String mimeType;
+        final long lastModified;
+        final int flags;
+
+        DocumentRow(String docId, String displayName, long size, String mimeType, long lastModified, int flags) {
+            this.docId = docId;
+            this.displayName = displayName;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+            this.flags = flags;
+        }
+
+        void addTo(MatrixCursor result) {
+            final MatrixCursor.RowBuilder row = result.newRow();
+            row.add(Document.COLUMN_DOCUMENT_ID, docId);
+            row.add(Document.COLUMN_DISPLAY_NAME, displayName);
+            row.add(Document.COLUMN_SIZE, size);
+            row.add(Document.COLUMN_MIME_TYPE, mimeType);
+            row.add(Document.COLUMN_LAST_MODIFIED, lastModified);
+            row.add(Document.COLUMN_FLAGS, flags);
+            row.add(Document.COLUMN_ICON, R.mipmap.ic_launcher);
+        }
+    }
+
+    /** The children of a directory and its modification time when they were loaded. */
+    private static class ChildDocuments {
+        final long lastModified;
+        final List<DocumentRow> rows;
+
+        ChildDocuments(long lastModified, List<DocumentRow> rows) {
+            this.lastModified = lastModified;
+            this.rows = rows;
+        }
     }
 
 }
@@ -0,0 +1,80 @@
+package com.termux.terminal;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class HeadlessSessionTest {
+
+    /** DA1、DSR 和 CPR 的应答；CPR 的光标位于输出 "ready" 并换行之后 */
+    private static final String EXPECTED_REPLY = "\033[?64;1;2;6;15;22c\033[0n\033[2;1R";
+
+    private static class FinishedClient implements TerminalSessionClient {
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override public void onTextChanged(@NonNull TerminalSession changedSession) {}
+        @Override public void onTitleChanged(@NonNull TerminalSession changedSession) {}
+        @Override public void onSessionFinished(@NonNull TerminalSession finishedSession) { finished.countDown(); }
+        @Override public void onCopyTextToClipboard(@NonNull TerminalSession session, @NonNull String text) {}
+        @Override public void onPasteTextFromClipboard(@Nullable TerminalSession session) {}
+        @Override public void onBell(@NonNull TerminalSession session) {}
+        @Override public void onColorsChanged(@NonNull TerminalSession session) {}
+        @Override public void onTerminalCursorStateChange(boolean state) {}
+        @Override public void setTerminalShellPid(@NonNull TerminalSession session, int pid) {}
+        @Override public Integer getTerminalCursorStyle() { return TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK; }
+        @Override public void logError(@NonNull String tag, @NonNull String message) {}
+        @Override public void logWarn(@NonNull String tag, @NonNull String message) {}
+        @Override public void logInfo(@NonNull String tag, @NonNull String message) {}
+        @Override public void logDebug(@NonNull String tag, @NonNull String message) {}
+        @Override public void logVerbose(@NonNull String tag, @NonNull String message) {}
+        @Override public void logStackTraceWithMessage(@NonNull String tag, @NonNull String message, @Nullable Exception e) {}
+        @Override public void logStackTrace(@NonNull String tag, @Nullable Exception e) {}
+    }
+
+    @Test
+    public void testHeadlessSessionAnswersQueries() throws Exception {
+        Assume.assumeTrue(JNI.sNativeLibrariesLoaded);
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File replyFile = new File(context.getCacheDir(), "headless-reply");
+        File outputFile = new File(context.getCacheDir(), "headless-output");
+        replyFile.delete();
+
+        // 子进程发送查询后等待应答，超时则没有应答文件内容；无头会话没有完整引擎也应立即应答
+        String script = "stty raw -echo; printf 'ready\\r\\n\\033[c\\033[5n\\033[6n'; " +
+            "timeout 10 head -c " + EXPECTED_REPLY.length() + " > '" + replyFile.getAbsolutePath() + "'";
+        FinishedClient client = new FinishedClient();
+        TerminalSession[] session = new TerminalSession[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            session[0] = new TerminalSession("/system/bin/sh", context.getCacheDir().getAbsolutePath(),
+                new String[]{"sh", "-c", script}, null, null, client);
+            session[0].startHeadless(80, 24, outputFile);
+        });
+
+        try {
+            Assert.assertTrue("会话应在超时前结束", client.finished.await(20, TimeUnit.SECONDS));
+            Assert.assertTrue("会话结束前不应被物化", session[0].isHeadless());
+            Assert.assertEquals(0, session[0].getExitStatus());
+            Assert.assertEquals(EXPECTED_REPLY, new String(Files.readAllBytes(replyFile.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(session[0]::finishIfRunning);
+            replyFile.delete();
+            outputFile.delete();
+        }
+    }
+
+}
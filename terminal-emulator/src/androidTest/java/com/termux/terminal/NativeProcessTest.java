@@ -0,0 +1,131 @@
+package com.termux.terminal;
+
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class NativeProcessTest {
+
+    private static final int LAUNCHES = 1000;
+    private static final String TRUE = "/system/bin/true";
+
+    private interface Launcher {
+        Process launch() throws IOException;
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            out.write(buffer, 0, count);
+        inputStream.close();
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    @Test
+    public void testOutputExitCodeAndEnvironment() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+
+        // 管道、工作目录、环境变量和退出码应与 Runtime.exec 一致
+        Process process = NativeProcess.start(new String[]{"/system/bin/sh", "-c", "read line; echo \"$line $FOO $(pwd)\"; echo err >&2; exit 3"},
+            new String[]{"FOO=bar"}, new File("/system"));
+        process.getOutputStream().write("hello\n".getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+
+        Assert.assertEquals("hello bar /system\n", readAll(process.getInputStream()));
+        Assert.assertEquals("err\n", readAll(process.getErrorStream()));
+        Assert.assertEquals(3, process.waitFor());
+        Assert.assertEquals(3, process.exitValue());
+        process.destroy();
+    }
+
+    @Test
+    public void testKillAndMissingProgram() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+
+        // 被 SIGKILL 终止时退出码为 128 + 9
+        NativeProcess process = NativeProcess.start(new String[]{"/system/bin/sleep", "60"}, null, null);
+        Os.kill(process.getPid(), OsConstants.SIGKILL);
+        Assert.assertEquals(128 + OsConstants.SIGKILL, process.waitFor());
+        process.destroy();
+
+        // isAlive() 不阻塞，进程退出后回收它并可以读取退出码
+        process = NativeProcess.start(new String[]{"/system/bin/sh", "-c", "read line; exit 5"}, null, null);
+        Assert.assertTrue(process.isAlive());
+        process.getOutputStream().close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (process.isAlive() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assert.assertFalse(process.isAlive());
+        Assert.assertEquals(5, process.exitValue());
+        Assert.assertEquals(5, process.waitFor());
+        process.destroy();
+
+        // 程序不存在时应抛出 IOException，而不是返回一个立即退出的进程
+        try {
+            NativeProcess.start(new String[]{"/system/bin/does-not-exist"}, null, null);
+            Assert.fail("应抛出 IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("error=" + OsConstants.ENOENT));
+        }
+    }
+
+    @Test
+    public void benchmarkSpawnLatency() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+
+        // 顺序启动 1000 次 /system/bin/true，比较 Runtime.exec 与原生 spawner 的启动延迟
+        long[] runtimeExec = measure(() -> Runtime.getRuntime().exec(new String[]{TRUE}));
+        long[] nativeSpawn = measure(() -> NativeProcess.start(new String[]{TRUE}, null, null));
+
+        System.out.println("Runtime.exec 启动延迟：" + format(runtimeExec));
+        System.out.println("原生 spawner 启动延迟：" + format(nativeSpawn));
+    }
+
+    /** 测量启动延迟（从调用到返回 Process），进程在计时之外等待回收 */
+    private static long[] measure(Launcher launcher) throws Exception {
+        // 预热
+        for (int i = 0; i < 20; i++)
+            finish(launcher.launch());
+
+        long[] latencies = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            long start = System.nanoTime();
+            Process process = launcher.launch();
+            latencies[i] = System.nanoTime() - start;
+            finish(process);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void finish(Process process) throws Exception {
+        process.getOutputStream().close();
+        process.getInputStream().close();
+        process.getErrorStream().close();
+        process.waitFor();
+        process.destroy();
+    }
+
+    private static String format(long[] sortedLatencies) {
+        return String.format("p50 %.3fms, p99 %.3fms",
+            sortedLatencies[sortedLatencies.length / 2] / 1e6,
+            sortedLatencies[(int) (sortedLatencies.length * 0.99)] / 1e6);
+    }
+
+}
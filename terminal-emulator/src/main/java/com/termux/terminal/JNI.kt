@@ -49,13 +49,24 @@ internal object JNI {
     @JvmStatic external fun createSessionAsync(
         cmd: String, cwd: String, args: Array<String?>?, envVars: Array<String?>?,
         rows: Int, columns: Int, cellWidth: Int, cellHeight: Int,
-        transcriptRows: Int, callback: RustEngineCallback
+        transcriptRows: Int, snapshotPath: String?, outputSpillPath: String?, deferEngine: Boolean,
+        callback: RustEngineCallback
     )
 
     @JvmStatic external fun setPtyWindowSize(fd: Int, rows: Int, cols: Int, cellWidth: Int, cellHeight: Int)
     @JvmStatic external fun waitFor(processId: Int): Int
     @JvmStatic external fun close(fileDescriptor: Int)
 
+    // --- Spawn (non-PTY) ---
+    @JvmStatic external fun spawnProcess(
+        cmd: String, cwd: String?, args: Array<String>, envVars: Array<String>?, fds: IntArray
+    ): Int
+
+    @JvmStatic external fun waitForSpawned(processId: Int): Int
+
+    /** 不阻塞地回收子进程，返回退出码，仍在运行时返回 [Int.MIN_VALUE] */
+    @JvmStatic external fun tryWaitForSpawned(processId: Int): Int
+
     // --- Session Coordinator ---
     @JvmStatic external fun registerSession(): Int
     @JvmStatic external fun unregisterSession(sessionId: Int)
@@ -0,0 +1,120 @@
+package com.termux.terminal
+
+import android.os.ParcelFileDescriptor
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * 由 Rust 原生 spawner（clone(CLONE_VM | CLONE_VFORK) + execve）启动的非 PTY 子进程。
+ *
+ * 与 `Runtime.exec` 相比不经过 ProcessBuilder 流程，直接持有 stdin/stdout/stderr 管道 fd，
+ * 流是普通的 [java.io.FileInputStream]/[java.io.FileOutputStream]，可以直接交给 poll。
+ * 退出码约定与 Android 的 [Process] 相同：被信号终止时为 128 + 信号。
+ */
+class NativeProcess private constructor(
+    /** 通过反射读取的字段名与 Android 的 UNIXProcess 相同 */
+    private val pid: Int,
+    stdinFd: Int,
+    stdoutFd: Int,
+    stderrFd: Int
+) : Process() {
+
+    private val stdin: OutputStream = ParcelFileDescriptor.AutoCloseOutputStream(ParcelFileDescriptor.adoptFd(stdinFd))
+    private val stdout: InputStream = ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(stdoutFd))
+    private val stderr: InputStream = ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(stderrFd))
+
+    private val waitLock = Any()
+    @Volatile private var exitCode: Int? = null
+
+    fun getPid(): Int = pid
+
+    override fun getOutputStream(): OutputStream = stdin
+    override fun getInputStream(): InputStream = stdout
+    override fun getErrorStream(): InputStream = stderr
+
+    override fun waitFor(): Int {
+        exitCode?.let { return it }
+        synchronized(waitLock) {
+            exitCode?.let { return it }
+            val code = JNI.waitForSpawned(pid)
+            exitCode = code
+            return code
+        }
+    }
+
+    /** 只有在 [waitFor] 返回或 [isAlive] 返回 false 后才能获取退出码，因为只有这两处会回收子进程 */
+    override fun exitValue(): Int {
+        return exitCode ?: throw IllegalThreadStateException("Process $pid has not exited")
+    }
+
+    /** 不阻塞地检查子进程是否仍在运行，已退出时回收它。另一个线程正在 [waitFor] 中时会等待它返回 */
+    override fun isAlive(): Boolean {
+        if (exitCode != null) return false
+        synchronized(waitLock) {
+            if (exitCode != null) return false
+            val code = JNI.tryWaitForSpawned(pid)
+            if (code == Int.MIN_VALUE) return true
+            exitCode = code
+            return false
+        }
+    }
+
+    override fun destroy() {
+        // 已回收的 pid 可能被复用，不能再发送信号
+        if (exitCode == null) {
+            try {
+                Os.kill(pid, OsConstants.SIGKILL)
+            } catch (_: ErrnoException) {
+            }
+        }
+        closeQuietly(stdin)
+        closeQuietly(stdout)
+        closeQuietly(stderr)
+    }
+
+    private fun closeQuietly(closeable: java.io.Closeable) {
+        try {
+            closeable.close()
+        } catch (_: IOException) {
+        }
+    }
+
+    companion object {
+
+        /** 原生库是否已加载，未加载时应使用 `Runtime.exec` */
+        @JvmStatic
+        fun isAvailable(): Boolean = JNI.sNativeLibrariesLoaded
+
+        /**
+         * 启动子进程，参数与 `Runtime.exec(String[], String[], File)` 相同。
+         *
+         * @param command 命令及参数，`command[0]` 不含 '/' 时在 PATH 中查找
+         * @param envp 环境变量，为 null 时继承当前进程
+         * @param dir 工作目录，为 null 时继承当前进程
+         * @throws IOException 启动失败时抛出，消息格式与 `Runtime.exec` 相同
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun start(command: Array<String>, envp: Array<String>?, dir: File?): NativeProcess {
+            if (command.isEmpty()) throw IndexOutOfBoundsException("Empty command")
+            val fds = IntArray(3)
+            val pid = try {
+                JNI.spawnProcess(command[0], dir?.path, command, envp, fds)
+            } catch (e: UnsatisfiedLinkError) {
+                throw IOException("Cannot run program \"${command[0]}\": native spawner not available", e)
+            }
+            if (pid <= 0) {
+                val errno = -pid
+                throw IOException("Cannot run program \"${command[0]}\"" +
+                    (if (dir != null) " (in directory \"$dir\")" else "") +
+                    ": error=$errno, ${Os.strerror(errno)}")
+            }
+            return NativeProcess(pid, fds[0], fds[1], fds[2])
+        }
+    }
+}
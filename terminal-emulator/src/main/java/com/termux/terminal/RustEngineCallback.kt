@@ -36,6 +36,13 @@ class RustEngineCallback(private val mClient: TerminalSessionClient?) : Terminal
         mSession?.onEngineInitialized(enginePtr, ptyFd, pid)
     }
 
+    /**
+     * Called from the Rust IO thread when the process of a headless session has exited.
+     */
+    fun onProcessExited(exitStatus: Int) {
+        mSession?.onProcessExited(exitStatus)
+    }
+
     override fun reportTitleChange(title: String?) {
         mClient?.reportTitleChange(title)
     }
@@ -41,6 +41,36 @@ object RustTerminal {
     @JvmStatic
     external fun resize(enginePtr: Long, columns: Int, rows: Int, cellWidthPixels: Int, cellHeightPixels: Int)
 
+    // --- 休眠 ---
+
+    @JvmStatic
+    external fun hibernate(enginePtr: Long): Long
+
+    @JvmStatic
+    external fun thaw(enginePtr: Long)
+
+    @JvmStatic
+    external fun isHibernated(enginePtr: Long): Boolean
+
+    // --- 延迟物化 ---
+
+    @JvmStatic
+    external fun materialize(enginePtr: Long): Boolean
+
+    @JvmStatic
+    external fun isMaterialized(enginePtr: Long): Boolean
+
+    @JvmStatic
+    external fun readHeadlessOutput(enginePtr: Long): ByteArray?
+
+    // --- 快照 ---
+
+    @JvmStatic
+    external fun writeSnapshot(enginePtr: Long, path: String, order: Long, name: String?, cwd: String?): Long
+
+    @JvmStatic
+    external fun readSnapshotHeader(path: String): SnapshotHeader?
+
     // --- 光标 ---
 
     @JvmStatic
@@ -0,0 +1,34 @@
+package com.termux.terminal
+
+import java.io.File
+
+/**
+ * The session information stored in the header of a snapshot written by [TerminalSession.checkpoint],
+ * used to rebuild sessions after process death. The header is parsed by the native library, see
+ * engine/snapshot.rs.
+ *
+ * @param order The position of the session in the session list, see [TerminalSession.snapshotOrder].
+ * @param sessionName The session name, or null if it was not set.
+ * @param cwd The working directory of the shell, or null if it was unavailable.
+ */
+class SnapshotHeader(
+    @JvmField val order: Long,
+    @JvmField val sessionName: String?,
+    @JvmField val cwd: String?
+) {
+
+    companion object {
+        /**
+         * Read the header of a snapshot file.
+         *
+         * @return Returns the header, or null if the file is not a valid snapshot or the native
+         * library is not loaded.
+         */
+        @JvmStatic
+        fun read(file: File): SnapshotHeader? {
+            if (!JNI.sNativeLibrariesLoaded) return null
+            return RustTerminal.readSnapshotHeader(file.absolutePath)
+        }
+    }
+
+}
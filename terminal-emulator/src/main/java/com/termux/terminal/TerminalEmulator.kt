@@ -108,6 +108,26 @@ class TerminalEmulator(
 
     fun isAlive(): Boolean = mEnginePtr != 0L
 
+    // --- 休眠 ---
+    /** 压缩历史行并释放缓存，返回压缩块字节数。PTY 输出在休眠期间仍会被解析。 */
+    fun hibernate(): Long = RustTerminal.hibernate(mEnginePtr)
+    fun thaw() {
+        RustTerminal.thaw(mEnginePtr)
+    }
+    fun isHibernated(): Boolean = RustTerminal.isHibernated(mEnginePtr)
+
+    // --- 延迟物化 ---
+    /** 创建完整引擎并重放缓冲的输出。已物化时返回 false。 */
+    fun materialize(): Boolean = RustTerminal.materialize(mEnginePtr)
+    fun isMaterialized(): Boolean = RustTerminal.isMaterialized(mEnginePtr)
+    /** 未物化的无头会话的完整原始输出（溢写文件 + 缓冲区），其他情况返回 null。 */
+    fun readHeadlessOutput(): ByteArray? = RustTerminal.readHeadlessOutput(mEnginePtr)
+
+    // --- 快照 ---
+    /** 写入状态快照检查点，只追加上次以来新滚出的历史行，[order]、[name] 和 [cwd] 写入文件头用于恢复会话。返回写入字节数，失败返回 -1。 */
+    fun writeSnapshot(path: String, order: Long, name: String?, cwd: String?): Long =
+        RustTerminal.writeSnapshot(mEnginePtr, path, order, name, cwd)
+
     fun getNativePointer(): Long = mEnginePtr
 
     // --- 光标 ---
@@ -9,10 +9,11 @@ import android.system.OsConstants
 import java.io.File
 import java.io.FileDescriptor
 import java.io.FileOutputStream
-import java.io.IOException
 import java.lang.reflect.Field
 import java.nio.charset.StandardCharsets
 import java.util.UUID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicBoolean
 
 /**
@@ -40,6 +41,12 @@ class TerminalSession(
         private const val MSG_PROCESS_EXITED = 4
         private const val MSG_SCREEN_UPDATED = 5
         private const val LOG_TAG = "TerminalSession"
+
+        /**
+         * Materializes and thaws sessions attached to a view off the main thread, since replaying
+         * buffered output and decoding compressed scrollback can take a while for large sessions.
+         */
+        private val sAttachExecutor: ExecutorService = Executors.newSingleThreadExecutor()
     }
 
     @JvmField
@@ -75,11 +82,58 @@ class TerminalSession(
     private val mRustCallback: RustEngineCallback = RustEngineCallback(client).also { it.setSession(this) }
 
     private enum class SessionState { IDLE, INITIALIZING, READY }
+    /** Written on the main thread, but read by [withEngine] from any thread. */
+    @Volatile
     private var mSessionState = SessionState.IDLE
     private val mScreenUpdatePending = AtomicBoolean(false)
 
     val mMainThreadHandler = MainThreadHandler()
 
+    /** If this session is currently attached to a TerminalView. Detached sessions may be hibernated. */
+    @Volatile
+    var isAttachedToView: Boolean = false
+        private set
+
+    /**
+     * The file used to persist the screen and scrollback of this session across process death.
+     * If it exists when the emulator is initialized, its content is restored before the shell
+     * output is attached. Must be set before [initializeEmulator] to take effect for restore.
+     */
+    @Volatile
+    var snapshotFile: File? = null
+
+    /**
+     * The position of this session in the session list, stored in the header of [snapshotFile] so
+     * sessions restored after process death keep their order. Defaults to the creation time.
+     */
+    @Volatile
+    var snapshotOrder: Long = System.currentTimeMillis()
+
+    /** Guards [mEngineUsers] and [mPendingDestroyEmulator], see [withEngine]. */
+    private val mEngineLock = Any()
+
+    /** The number of threads currently calling into the native engine through [withEngine]. */
+    private var mEngineUsers = 0
+
+    /** An emulator whose process exited while the engine was in use, destroyed by its last user. */
+    private var mPendingDestroyEmulator: TerminalEmulator? = null
+
+    /** The file raw output of a headless session is spilled to, see [startHeadless]. */
+    @Volatile
+    var headlessOutputFile: File? = null
+        private set
+
+    /**
+     * If this session was started with [startHeadless] and has not been materialized since, i.e.
+     * it was never opened in a terminal view.
+     */
+    @Volatile
+    var isHeadless: Boolean = false
+        private set
+
+    /** The raw output of a headless session, captured when its process exits. */
+    private var mHeadlessOutput: ByteArray? = null
+
     /** Update the client for this session. */
     fun updateTerminalSessionClient(client: TerminalSessionClient) {
         mClient = client
@@ -104,15 +158,49 @@ class TerminalSession(
         return mEmulator!!.getTitle()
     }
 
-    /** Set the terminal emulator's window size and start terminal emulation asynchronously. */
-    fun initializeEmulator(columns: Int, rows: Int, cellWidthPixels: Int, cellHeightPixels: Int) {
+    /**
+     * Start the shell before this session is shown in a terminal view. Only a lightweight part of
+     * the emulator runs, buffering raw output, tracking the title and answering terminal queries
+     * like DA and DSR; the full engine is materialized when the session is attached to a view or
+     * on [materialize].
+     */
+    fun startDetached(columns: Int, rows: Int) {
+        if (mEmulator == null && mSessionState == SessionState.IDLE) {
+            initializeEmulator(columns, rows, 0, 0, deferEngine = true)
+        }
+    }
+
+    /**
+     * Start the shell as a headless session for batch workloads. No emulator or scrollback is
+     * created, raw output is kept in a bounded ring whose overflow is spilled to [outputFile],
+     * only the title is tracked, terminal queries are answered like in [startDetached] sessions
+     * and the exit status is reported to the client with
+     * [TerminalSessionClient.onSessionFinished]. The session is upgraded to a full emulator like
+     * [startDetached] sessions when it is attached to a view or on [materialize].
+     */
+    fun startHeadless(columns: Int, rows: Int, outputFile: File) {
+        if (mEmulator == null && mSessionState == SessionState.IDLE && !isAttachedToView) {
+            headlessOutputFile = outputFile
+            isHeadless = true
+            initializeEmulator(columns, rows, 0, 0, deferEngine = true)
+        }
+    }
+
+    /**
+     * Set the terminal emulator's window size and start terminal emulation asynchronously.
+     *
+     * @param deferEngine If the full engine should only be created once the session is materialized.
+     */
+    fun initializeEmulator(columns: Int, rows: Int, cellWidthPixels: Int, cellHeightPixels: Int, deferEngine: Boolean = false) {
         android.util.Log.d("TermuxTrace", "[TRACE_SESSION] 4. initializeEmulator called (${columns}x${rows})")
         mSessionState = SessionState.INITIALIZING
         if (JNI.sNativeLibrariesLoaded) {
             android.util.Log.d("TermuxTrace", "[TRACE_SESSION] 5. Calling JNI.createSessionAsync")
             JNI.createSessionAsync(
                 shellPath, cwd ?: "", args, env, rows, columns, cellWidthPixels, cellHeightPixels,
-                transcriptRows ?: TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, mRustCallback
+                transcriptRows ?: TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS,
+                snapshotFile?.absolutePath, if (isHeadless) headlessOutputFile?.absolutePath else null,
+                deferEngine && !isAttachedToView, mRustCallback
             )
         } else {
             android.util.Log.w("TermuxTrace", "[TRACE_SESSION] JNI libraries not loaded, using mock")
@@ -138,6 +226,9 @@ class TerminalSession(
             mClient.setTerminalShellPid(this, mShellPid)
             android.util.Log.d("TermuxTrace", "[TRACE_SESSION] 8. Emulator instance created")
 
+            // The view may have been attached while a lightweight session was initializing
+            if (isAttachedToView) materializeAndThawAsync()
+
             mClient.onTextChanged(this)
 
             notifyScreenUpdate()
@@ -146,6 +237,118 @@ class TerminalSession(
 
     fun isEngineInitialized(): Boolean = mSessionState == SessionState.READY
 
+    /** Called by the TerminalView when it starts displaying this session. Thaws the session if hibernated. */
+    fun onAttachedToView() {
+        isAttachedToView = true
+        materializeAndThawAsync()
+    }
+
+    /** Materialize and thaw this session on [sAttachExecutor] and update the screen when done. */
+    private fun materializeAndThawAsync() {
+        sAttachExecutor.execute {
+            materialize()
+            thaw()
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED)
+        }
+    }
+
+    /** Called by the TerminalView when it stops displaying this session. */
+    fun onDetachedFromView() {
+        isAttachedToView = false
+    }
+
+    /**
+     * Compress the scrollback of this session and free its render caches to reduce memory usage.
+     * The PTY and parser stay live, so output is still accepted while hibernated.
+     *
+     * @return Returns the size of the compressed scrollback in bytes, or -1 if the session was not
+     * hibernated because it is attached to a view or not running.
+     */
+    fun hibernate(): Long {
+        if (isAttachedToView) return -1
+        return withEngine(-1L) { it.hibernate() }
+    }
+
+    /**
+     * Create the full engine of a lightweight session started with [startDetached] and replay its
+     * buffered output. Does nothing if the engine is already materialized. May be called from any
+     * thread, but blocks for as long as the replay takes, so avoid calling it on the main thread.
+     *
+     * A materialized engine is never turned back into a lightweight one. Idle background sessions
+     * are [hibernate]d instead, which compresses the scrollback that makes up most of their memory
+     * without losing the parsed screen state or having to replay the output again.
+     */
+    fun materialize() {
+        if (withEngine(false) { it.materialize() }) {
+            isHeadless = false
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED)
+        }
+    }
+
+    /**
+     * Get the raw output of a headless session, including the part spilled to [headlessOutputFile].
+     * Returns null if this session is not headless.
+     */
+    fun readHeadlessOutput(): ByteArray? {
+        if (!isHeadless) return null
+        mHeadlessOutput?.let { return it }
+        return withEngine(null) { it.readHeadlessOutput() }
+    }
+
+    /** Called by the Rust IO thread when the process of a headless session exits. */
+    fun onProcessExited(exitStatus: Int) {
+        mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, exitStatus))
+    }
+
+    fun isMaterialized(): Boolean = withEngine(false) { it.isMaterialized() }
+
+    /** Restore the scrollback and caches of a hibernated session. May be called from any thread. */
+    fun thaw() {
+        withEngine(Unit) { it.thaw() }
+    }
+
+    fun isHibernated(): Boolean = withEngine(false) { it.isHibernated() }
+
+    /**
+     * Write a checkpoint of the terminal state to [snapshotFile]. Only rows scrolled into the
+     * transcript since the previous checkpoint are appended, so this is cheap to call periodically.
+     * The header stores [snapshotOrder], [mSessionName] and the shell's working directory, see
+     * [SnapshotHeader]. May be called from any thread.
+     *
+     * @return Returns the number of bytes written, or -1 if no checkpoint was written.
+     */
+    fun checkpoint(): Long {
+        val file = snapshotFile ?: return -1
+        val cwd = getCwd()
+        return withEngine(-1L) { it.writeSnapshot(file.absolutePath, snapshotOrder, mSessionName, cwd) }
+    }
+
+    /**
+     * Run [block] with the emulator, which may be called from any thread. The lock is only
+     * held to register the caller, so slow calls like writing a checkpoint do not block the main
+     * thread, and if the process exits meanwhile the engine is destroyed once the last caller is done.
+     *
+     * @return Returns the result of [block], or [default] if the engine is not running.
+     */
+    private inline fun <T> withEngine(default: T, block: (TerminalEmulator) -> T): T {
+        val emulator = synchronized(mEngineLock) {
+            if (mSessionState != SessionState.READY) return default
+            val emulator = mEmulator?.takeIf { it.isAlive() } ?: return default
+            mEngineUsers++
+            emulator
+        }
+        try {
+            return block(emulator)
+        } finally {
+            synchronized(mEngineLock) {
+                if (--mEngineUsers == 0) {
+                    mPendingDestroyEmulator?.destroy()
+                    mPendingDestroyEmulator = null
+                }
+            }
+        }
+    }
+
     /** Write data to the shell process. */
     override fun write(data: ByteArray, offset: Int, count: Int) {
         if (mSessionState != SessionState.READY || mEmulator == null) return
@@ -222,8 +425,13 @@ class TerminalSession(
     private fun cleanupResources(exitStatus: Int) {
         mShellPid = -1
         mShellExitStatus = exitStatus
-        mEmulator?.destroy()
-        mEmulator = null
+        synchronized(mEngineLock) {
+            // The output is still needed by the client after the engine is destroyed
+            if (isHeadless) mHeadlessOutput = mEmulator?.takeIf { it.isAlive() }?.readHeadlessOutput()
+            val emulator = mEmulator
+            mEmulator = null
+            if (mEngineUsers == 0) emulator?.destroy() else mPendingDestroyEmulator = emulator
+        }
         mTerminalToProcessIOQueue.close()
         mProcessToTerminalIOQueue.close()
     }
@@ -295,7 +503,8 @@ class TerminalSession(
                 exitDescription += " - press Enter]"
 
                 val bytesToWrite = exitDescription.toByteArray(StandardCharsets.UTF_8)
-                if (mEmulator?.isAlive() == true) {
+                // Headless sessions have no screen to show it on and their raw output is the result
+                if (!isHeadless && mEmulator?.isAlive() == true) {
                     mEmulator!!.append(bytesToWrite, bytesToWrite.size)
                     notifyScreenUpdate()
                 }
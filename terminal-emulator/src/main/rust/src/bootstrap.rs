@@ -1,14 +1,51 @@
 //! Bootstrap Extractor Module
 //!
 //! Provides functionality to extract bootstrap zip to target directory.
+//!
+//! 解压分为四个阶段，每个阶段的耗时通过 `timings` 数组返回给 Java：
+//! 1. 读取中央目录，收集目录、文件和 SYMLINKS.txt
+//! 2. 一次性创建所有目录
+//! 3. 使用 rayon 并行解压文件，创建文件时直接设置权限
+//! 4. 批量创建符号链接
+//!
+//! 修复已安装的 prefix 时使用中央目录中每个文件的 CRC-32 和大小作为清单，
+//! 只把有变化或缺失的文件解压到 staging 目录，再逐个 rename 替换到 prefix 中。
+//! 是否可以修复某个文件由 dpkg 数据库决定：`var/lib/dpkg` 和 conffile 永远不会被修改，
+//! 只有 `info/*.md5sums` 中的校验和与 bootstrap 中一致（即包没有被升级）的文件才会
+//! 在内容损坏时被恢复，其他仍属于已安装包的文件只在缺失时恢复。
 
-use std::fs::{File, create_dir_all};
-use std::io::Read;
-use std::path::Path;
+use rayon::prelude::*;
+use std::collections::{BTreeSet, HashMap, HashSet};
+use std::fs::{File, OpenOptions, create_dir_all};
+use std::io::{Cursor, Read, Write};
+use std::os::unix::fs::{OpenOptionsExt, PermissionsExt};
+use std::path::{Path, PathBuf};
+use std::time::Instant;
 use zip::ZipArchive;
 
+type BoxError = Box<dyn std::error::Error + Send + Sync>;
+
+/// 每个阶段的耗时（毫秒）在 `timings` 数组中的位置
+pub const PHASE_INDEX: usize = 0;
+pub const PHASE_DIRECTORIES: usize = 1;
+pub const PHASE_FILES: usize = 2;
+pub const PHASE_SYMLINKS: usize = 3;
+pub const PHASE_COUNT: usize = 4;
+
+/// 修复时每个阶段的耗时（毫秒）在 `timings` 数组中的位置
+pub const REPAIR_PHASE_INDEX: usize = 0;
+pub const REPAIR_PHASE_COMPARE: usize = 1;
+pub const REPAIR_PHASE_STAGE: usize = 2;
+pub const REPAIR_PHASE_SWAP: usize = 3;
+pub const REPAIR_PHASE_COUNT: usize = 4;
+
+/// 每个解压线程复用的缓冲区大小
+const COPY_BUFFER_SIZE: usize = 64 * 1024;
+
 /// 从 Java 传入的字节数组解压 bootstrap zip 到指定目录
 ///
+/// 需要先把整个 zip 复制到 Java 堆，仅在无法使用 `extractFromBuffer` 时使用。
+///
 /// # Returns
 /// - 正数：成功解压的文件数量
 /// - -1: JNI 环境错误
@@ -24,184 +61,826 @@ pub extern "system" fn Java_com_termux_app_BootstrapExtractor_extractFromBytes(
 ) -> jni::sys::jlong {
     use jni::JNIEnv;
 
-    eprintln!("[Rust Bootstrap] ========== [Extraction Start] ==========");
+    let mut env = match unsafe { JNIEnv::from_raw(env_ptr) } {
+        Ok(e) => e,
+        Err(e) => {
+            eprintln!("[Rust Bootstrap] [ERROR] JNI environment error: {:?}", e);
+            return -1;
+        }
+    };
+
+    let target_dir_str = match get_string(&mut env, &target_dir) {
+        Some(s) => s,
+        None => return -2,
+    };
+
+    // 获取 zip 字节数据
+    let zip_data: Vec<u8> = match env.convert_byte_array(&zip_bytes) {
+        Ok(data) => data,
+        Err(e) => {
+            eprintln!(
+                "[Rust Bootstrap] [ERROR] Failed to convert byte array: {:?}",
+                e
+            );
+            return -3;
+        }
+    };
+
+    let mut timings = [0u64; PHASE_COUNT];
+    finish_extraction(extract_zip_to_dir(&zip_data, &target_dir_str, &mut timings))
+}
+
+/// 直接从 direct ByteBuffer 指向的内存解压 bootstrap zip 到指定目录，不复制 zip 数据
+///
+/// `zip_buffer` 由 libtermux-bootstrap.so 创建，指向动态链接器已映射到内存的 zip，
+/// 只有实际读取的页面才会被加载。`timings` 为 null 或长度为 `PHASE_COUNT` 的数组，
+/// 用于返回每个阶段的耗时（毫秒）。
+///
+/// # Returns
+/// - 正数：成功解压的文件数量
+/// - -1: JNI 环境错误
+/// - -2: 路径获取错误
+/// - -4: 解压错误
+/// - -5: ByteBuffer 不是 direct buffer
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_app_BootstrapExtractor_extractFromBuffer(
+    env_ptr: *mut *const jni::sys::JNINativeInterface_,
+    _class: jni::objects::JClass,
+    zip_buffer: jni::objects::JByteBuffer,
+    target_dir: jni::objects::JString,
+    timings: jni::objects::JLongArray,
+) -> jni::sys::jlong {
+    use jni::JNIEnv;
 
     let mut env = match unsafe { JNIEnv::from_raw(env_ptr) } {
-        Ok(e) => {
-            eprintln!("[Rust Bootstrap] [OK] JNI environment initialized");
-            e
+        Ok(e) => e,
+        Err(e) => {
+            eprintln!("[Rust Bootstrap] [ERROR] JNI environment error: {:?}", e);
+            return -1;
         }
+    };
+
+    let target_dir_str = match get_string(&mut env, &target_dir) {
+        Some(s) => s,
+        None => return -2,
+    };
+
+    let zip_data = match get_direct_buffer(&mut env, &zip_buffer) {
+        Some(data) => data,
+        None => return -5,
+    };
+
+    let mut phase_timings = [0u64; PHASE_COUNT];
+    let result = extract_zip_to_dir(zip_data, &target_dir_str, &mut phase_timings);
+    set_timings(&mut env, &timings, &phase_timings);
+
+    finish_extraction(result)
+}
+
+/// 根据 zip 中央目录的清单和 dpkg 数据库修复已安装的 prefix
+///
+/// 只有 dpkg 仍认为属于 bootstrap 版本且已损坏或缺失的文件和符号链接会被解压到
+/// `staging_dir`，校验 CRC-32 后逐个 rename 替换到 `prefix_dir` 中并再次校验。
+/// dpkg 数据库、conffile、被升级或删除的包以及 prefix 中不属于 bootstrap 的文件不会被修改。
+/// `timings` 为 null 或长度为 `REPAIR_PHASE_COUNT` 的数组。
+///
+/// # Returns
+/// - 非负数：重写的文件和符号链接数量
+/// - -1: JNI 环境错误
+/// - -2: 路径获取错误
+/// - -4: 读取 dpkg 数据库或解压到 staging 目录失败，prefix 没有被修改
+/// - -5: ByteBuffer 不是 direct buffer
+/// - -6: 替换或替换后校验失败，prefix 可能只被部分修复
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_app_BootstrapExtractor_repairFromBuffer(
+    env_ptr: *mut *const jni::sys::JNINativeInterface_,
+    _class: jni::objects::JClass,
+    zip_buffer: jni::objects::JByteBuffer,
+    prefix_dir: jni::objects::JString,
+    staging_dir: jni::objects::JString,
+    timings: jni::objects::JLongArray,
+) -> jni::sys::jlong {
+    use jni::JNIEnv;
+
+    let mut env = match unsafe { JNIEnv::from_raw(env_ptr) } {
+        Ok(e) => e,
         Err(e) => {
             eprintln!("[Rust Bootstrap] [ERROR] JNI environment error: {:?}", e);
             return -1;
         }
     };
 
-    // 获取目标目录路径
-    let target_dir_str: String = match env.get_string(&target_dir) {
+    let (prefix_dir_str, staging_dir_str) = match (
+        get_string(&mut env, &prefix_dir),
+        get_string(&mut env, &staging_dir),
+    ) {
+        (Some(p), Some(s)) => (p, s),
+        _ => return -2,
+    };
+
+    let zip_data = match get_direct_buffer(&mut env, &zip_buffer) {
+        Some(data) => data,
+        None => return -5,
+    };
+
+    let mut phase_timings = [0u64; REPAIR_PHASE_COUNT];
+    let result = repair_prefix(
+        zip_data,
+        Path::new(&prefix_dir_str),
+        Path::new(&staging_dir_str),
+        &mut phase_timings,
+    );
+    set_timings(&mut env, &timings, &phase_timings);
+
+    match result {
+        Ok(count) => {
+            eprintln!("[Rust Bootstrap] [SUCCESS] Repaired {} entries", count);
+            count as jni::sys::jlong
+        }
+        Err(RepairError::Stage(e)) => {
+            eprintln!("[Rust Bootstrap] [ERROR] Bootstrap repair stage error: {:?}", e);
+            -4
+        }
+        Err(RepairError::Swap(e)) => {
+            eprintln!("[Rust Bootstrap] [ERROR] Bootstrap repair swap error: {:?}", e);
+            -6
+        }
+    }
+}
+
+fn get_string(env: &mut jni::JNIEnv, string: &jni::objects::JString) -> Option<String> {
+    match env.get_string(string) {
         Ok(s) => {
             let s: String = s.into();
-            eprintln!("[Rust Bootstrap] [OK] Target directory: {}", s);
-            s
+            eprintln!("[Rust Bootstrap] [OK] Directory: {}", s);
+            Some(s)
         }
         Err(e) => {
-            eprintln!(
-                "[Rust Bootstrap] [ERROR] Failed to get target directory: {:?}",
-                e
-            );
-            return -2;
+            eprintln!("[Rust Bootstrap] [ERROR] Failed to get directory: {:?}", e);
+            None
         }
-    };
+    }
+}
 
-    // 获取 zip 字节数据
-    let zip_data: Vec<u8> = match env.convert_byte_array(&zip_bytes) {
-        Ok(data) => {
+/// 获取 direct ByteBuffer 指向的内存。buffer 指向的内存由 libtermux-bootstrap.so 持有，
+/// 该库不会被卸载，所以返回的切片在进程生命周期内一直有效。
+fn get_direct_buffer<'a>(
+    env: &mut jni::JNIEnv,
+    buffer: &jni::objects::JByteBuffer,
+) -> Option<&'a [u8]> {
+    match (
+        env.get_direct_buffer_address(buffer),
+        env.get_direct_buffer_capacity(buffer),
+    ) {
+        (Ok(address), Ok(capacity)) if !address.is_null() => {
             eprintln!(
-                "[Rust Bootstrap] [OK] Zip data loaded, size: {} bytes",
-                data.len()
+                "[Rust Bootstrap] [OK] Zip buffer mapped, size: {} bytes",
+                capacity
             );
-            data
+            Some(unsafe { std::slice::from_raw_parts(address, capacity) })
         }
-        Err(e) => {
+        (address, capacity) => {
             eprintln!(
-                "[Rust Bootstrap] [ERROR] Failed to convert byte array: {:?}",
-                e
+                "[Rust Bootstrap] [ERROR] Not a direct buffer: {:?} {:?}",
+                address, capacity
             );
-            return -3;
+            None
         }
-    };
+    }
+}
 
-    // 解压到目标目录
-    eprintln!("[Rust Bootstrap] [Step] Starting extraction...");
-    match extract_zip_to_dir(&zip_data, &target_dir_str) {
+fn set_timings(env: &mut jni::JNIEnv, timings: &jni::objects::JLongArray, values: &[u64]) {
+    if timings.is_null() {
+        return;
+    }
+    let values: Vec<jni::sys::jlong> = values.iter().map(|&t| t as jni::sys::jlong).collect();
+    if let Err(e) = env.set_long_array_region(timings, 0, &values) {
+        eprintln!("[Rust Bootstrap] [WARN] Failed to set timings: {:?}", e);
+    }
+}
+
+fn finish_extraction(result: Result<usize, BoxError>) -> jni::sys::jlong {
+    match result {
         Ok(count) => {
             eprintln!("[Rust Bootstrap] [SUCCESS] Extracted {} files", count);
-            eprintln!("[Rust Bootstrap] ========== [Extraction Complete] ==========");
             count as jni::sys::jlong
         }
         Err(e) => {
             eprintln!("[Rust Bootstrap] [ERROR] Bootstrap extract error: {:?}", e);
-            eprintln!("[Rust Bootstrap] ========== [Extraction Failed] ==========");
             -4
         }
     }
 }
 
-/// 解压 zip 到指定目录
-fn extract_zip_to_dir(
-    zip_bytes: &[u8],
-    target_dir: &str,
-) -> Result<usize, Box<dyn std::error::Error>> {
-    eprintln!("[Rust Extract] Opening zip archive...");
-    let reader = std::io::Cursor::new(zip_bytes);
-    let mut archive = ZipArchive::new(reader)?;
+/// 需要可执行权限的文件
+fn is_executable(path: &Path) -> bool {
+    path.starts_with("bin") || path.starts_with("libexec") || path.starts_with("lib/apt")
+}
 
-    let total_entries = archive.len();
-    eprintln!(
-        "[Rust Extract] Archive opened, total entries: {}",
-        total_entries
-    );
+fn elapsed_millis(start: Instant) -> u64 {
+    start.elapsed().as_millis() as u64
+}
+
+/// zip 中的一个普通文件，路径相对于 prefix
+struct FileEntry {
+    index: usize,
+    path: PathBuf,
+    mode: u32,
+    crc32: u32,
+    size: u64,
+}
+
+/// SYMLINKS.txt 中的一个符号链接，路径相对于 prefix
+struct SymlinkEntry {
+    target: String,
+    path: PathBuf,
+}
+
+/// zip 中央目录和 SYMLINKS.txt 的内容，即 bootstrap 的清单
+struct ArchiveIndex {
+    directories: BTreeSet<PathBuf>,
+    files: Vec<FileEntry>,
+    symlinks: Vec<SymlinkEntry>,
+}
+
+fn insert_parent(directories: &mut BTreeSet<PathBuf>, path: &Path) {
+    if let Some(parent) = path.parent() {
+        if !parent.as_os_str().is_empty() {
+            directories.insert(parent.to_path_buf());
+        }
+    }
+}
 
-    let mut extracted_count = 0;
-    let mut symlinks: Vec<(String, String)> = Vec::new();
-    let mut dir_count = 0;
-    let mut file_count = 0;
-    let mut symlink_count = 0;
+/// 读取中央目录，只读取元数据和 SYMLINKS.txt，不解压其他文件内容
+fn index_archive(archive: &mut ZipArchive<Cursor<&[u8]>>) -> Result<ArchiveIndex, BoxError> {
+    let mut index = ArchiveIndex {
+        directories: BTreeSet::new(),
+        files: Vec::with_capacity(archive.len()),
+        symlinks: Vec::new(),
+    };
 
     for i in 0..archive.len() {
-        let mut file = archive.by_index(i)?;
-        let file_path = file.enclosed_name().ok_or("Invalid file path")?;
-        let path_str = file_path.to_string_lossy().to_string();
-
-        // 跳过目录
-        if file.is_dir() {
-            dir_count += 1;
-            eprintln!("[Rust Extract] [{}] Skip directory: {}", i, path_str);
+        let entry = archive.by_index_raw(i)?;
+        let file_path = entry.enclosed_name().ok_or("Invalid file path")?;
+
+        if entry.is_dir() {
+            index.directories.insert(file_path);
             continue;
         }
 
         // 处理 SYMLINKS.txt
         if file_path == Path::new("SYMLINKS.txt") {
-            eprintln!("[Rust Extract] [{}] Processing SYMLINKS.txt...", i);
+            drop(entry);
             let mut contents = String::new();
-            file.read_to_string(&mut contents)?;
+            archive.by_index(i)?.read_to_string(&mut contents)?;
             for line in contents.lines() {
                 if let Some((old, new)) = line.split_once('←') {
-                    symlinks.push((old.to_string(), new.to_string()));
-                    symlink_count += 1;
+                    let path = PathBuf::from(new);
+                    insert_parent(&mut index.directories, &path);
+                    index.symlinks.push(SymlinkEntry { target: old.to_string(), path });
                 }
             }
-            eprintln!(
-                "[Rust Extract] Found {} symlinks in SYMLINKS.txt",
-                symlink_count
-            );
             continue;
         }
 
-        // 构建目标路径
-        let out_path = Path::new(target_dir).join(&file_path);
+        // 设置执行权限 (bin/, libexec/ 等目录)
+        let mode = if is_executable(&file_path) { 0o700 } else { 0o666 };
+        insert_parent(&mut index.directories, &file_path);
+        index.files.push(FileEntry {
+            index: i,
+            crc32: entry.crc32(),
+            size: entry.size(),
+            path: file_path,
+            mode,
+        });
+    }
 
-        // 创建父目录
-        if let Some(parent) = out_path.parent() {
-            create_dir_all(parent)?;
+    Ok(index)
+}
+
+/// 解压一个文件到 `out_path`，zip 会在读取结束时校验 CRC-32
+fn extract_entry(
+    archive: &mut ZipArchive<Cursor<&[u8]>>,
+    buffer: &mut [u8],
+    entry: &FileEntry,
+    out_path: &Path,
+) -> Result<(), BoxError> {
+    let mut file = archive.by_index(entry.index)?;
+    let mut outfile = OpenOptions::new()
+        .write(true)
+        .create(true)
+        .truncate(true)
+        .mode(entry.mode)
+        .open(out_path)?;
+    loop {
+        let count = file.read(buffer)?;
+        if count == 0 {
+            break;
         }
+        outfile.write_all(&buffer[..count])?;
+    }
+    Ok(())
+}
 
-        // 提取文件
-        let mut outfile = File::create(&out_path)?;
-        let bytes_copied = std::io::copy(&mut file, &mut outfile)?;
+/// 解压 zip 到指定目录
+///
+/// `timings` 返回每个阶段的耗时（毫秒），下标见 `PHASE_*` 常量。
+pub fn extract_zip_to_dir(
+    zip_bytes: &[u8],
+    target_dir: &str,
+    timings: &mut [u64; PHASE_COUNT],
+) -> Result<usize, BoxError> {
+    let target_dir = Path::new(target_dir);
 
-        eprintln!(
-            "[Rust Extract] [{}] Extracted: {} ({} bytes)",
-            i, path_str, bytes_copied
-        );
+    // 阶段 1：读取中央目录
+    let start = Instant::now();
+    let mut archive = ZipArchive::new(Cursor::new(zip_bytes))?;
+    let index = index_archive(&mut archive)?;
+    timings[PHASE_INDEX] = elapsed_millis(start);
+    eprintln!(
+        "[Rust Extract] Indexed {} entries: {} dirs, {} files, {} symlinks in {}ms",
+        archive.len(),
+        index.directories.len(),
+        index.files.len(),
+        index.symlinks.len(),
+        timings[PHASE_INDEX]
+    );
 
-        // 设置执行权限 (bin/, libexec/ 等目录)
-        let path_str = file_path.to_string_lossy();
-        if path_str.starts_with("bin/")
-            || path_str.starts_with("libexec")
-            || path_str.starts_with("lib/apt/")
-        {
-            #[cfg(unix)]
-            {
-                use std::os::unix::fs::PermissionsExt;
-                let mut perms = std::fs::metadata(&out_path)?.permissions();
-                perms.set_mode(0o700);
-                std::fs::set_permissions(&out_path, perms)?;
-                eprintln!(
-                    "[Rust Extract] [{}] Set executable permission: {}",
-                    i, path_str
-                );
+    // 阶段 2：创建目录，BTreeSet 有序，父目录总是先于子目录创建
+    let start = Instant::now();
+    create_dir_all(target_dir)?;
+    for directory in &index.directories {
+        create_dir_all(target_dir.join(directory))?;
+    }
+    timings[PHASE_DIRECTORIES] = elapsed_millis(start);
+
+    // 阶段 3：并行解压。每个线程克隆一份 archive（共享中央目录，只复制读取位置）
+    // 并复用一个缓冲区。可执行权限在创建文件时设置，不需要再调用 chmod。
+    let start = Instant::now();
+    index.files.par_iter().try_for_each_init(
+        || (archive.clone(), vec![0u8; COPY_BUFFER_SIZE]),
+        |(archive, buffer), entry| extract_entry(archive, buffer, entry, &target_dir.join(&entry.path)),
+    )?;
+    timings[PHASE_FILES] = elapsed_millis(start);
+
+    // 阶段 4：批量创建符号链接
+    let start = Instant::now();
+    index.symlinks.par_iter().try_for_each(|link| {
+        std::os::unix::fs::symlink(&link.target, target_dir.join(&link.path))
+    })?;
+    timings[PHASE_SYMLINKS] = elapsed_millis(start);
+
+    eprintln!(
+        "[Rust Extract] Directories: {}ms, files: {}ms, symlinks: {}ms",
+        timings[PHASE_DIRECTORIES], timings[PHASE_FILES], timings[PHASE_SYMLINKS]
+    );
+
+    Ok(index.files.len())
+}
+
+/// 已安装的文件是否与清单一致：先比较类型和大小，再计算 CRC-32
+fn is_file_unchanged(path: &Path, entry: &FileEntry, buffer: &mut [u8]) -> bool {
+    let metadata = match std::fs::symlink_metadata(path) {
+        Ok(metadata) => metadata,
+        Err(_) => return false,
+    };
+    if !metadata.is_file() || metadata.len() != entry.size {
+        return false;
+    }
+    if entry.mode & 0o100 != 0 && metadata.permissions().mode() & 0o100 == 0 {
+        return false;
+    }
+
+    let mut file = match File::open(path) {
+        Ok(file) => file,
+        Err(_) => return false,
+    };
+    let mut hasher = crc32fast::Hasher::new();
+    loop {
+        match file.read(buffer) {
+            Ok(0) => break,
+            Ok(count) => hasher.update(&buffer[..count]),
+            Err(_) => return false,
+        }
+    }
+    hasher.finalize() == entry.crc32
+}
+
+fn is_symlink_unchanged(path: &Path, link: &SymlinkEntry) -> bool {
+    std::fs::read_link(path).map_or(false, |target| target == Path::new(&link.target))
+}
+
+fn is_missing(path: &Path) -> bool {
+    matches!(std::fs::symlink_metadata(path), Err(e) if e.kind() == std::io::ErrorKind::NotFound)
+}
+
+/// dpkg 数据库的路径，其中的文件永远不会被修复
+const DPKG_DATABASE_DIR: &str = "var/lib/dpkg";
+/// dpkg 包信息文件所在的目录
+const DPKG_INFO_DIR: &str = "var/lib/dpkg/info";
+
+/// `var/lib/dpkg/info` 中的包信息，路径都相对于 prefix
+#[derive(Default)]
+struct DpkgManifest {
+    /// 有 `.list` 文件的包，即 dpkg 认为已安装的包
+    packages: HashSet<String>,
+    /// `.list` 中的路径所属的包
+    owners: HashMap<PathBuf, String>,
+    /// `.md5sums` 中的路径及其 MD5
+    md5sums: HashMap<PathBuf, String>,
+    /// `.conffiles` 中的路径
+    conffiles: HashSet<PathBuf>,
+}
+
+impl DpkgManifest {
+    /// 解析一个 `info/<package>.<kind>` 文件。`.list` 和 `.conffiles` 中是绝对路径，
+    /// `.md5sums` 中是相对于 `/` 的路径，不在 `prefix_dir` 下的路径会被忽略。
+    fn add_info_file(&mut self, prefix_dir: &Path, file_name: &str, contents: &str) {
+        let Some((package, kind)) = file_name.rsplit_once('.') else {
+            return;
+        };
+        let relative = |path: &str| -> Option<PathBuf> {
+            Path::new("/")
+                .join(path.trim_start_matches('/'))
+                .strip_prefix(prefix_dir)
+                .ok()
+                .filter(|path| !path.as_os_str().is_empty())
+                .map(Path::to_path_buf)
+        };
+
+        match kind {
+            "list" => {
+                self.packages.insert(package.to_string());
+                for path in contents.lines().filter_map(relative) {
+                    self.owners.insert(path, package.to_string());
+                }
+            }
+            "md5sums" => {
+                for line in contents.lines() {
+                    if let Some((md5, path)) = line.split_once("  ") {
+                        if let Some(path) = relative(path) {
+                            self.md5sums.insert(path, md5.to_string());
+                        }
+                    }
+                }
             }
+            "conffiles" => {
+                // 较新的 dpkg 可能在路径前加上 remove-on-upgrade 等标记
+                for line in contents.lines() {
+                    if let Some(path) = line.split_whitespace().find(|s| s.starts_with('/')).and_then(relative) {
+                        self.conffiles.insert(path);
+                    }
+                }
+            }
+            _ => {}
+        }
+    }
+}
+
+/// 读取 bootstrap zip 中的 dpkg 包信息
+fn read_archive_dpkg_manifest(
+    archive: &mut ZipArchive<Cursor<&[u8]>>,
+    index: &ArchiveIndex,
+    prefix_dir: &Path,
+) -> Result<DpkgManifest, BoxError> {
+    let mut manifest = DpkgManifest::default();
+    for entry in &index.files {
+        if entry.path.parent() != Some(Path::new(DPKG_INFO_DIR)) {
+            continue;
+        }
+        let Some(file_name) = entry.path.file_name().and_then(|name| name.to_str()) else {
+            continue;
+        };
+        let mut contents = String::new();
+        archive.by_index(entry.index)?.read_to_string(&mut contents)?;
+        manifest.add_info_file(prefix_dir, file_name, &contents);
+    }
+    Ok(manifest)
+}
+
+/// 读取已安装的 prefix 中的 dpkg 包信息
+fn read_installed_dpkg_manifest(prefix_dir: &Path) -> Result<DpkgManifest, BoxError> {
+    let info_dir = prefix_dir.join(DPKG_INFO_DIR);
+    let mut manifest = DpkgManifest::default();
+    for entry in std::fs::read_dir(&info_dir)
+        .map_err(|e| format!("Failed to read dpkg database at {:?}: {}", info_dir, e))?
+    {
+        let entry = entry?;
+        let Ok(file_name) = entry.file_name().into_string() else {
+            continue;
+        };
+        if !(file_name.ends_with(".list") || file_name.ends_with(".md5sums") || file_name.ends_with(".conffiles")) {
+            continue;
         }
+        let contents = std::fs::read_to_string(entry.path())?;
+        manifest.add_info_file(prefix_dir, &file_name, &contents);
+    }
+    Ok(manifest)
+}
+
+/// 一个 bootstrap 条目可以被如何修复
+#[derive(Debug, PartialEq)]
+enum RepairPolicy {
+    /// 不修改，例如 dpkg 数据库、conffile、被升级或删除的包中的文件
+    Skip,
+    /// 只在缺失时恢复
+    IfMissing,
+    /// 在缺失或内容与 bootstrap 不一致时恢复
+    IfChanged,
+}
 
-        file_count += 1;
-        extracted_count += 1;
+fn repair_policy(path: &Path, bootstrap: &DpkgManifest, installed: &DpkgManifest) -> RepairPolicy {
+    if path.starts_with(DPKG_DATABASE_DIR) || bootstrap.conffiles.contains(path) || installed.conffiles.contains(path) {
+        return RepairPolicy::Skip;
     }
 
+    // dpkg 记录的 MD5 与 bootstrap 中的一致时，该文件仍属于 bootstrap 版本的包
+    if let Some(md5) = bootstrap.md5sums.get(path) {
+        return if installed.md5sums.get(path) == Some(md5) {
+            RepairPolicy::IfChanged
+        } else {
+            RepairPolicy::Skip
+        };
+    }
+
+    // 没有 MD5 的条目（如符号链接）只在所属的包仍然安装时恢复
+    match bootstrap.owners.get(path) {
+        Some(package) if !installed.packages.contains(package) => RepairPolicy::Skip,
+        _ => RepairPolicy::IfMissing,
+    }
+}
+
+/// 修复失败的阶段。在 staging 阶段失败时 prefix 还没有被修改。
+#[derive(Debug)]
+pub enum RepairError {
+    Stage(BoxError),
+    Swap(BoxError),
+}
+
+/// 根据 zip 中央目录的清单和 dpkg 数据库修复 `prefix_dir`，返回重写的文件和符号链接数量
+///
+/// `staging_dir` 必须为空或不存在，修复结束后只会留下空目录。
+/// `timings` 返回每个阶段的耗时（毫秒），下标见 `REPAIR_PHASE_*` 常量。
+pub fn repair_prefix(
+    zip_bytes: &[u8],
+    prefix_dir: &Path,
+    staging_dir: &Path,
+    timings: &mut [u64; REPAIR_PHASE_COUNT],
+) -> Result<usize, RepairError> {
+    // 阶段 1：读取中央目录和 bootstrap 及已安装的 dpkg 数据库
+    let start = Instant::now();
+    let mut archive = ZipArchive::new(Cursor::new(zip_bytes)).map_err(|e| RepairError::Stage(e.into()))?;
+    let index = index_archive(&mut archive).map_err(RepairError::Stage)?;
+    let bootstrap_manifest = read_archive_dpkg_manifest(&mut archive, &index, prefix_dir).map_err(RepairError::Stage)?;
+    let installed_manifest = read_installed_dpkg_manifest(prefix_dir).map_err(RepairError::Stage)?;
+    timings[REPAIR_PHASE_INDEX] = elapsed_millis(start);
+
+    // 阶段 2：并行比较已安装的文件，只读取不写入
+    let start = Instant::now();
+    let changed_files: Vec<&FileEntry> = index
+        .files
+        .par_iter()
+        .map_init(
+            || vec![0u8; COPY_BUFFER_SIZE],
+            |buffer, entry| {
+                let path = prefix_dir.join(&entry.path);
+                let changed = match repair_policy(&entry.path, &bootstrap_manifest, &installed_manifest) {
+                    RepairPolicy::Skip => false,
+                    RepairPolicy::IfMissing => is_missing(&path),
+                    RepairPolicy::IfChanged => !is_file_unchanged(&path, entry, buffer),
+                };
+                changed.then_some(entry)
+            },
+        )
+        .flatten()
+        .collect();
+    let changed_symlinks: Vec<&SymlinkEntry> = index
+        .symlinks
+        .par_iter()
+        .filter(|link| {
+            repair_policy(&link.path, &bootstrap_manifest, &installed_manifest) != RepairPolicy::Skip
+                && is_missing(&prefix_dir.join(&link.path))
+        })
+        .collect();
+    timings[REPAIR_PHASE_COMPARE] = elapsed_millis(start);
     eprintln!(
-        "[Rust Extract] Extraction summary: {} dirs, {} files, {} symlinks to create",
-        dir_count, file_count, symlink_count
+        "[Rust Repair] {} of {} files and {} of {} symlinks need to be restored",
+        changed_files.len(),
+        index.files.len(),
+        changed_symlinks.len(),
+        index.symlinks.len()
     );
 
-    // 创建符号链接
-    eprintln!("[Rust Extract] Creating {} symlinks...", symlink_count);
-    for (old, new) in symlinks {
-        let link_path = Path::new(target_dir).join(&new);
-        if let Some(parent) = link_path.parent() {
-            create_dir_all(parent)?;
-        }
-        #[cfg(unix)]
-        std::os::unix::fs::symlink(&old, link_path)?;
-        eprintln!("[Rust Extract] Symlink: {} -> {}", new, old);
+    // 阶段 3：只把需要恢复的文件解压到 staging 目录，并在替换前校验 CRC-32
+    let start = Instant::now();
+    let mut staging_directories: BTreeSet<PathBuf> = BTreeSet::new();
+    for entry in &changed_files {
+        insert_parent(&mut staging_directories, &entry.path);
     }
+    for link in &changed_symlinks {
+        insert_parent(&mut staging_directories, &link.path);
+    }
+    (|| -> Result<(), BoxError> {
+        create_dir_all(staging_dir)?;
+        for directory in &staging_directories {
+            create_dir_all(staging_dir.join(directory))?;
+        }
+        changed_files.par_iter().try_for_each_init(
+            || (archive.clone(), vec![0u8; COPY_BUFFER_SIZE]),
+            |(archive, buffer), entry| -> Result<(), BoxError> {
+                let staged_path = staging_dir.join(&entry.path);
+                extract_entry(archive, buffer, entry, &staged_path)?;
+                if !is_file_unchanged(&staged_path, entry, buffer) {
+                    return Err(format!("Staged file {:?} does not match the bootstrap", entry.path).into());
+                }
+                Ok(())
+            },
+        )?;
+        for link in &changed_symlinks {
+            std::os::unix::fs::symlink(&link.target, staging_dir.join(&link.path))?;
+        }
+        Ok(())
+    })()
+    .map_err(RepairError::Stage)?;
+    timings[REPAIR_PHASE_STAGE] = elapsed_millis(start);
+
+    // 阶段 4：逐个 rename 替换到 prefix 中，每个文件的替换是原子的，然后再次校验
+    let start = Instant::now();
+    (|| -> Result<(), BoxError> {
+        // 只创建需要恢复的条目的父目录，已删除的包的目录不会被重新创建
+        for directory in &staging_directories {
+            create_dir_all(prefix_dir.join(directory))?;
+        }
+        for entry in &changed_files {
+            std::fs::rename(staging_dir.join(&entry.path), prefix_dir.join(&entry.path))?;
+        }
+        for link in &changed_symlinks {
+            std::fs::rename(staging_dir.join(&link.path), prefix_dir.join(&link.path))?;
+        }
+
+        let mut buffer = vec![0u8; COPY_BUFFER_SIZE];
+        for entry in &changed_files {
+            if !is_file_unchanged(&prefix_dir.join(&entry.path), entry, &mut buffer) {
+                return Err(format!("Verification failed for {:?}", entry.path).into());
+            }
+        }
+        for link in &changed_symlinks {
+            if !is_symlink_unchanged(&prefix_dir.join(&link.path), link) {
+                return Err(format!("Verification failed for {:?}", link.path).into());
+            }
+        }
+        Ok(())
+    })()
+    .map_err(RepairError::Swap)?;
+    timings[REPAIR_PHASE_SWAP] = elapsed_millis(start);
+
+    eprintln!(
+        "[Rust Repair] Index: {}ms, compare: {}ms, stage: {}ms, swap: {}ms",
+        timings[REPAIR_PHASE_INDEX],
+        timings[REPAIR_PHASE_COMPARE],
+        timings[REPAIR_PHASE_STAGE],
+        timings[REPAIR_PHASE_SWAP]
+    );
 
-    Ok(extracted_count)
+    Ok(changed_files.len() + changed_symlinks.len())
 }
 
 #[cfg(test)]
 mod tests {
+    use super::*;
+    use std::io::Write;
+    use zip::write::SimpleFileOptions;
+
+    fn create_zip() -> Vec<u8> {
+        let mut writer = zip::ZipWriter::new(Cursor::new(Vec::new()));
+        let options = SimpleFileOptions::default();
+        writer.add_directory("etc/", options).unwrap();
+        writer.start_file("etc/motd", options).unwrap();
+        writer.write_all(b"welcome").unwrap();
+        for i in 0..100 {
+            writer.start_file(format!("bin/tool{}", i), options).unwrap();
+            writer.write_all(format!("#!/bin/sh\necho {}\n", i).as_bytes()).unwrap();
+        }
+        writer.start_file("share/doc/readme", options).unwrap();
+        writer.write_all(b"readme").unwrap();
+        writer.start_file("SYMLINKS.txt", options).unwrap();
+        writer.write_all("tool0←bin/alias\n../doc/readme←share/man/readme\n".as_bytes()).unwrap();
+        writer.finish().unwrap().into_inner()
+    }
+
+    fn temp_dir(name: &str) -> PathBuf {
+        let dir = std::env::temp_dir().join(format!("bootstrap-{}-{}", name, std::process::id()));
+        let _ = std::fs::remove_dir_all(&dir);
+        dir
+    }
+
     #[test]
     fn test_extract_zip() {
-        assert!(true);
+        let target = temp_dir("extract");
+
+        let mut timings = [0u64; PHASE_COUNT];
+        let count = extract_zip_to_dir(&create_zip(), target.to_str().unwrap(), &mut timings).unwrap();
+        assert_eq!(count, 102);
+
+        assert_eq!(std::fs::read_to_string(target.join("etc/motd")).unwrap(), "welcome");
+        assert_eq!(std::fs::read_to_string(target.join("bin/tool42")).unwrap(), "#!/bin/sh\necho 42\n");
+        assert_eq!(std::fs::metadata(target.join("bin/tool42")).unwrap().permissions().mode() & 0o777, 0o700);
+        assert_eq!(std::fs::metadata(target.join("etc/motd")).unwrap().permissions().mode() & 0o100, 0);
+        assert_eq!(std::fs::read_link(target.join("bin/alias")).unwrap(), Path::new("tool0"));
+        assert_eq!(std::fs::read_link(target.join("share/man/readme")).unwrap(), Path::new("../doc/readme"));
+        assert!(!target.join("SYMLINKS.txt").exists());
+
+        std::fs::remove_dir_all(&target).unwrap();
+    }
+
+    /// 带有 dpkg 数据库的 bootstrap：tools 包含 bin/tool*，docs 包含 share/doc/readme
+    /// 和 share/man/readme 符号链接，base 包含 conffile etc/motd
+    fn create_dpkg_zip(prefix: &Path) -> Vec<u8> {
+        let root = prefix.to_str().unwrap();
+        let relative_root = root.trim_start_matches('/');
+        let mut writer = zip::ZipWriter::new_append(Cursor::new(create_zip())).unwrap();
+        let options = SimpleFileOptions::default();
+        let mut add = |name: &str, contents: String| {
+            writer.start_file(name, options).unwrap();
+            writer.write_all(contents.as_bytes()).unwrap();
+        };
+
+        let tools: Vec<String> = (0..100).map(|i| format!("bin/tool{}", i)).collect();
+        add("var/lib/dpkg/info/tools.list", tools.iter().map(|p| format!("{}/{}\n", root, p)).collect::<String>() + &format!("{}/bin/alias\n", root));
+        add("var/lib/dpkg/info/tools.md5sums", tools.iter().map(|p| format!("{:032}  {}/{}\n", 1, relative_root, p)).collect());
+        add("var/lib/dpkg/info/docs.list", format!("{0}/share/doc/readme\n{0}/share/man/readme\n", root));
+        add("var/lib/dpkg/info/docs.md5sums", format!("{:032}  {}/share/doc/readme\n", 2, relative_root));
+        add("var/lib/dpkg/info/base.list", format!("{}/etc/motd\n", root));
+        add("var/lib/dpkg/info/base.conffiles", format!("{}/etc/motd\n", root));
+        add("var/lib/dpkg/status", "Package: tools\nVersion: 1\n".to_string());
+        writer.finish().unwrap().into_inner()
+    }
+
+    #[test]
+    fn test_repair_prefix() {
+        let prefix = temp_dir("repair-prefix");
+        let staging = temp_dir("repair-staging");
+        let zip = create_dpkg_zip(&prefix);
+        let mut timings = [0u64; PHASE_COUNT];
+        extract_zip_to_dir(&zip, prefix.to_str().unwrap(), &mut timings).unwrap();
+
+        // 没有变化时不应重写任何文件
+        let mut repair_timings = [0u64; REPAIR_PHASE_COUNT];
+        assert_eq!(repair_prefix(&zip, &prefix, &staging, &mut repair_timings).unwrap(), 0);
+
+        // 损坏一个文件（大小相同）并删除一个文件和一个符号链接，它们属于 bootstrap 版本的包，应被恢复
+        std::fs::write(prefix.join("bin/tool3"), "#!/bin/sh\necho X\n").unwrap();
+        std::fs::remove_file(prefix.join("bin/tool7")).unwrap();
+        std::fs::remove_file(prefix.join("bin/alias")).unwrap();
+        // 用户修改的 conffile、被升级的文件、dpkg 数据库、被删除的包和用户文件不应被修改
+        std::fs::write(prefix.join("etc/motd"), "edited").unwrap();
+        std::fs::write(prefix.join("bin/tool5"), "upgraded").unwrap();
+        let md5sums = prefix.join("var/lib/dpkg/info/tools.md5sums");
+        let upgraded_md5sums = std::fs::read_to_string(&md5sums).unwrap().replacen(
+            &format!("{:032}  {}/bin/tool5", 1, prefix.to_str().unwrap().trim_start_matches('/')),
+            &format!("{:032}  {}/bin/tool5", 9, prefix.to_str().unwrap().trim_start_matches('/')),
+            1,
+        );
+        std::fs::write(&md5sums, upgraded_md5sums).unwrap();
+        std::fs::write(prefix.join("var/lib/dpkg/status"), "Package: tools\nVersion: 2\n").unwrap();
+        std::fs::remove_file(prefix.join("var/lib/dpkg/info/docs.list")).unwrap();
+        std::fs::remove_file(prefix.join("var/lib/dpkg/info/docs.md5sums")).unwrap();
+        std::fs::remove_dir_all(prefix.join("share")).unwrap();
+        std::fs::write(prefix.join("bin/user-tool"), "user").unwrap();
+        let unchanged_inode = std::os::unix::fs::MetadataExt::ino(&std::fs::metadata(prefix.join("bin/tool42")).unwrap());
+
+        assert_eq!(repair_prefix(&zip, &prefix, &staging, &mut repair_timings).unwrap(), 3);
+        assert_eq!(std::fs::read_to_string(prefix.join("bin/tool3")).unwrap(), "#!/bin/sh\necho 3\n");
+        assert_eq!(std::fs::read_to_string(prefix.join("bin/tool7")).unwrap(), "#!/bin/sh\necho 7\n");
+        assert_eq!(std::fs::metadata(prefix.join("bin/tool7")).unwrap().permissions().mode() & 0o777, 0o700);
+        assert_eq!(std::fs::read_link(prefix.join("bin/alias")).unwrap(), Path::new("tool0"));
+        assert_eq!(std::fs::read_to_string(prefix.join("etc/motd")).unwrap(), "edited");
+        assert_eq!(std::fs::read_to_string(prefix.join("bin/tool5")).unwrap(), "upgraded");
+        assert_eq!(std::fs::read_to_string(prefix.join("var/lib/dpkg/status")).unwrap(), "Package: tools\nVersion: 2\n");
+        assert!(!prefix.join("share").exists());
+        assert_eq!(std::fs::read_to_string(prefix.join("bin/user-tool")).unwrap(), "user");
+        assert_eq!(std::os::unix::fs::MetadataExt::ino(&std::fs::metadata(prefix.join("bin/tool42")).unwrap()), unchanged_inode);
+        assert!(!staging.join("bin/tool3").exists());
+
+        // 符号链接存在但指向其他位置时可能已被包升级修改，不应被替换
+        std::fs::remove_file(prefix.join("bin/alias")).unwrap();
+        std::os::unix::fs::symlink("tool1", prefix.join("bin/alias")).unwrap();
+        assert_eq!(repair_prefix(&zip, &prefix, &staging, &mut repair_timings).unwrap(), 0);
+        assert_eq!(std::fs::read_link(prefix.join("bin/alias")).unwrap(), Path::new("tool1"));
+
+        // 文件的路径被非空目录占用时无法替换，应返回 Swap 错误
+        std::fs::remove_file(prefix.join("bin/tool9")).unwrap();
+        std::fs::create_dir(prefix.join("bin/tool9")).unwrap();
+        std::fs::write(prefix.join("bin/tool9/file"), "file").unwrap();
+        std::fs::remove_dir_all(&staging).unwrap();
+        assert!(matches!(repair_prefix(&zip, &prefix, &staging, &mut repair_timings), Err(RepairError::Swap(_))));
+
+        // 没有 dpkg 数据库时无法判断哪些文件可以修复，应在修改 prefix 前返回 Stage 错误
+        std::fs::remove_dir_all(prefix.join("var/lib/dpkg/info")).unwrap();
+        let _ = std::fs::remove_dir_all(&staging);
+        assert!(matches!(repair_prefix(&zip, &prefix, &staging, &mut repair_timings), Err(RepairError::Stage(_))));
+
+        std::fs::remove_dir_all(&prefix).unwrap();
+        let _ = std::fs::remove_dir_all(&staging);
     }
 }
@@ -1,5 +1,5 @@
 /// 终端引擎和上下文管理
-use std::sync::RwLock;
+use std::sync::{Mutex, RwLock};
 use std::sync::atomic::{AtomicBool, Ordering};
 use std::os::fd::FromRawFd;
 use jni::objects::JValue;
@@ -8,6 +8,8 @@ use crate::vte_parser::Parser;
 use crate::engine::state::ScreenState;
 use crate::engine::events::TerminalEvent;
 use crate::engine::perform_handler::PerformHandler;
+use crate::engine::snapshot::{SnapshotHeader, SnapshotWriter};
+use crate::engine::dormant::DormantState;
 
 /// 终端引擎 - 主结构体
 pub struct TerminalEngine {
@@ -49,6 +51,13 @@ impl TerminalEngine {
         self.events.push(TerminalEvent::ScreenUpdated);
     }
 
+    /// 处理字节并返回其中产生的终端应答，应答不通过 Java 回调发送
+    pub fn process_bytes_capturing(&mut self, data: &[u8]) -> Vec<u8> {
+        *self.state.captured_responses.lock().unwrap() = Some(Vec::new());
+        self.process_bytes(data);
+        self.state.captured_responses.lock().unwrap().take().unwrap_or_default()
+    }
+
     pub fn process_code_point(&mut self, code_point: u32) {
         let mut utf8_buf = [0u8; 4];
         let utf8_str = char::from_u32(code_point)
@@ -75,6 +84,12 @@ pub struct TerminalContext {
     pub lock: RwLock<TerminalEngine>,
     pub running: AtomicBool,
     pub pty_fd: std::sync::atomic::AtomicI32,
+    /// 增量快照写入器，同时串行化并发的检查点请求
+    pub snapshot: Mutex<Option<SnapshotWriter>>,
+    /// 未物化时的轻量状态；为 None 表示 `lock` 中已是完整引擎，见 [`crate::engine::dormant`]
+    pub dormant: Mutex<Option<DormantState>>,
+    /// IO 线程结束后等待并报告退出状态的进程；0 表示不报告
+    pub exit_pid: std::sync::atomic::AtomicI32,
 }
 
 impl TerminalContext {
@@ -83,9 +98,100 @@ impl TerminalContext {
             lock: RwLock::new(engine),
             running: AtomicBool::new(true),
             pty_fd: std::sync::atomic::AtomicI32::new(-1),
+            snapshot: Mutex::new(None),
+            dormant: Mutex::new(None),
+            exit_pid: std::sync::atomic::AtomicI32::new(0),
         }
     }
 
+    /// 创建未物化的轻量上下文：只持有不含历史行的占位引擎，输出先缓冲到环形缓冲区
+    pub fn new_dormant(cols: i32, rows: i32, transcript_rows: i32, cw: i32, ch: i32, snapshot_path: Option<String>) -> Self {
+        let context = Self::new(DormantState::placeholder_engine(cols, rows, cw, ch));
+        *context.dormant.lock().unwrap() = Some(DormantState::new(transcript_rows, cw, ch, snapshot_path));
+        context
+    }
+
+    /// 创建无头会话上下文：同轻量上下文，但溢出的输出写入 `spill_path`
+    pub fn new_headless(cols: i32, rows: i32, transcript_rows: i32, cw: i32, ch: i32, spill_path: &str) -> Self {
+        let context = Self::new(DormantState::placeholder_engine(cols, rows, cw, ch));
+        *context.dormant.lock().unwrap() = Some(DormantState::new_headless(transcript_rows, cw, ch, spill_path));
+        context
+    }
+
+    /// 未物化的无头会话的完整原始输出；其他情况返回 None
+    pub fn headless_output(&self) -> Option<Vec<u8>> {
+        let dormant = self.dormant.lock().unwrap();
+        dormant.as_ref().filter(|d| d.headless).map(|d| d.output.collect())
+    }
+
+    pub fn is_materialized(&self) -> bool {
+        self.dormant.lock().unwrap().is_none()
+    }
+
+    /// 未物化时处理一段 PTY 输出：缓冲并跟踪标题，应答其中的终端查询，见 [`DormantState::feed`]
+    ///
+    /// 已物化时返回 None，否则返回这段输出中最后一个完整的标题。
+    pub fn feed_dormant(&self, data: &[u8]) -> Option<Option<String>> {
+        let (title, responses) = {
+            let mut dormant = self.dormant.lock().unwrap();
+            dormant.as_mut()?.feed(data, &self.lock)
+        };
+        self.write_to_pty(&responses);
+        Some(title)
+    }
+
+    /// 创建完整引擎并重放缓冲的输出；已物化时返回 false
+    pub fn materialize(&self) -> bool {
+        // 持有 dormant 锁直到替换完成，IO 线程不会在此期间向环形缓冲区追加数据
+        let responses = {
+            let mut dormant = self.dormant.lock().unwrap();
+            let state = match dormant.take() {
+                Some(s) => s,
+                None => return false,
+            };
+            let mut engine = self.lock.write().unwrap();
+            let (full, responses) = state.materialize(&mut engine);
+            *engine = full;
+            responses
+        };
+        self.write_to_pty(&responses);
+        true
+    }
+
+    /// 把终端应答直接写入 PTY，不经过 Java 层，因此在会话初始化完成前也能应答
+    pub fn write_to_pty(&self, data: &[u8]) {
+        let fd = self.pty_fd.load(Ordering::SeqCst);
+        let mut written = 0;
+        while fd != -1 && written < data.len() {
+            let n = unsafe { libc::write(fd, data[written..].as_ptr() as *const _, data.len() - written) };
+            if n < 0 {
+                let error = std::io::Error::last_os_error();
+                if error.kind() == std::io::ErrorKind::Interrupted { continue; }
+                crate::utils::android_log(crate::utils::LogPriority::WARN, &format!("write_to_pty: {}", error));
+                return;
+            }
+            written += n as usize;
+        }
+    }
+
+    /// 写入检查点：在读锁内编码增量，在锁外写文件，避免阻塞 IO 线程
+    ///
+    /// `header` 为写入文件头的会话信息。路径或文件头变化时重新开始完整快照。返回写入的字节数。
+    pub fn checkpoint(&self, path: &std::path::Path, header: SnapshotHeader) -> std::io::Result<usize> {
+        // 占位引擎中没有真实内容，不能覆盖已有快照
+        if !self.is_materialized() { return Ok(0); }
+        let mut writer_slot = self.snapshot.lock().unwrap();
+        if writer_slot.as_ref().map_or(true, |w| w.path() != path || *w.header() != header) {
+            *writer_slot = Some(SnapshotWriter::with_header(path, header));
+        }
+        let writer = writer_slot.as_mut().unwrap();
+        let pending = {
+            let engine = self.lock.read().unwrap();
+            writer.prepare(&engine.state)
+        };
+        writer.commit(pending)
+    }
+
     pub fn start_io_thread(self: std::sync::Arc<Self>, pty_fd: i32) {
         self.pty_fd.store(pty_fd, Ordering::SeqCst);
         let context = self.clone();
@@ -122,10 +228,20 @@ impl TerminalContext {
                 match std::io::Read::read(&mut pty_file, &mut buffer) {
                     Ok(0) => break,
                     Ok(n) => {
-                        let (events, callback_obj) = {
-                            let mut engine = context.lock.write().unwrap();
-                            engine.process_bytes(&buffer[..n]);
-                            (engine.take_events(), engine.state.java_callback_obj.clone())
+                        // 未物化：只缓冲原始输出、跟踪标题并应答查询
+                        let dormant_title = context.feed_dormant(&buffer[..n]);
+
+                        let (events, callback_obj) = match dormant_title {
+                            Some(None) => continue,
+                            Some(Some(title)) => {
+                                let engine = context.lock.read().unwrap();
+                                (vec![TerminalEvent::TitleChanged(title)], engine.state.java_callback_obj.clone())
+                            }
+                            None => {
+                                let mut engine = context.lock.write().unwrap();
+                                engine.process_bytes(&buffer[..n]);
+                                (engine.take_events(), engine.state.java_callback_obj.clone())
+                            }
                         };
 
                         if !events.is_empty() {
@@ -185,6 +301,20 @@ impl TerminalContext {
                     Err(_) => break,
                 }
             }
+
+            // PTY 关闭后等待进程退出并报告退出状态；引擎已销毁时不报告
+            let pid = context.exit_pid.load(Ordering::SeqCst);
+            if pid > 0 && context.running.load(Ordering::Relaxed) {
+                let exit_status = crate::pty::wait_for(pid);
+                let callback_obj = context.lock.read().unwrap().state.java_callback_obj.clone();
+                if let Some(obj) = callback_obj {
+                    let _ = env.call_method(obj.as_obj(), "onProcessExited", "(I)V", &[JValue::Int(exit_status)]);
+                    if env.exception_check().unwrap_or(false) {
+                        let _ = env.exception_describe();
+                        let _ = env.exception_clear();
+                    }
+                }
+            }
             crate::utils::android_log(crate::utils::LogPriority::INFO, "CHECKPOINT: IO Thread EXITing (normal)");
         });
     }
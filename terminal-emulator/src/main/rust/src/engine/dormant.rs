@@ -0,0 +1,434 @@
+/// 轻量会话（延迟创建完整引擎）
+///
+/// 大量空闲会话时，每个会话只保留 PTY 读取线程、一个有界的原始输出环形缓冲区和标题跟踪，
+/// 完整的 [`TerminalEngine`] 在首次显示或按需时才创建（materialize），并重放缓冲的输出。
+/// 未物化期间上下文中只有一个不含历史行的占位引擎，用于响应尺寸、标题等查询。
+///
+/// 终端查询（DA、DSR/CPR、颜色查询等）不能等到物化才应答，否则等待应答的程序会一直挂起。
+/// [`QueryScanner`] 发现查询时，占位引擎补处理尚未处理的输出，由与完整引擎相同的处理器生成应答；
+/// 物化时重放中只有占位引擎未处理过的部分产生的应答会被发送，避免重复应答。
+///
+/// 无头会话（headless）是同一机制的批处理用法：环形缓冲区溢出的字节溢写到文件，
+/// 进程退出时由 IO 线程报告退出状态，用户打开时照常物化。
+use std::collections::VecDeque;
+use std::fs::File;
+use std::io::Write;
+use std::path::PathBuf;
+use std::sync::RwLock;
+
+use crate::engine::context::TerminalEngine;
+
+/// 每个轻量会话缓冲的原始输出上限
+pub const DORMANT_OUTPUT_CAPACITY: usize = 128 * 1024;
+
+/// 无头会话溢写文件的上限；超出后只保留文件中的开头和内存中的结尾
+pub const HEADLESS_SPILL_LIMIT: u64 = 8 * 1024 * 1024;
+
+/// 标题序列最大长度，超出部分丢弃
+const MAX_TITLE_LEN: usize = 256;
+
+#[derive(Clone, Copy, PartialEq)]
+enum ScanState {
+    Ground,
+    Escape,
+    OscCommand(u32),
+    OscText,
+    OscEscape,
+    /// 非标题的 OSC，跳过到结束符
+    OscIgnore,
+    OscIgnoreEscape,
+}
+
+/// 只识别 OSC 0/2（设置窗口标题）的极简扫描器
+pub struct TitleScanner {
+    state: ScanState,
+    text: Vec<u8>,
+}
+
+impl TitleScanner {
+    pub fn new() -> Self {
+        Self { state: ScanState::Ground, text: Vec::new() }
+    }
+
+    /// 扫描一段输出，返回其中最后一个完整的标题
+    pub fn scan(&mut self, data: &[u8]) -> Option<String> {
+        let mut title = None;
+        for &b in data {
+            self.state = match self.state {
+                ScanState::Ground => if b == 0x1b { ScanState::Escape } else { ScanState::Ground },
+                ScanState::Escape => match b {
+                    b']' => ScanState::OscCommand(0),
+                    0x1b => ScanState::Escape,
+                    _ => ScanState::Ground,
+                },
+                ScanState::OscCommand(n) => match b {
+                    b'0'..=b'9' if n < 1000 => ScanState::OscCommand(n * 10 + (b - b'0') as u32),
+                    b';' if n == 0 || n == 2 => { self.text.clear(); ScanState::OscText }
+                    0x07 => ScanState::Ground,
+                    0x1b => ScanState::OscIgnoreEscape,
+                    _ => ScanState::OscIgnore,
+                },
+                ScanState::OscText => match b {
+                    0x07 => { title = Some(self.finish()); ScanState::Ground }
+                    0x1b => ScanState::OscEscape,
+                    _ => {
+                        if self.text.len() < MAX_TITLE_LEN { self.text.push(b); }
+                        ScanState::OscText
+                    }
+                },
+                ScanState::OscEscape => {
+                    if b == b'\\' { title = Some(self.finish()); }
+                    if b == 0x1b { ScanState::Escape } else { ScanState::Ground }
+                }
+                ScanState::OscIgnore => match b {
+                    0x07 => ScanState::Ground,
+                    0x1b => ScanState::OscIgnoreEscape,
+                    _ => ScanState::OscIgnore,
+                },
+                ScanState::OscIgnoreEscape => ScanState::Ground,
+            };
+        }
+        title
+    }
+
+    fn finish(&mut self) -> String {
+        let title = String::from_utf8_lossy(&self.text).into_owned();
+        self.text.clear();
+        title
+    }
+}
+
+#[derive(Clone, Copy, PartialEq)]
+enum QueryState {
+    Ground,
+    Escape,
+    /// CSI 序列，记录私有前缀字节（'?'、'>' 等，无前缀时为 0）
+    Csi(u8),
+    /// OSC 编号
+    OscCommand(u32),
+    /// OSC 参数，记录编号和参数中是否有 '?'
+    OscText(u32, bool),
+    OscEscape(u32, bool),
+}
+
+/// 只识别需要终端应答的查询序列的极简扫描器
+///
+/// 识别 DA1/DA2、DSR/CPR、XTVERSION、键盘协议查询、OSC 4/10/11 颜色查询和 OSC 18。
+/// 误报只会让占位引擎多处理一次输出，因此不区分参数。
+pub struct QueryScanner {
+    state: QueryState,
+}
+
+impl QueryScanner {
+    pub fn new() -> Self {
+        Self { state: QueryState::Ground }
+    }
+
+    /// 扫描一段输出，返回其中是否有完整的查询序列
+    pub fn scan(&mut self, data: &[u8]) -> bool {
+        let mut found = false;
+        for &b in data {
+            self.state = match self.state {
+                QueryState::Ground => if b == 0x1b { QueryState::Escape } else { QueryState::Ground },
+                QueryState::Escape => Self::escape(b),
+                QueryState::Csi(prefix) => match b {
+                    0x1b => QueryState::Escape,
+                    0x18 | 0x1a => QueryState::Ground,
+                    b'<'..=b'?' if prefix == 0 => QueryState::Csi(b),
+                    0x00..=0x3f => QueryState::Csi(prefix),
+                    0x40..=0x7e => {
+                        found |= matches!((prefix, b), (0 | b'>', b'c') | (0 | b'?', b'n') | (b'>', b'q') | (b'?', b'u'));
+                        QueryState::Ground
+                    }
+                    _ => QueryState::Ground,
+                },
+                QueryState::OscCommand(n) => match b {
+                    b'0'..=b'9' if n < 1000 => QueryState::OscCommand(n * 10 + (b - b'0') as u32),
+                    b';' => QueryState::OscText(n, false),
+                    0x07 => { found |= Self::is_osc_query(n, false); QueryState::Ground }
+                    0x1b => QueryState::OscEscape(n, false),
+                    _ => QueryState::OscText(u32::MAX, false),
+                },
+                QueryState::OscText(n, query) => match b {
+                    0x07 => { found |= Self::is_osc_query(n, query); QueryState::Ground }
+                    0x1b => QueryState::OscEscape(n, query),
+                    _ => QueryState::OscText(n, query || b == b'?'),
+                },
+                // ESC 结束 OSC，后面的字节属于新的转义序列
+                QueryState::OscEscape(n, query) => {
+                    found |= Self::is_osc_query(n, query);
+                    if b == b'\\' { QueryState::Ground } else { Self::escape(b) }
+                }
+            };
+        }
+        found
+    }
+
+    fn escape(b: u8) -> QueryState {
+        match b {
+            b'[' => QueryState::Csi(0),
+            b']' => QueryState::OscCommand(0),
+            0x1b => QueryState::Escape,
+            _ => QueryState::Ground,
+        }
+    }
+
+    fn is_osc_query(n: u32, query: bool) -> bool {
+        (query && matches!(n, 4 | 10 | 11)) || n == 18
+    }
+}
+
+/// 环形缓冲区的溢写文件，首次溢出时才创建
+pub struct OutputSpill {
+    path: PathBuf,
+    file: Option<File>,
+    limit: u64,
+    written: u64,
+    omitted: u64,
+}
+
+impl OutputSpill {
+    pub fn new(path: impl Into<PathBuf>, limit: u64) -> Self {
+        Self { path: path.into(), file: None, limit, written: 0, omitted: 0 }
+    }
+
+    /// 已写入文件的字节数
+    pub fn written(&self) -> u64 { self.written }
+
+    /// 超出上限或写入失败而丢弃的字节数
+    pub fn omitted(&self) -> u64 { self.omitted }
+
+    fn write(&mut self, data: &[u8]) {
+        let n = (self.limit - self.written).min(data.len() as u64) as usize;
+        if n > 0 && self.file.is_none() {
+            if let Some(parent) = self.path.parent() {
+                let _ = std::fs::create_dir_all(parent);
+            }
+            match File::create(&self.path) {
+                Ok(f) => self.file = Some(f),
+                Err(e) => {
+                    crate::utils::android_log(crate::utils::LogPriority::WARN,
+                        &format!("OutputSpill: create {:?} failed: {}", self.path, e));
+                    // 不再尝试写入
+                    self.limit = self.written;
+                }
+            }
+        }
+        let written = match self.file.as_mut() {
+            Some(f) if n > 0 && f.write_all(&data[..n]).is_ok() => n,
+            _ => 0,
+        };
+        self.written += written as u64;
+        self.omitted += (data.len() - written) as u64;
+    }
+
+    fn read(&self) -> Vec<u8> {
+        if self.written == 0 { return Vec::new(); }
+        let mut data = std::fs::read(&self.path).unwrap_or_default();
+        data.truncate(self.written as usize);
+        data
+    }
+}
+
+/// 有界原始输出环形缓冲区，溢出时丢弃最老的字节，或在设置了 [`OutputSpill`] 时写入文件
+pub struct RawOutputRing {
+    buf: VecDeque<u8>,
+    capacity: usize,
+    truncated: bool,
+    spill: Option<OutputSpill>,
+}
+
+impl RawOutputRing {
+    pub fn new(capacity: usize) -> Self {
+        Self { buf: VecDeque::new(), capacity, truncated: false, spill: None }
+    }
+
+    pub fn with_spill(capacity: usize, spill: OutputSpill) -> Self {
+        Self { spill: Some(spill), ..Self::new(capacity) }
+    }
+
+    pub fn spill(&self) -> Option<&OutputSpill> { self.spill.as_ref() }
+
+    pub fn len(&self) -> usize { self.buf.len() }
+
+    pub fn is_empty(&self) -> bool { self.buf.is_empty() }
+
+    pub fn is_truncated(&self) -> bool { self.truncated }
+
+    pub fn push(&mut self, data: &[u8]) {
+        if data.len() >= self.capacity {
+            let buffered = self.buf.len();
+            self.evict(buffered);
+            let spilled = data.len() - self.capacity;
+            if let Some(spill) = self.spill.as_mut() { spill.write(&data[..spilled]); }
+            self.buf.extend(&data[spilled..]);
+            self.truncated = true;
+            return;
+        }
+        let overflow = (self.buf.len() + data.len()).saturating_sub(self.capacity);
+        if overflow > 0 {
+            self.evict(overflow);
+        }
+        self.buf.extend(data);
+    }
+
+    fn evict(&mut self, n: usize) {
+        if n == 0 { return; }
+        if let Some(spill) = self.spill.as_mut() {
+            let (front, back) = self.buf.as_slices();
+            let split = n.min(front.len());
+            spill.write(&front[..split]);
+            if n > split { spill.write(&back[..n - split]); }
+        }
+        self.buf.drain(..n);
+        self.truncated = true;
+    }
+
+    /// 完整的原始输出：溢写文件 + 丢弃标记 + 缓冲区，不消耗缓冲区
+    pub fn collect(&self) -> Vec<u8> {
+        let mut out = match &self.spill {
+            Some(spill) => {
+                let mut out = spill.read();
+                if spill.omitted() > 0 {
+                    out.extend_from_slice(format!("\r\n[... {} bytes omitted ...]\r\n", spill.omitted()).as_bytes());
+                }
+                out
+            }
+            None => Vec::new(),
+        };
+        let (front, back) = self.buf.as_slices();
+        out.reserve(front.len() + back.len());
+        out.extend_from_slice(front);
+        out.extend_from_slice(back);
+        out
+    }
+
+    /// 最后 `n` 个字节（不超过缓冲的字节数），不消耗缓冲区
+    pub fn tail(&self, n: usize) -> Vec<u8> {
+        let skip = self.buf.len().saturating_sub(n);
+        self.buf.iter().skip(skip).copied().collect()
+    }
+
+    /// 取出用于重放的字节；被截断时从第一个换行之后开始，避免从转义序列中间重放
+    pub fn take_replay_bytes(&mut self) -> Vec<u8> {
+        let mut bytes: Vec<u8> = std::mem::take(&mut self.buf).into();
+        if self.truncated {
+            match bytes.iter().position(|&b| b == b'\n') {
+                Some(i) => { bytes.drain(..=i); }
+                None => bytes.clear(),
+            }
+        }
+        bytes
+    }
+}
+
+/// 未物化会话的轻量状态，以及物化时创建完整引擎所需的参数
+pub struct DormantState {
+    pub output: RawOutputRing,
+    pub titles: TitleScanner,
+    pub queries: QueryScanner,
+    /// 缓冲区末尾尚未由占位引擎处理过的字节数，这部分中的查询还没有应答
+    pub unanswered: usize,
+    pub transcript_rows: i32,
+    pub cell_width: i32,
+    pub cell_height: i32,
+    /// 物化时先恢复的快照文件，见 [`crate::engine::snapshot`]
+    pub snapshot_path: Option<String>,
+    /// 无头会话：输出溢写到文件，进程退出时报告退出状态
+    pub headless: bool,
+}
+
+impl DormantState {
+    pub fn new(transcript_rows: i32, cell_width: i32, cell_height: i32, snapshot_path: Option<String>) -> Self {
+        Self {
+            output: RawOutputRing::new(DORMANT_OUTPUT_CAPACITY),
+            titles: TitleScanner::new(),
+            queries: QueryScanner::new(),
+            unanswered: 0,
+            transcript_rows,
+            cell_width,
+            cell_height,
+            snapshot_path,
+            headless: false,
+        }
+    }
+
+    /// 无头会话的轻量状态：溢出的输出写入 `spill_path`
+    pub fn new_headless(transcript_rows: i32, cell_width: i32, cell_height: i32, spill_path: &str) -> Self {
+        Self {
+            output: RawOutputRing::with_spill(DORMANT_OUTPUT_CAPACITY, OutputSpill::new(spill_path, HEADLESS_SPILL_LIMIT)),
+            headless: true,
+            ..Self::new(transcript_rows, cell_width, cell_height, None)
+        }
+    }
+
+    /// 占位引擎：当前尺寸，不含历史行
+    pub fn placeholder_engine(cols: i32, rows: i32, cell_width: i32, cell_height: i32) -> TerminalEngine {
+        TerminalEngine::new(cols, rows, rows, cell_width, cell_height)
+    }
+
+    /// 缓冲一段输出并跟踪标题
+    ///
+    /// 其中有终端查询时，占位引擎补处理尚未处理的输出并返回生成的应答，由调用者写入 PTY。
+    /// 溢出环形缓冲区前未处理的字节不再补处理，此时占位引擎的光标位置可能不准确。
+    ///
+    /// 返回这段输出中最后一个完整的标题和应答。
+    pub fn feed(&mut self, data: &[u8], placeholder: &RwLock<TerminalEngine>) -> (Option<String>, Vec<u8>) {
+        self.output.push(data);
+        self.unanswered = (self.unanswered + data.len()).min(self.output.len());
+        let title = self.titles.scan(data);
+        let query = self.queries.scan(data);
+        if title.is_none() && !query {
+            return (None, Vec::new());
+        }
+
+        let mut placeholder = placeholder.write().unwrap();
+        let mut responses = Vec::new();
+        if query {
+            responses = placeholder.process_bytes_capturing(&self.output.tail(self.unanswered));
+            let _ = placeholder.take_events();
+            self.unanswered = 0;
+        }
+        if let Some(title) = &title {
+            placeholder.state.title = Some(title.clone());
+        }
+        (title, responses)
+    }
+
+    /// 用占位引擎的尺寸、颜色和回调创建完整引擎，并重放缓冲的输出
+    ///
+    /// 占位引擎已处理过的部分已经应答过，重放时丢弃其应答；其余部分的应答与引擎一起返回，
+    /// 由调用者写入 PTY。
+    pub fn materialize(mut self, placeholder: &mut TerminalEngine) -> (TerminalEngine, Vec<u8>) {
+        let cols = placeholder.state.cols;
+        let rows = placeholder.state.rows;
+        let mut engine = TerminalEngine::new(cols, rows, self.transcript_rows, self.cell_width, self.cell_height);
+
+        if let Some(path) = &self.snapshot_path {
+            let path = std::path::Path::new(path);
+            if path.exists() {
+                if let Err(e) = crate::engine::snapshot::restore_snapshot_file(&mut engine.state, path) {
+                    crate::utils::android_log(crate::utils::LogPriority::WARN, &format!("materialize: {}", e));
+                }
+            }
+        }
+
+        engine.state.colors.current_colors = placeholder.state.colors.current_colors;
+        engine.state.cursor.style = placeholder.state.cursor.style;
+        engine.state.cursor.blinking_enabled = placeholder.state.cursor.blinking_enabled;
+
+        let replay = self.output.take_replay_bytes();
+        let answered = replay.len().saturating_sub(self.unanswered);
+        let mut responses = Vec::new();
+        if !replay.is_empty() {
+            let _ = engine.process_bytes_capturing(&replay[..answered]);
+            responses = engine.process_bytes_capturing(&replay[answered..]);
+        }
+        let _ = engine.take_events();
+        if engine.state.title.is_none() {
+            engine.state.title = placeholder.state.title.take();
+        }
+        engine.state.java_callback_obj = placeholder.state.java_callback_obj.take();
+        (engine, responses)
+    }
+}
@@ -7,6 +7,8 @@
 /// - PerformHandler: VTE Parser 回调实现
 /// - 共享缓冲区管理
 /// - 终端事件枚举
+/// - 二进制状态快照
+/// - 延迟物化的轻量会话
 
 pub mod events;
 pub mod shared_buffer;
@@ -16,6 +18,8 @@ pub mod perform_handler;
 pub mod sgr;
 pub mod decset;
 pub mod key_event;
+pub mod snapshot;
+pub mod dormant;
 
 // 重新导出主要类型
 pub use events::TerminalEvent;
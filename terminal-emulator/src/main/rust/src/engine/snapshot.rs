@@ -0,0 +1,536 @@
+/// 终端状态二进制快照
+///
+/// 进程被系统杀死后，新的 shell 可以先加载快照，恢复屏幕、历史行、光标、模式、颜色、标题和制表位。
+///
+/// 文件格式（整数均为小端序）：
+/// - 文件头：8 字节魔数 `TMXSNAP\0` + u32 版本号 + u64 会话顺序
+///   + u32 长度 + 会话名称 + u32 长度 + 工作目录（UTF-8，长度为 0 表示未设置）
+///   会话顺序由应用在创建会话时分配，恢复时按它排列会话；名称和工作目录用于重建会话。
+///   Java 层通过 [`read_snapshot_header`]（`RustTerminal.readSnapshotHeader`）读取文件头，不另行解析
+/// - 若干段：u8 类型 + u32 负载长度 + 负载
+///   - `SEGMENT_HISTORY`：varint 行数 + 按 [`crate::terminal::hibernation`] 行编码的历史行（从旧到新）
+///   - `SEGMENT_STATE`：尺寸、光标、模式、颜色、标题、制表位及主/备用屏幕的可见行
+///
+/// 检查点只追加新滚出的历史行和一个新的 STATE 段，历史被整体改写或文件过大时才重写整个文件。
+/// 读取时以 STATE 段作为提交点：其前面的 HISTORY 段才生效，被截断的尾部（写入中途崩溃）会被忽略。
+use std::fs::{File, OpenOptions};
+use std::io::Write;
+use std::path::{Path, PathBuf};
+
+use crate::engine::state::ScreenState;
+use crate::engine::shared_buffer::FlatScreenBuffer;
+use crate::terminal::hibernation::{decode_row, encode_row, read_varint, write_varint};
+use crate::terminal::screen::{Screen, TerminalRow};
+
+pub const SNAPSHOT_MAGIC: &[u8; 8] = b"TMXSNAP\0";
+pub const SNAPSHOT_VERSION: u32 = 2;
+
+const SEGMENT_HISTORY: u8 = 1;
+const SEGMENT_STATE: u8 = 2;
+/// 文件头中定长部分的长度：魔数、版本号和会话顺序
+const HEADER_FIXED_LEN: usize = 20;
+/// 文件头中名称和工作目录的最大长度，超出时不写入
+const MAX_HEADER_STRING_LEN: usize = 4096;
+const MAX_HEADER_LEN: usize = HEADER_FIXED_LEN + 2 * (4 + MAX_HEADER_STRING_LEN);
+const SEGMENT_HEADER_LEN: usize = 5;
+
+// STATE 段中的布尔标志位
+const FLAG_ALTERNATE_BUFFER: u64 = 1 << 0;
+const FLAG_CURSOR_ENABLED: u64 = 1 << 1;
+const FLAG_APPLICATION_CURSOR_KEYS: u64 = 1 << 2;
+const FLAG_BRACKETED_PASTE: u64 = 1 << 3;
+const FLAG_SEND_FOCUS_EVENTS: u64 = 1 << 4;
+const FLAG_MOUSE_TRACKING: u64 = 1 << 5;
+const FLAG_MOUSE_BUTTON_EVENT: u64 = 1 << 6;
+const FLAG_SGR_MOUSE: u64 = 1 << 7;
+const FLAG_AUTO_SCROLL_DISABLED: u64 = 1 << 8;
+const FLAG_KITTY_KEYBOARD: u64 = 1 << 9;
+const FLAG_LINE_DRAWING_G0: u64 = 1 << 10;
+const FLAG_LINE_DRAWING_G1: u64 = 1 << 11;
+const FLAG_LINE_DRAWING_USES_G0: u64 = 1 << 12;
+const FLAG_CURSOR_ABOUT_TO_WRAP: u64 = 1 << 13;
+const FLAG_CURSOR_BLINKING: u64 = 1 << 14;
+const FLAG_SAVED_ABOUT_TO_WRAP: u64 = 1 << 15;
+const FLAG_SAVED_LINE_DRAWING_G0: u64 = 1 << 16;
+const FLAG_SAVED_LINE_DRAWING_G1: u64 = 1 << 17;
+const FLAG_SAVED_LINE_DRAWING_USES_G0: u64 = 1 << 18;
+
+fn write_i32(out: &mut Vec<u8>, value: i32) {
+    write_varint(out, ((value << 1) ^ (value >> 31)) as u32 as u64);
+}
+
+fn read_i32(data: &[u8], pos: &mut usize) -> i32 {
+    let v = read_varint(data, pos) as u32;
+    ((v >> 1) as i32) ^ -((v & 1) as i32)
+}
+
+fn push_segment(out: &mut Vec<u8>, kind: u8, payload: &[u8]) {
+    out.push(kind);
+    out.extend_from_slice(&(payload.len() as u32).to_le_bytes());
+    out.extend_from_slice(payload);
+}
+
+/// 编码主屏最新的 `count` 行历史；休眠时直接复用压缩块中的编码
+fn encode_history_tail(screen: &Screen, count: usize, out: &mut Vec<u8>) -> usize {
+    if let Some(store) = &screen.frozen_history {
+        let count = count.min(store.len());
+        write_varint(out, count as u64);
+        out.extend_from_slice(store.encoded_tail(count));
+        return count;
+    }
+    let count = count.min(screen.active_transcript_rows);
+    write_varint(out, count as u64);
+    for y in -(count as i32)..0 {
+        encode_row(screen.get_row(y), out);
+    }
+    count
+}
+
+fn history_len(screen: &Screen) -> usize {
+    match &screen.frozen_history {
+        Some(store) => store.len(),
+        None => screen.active_transcript_rows,
+    }
+}
+
+fn encode_state(state: &ScreenState, out: &mut Vec<u8>) {
+    let c = &state.cursor;
+    let saved = &c.saved_state;
+    let mut flags = 0u64;
+    let bits = [
+        (state.use_alternate_buffer, FLAG_ALTERNATE_BUFFER),
+        (state.cursor_enabled, FLAG_CURSOR_ENABLED),
+        (state.application_cursor_keys, FLAG_APPLICATION_CURSOR_KEYS),
+        (state.bracketed_paste, FLAG_BRACKETED_PASTE),
+        (state.send_focus_events, FLAG_SEND_FOCUS_EVENTS),
+        (state.mouse_tracking, FLAG_MOUSE_TRACKING),
+        (state.mouse_button_event, FLAG_MOUSE_BUTTON_EVENT),
+        (state.sgr_mouse, FLAG_SGR_MOUSE),
+        (state.auto_scroll_disabled, FLAG_AUTO_SCROLL_DISABLED),
+        (state.kitty_keyboard_mode, FLAG_KITTY_KEYBOARD),
+        (state.use_line_drawing_g0, FLAG_LINE_DRAWING_G0),
+        (state.use_line_drawing_g1, FLAG_LINE_DRAWING_G1),
+        (state.use_line_drawing_uses_g0, FLAG_LINE_DRAWING_USES_G0),
+        (c.about_to_wrap, FLAG_CURSOR_ABOUT_TO_WRAP),
+        (c.blinking_enabled, FLAG_CURSOR_BLINKING),
+        (saved.about_to_wrap, FLAG_SAVED_ABOUT_TO_WRAP),
+        (saved.use_line_drawing_g0, FLAG_SAVED_LINE_DRAWING_G0),
+        (saved.use_line_drawing_g1, FLAG_SAVED_LINE_DRAWING_G1),
+        (saved.use_line_drawing_uses_g0, FLAG_SAVED_LINE_DRAWING_USES_G0),
+    ];
+    for (set, bit) in bits {
+        if set { flags |= bit; }
+    }
+
+    write_i32(out, state.cols);
+    write_i32(out, state.rows);
+    write_varint(out, state.main_screen.buffer.len().max(
+        state.main_screen.frozen_history.as_ref().map_or(0, |s| s.total_rows)) as u64);
+    write_varint(out, flags);
+
+    write_i32(out, c.x);
+    write_i32(out, c.y);
+    write_i32(out, c.style);
+    write_i32(out, saved.x);
+    write_i32(out, saved.y);
+    write_varint(out, saved.style);
+    write_i32(out, saved.decset_flags);
+    write_varint(out, saved.fore_color);
+    write_varint(out, saved.back_color);
+
+    write_i32(out, state.modes.flags);
+    write_i32(out, state.modify_other_keys);
+    write_i32(out, state.top_margin);
+    write_i32(out, state.bottom_margin);
+    write_i32(out, state.left_margin);
+    write_i32(out, state.right_margin);
+    write_varint(out, state.current_style);
+    write_varint(out, state.fore_color);
+    write_varint(out, state.back_color);
+    write_varint(out, state.effect);
+    write_varint(out, state.underline_color);
+
+    // 标题：长度 + 1，0 表示未设置
+    match &state.title {
+        Some(title) => {
+            write_varint(out, title.len() as u64 + 1);
+            out.extend_from_slice(title.as_bytes());
+        }
+        None => write_varint(out, 0),
+    }
+
+    write_varint(out, state.tab_stops.len() as u64);
+    let mut byte = 0u8;
+    for (i, &stop) in state.tab_stops.iter().enumerate() {
+        if stop { byte |= 1 << (i % 8); }
+        if i % 8 == 7 { out.push(byte); byte = 0; }
+    }
+    if state.tab_stops.len() % 8 != 0 { out.push(byte); }
+
+    write_varint(out, state.colors.current_colors.len() as u64);
+    for &color in state.colors.current_colors.iter() {
+        write_varint(out, color as u64);
+    }
+
+    for screen in [&state.main_screen, &state.alt_screen] {
+        for y in 0..screen.rows {
+            encode_row(screen.get_row(y), out);
+        }
+    }
+}
+
+/// 快照文件头中的会话信息
+#[derive(Debug, Clone, Default, PartialEq, Eq)]
+pub struct SnapshotHeader {
+    /// 会话顺序
+    pub order: u64,
+    /// 会话名称
+    pub name: Option<String>,
+    /// 会话的工作目录
+    pub cwd: Option<String>,
+}
+
+impl SnapshotHeader {
+    fn encode(&self, out: &mut Vec<u8>) {
+        out.extend_from_slice(SNAPSHOT_MAGIC);
+        out.extend_from_slice(&SNAPSHOT_VERSION.to_le_bytes());
+        out.extend_from_slice(&self.order.to_le_bytes());
+        for value in [&self.name, &self.cwd] {
+            let bytes = value.as_deref().map_or(&[][..], str::as_bytes);
+            let bytes = if bytes.len() > MAX_HEADER_STRING_LEN { &[][..] } else { bytes };
+            out.extend_from_slice(&(bytes.len() as u32).to_le_bytes());
+            out.extend_from_slice(bytes);
+        }
+    }
+
+    /// 解析文件头，返回文件头和其长度
+    fn decode(data: &[u8]) -> Result<(Self, usize), String> {
+        if data.len() < HEADER_FIXED_LEN || &data[..8] != SNAPSHOT_MAGIC {
+            return Err("snapshot: bad magic".to_string());
+        }
+        let version = u32::from_le_bytes(data[8..12].try_into().unwrap());
+        if version != SNAPSHOT_VERSION {
+            return Err(format!("snapshot: unsupported version {}", version));
+        }
+        let order = u64::from_le_bytes(data[12..20].try_into().unwrap());
+
+        let mut pos = HEADER_FIXED_LEN;
+        let mut strings = [None, None];
+        for value in strings.iter_mut() {
+            let len = data.get(pos..pos + 4)
+                .map(|b| u32::from_le_bytes(b.try_into().unwrap()) as usize)
+                .ok_or("snapshot: truncated header")?;
+            pos += 4;
+            if len > MAX_HEADER_STRING_LEN || pos + len > data.len() {
+                return Err("snapshot: truncated header".to_string());
+            }
+            if len > 0 {
+                *value = Some(String::from_utf8_lossy(&data[pos..pos + len]).into_owned());
+            }
+            pos += len;
+        }
+        let [name, cwd] = strings;
+        Ok((Self { order, name, cwd }, pos))
+    }
+}
+
+/// 一次检查点的编码结果，在读锁内生成，在锁外写入文件
+pub struct PendingSnapshot {
+    bytes: Vec<u8>,
+    full: bool,
+    epoch: u64,
+    serial: u64,
+    rows: usize,
+}
+
+impl PendingSnapshot {
+    pub fn len(&self) -> usize { self.bytes.len() }
+}
+
+/// 增量快照写入器，记录文件中已包含的历史位置
+pub struct SnapshotWriter {
+    path: PathBuf,
+    /// 写入文件头的会话信息
+    header: SnapshotHeader,
+    /// 上次写入时的历史纪元；None 表示下次必须重写整个文件
+    epoch: Option<u64>,
+    serial: u64,
+    rows_in_file: usize,
+}
+
+impl SnapshotWriter {
+    pub fn new(path: impl Into<PathBuf>) -> Self {
+        Self::with_header(path, SnapshotHeader::default())
+    }
+
+    pub fn with_header(path: impl Into<PathBuf>, header: SnapshotHeader) -> Self {
+        Self { path: path.into(), header, epoch: None, serial: 0, rows_in_file: 0 }
+    }
+
+    pub fn path(&self) -> &Path { &self.path }
+
+    pub fn header(&self) -> &SnapshotHeader { &self.header }
+
+    /// 编码自上次检查点以来的变化；需在持有引擎锁时调用
+    pub fn prepare(&self, state: &ScreenState) -> PendingSnapshot {
+        let screen = &state.main_screen;
+        let capacity = screen.buffer.len().max(
+            screen.frozen_history.as_ref().map_or(0, |s| s.total_rows)).saturating_sub(screen.rows as usize);
+        let new_rows = screen.history_serial.saturating_sub(self.serial) as usize;
+        // 历史被改写，或文件中累积的已丢弃行超过一倍容量时整体重写
+        let full = self.epoch != Some(screen.history_epoch)
+            || self.rows_in_file + new_rows.min(capacity) > capacity * 2 + 1024;
+
+        let mut bytes = Vec::with_capacity(if full { 64 * 1024 } else { 8 * 1024 });
+        if full {
+            self.header.encode(&mut bytes);
+        }
+
+        let mut payload = Vec::new();
+        let requested = if full { history_len(screen) } else { new_rows };
+        let written = if requested > 0 { encode_history_tail(screen, requested, &mut payload) } else { 0 };
+        if written > 0 {
+            push_segment(&mut bytes, SEGMENT_HISTORY, &payload);
+        }
+
+        payload.clear();
+        encode_state(state, &mut payload);
+        push_segment(&mut bytes, SEGMENT_STATE, &payload);
+
+        PendingSnapshot {
+            bytes,
+            full,
+            epoch: screen.history_epoch,
+            serial: screen.history_serial,
+            rows: if full { written } else { self.rows_in_file + written },
+        }
+    }
+
+    /// 将编码结果写入文件：完整快照写临时文件后原子替换，增量快照直接追加
+    pub fn commit(&mut self, pending: PendingSnapshot) -> std::io::Result<usize> {
+        let result = if pending.full {
+            let tmp = self.path.with_extension("tmp");
+            File::create(&tmp)
+                .and_then(|mut f| f.write_all(&pending.bytes))
+                .and_then(|_| std::fs::rename(&tmp, &self.path))
+        } else {
+            OpenOptions::new().append(true).open(&self.path)
+                .and_then(|mut f| f.write_all(&pending.bytes))
+        };
+
+        match result {
+            Ok(()) => {
+                self.epoch = Some(pending.epoch);
+                self.serial = pending.serial;
+                self.rows_in_file = pending.rows;
+                Ok(pending.bytes.len())
+            }
+            Err(e) => {
+                // 文件状态未知，下次重写整个文件
+                self.epoch = None;
+                Err(e)
+            }
+        }
+    }
+}
+
+struct DecodedState<'a> {
+    data: &'a [u8],
+    pos: usize,
+}
+
+/// 从快照数据恢复屏幕状态
+///
+/// 引擎保持当前尺寸和历史容量：快照尺寸不同时先按快照尺寸恢复，再重排到当前尺寸。
+/// 返回恢复的历史行数。
+pub fn restore_snapshot(state: &mut ScreenState, data: &[u8]) -> Result<usize, String> {
+    let (_, header_len) = SnapshotHeader::decode(data)?;
+
+    // 已提交的历史行（偏移）和待提交的历史行
+    let mut history: Vec<usize> = Vec::new();
+    let mut pending: Vec<usize> = Vec::new();
+    let mut last_state: Option<DecodedState> = None;
+
+    let mut pos = header_len;
+    while pos + SEGMENT_HEADER_LEN <= data.len() {
+        let kind = data[pos];
+        let len = u32::from_le_bytes([data[pos + 1], data[pos + 2], data[pos + 3], data[pos + 4]]) as usize;
+        let start = pos + SEGMENT_HEADER_LEN;
+        let end = match start.checked_add(len) {
+            Some(e) if e <= data.len() => e,
+            _ => break, // 尾部被截断
+        };
+        let payload = &data[..end];
+        match kind {
+            SEGMENT_HISTORY => {
+                let mut p = start;
+                let count = read_varint(payload, &mut p) as usize;
+                for _ in 0..count {
+                    if p >= end { break; }
+                    pending.push(p);
+                    skip_row(payload, &mut p);
+                }
+            }
+            SEGMENT_STATE => {
+                history.append(&mut pending);
+                last_state = Some(DecodedState { data: payload, pos: start });
+            }
+            _ => {}
+        }
+        pos = end;
+    }
+
+    let mut s = match last_state {
+        Some(s) => s,
+        None => return Err("snapshot: no complete state segment".to_string()),
+    };
+
+    let target_cols = state.cols;
+    let target_rows = state.rows;
+    let d = s.data;
+    let p = &mut s.pos;
+
+    let snap_cols = read_i32(d, p);
+    let snap_rows = read_i32(d, p);
+    let _snap_total_rows = read_varint(d, p);
+    if snap_cols <= 0 || snap_rows <= 0 || snap_cols > 4096 || snap_rows > 4096 {
+        return Err(format!("snapshot: bad size {}x{}", snap_cols, snap_rows));
+    }
+    if snap_cols != state.cols || snap_rows != state.rows {
+        state.resize(snap_cols, snap_rows);
+    }
+    let flags = read_varint(d, p);
+
+    state.cursor.x = read_i32(d, p);
+    state.cursor.y = read_i32(d, p);
+    state.cursor.style = read_i32(d, p);
+    state.cursor.saved_state.x = read_i32(d, p);
+    state.cursor.saved_state.y = read_i32(d, p);
+    state.cursor.saved_state.style = read_varint(d, p);
+    state.cursor.saved_state.decset_flags = read_i32(d, p);
+    state.cursor.saved_state.fore_color = read_varint(d, p);
+    state.cursor.saved_state.back_color = read_varint(d, p);
+
+    state.modes.flags = read_i32(d, p);
+    state.modify_other_keys = read_i32(d, p);
+    state.top_margin = read_i32(d, p);
+    state.bottom_margin = read_i32(d, p);
+    state.left_margin = read_i32(d, p);
+    state.right_margin = read_i32(d, p);
+    state.current_style = read_varint(d, p);
+    state.fore_color = read_varint(d, p);
+    state.back_color = read_varint(d, p);
+    state.effect = read_varint(d, p);
+    state.underline_color = read_varint(d, p);
+
+    let flag = |bit: u64| flags & bit != 0;
+    state.use_alternate_buffer = flag(FLAG_ALTERNATE_BUFFER);
+    state.cursor_enabled = flag(FLAG_CURSOR_ENABLED);
+    state.application_cursor_keys = flag(FLAG_APPLICATION_CURSOR_KEYS);
+    state.bracketed_paste = flag(FLAG_BRACKETED_PASTE);
+    state.send_focus_events = flag(FLAG_SEND_FOCUS_EVENTS);
+    state.mouse_tracking = flag(FLAG_MOUSE_TRACKING);
+    state.mouse_button_event = flag(FLAG_MOUSE_BUTTON_EVENT);
+    state.sgr_mouse = flag(FLAG_SGR_MOUSE);
+    state.auto_scroll_disabled = flag(FLAG_AUTO_SCROLL_DISABLED);
+    state.kitty_keyboard_mode = flag(FLAG_KITTY_KEYBOARD);
+    state.use_line_drawing_g0 = flag(FLAG_LINE_DRAWING_G0);
+    state.use_line_drawing_g1 = flag(FLAG_LINE_DRAWING_G1);
+    state.use_line_drawing_uses_g0 = flag(FLAG_LINE_DRAWING_USES_G0);
+    state.cursor.about_to_wrap = flag(FLAG_CURSOR_ABOUT_TO_WRAP);
+    state.cursor.blinking_enabled = flag(FLAG_CURSOR_BLINKING);
+    state.cursor.saved_state.about_to_wrap = flag(FLAG_SAVED_ABOUT_TO_WRAP);
+    state.cursor.saved_state.use_line_drawing_g0 = flag(FLAG_SAVED_LINE_DRAWING_G0);
+    state.cursor.saved_state.use_line_drawing_g1 = flag(FLAG_SAVED_LINE_DRAWING_G1);
+    state.cursor.saved_state.use_line_drawing_uses_g0 = flag(FLAG_SAVED_LINE_DRAWING_USES_G0);
+
+    let title_len = read_varint(d, p) as usize;
+    state.title = if title_len == 0 {
+        None
+    } else {
+        let end = (*p + title_len - 1).min(d.len());
+        let title = String::from_utf8_lossy(&d[*p..end]).into_owned();
+        *p = end;
+        Some(title)
+    };
+
+    let tab_count = read_varint(d, p) as usize;
+    let mut tab_stops = vec![false; snap_cols as usize];
+    for i in 0..tab_count {
+        let byte = d.get(*p + i / 8).copied().unwrap_or(0);
+        if i < tab_stops.len() { tab_stops[i] = byte & (1 << (i % 8)) != 0; }
+    }
+    *p += tab_count.div_ceil(8);
+    state.tab_stops = tab_stops;
+
+    let color_count = read_varint(d, p) as usize;
+    for i in 0..color_count {
+        let color = read_varint(d, p) as u32;
+        if i < state.colors.current_colors.len() { state.colors.current_colors[i] = color; }
+    }
+
+    let cols = snap_cols as usize;
+    let rows = snap_rows as usize;
+    let mut visible_main = Vec::with_capacity(rows);
+    for _ in 0..rows { visible_main.push(decode_row(d, p, cols)); }
+    let mut visible_alt = Vec::with_capacity(rows);
+    for _ in 0..rows { visible_alt.push(decode_row(d, p, cols)); }
+
+    // 主屏：保留引擎的历史容量，只恢复最新的历史行
+    let main = &mut state.main_screen;
+    main.thaw();
+    let total = main.buffer.len().max(rows);
+    let capacity = total - rows;
+    let skip = history.len().saturating_sub(capacity);
+    let mut buffer: Vec<TerminalRow> = Vec::with_capacity(total);
+    for &offset in &history[skip..] {
+        let mut rp = offset;
+        buffer.push(decode_row(data, &mut rp, cols));
+    }
+    let restored = buffer.len();
+    buffer.extend(visible_main);
+    while buffer.len() < total { buffer.push(TerminalRow::new(cols)); }
+    main.buffer = buffer;
+    main.first_row = restored % total;
+    main.active_transcript_rows = restored;
+    main.history_epoch += 1;
+
+    let alt = &mut state.alt_screen;
+    alt.buffer = visible_alt;
+    alt.first_row = 0;
+    alt.active_transcript_rows = 0;
+
+    state.cursor.clamp(snap_cols, snap_rows);
+    state.flat_buffer = Some(FlatScreenBuffer::new(cols, state.main_screen.buffer.len()));
+    if snap_cols != target_cols || snap_rows != target_rows {
+        state.resize(target_cols, target_rows);
+    } else {
+        state.sync_screen_to_flat_buffer();
+    }
+    Ok(restored)
+}
+
+/// 跳过一行编码，仅解析长度字段
+fn skip_row(data: &[u8], pos: &mut usize) {
+    *pos += 1;
+    let text_len = read_varint(data, pos) as usize;
+    *pos += text_len;
+    let runs = read_varint(data, pos);
+    for _ in 0..runs {
+        read_varint(data, pos);
+        read_varint(data, pos);
+    }
+}
+
+/// 只读取快照文件头；文件不存在或无效时返回 None
+pub fn read_snapshot_header(path: &Path) -> Option<SnapshotHeader> {
+    let mut data = Vec::with_capacity(HEADER_FIXED_LEN);
+    std::io::Read::read_to_end(&mut std::io::Read::take(File::open(path).ok()?, MAX_HEADER_LEN as u64), &mut data).ok()?;
+    SnapshotHeader::decode(&data).ok().map(|(header, _)| header)
+}
+
+/// 读取并恢复快照文件
+pub fn restore_snapshot_file(state: &mut ScreenState, path: &Path) -> Result<usize, String> {
+    let data = std::fs::read(path).map_err(|e| format!("snapshot: {}", e))?;
+    restore_snapshot(state, &data)
+}
@@ -41,6 +41,8 @@ pub struct ScreenState {
     pub use_line_drawing_uses_g0: bool,
     pub scroll_counter: i32,
     pub java_callback_obj: Option<jni::objects::GlobalRef>,
+    /// 设置时终端应答追加到这里，而不是通过 Java 回调发送，见 [`crate::engine::context::TerminalEngine::process_bytes_capturing`]
+    pub captured_responses: std::sync::Mutex<Option<Vec<u8>>>,
 
     // 辅助状态
     pub last_printed_char: Option<char>,
@@ -112,6 +114,7 @@ impl ScreenState {
             use_line_drawing_uses_g0: true,
             scroll_counter: 0,
             java_callback_obj: None,
+            captured_responses: std::sync::Mutex::new(None),
             last_printed_char: None,
             fore_color: COLOR_INDEX_FOREGROUND as u64,
             back_color: COLOR_INDEX_BACKGROUND as u64,
@@ -267,6 +270,10 @@ impl ScreenState {
     }
 
     pub fn report_terminal_response(&self, response: &str) {
+        if let Some(captured) = self.captured_responses.lock().unwrap().as_mut() {
+            captured.extend_from_slice(response.as_bytes());
+            return;
+        }
         if let Some(obj) = &self.java_callback_obj {
             if let Some(vm) = crate::JAVA_VM.get() {
                 if let Ok(env) = vm.get_env() {
@@ -293,6 +300,25 @@ impl ScreenState {
         self.cursor.x = min(self.right_margin - 1, max(self.left_margin, new_col));
     }
 
+    /// 休眠：压缩主屏历史行并释放扁平缓冲区，PTY 输出仍可继续解析
+    ///
+    /// 返回压缩后历史块的字节数。
+    pub fn hibernate(&mut self) -> usize {
+        let bytes = self.main_screen.hibernate();
+        self.flat_buffer = None;
+        bytes
+    }
+
+    /// 解冻：恢复历史行并重建扁平缓冲区
+    pub fn thaw(&mut self) {
+        if !self.main_screen.is_hibernated() && self.flat_buffer.is_some() { return; }
+        self.main_screen.thaw();
+        self.flat_buffer = Some(FlatScreenBuffer::new(self.cols as usize, self.main_screen.buffer.len()));
+        self.sync_screen_to_flat_buffer();
+    }
+
+    pub fn is_hibernated(&self) -> bool { self.main_screen.is_hibernated() }
+
     pub fn resize(&mut self, cols: i32, rows: i32) {
         let style = self.current_style;
         let cx = self.cursor.x;
@@ -8,6 +8,7 @@ use std::io::Read;
 
 use crate::utils::{android_log, LogPriority};
 use crate::engine::{TerminalEngine, TerminalContext, TerminalEvent};
+use crate::engine::snapshot::{read_snapshot_header, SnapshotHeader};
 use crate::terminal::colors::TerminalColors;
 use crate::terminal::modes::*;
 use crate::coordinator::SessionCoordinator;
@@ -222,6 +223,157 @@ pub extern "system" fn Java_com_termux_terminal_RustTerminal_setTranscriptRows(
     let _ = Arc::into_raw(context);
 }
 
+/// 休眠引擎：压缩历史行并释放缓存，返回压缩块字节数
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_hibernate(
+    _env: JNIEnv,
+    _class: JClass,
+    ptr: jlong,
+) -> jlong {
+    if ptr == 0 { return 0; }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let bytes = {
+        let mut engine = context.lock.write().unwrap();
+        engine.state.hibernate()
+    };
+    let _ = Arc::into_raw(context);
+    bytes as jlong
+}
+
+/// 解冻引擎：恢复历史行和缓存
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_thaw(
+    _env: JNIEnv,
+    _class: JClass,
+    ptr: jlong,
+) {
+    if ptr == 0 { return; }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    {
+        let mut engine = context.lock.write().unwrap();
+        engine.state.thaw();
+    }
+    render_thread::request_render();
+    let _ = Arc::into_raw(context);
+}
+
+/// 是否处于休眠状态
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_isHibernated(_env: JNIEnv, _class: JClass, ptr: jlong) -> jboolean {
+    if ptr == 0 { return 0; }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let result = {
+        let engine = context.lock.read().unwrap();
+        if engine.state.is_hibernated() { 1 } else { 0 }
+    };
+    let _ = Arc::into_raw(context);
+    result
+}
+
+/// 物化轻量会话：创建完整引擎并重放缓冲的输出，返回是否发生了物化
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_materialize(
+    _env: JNIEnv,
+    _class: JClass,
+    ptr: jlong,
+) -> jboolean {
+    if ptr == 0 { return 0; }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let materialized = context.materialize();
+    if materialized {
+        render_thread::request_render();
+    }
+    let _ = Arc::into_raw(context);
+    if materialized { 1 } else { 0 }
+}
+
+/// 是否已创建完整引擎
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_isMaterialized(_env: JNIEnv, _class: JClass, ptr: jlong) -> jboolean {
+    if ptr == 0 { return 0; }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let result = if context.is_materialized() { 1 } else { 0 };
+    let _ = Arc::into_raw(context);
+    result
+}
+
+/// 读取未物化的无头会话的完整原始输出；已物化或不是无头会话时返回 null
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_readHeadlessOutput(
+    env: JNIEnv,
+    _class: JClass,
+    ptr: jlong,
+) -> jbyteArray {
+    if ptr == 0 { return std::ptr::null_mut(); }
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let output = context.headless_output();
+    let _ = Arc::into_raw(context);
+    match output {
+        Some(bytes) => env.byte_array_from_slice(&bytes).map(|a| a.into_raw()).unwrap_or(std::ptr::null_mut()),
+        None => std::ptr::null_mut(),
+    }
+}
+
+/// 写入状态快照检查点（增量追加），`order`、`name` 和 `cwd` 写入文件头。返回写入字节数，失败返回 -1
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_writeSnapshot(
+    mut env: JNIEnv,
+    _class: JClass,
+    ptr: jlong,
+    path: JString,
+    order: jlong,
+    name: JString,
+    cwd: JString,
+) -> jlong {
+    if ptr == 0 || path.is_null() { return -1; }
+    let path_str: String = match env.get_string(&path) {
+        Ok(s) => s.into(),
+        Err(_) => return -1,
+    };
+    let mut optional_string = |s: &JString| -> Option<String> {
+        if s.is_null() { None } else { env.get_string(s).ok().map(String::from).filter(|s| !s.is_empty()) }
+    };
+    let header = SnapshotHeader { order: order as u64, name: optional_string(&name), cwd: optional_string(&cwd) };
+    let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
+    let result = match context.checkpoint(std::path::Path::new(&path_str), header) {
+        Ok(bytes) => bytes as jlong,
+        Err(e) => {
+            android_log(LogPriority::WARN, &format!("writeSnapshot: {} failed: {}", path_str, e));
+            -1
+        }
+    };
+    let _ = Arc::into_raw(context);
+    result
+}
+
+/// 读取快照文件头，返回 `SnapshotHeader` 对象；文件不存在或无效时返回 null
+#[unsafe(no_mangle)]
+pub extern "system" fn Java_com_termux_terminal_RustTerminal_readSnapshotHeader<'local>(
+    mut env: JNIEnv<'local>,
+    _class: JClass,
+    path: JString,
+) -> JObject<'local> {
+    if path.is_null() { return JObject::null(); }
+    let path_str: String = match env.get_string(&path) {
+        Ok(s) => s.into(),
+        Err(_) => return JObject::null(),
+    };
+    let header = match read_snapshot_header(std::path::Path::new(&path_str)) {
+        Some(h) => h,
+        None => return JObject::null(),
+    };
+    let mut optional_string = |s: &Option<String>| -> JObject<'local> {
+        s.as_deref().and_then(|s| env.new_string(s).ok()).map(JObject::from).unwrap_or_else(JObject::null)
+    };
+    let name = optional_string(&header.name);
+    let cwd = optional_string(&header.cwd);
+    env.new_object(
+        "com/termux/terminal/SnapshotHeader",
+        "(JLjava/lang/String;Ljava/lang/String;)V",
+        &[JValue::Long(header.order as jlong), JValue::Object(&name), JValue::Object(&cwd)],
+    ).unwrap_or_else(|_| JObject::null())
+}
+
 /// 处理尺寸调整
 #[unsafe(no_mangle)]
 pub extern "system" fn Java_com_termux_terminal_RustTerminal_resize(
@@ -525,7 +677,8 @@ pub extern "system" fn Java_com_termux_terminal_RustTerminal_getTranscriptText(
     if ptr == 0 { return std::ptr::null_mut(); }
     let context = unsafe { Arc::from_raw(ptr as *const TerminalContext) };
     let text = {
-        let engine = context.lock.read().unwrap();
+        let mut engine = context.lock.write().unwrap();
+        engine.state.thaw();
         engine.state.get_current_screen().get_transcript_text()
     };
     let result = if let Ok(j_str) = env.new_string(text) { j_str.into_raw() } else { std::ptr::null_mut() };
@@ -904,6 +1057,9 @@ pub unsafe extern "system" fn Java_com_termux_terminal_JNI_createSessionAsync(
     cw: jint,
     ch: jint,
     transcript_rows: jint,
+    snapshot_path: jstring,
+    output_spill_path: jstring,
+    defer_engine: jboolean,
     callback: JObject,
 ) {
     let cmd_str = if !cmd.is_null() {
@@ -950,6 +1106,20 @@ pub unsafe extern "system" fn Java_com_termux_terminal_JNI_createSessionAsync(
         }
     }
 
+    let snapshot_str = if !snapshot_path.is_null() {
+        let js = unsafe { JString::from_raw(snapshot_path) };
+        env.get_string(&js).map(|s| String::from(s)).ok().filter(|s| !s.is_empty())
+    } else {
+        None
+    };
+
+    let spill_str = if !output_spill_path.is_null() {
+        let js = unsafe { JString::from_raw(output_spill_path) };
+        env.get_string(&js).map(|s| String::from(s)).ok().filter(|s| !s.is_empty())
+    } else {
+        None
+    };
+
     let callback_ref = if !callback.is_null() {
         env.new_global_ref(callback).ok()
     } else {
@@ -969,12 +1139,43 @@ pub unsafe extern "system" fn Java_com_termux_terminal_JNI_createSessionAsync(
             }
         };
 
-        let mut engine = TerminalEngine::new(cols, rows, transcript_rows, cw, ch);
-        if let Some(ref cb) = callback_ref {
-            engine.state.java_callback_obj = Some(cb.clone());
+        let headless = spill_str.is_some();
+        let context = if let Some(ref spill_path) = spill_str {
+            // 无头会话：不创建完整引擎，输出溢写到文件，退出时报告退出状态
+            let context = TerminalContext::new_headless(cols, rows, transcript_rows, cw, ch, spill_path);
+            if let Some(ref cb) = callback_ref {
+                context.lock.write().unwrap().state.java_callback_obj = Some(cb.clone());
+            }
+            context
+        } else if defer_engine != 0 {
+            // 轻量会话：完整引擎在首次显示时创建，快照也延迟到那时恢复
+            let context = TerminalContext::new_dormant(cols, rows, transcript_rows, cw, ch, snapshot_str);
+            if let Some(ref cb) = callback_ref {
+                context.lock.write().unwrap().state.java_callback_obj = Some(cb.clone());
+            }
+            context
+        } else {
+            let mut engine = TerminalEngine::new(cols, rows, transcript_rows, cw, ch);
+            // 在新 shell 的输出到达前预加载上次的屏幕和历史
+            if let Some(ref path) = snapshot_str {
+                if std::path::Path::new(path).exists() {
+                    match crate::engine::snapshot::restore_snapshot_file(&mut engine.state, std::path::Path::new(path)) {
+                        Ok(restored) => android_log(LogPriority::INFO, &format!("createSessionAsync: restored {} history rows from snapshot", restored)),
+                        Err(e) => android_log(LogPriority::WARN, &format!("createSessionAsync: {}", e)),
+                    }
+                }
+            }
+            if let Some(ref cb) = callback_ref {
+                engine.state.java_callback_obj = Some(cb.clone());
+            }
+            TerminalContext::new(engine)
+        };
+
+        if headless {
+            context.exit_pid.store(pid, Ordering::SeqCst);
         }
 
-        let context = Arc::new(TerminalContext::new(engine));
+        let context = Arc::new(context);
         let context_ptr = Arc::into_raw(context.clone());
 
         context.start_io_thread(pty_fd);
@@ -1009,6 +1210,91 @@ pub unsafe extern "system" fn Java_com_termux_terminal_JNI_waitFor(
     crate::pty::wait_for(pid)
 }
 
+/// 读取 Java 字符串数组，数组为 null 时返回 None
+fn get_string_array(env: &mut JNIEnv, array: jni::sys::jobjectArray) -> Option<Vec<String>> {
+    let array = unsafe { jni::objects::JObjectArray::from_raw(array) };
+    if array.is_null() { return None; }
+    let len = env.get_array_length(&array).ok()?;
+    let mut strings = Vec::with_capacity(len as usize);
+    for i in 0..len {
+        if let Ok(obj) = env.get_object_array_element(&array, i) {
+            if obj.is_null() { continue; }
+            let js: JString = obj.into();
+            if let Ok(s) = env.get_string(&js) {
+                strings.push(String::from(s));
+            }
+        }
+    }
+    Some(strings)
+}
+
+/// 启动非 PTY 子进程
+///
+/// 成功时返回 pid，并将 stdin/stdout/stderr 管道 fd 写入 `fds`；失败时返回 -errno。
+#[unsafe(no_mangle)]
+pub unsafe extern "system" fn Java_com_termux_terminal_JNI_spawnProcess(
+    mut env: JNIEnv,
+    _class: JClass,
+    cmd: jstring,
+    cwd: jstring,
+    args: jni::sys::jobjectArray,
+    env_vars: jni::sys::jobjectArray,
+    fds: jintArray,
+) -> jint {
+    let cmd_str: String = if !cmd.is_null() {
+        let js = unsafe { JString::from_raw(cmd) };
+        env.get_string(&js).map(|s| s.into()).unwrap_or_default()
+    } else {
+        String::new()
+    };
+    let cwd_str: Option<String> = if !cwd.is_null() {
+        let js = unsafe { JString::from_raw(cwd) };
+        env.get_string(&js).map(|s| s.into()).ok()
+    } else {
+        None
+    };
+    let argv = get_string_array(&mut env, args).unwrap_or_default();
+    let envp = get_string_array(&mut env, env_vars);
+
+    match crate::spawn::spawn_process(&cmd_str, &argv, envp.as_deref(), cwd_str.as_deref()) {
+        Ok(process) => {
+            let j_fds = unsafe { jni::objects::JIntArray::from_raw(fds) };
+            if env.set_int_array_region(&j_fds, 0, &[process.stdin, process.stdout, process.stderr]).is_err() {
+                unsafe {
+                    libc::kill(process.pid, libc::SIGKILL);
+                    libc::close(process.stdin);
+                    libc::close(process.stdout);
+                    libc::close(process.stderr);
+                }
+                crate::spawn::wait_for_exit(process.pid);
+                return -libc::EINVAL;
+            }
+            process.pid
+        }
+        Err(e) => -e.raw_os_error().unwrap_or(libc::EIO),
+    }
+}
+
+/// 等待由 spawnProcess 启动的子进程退出
+#[unsafe(no_mangle)]
+pub unsafe extern "system" fn Java_com_termux_terminal_JNI_waitForSpawned(
+    _env: JNIEnv,
+    _class: JClass,
+    pid: jint,
+) -> jint {
+    crate::spawn::wait_for_exit(pid)
+}
+
+/// 不阻塞地检查由 spawnProcess 启动的子进程是否已退出，返回退出码，仍在运行时返回 i32::MIN
+#[unsafe(no_mangle)]
+pub unsafe extern "system" fn Java_com_termux_terminal_JNI_tryWaitForSpawned(
+    _env: JNIEnv,
+    _class: JClass,
+    pid: jint,
+) -> jint {
+    crate::spawn::try_wait_for_exit(pid).unwrap_or(i32::MIN)
+}
+
 /// 关闭 FD
 #[unsafe(no_mangle)]
 pub unsafe extern "system" fn Java_com_termux_terminal_JNI_close(
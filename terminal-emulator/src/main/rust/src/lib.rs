@@ -16,6 +16,7 @@ pub mod utils;
 pub mod engine;
 pub mod bootstrap;
 pub mod pty;
+pub mod spawn;
 pub mod vte_parser;
 pub mod coordinator;
 pub mod renderer;
@@ -0,0 +1,389 @@
+//! 非 PTY 子进程的低延迟启动
+//!
+//! 后台命令（AppShell）不需要终端，原先通过 `Runtime.exec` 启动，要经过 Java 的 ProcessBuilder
+//! 流程。这里用 `clone(CLONE_VM | CLONE_VFORK)` 加 `execve` 直接启动子进程，与 posix_spawn 的实现
+//! 方式相同：子进程在 exec 之前共享父进程的地址空间，省去 fork 复制页表的开销，父进程在子进程
+//! exec 或退出后才继续执行。bionic 的 posix_spawn 需要 API 28，而 minSdk 为 26，因此这里直接实现。
+//!
+//! 子进程在 exec 之前不分配内存，所有参数都在父进程中准备好。子进程只通过 `libc::syscall`
+//! 直接发起系统调用，不调用 `sigaction`、`dup2`、`execve` 等 libc 包装函数：ART 的 libsigchain
+//! 会拦截 `sigaction`/`sigprocmask`，拦截函数会访问与父进程共享的全局状态，而父进程的其他线程
+//! 此时仍在运行。
+
+use std::ffi::{CString, c_void};
+use std::io;
+use std::os::raw::{c_char, c_int};
+
+/// 子进程栈大小，子进程只执行少量系统调用
+const CHILD_STACK_SIZE: usize = 64 * 1024;
+
+/// exec 失败时子进程的退出码，与 shell 的"命令无法执行"一致
+const EXEC_FAILED_EXIT_CODE: c_int = 127;
+
+/// 所有架构统一的 close_range 系统调用号（Linux 5.9+）
+const SYS_CLOSE_RANGE: libc::c_long = 436;
+/// close_range 只设置 FD_CLOEXEC 而不关闭（Linux 5.11+）
+const CLOSE_RANGE_CLOEXEC: libc::c_uint = 1 << 2;
+
+/// 信号编号上限（不含），与内核 _NSIG 一致
+const NSIG: c_int = 65;
+
+/// 内核的信号集大小，rt_sigaction/rt_sigprocmask 的 sigsetsize 参数
+const KERNEL_SIGSET_SIZE: usize = 8;
+
+/// 内核的 struct sigaction（rt_sigaction 的参数），与 libc 的 struct sigaction 布局不同。
+/// arm、arm64、x86 和 x86_64 都定义了 SA_RESTORER，因此都包含 sa_restorer 字段
+#[repr(C)]
+struct KernelSigaction {
+    handler: usize,
+    flags: libc::c_ulong,
+    restorer: usize,
+    mask: u64,
+}
+
+/// 已启动的子进程：pid 以及父进程一侧的 stdin/stdout/stderr 管道 fd（均为 O_CLOEXEC）
+#[derive(Debug)]
+pub struct SpawnedProcess {
+    pub pid: i32,
+    pub stdin: i32,
+    pub stdout: i32,
+    pub stderr: i32,
+}
+
+/// 传给子进程的参数，全部在父进程中准备好
+struct ChildArgs {
+    /// 依次尝试 exec 的路径
+    programs: Vec<CString>,
+    argv: Vec<*const c_char>,
+    envp: Vec<*const c_char>,
+    cwd: Option<CString>,
+    stdin: c_int,
+    stdout: c_int,
+    stderr: c_int,
+    /// exec 失败时写入 errno 的管道
+    error_pipe: c_int,
+}
+
+/// 启动子进程
+///
+/// `program` 不含 '/' 时在父进程的 PATH 中查找，与 `Runtime.exec` 一致。`envp` 为 `None` 时
+/// 继承父进程环境变量。失败时返回 exec 的 errno，此时子进程已被回收。
+pub fn spawn_process(
+    program: &str,
+    argv: &[String],
+    envp: Option<&[String]>,
+    cwd: Option<&str>,
+) -> io::Result<SpawnedProcess> {
+    let programs = resolve_program(program)?;
+
+    let argv_c: Vec<CString> = argv.iter().map(|s| to_cstring(s)).collect::<io::Result<_>>()?;
+    let envp_c: Vec<CString> = match envp {
+        Some(envp) => envp.iter().map(|s| to_cstring(s)).collect::<io::Result<_>>()?,
+        None => std::env::vars_os()
+            .filter_map(|(k, v)| {
+                let mut entry = k.into_encoded_bytes();
+                entry.push(b'=');
+                entry.extend_from_slice(v.as_encoded_bytes());
+                CString::new(entry).ok()
+            })
+            .collect(),
+    };
+    let cwd_c = match cwd {
+        Some(cwd) if !cwd.is_empty() => Some(to_cstring(cwd)?),
+        _ => None,
+    };
+
+    let stdin = create_pipe()?;
+    let stdout = create_pipe().inspect_err(|_| close_all(&stdin))?;
+    let stderr = create_pipe().inspect_err(|_| { close_all(&stdin); close_all(&stdout); })?;
+    let error_pipe = create_pipe().inspect_err(|_| { close_all(&stdin); close_all(&stdout); close_all(&stderr); })?;
+
+    let mut args = ChildArgs {
+        programs,
+        argv: argv_c.iter().map(|s| s.as_ptr()).chain(std::iter::once(std::ptr::null())).collect(),
+        envp: envp_c.iter().map(|s| s.as_ptr()).chain(std::iter::once(std::ptr::null())).collect(),
+        cwd: cwd_c,
+        stdin: stdin[0],
+        stdout: stdout[1],
+        stderr: stderr[1],
+        error_pipe: error_pipe[1],
+    };
+
+    let mut stack = vec![0u8; CHILD_STACK_SIZE];
+    // 栈向下增长，栈顶按 16 字节对齐
+    let stack_top = ((stack.as_mut_ptr() as usize + CHILD_STACK_SIZE) & !0xf) as *mut c_void;
+
+    let pid = unsafe {
+        // 子进程与父进程共享内存，在信号处理函数被重置之前不能让它们在子进程中运行
+        let mut all: libc::sigset_t = std::mem::zeroed();
+        let mut old: libc::sigset_t = std::mem::zeroed();
+        libc::sigfillset(&mut all);
+        libc::pthread_sigmask(libc::SIG_SETMASK, &all, &mut old);
+
+        let pid = libc::clone(
+            child_main,
+            stack_top,
+            libc::CLONE_VM | libc::CLONE_VFORK | libc::SIGCHLD,
+            &mut args as *mut ChildArgs as *mut c_void,
+        );
+        let clone_error = io::Error::last_os_error();
+
+        libc::pthread_sigmask(libc::SIG_SETMASK, &old, std::ptr::null_mut());
+        if pid < 0 { Err(clone_error) } else { Ok(pid) }
+    };
+
+    // 关闭子进程一侧的管道
+    unsafe {
+        libc::close(stdin[0]);
+        libc::close(stdout[1]);
+        libc::close(stderr[1]);
+        libc::close(error_pipe[1]);
+    }
+    drop(stack);
+
+    let pid = match pid {
+        Ok(pid) => pid,
+        Err(e) => {
+            unsafe {
+                libc::close(stdin[1]);
+                libc::close(stdout[0]);
+                libc::close(stderr[0]);
+                libc::close(error_pipe[0]);
+            }
+            return Err(e);
+        }
+    };
+
+    // CLONE_VFORK 保证此时子进程已 exec（错误管道因 O_CLOEXEC 被关闭）或已写入 errno 并退出
+    let mut errno_buf = [0u8; 4];
+    let read = unsafe { read_fully(error_pipe[0], &mut errno_buf) };
+    unsafe { libc::close(error_pipe[0]); }
+
+    if read == errno_buf.len() {
+        unsafe {
+            libc::close(stdin[1]);
+            libc::close(stdout[0]);
+            libc::close(stderr[0]);
+        }
+        wait_for_exit(pid);
+        return Err(io::Error::from_raw_os_error(i32::from_ne_bytes(errno_buf)));
+    }
+
+    Ok(SpawnedProcess { pid, stdin: stdin[1], stdout: stdout[0], stderr: stderr[0] })
+}
+
+/// 等待子进程退出并回收
+///
+/// 正常退出时返回退出码，被信号终止时返回 128 + 信号，与 Android 上 `Process.waitFor()` 一致。
+/// 失败时返回 -1。
+pub fn wait_for_exit(pid: i32) -> i32 {
+    let mut status: c_int = 0;
+    loop {
+        let res = unsafe { libc::waitpid(pid, &mut status, 0) };
+        if res >= 0 { break; }
+        if io::Error::last_os_error().raw_os_error() != Some(libc::EINTR) {
+            return -1;
+        }
+    }
+    exit_code(status)
+}
+
+/// 不阻塞地检查子进程是否已退出；已退出时回收并返回退出码，仍在运行时返回 None
+pub fn try_wait_for_exit(pid: i32) -> Option<i32> {
+    let mut status: c_int = 0;
+    loop {
+        let res = unsafe { libc::waitpid(pid, &mut status, libc::WNOHANG) };
+        if res == 0 { return None; }
+        if res > 0 { return Some(exit_code(status)); }
+        if io::Error::last_os_error().raw_os_error() != Some(libc::EINTR) {
+            return Some(-1);
+        }
+    }
+}
+
+/// 把 waitpid 的状态转换为与 Android 的 Process 相同的退出码
+fn exit_code(status: c_int) -> i32 {
+    if libc::WIFEXITED(status) {
+        libc::WEXITSTATUS(status)
+    } else if libc::WIFSIGNALED(status) {
+        0x80 + libc::WTERMSIG(status)
+    } else {
+        -1
+    }
+}
+
+/// 子进程入口，运行在父进程的地址空间中，直到 exec 成功
+extern "C" fn child_main(arg: *mut c_void) -> c_int {
+    unsafe {
+        let args = &*(arg as *const ChildArgs);
+
+        // 与 POSIX_SPAWN_SETSIGDEF 相同，只恢复被忽略或设置了处理函数的信号：ART 会忽略 SIGPIPE
+        // 等信号，而被忽略的信号会在 exec 后保留；处理函数则不能在解除屏蔽后于子进程中运行。
+        // 子进程没有 CLONE_SIGHAND，修改的是自己的信号处理表，不影响父进程
+        let default_action = KernelSigaction { handler: libc::SIG_DFL, flags: 0, restorer: 0, mask: 0 };
+        for signal in 1..NSIG {
+            if signal == libc::SIGKILL || signal == libc::SIGSTOP {
+                continue;
+            }
+            let mut current: KernelSigaction = std::mem::zeroed();
+            if libc::syscall(libc::SYS_rt_sigaction, signal, std::ptr::null::<KernelSigaction>(),
+                             &mut current as *mut KernelSigaction, KERNEL_SIGSET_SIZE) == 0
+                && current.handler != libc::SIG_DFL
+            {
+                libc::syscall(libc::SYS_rt_sigaction, signal, &default_action as *const KernelSigaction,
+                              std::ptr::null_mut::<KernelSigaction>(), KERNEL_SIGSET_SIZE);
+            }
+        }
+        let empty: u64 = 0;
+        libc::syscall(libc::SYS_rt_sigprocmask, libc::SIG_SETMASK, &empty as *const u64,
+                      std::ptr::null_mut::<u64>(), KERNEL_SIGSET_SIZE);
+
+        if redirect(args.stdin, 0) < 0 || redirect(args.stdout, 1) < 0 || redirect(args.stderr, 2) < 0 {
+            return child_failed(args.error_pipe);
+        }
+
+        // 与 Runtime.exec 一样不让应用的其他 fd 泄漏到子进程
+        set_cloexec_from(3);
+
+        if let Some(cwd) = &args.cwd {
+            if libc::syscall(libc::SYS_chdir, cwd.as_ptr()) < 0 {
+                return child_failed(args.error_pipe);
+            }
+        }
+
+        // 与 execvp 相同：ENOENT 等错误时继续尝试下一个路径，优先报告 EACCES
+        let mut saw_eacces = false;
+        for program in &args.programs {
+            libc::syscall(libc::SYS_execve, program.as_ptr(), args.argv.as_ptr(), args.envp.as_ptr());
+            match errno() {
+                libc::EACCES => saw_eacces = true,
+                libc::ENOENT | libc::ENOTDIR => {}
+                _ => return child_failed(args.error_pipe),
+            }
+        }
+        if saw_eacces {
+            *errno_location() = libc::EACCES;
+        }
+        child_failed(args.error_pipe)
+    }
+}
+
+/// 将管道 fd 复制到标准 fd，dup3 会清除目标 fd 的 O_CLOEXEC。arm64 没有 dup2 系统调用，
+/// 而 dup3 要求两个 fd 不同
+unsafe fn redirect(fd: c_int, target: c_int) -> c_int {
+    unsafe {
+        if fd == target {
+            libc::syscall(libc::SYS_fcntl, fd, libc::F_SETFD, 0) as c_int
+        } else {
+            libc::syscall(libc::SYS_dup3, fd, target, 0) as c_int
+        }
+    }
+}
+
+/// 为 `from` 及之后的所有 fd 设置 FD_CLOEXEC，子进程中不能分配内存，因此不使用 read_dir
+unsafe fn set_cloexec_from(from: c_int) {
+    unsafe {
+        if libc::syscall(SYS_CLOSE_RANGE, from as libc::c_uint, libc::c_uint::MAX, CLOSE_RANGE_CLOEXEC) == 0 {
+            return;
+        }
+
+        let dir = libc::syscall(libc::SYS_openat, libc::AT_FDCWD, c"/proc/self/fd".as_ptr(),
+                                libc::O_RDONLY | libc::O_DIRECTORY | libc::O_CLOEXEC) as c_int;
+        if dir < 0 { return; }
+        let mut buf = [0u8; 4096];
+        loop {
+            let n = libc::syscall(libc::SYS_getdents64, dir, buf.as_mut_ptr(), buf.len());
+            if n <= 0 { break; }
+            let mut offset = 0usize;
+            while offset + 19 < n as usize {
+                // linux_dirent64: d_ino(8) d_off(8) d_reclen(2) d_type(1) d_name
+                let reclen = u16::from_ne_bytes([buf[offset + 16], buf[offset + 17]]) as usize;
+                if reclen == 0 { break; }
+                let mut fd: c_int = 0;
+                let mut valid = false;
+                for &b in &buf[offset + 19..offset + reclen] {
+                    if b == 0 { break; }
+                    if !b.is_ascii_digit() { valid = false; break; }
+                    fd = fd * 10 + (b - b'0') as c_int;
+                    valid = true;
+                }
+                if valid && fd >= from && fd != dir {
+                    libc::syscall(libc::SYS_fcntl, fd, libc::F_SETFD, libc::FD_CLOEXEC);
+                }
+                offset += reclen;
+            }
+        }
+        libc::syscall(libc::SYS_close, dir);
+    }
+}
+
+/// 将 errno 写入错误管道并退出子进程
+unsafe fn child_failed(error_pipe: c_int) -> c_int {
+    unsafe {
+        let error = errno().to_ne_bytes();
+        libc::syscall(libc::SYS_write, error_pipe, error.as_ptr() as *const c_void, error.len());
+        libc::syscall(libc::SYS_exit_group, EXEC_FAILED_EXIT_CODE);
+        EXEC_FAILED_EXIT_CODE
+    }
+}
+
+fn errno() -> c_int {
+    unsafe { *errno_location() }
+}
+
+#[cfg(target_os = "android")]
+unsafe fn errno_location() -> *mut c_int {
+    unsafe { libc::__errno() }
+}
+
+#[cfg(not(target_os = "android"))]
+unsafe fn errno_location() -> *mut c_int {
+    unsafe { libc::__errno_location() }
+}
+
+unsafe fn read_fully(fd: c_int, buf: &mut [u8]) -> usize {
+    let mut total = 0;
+    while total < buf.len() {
+        let n = unsafe { libc::read(fd, buf[total..].as_mut_ptr() as *mut c_void, buf.len() - total) };
+        if n > 0 {
+            total += n as usize;
+        } else if n == 0 || io::Error::last_os_error().raw_os_error() != Some(libc::EINTR) {
+            break;
+        }
+    }
+    total
+}
+
+/// 获取要依次尝试 exec 的路径
+fn resolve_program(program: &str) -> io::Result<Vec<CString>> {
+    if program.is_empty() {
+        return Err(io::Error::from_raw_os_error(libc::ENOENT));
+    }
+    if program.contains('/') {
+        return Ok(vec![to_cstring(program)?]);
+    }
+
+    let path = std::env::var("PATH").unwrap_or_else(|_| "/system/bin:/system/xbin".to_string());
+    path.split(':')
+        .map(|dir| to_cstring(&format!("{}/{}", if dir.is_empty() { "." } else { dir }, program)))
+        .collect()
+}
+
+fn to_cstring(s: &str) -> io::Result<CString> {
+    CString::new(s).map_err(|_| io::Error::from_raw_os_error(libc::EINVAL))
+}
+
+fn create_pipe() -> io::Result<[c_int; 2]> {
+    let mut fds = [-1; 2];
+    if unsafe { libc::pipe2(fds.as_mut_ptr(), libc::O_CLOEXEC) } < 0 {
+        return Err(io::Error::last_os_error());
+    }
+    Ok(fds)
+}
+
+fn close_all(fds: &[c_int; 2]) {
+    unsafe {
+        libc::close(fds[0]);
+        libc::close(fds[1]);
+    }
+}
@@ -0,0 +1,231 @@
+/// 会话休眠：将历史行（transcript）压缩为紧凑的字节块
+///
+/// 未显示的会话在内存紧张时调用 [`Screen::hibernate`]，
+/// 历史行被编码进 [`CompressedRows`]，环形缓冲区收缩到仅保留可见行。
+/// 休眠期间 PTY 输出仍会被正常解析，滚出屏幕顶部的行会继续追加到压缩块中。
+/// [`Screen::thaw`] 将压缩块解码回完整的环形缓冲区。
+///
+/// 单行编码格式：
+/// - 1 字节标志（bit0 = line_wrap）
+/// - varint 文本字节数 + UTF-8 文本（已去除行尾空格，`\0` 宽字符占位符原样保留）
+/// - varint 样式段数 + 每段 (varint 长度, varint 样式)
+use std::collections::VecDeque;
+
+use crate::terminal::screen::{Screen, TerminalRow};
+
+const ROW_FLAG_LINE_WRAP: u8 = 1;
+
+/// 压缩后的行存储，按先进先出顺序保留最多 `max_rows` 行
+pub struct CompressedRows {
+    data: Vec<u8>,
+    offsets: VecDeque<usize>,
+    head: usize,
+    max_rows: usize,
+    /// 休眠前环形缓冲区的总行数，解冻时恢复
+    pub total_rows: usize,
+}
+
+impl CompressedRows {
+    pub fn new(max_rows: usize, total_rows: usize) -> Self {
+        Self {
+            data: Vec::new(),
+            offsets: VecDeque::new(),
+            head: 0,
+            max_rows,
+            total_rows,
+        }
+    }
+
+    pub fn len(&self) -> usize { self.offsets.len() }
+
+    pub fn is_empty(&self) -> bool { self.offsets.is_empty() }
+
+    /// 压缩数据实际占用的字节数
+    pub fn compressed_bytes(&self) -> usize {
+        self.data.len() - self.head + self.offsets.len() * std::mem::size_of::<usize>()
+    }
+
+    pub fn clear(&mut self) {
+        self.data = Vec::new();
+        self.offsets.clear();
+        self.head = 0;
+    }
+
+    /// 追加一行；超过 `max_rows` 时丢弃最老的行
+    pub fn push(&mut self, row: &TerminalRow) {
+        if self.max_rows == 0 { return; }
+        if self.offsets.len() == self.max_rows {
+            self.offsets.pop_front();
+            self.head = self.offsets.front().copied().unwrap_or(self.data.len());
+            self.compact_if_needed();
+        }
+        self.offsets.push_back(self.data.len());
+        encode_row(row, &mut self.data);
+    }
+
+    /// 按从旧到新的顺序解码所有行，每行宽度为 `cols`
+    pub fn decode_all(&self, cols: usize) -> Vec<TerminalRow> {
+        let mut rows = Vec::with_capacity(self.offsets.len());
+        for &offset in &self.offsets {
+            let mut pos = offset;
+            rows.push(decode_row(&self.data, &mut pos, cols));
+        }
+        rows
+    }
+
+    /// 最新 `n` 行的原始编码字节（按从旧到新顺序连续存放），供快照直接复用
+    pub fn encoded_tail(&self, n: usize) -> &[u8] {
+        let n = n.min(self.offsets.len());
+        if n == 0 { return &[]; }
+        &self.data[self.offsets[self.offsets.len() - n]..]
+    }
+
+    fn compact_if_needed(&mut self) {
+        if self.head > 4096 && self.head * 2 > self.data.len() {
+            let head = self.head;
+            self.data.drain(..head);
+            for offset in self.offsets.iter_mut() { *offset -= head; }
+            self.head = 0;
+        }
+    }
+}
+
+pub(crate) fn write_varint(out: &mut Vec<u8>, mut value: u64) {
+    while value >= 0x80 {
+        out.push((value as u8) | 0x80);
+        value >>= 7;
+    }
+    out.push(value as u8);
+}
+
+pub(crate) fn read_varint(data: &[u8], pos: &mut usize) -> u64 {
+    let mut value = 0u64;
+    let mut shift = 0;
+    while *pos < data.len() {
+        let b = data[*pos];
+        *pos += 1;
+        value |= ((b & 0x7f) as u64) << shift;
+        if b & 0x80 == 0 { break; }
+        shift += 7;
+    }
+    value
+}
+
+pub(crate) fn encode_row(row: &TerminalRow, out: &mut Vec<u8>) {
+    out.push(if row.line_wrap { ROW_FLAG_LINE_WRAP } else { 0 });
+
+    // 去除行尾空格；get_space_used() 会跳过 `\0`，这里只去除 ' ' 以保留宽字符占位
+    let mut text_len = row.text.len();
+    while text_len > 0 && row.text[text_len - 1] == ' ' { text_len -= 1; }
+    let text = &row.text[..text_len];
+    let byte_len: usize = text.iter().map(|c| c.len_utf8()).sum();
+    write_varint(out, byte_len as u64);
+    let mut utf8_buf = [0u8; 4];
+    for &c in text {
+        out.extend_from_slice(c.encode_utf8(&mut utf8_buf).as_bytes());
+    }
+
+    // 样式按整行宽度做游程编码，保留行尾带背景色的空白
+    let mut runs: Vec<(u64, u64)> = Vec::new();
+    for &style in &row.styles {
+        match runs.last_mut() {
+            Some((count, s)) if *s == style => *count += 1,
+            _ => runs.push((1, style)),
+        }
+    }
+    write_varint(out, runs.len() as u64);
+    for (count, style) in runs {
+        write_varint(out, count);
+        write_varint(out, style);
+    }
+}
+
+pub(crate) fn decode_row(data: &[u8], pos: &mut usize, cols: usize) -> TerminalRow {
+    let mut row = TerminalRow::new(cols);
+    if *pos >= data.len() { return row; }
+    row.line_wrap = data[*pos] & ROW_FLAG_LINE_WRAP != 0;
+    *pos += 1;
+
+    let byte_len = read_varint(data, pos) as usize;
+    let end = (*pos + byte_len).min(data.len());
+    if let Ok(text) = std::str::from_utf8(&data[*pos..end]) {
+        for (i, c) in text.chars().take(cols).enumerate() { row.text[i] = c; }
+    }
+    *pos = end;
+
+    let run_count = read_varint(data, pos) as usize;
+    let mut col = 0usize;
+    for _ in 0..run_count {
+        let count = read_varint(data, pos) as usize;
+        let style = read_varint(data, pos);
+        let run_end = (col + count).min(cols);
+        for i in col..run_end { row.styles[i] = style; }
+        col += count;
+    }
+    row
+}
+
+impl Screen {
+    pub fn is_hibernated(&self) -> bool { self.frozen_history.is_some() }
+
+    /// 压缩历史行并将环形缓冲区收缩为仅包含可见行
+    ///
+    /// 返回压缩块的字节数；已处于休眠状态时返回 0。
+    pub fn hibernate(&mut self) -> usize {
+        if self.frozen_history.is_some() { return 0; }
+
+        let rows = self.rows as usize;
+        let total_rows = self.buffer.len();
+        let mut store = CompressedRows::new(total_rows.saturating_sub(rows), total_rows);
+        let first_y = -(self.active_transcript_rows as i32);
+        for y in first_y..0 {
+            store.push(self.get_row(y));
+        }
+
+        // 按逻辑顺序取出可见行，释放其余所有行
+        let mut visible = Vec::with_capacity(rows);
+        for y in 0..self.rows {
+            let idx = self.internal_row(y);
+            visible.push(std::mem::replace(&mut self.buffer[idx], TerminalRow { text: Vec::new(), styles: Vec::new(), line_wrap: false }));
+        }
+        self.buffer = visible;
+        self.first_row = 0;
+        self.active_transcript_rows = 0;
+
+        let bytes = store.compressed_bytes();
+        self.frozen_history = Some(store);
+        bytes
+    }
+
+    /// 将压缩的历史行恢复到完整的环形缓冲区
+    pub fn thaw(&mut self) {
+        let store = match self.frozen_history.take() {
+            Some(s) => s,
+            None => return,
+        };
+
+        let cols = self.cols as usize;
+        let rows = self.rows as usize;
+        let total_rows = store.total_rows.max(rows);
+        let mut history = store.decode_all(cols);
+        let max_history = total_rows - rows;
+        if history.len() > max_history {
+            history.drain(..history.len() - max_history);
+        }
+        let history_len = history.len();
+
+        let mut buffer = history;
+        buffer.reserve_exact(total_rows - history_len);
+        for y in 0..self.rows {
+            let idx = self.internal_row(y);
+            buffer.push(std::mem::replace(&mut self.buffer[idx], TerminalRow { text: Vec::new(), styles: Vec::new(), line_wrap: false }));
+        }
+        while buffer.len() < total_rows {
+            buffer.push(TerminalRow::new(cols.max(1)));
+        }
+
+        self.buffer = buffer;
+        self.first_row = history_len % total_rows;
+        self.active_transcript_rows = history_len;
+    }
+}
@@ -1,5 +1,6 @@
 use std::cmp::{max, min};
 use crate::terminal::style::{STYLE_NORMAL};
+use crate::terminal::hibernation::CompressedRows;
 
 #[derive(Clone)]
 pub struct TerminalRow {
@@ -141,6 +142,12 @@ pub struct Screen {
     pub buffer: Vec<TerminalRow>,
     pub first_row: usize,
     pub active_transcript_rows: usize,
+    /// 休眠时被压缩的历史行，见 [`crate::terminal::hibernation`]
+    pub frozen_history: Option<CompressedRows>,
+    /// 累计进入历史的行数，快照据此只追加新滚出的行
+    pub history_serial: u64,
+    /// 历史被整体改写（清除、调整大小、重排）时递增，快照需重写全部历史
+    pub history_epoch: u64,
 }
 
 impl Screen {
@@ -148,11 +155,13 @@ impl Screen {
         let t_u = max(rows as usize, total_rows as usize);
         let mut b = Vec::with_capacity(t_u);
         for _ in 0..t_u { b.push(TerminalRow::new(max(1, cols as usize))); }
-        Self { rows, cols, buffer: b, first_row: 0, active_transcript_rows: 0 }
+        Self { rows, cols, buffer: b, first_row: 0, active_transcript_rows: 0, frozen_history: None, history_serial: 0, history_epoch: 0 }
     }
 
     /// 动态调整历史记录大小
     pub fn resize_transcript(&mut self, new_total_rows: usize) {
+        self.thaw();
+        self.history_epoch += 1;
         let current_total = self.buffer.len();
         let new_total = max(self.rows as usize, new_total_rows);
 
@@ -274,6 +283,8 @@ impl Screen {
 
     /// 清除历史行（transcript），保留屏幕上的可见内容
     pub fn clear_transcript(&mut self, style: u64) {
+        if let Some(store) = &mut self.frozen_history { store.clear(); }
+        self.history_epoch += 1;
         let total_rows = self.buffer.len();
         let c = self.cols as usize;
         
@@ -339,6 +350,10 @@ impl Screen {
             if self.active_transcript_rows < max_transcript_rows {
                 self.active_transcript_rows += 1;
             }
+            // 休眠时缓冲区只有可见行，被回收的旧顶行需要先追加到压缩历史中
+            let recycled = self.internal_row(self.rows - 1);
+            if let Some(store) = &mut self.frozen_history { store.push(&self.buffer[recycled]); }
+            self.history_serial += 1;
             self.get_row_mut(self.rows - 1).clear_all(style);
         } else {
             // Partial scroll - move data via index rotation
@@ -391,6 +406,8 @@ impl Screen {
     /// we use O(1) pointer adjustment instead of O(n) buffer rebuild.
     /// This matches Java's fast path behavior.
     pub fn resize_with_reflow(&mut self, new_cols: i32, new_rows: i32, current_style: u64, cursor_x: i32, cursor_y: i32) -> (i32, i32) {
+        self.thaw();
+        self.history_epoch += 1;
         let old_cols = self.cols as usize;
         let old_total = self.buffer.len();
 
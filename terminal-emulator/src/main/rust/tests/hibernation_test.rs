@@ -0,0 +1,89 @@
+// 会话休眠测试
+// 验证休眠/解冻后历史行、可见内容和样式保持一致，且休眠期间输出继续被接收
+//
+// 运行：cargo test --test hibernation_test --release -- --nocapture
+
+use termux_rust::engine::TerminalEngine;
+
+fn row_text(engine: &TerminalEngine, row: i32) -> String {
+    let r = engine.state.main_screen.get_row(row);
+    r.get_selected_text(0, r.get_space_used())
+}
+
+#[test]
+fn test_hibernate_and_thaw_preserves_transcript() {
+    let mut engine = TerminalEngine::new(40, 10, 100, 10, 20);
+    for i in 0..50 {
+        engine.process_bytes(format!("\x1b[3{}mLine {}\x1b[0m 中文\r\n", i % 8, i).as_bytes());
+    }
+    let before = engine.state.main_screen.get_transcript_text();
+    let active_before = engine.state.main_screen.active_transcript_rows;
+    let style_before = engine.state.main_screen.get_row(-5).styles.clone();
+
+    let bytes = engine.state.hibernate();
+    assert!(bytes > 0, "休眠后应产生压缩块");
+    assert!(engine.state.is_hibernated());
+    assert!(engine.state.flat_buffer.is_none(), "休眠应释放扁平缓冲区");
+    assert_eq!(engine.state.main_screen.buffer.len(), 10, "休眠时只保留可见行");
+    assert_eq!(engine.state.main_screen.active_transcript_rows, 0);
+
+    engine.state.thaw();
+    assert!(!engine.state.is_hibernated());
+    assert_eq!(engine.state.main_screen.buffer.len(), 100);
+    assert_eq!(engine.state.main_screen.active_transcript_rows, active_before);
+    assert_eq!(engine.state.main_screen.get_transcript_text(), before);
+    assert_eq!(engine.state.main_screen.get_row(-5).styles, style_before);
+}
+
+#[test]
+fn test_output_while_hibernated_is_kept() {
+    let mut engine = TerminalEngine::new(40, 10, 30, 10, 20);
+    for i in 0..5 {
+        engine.process_bytes(format!("Before {}\r\n", i).as_bytes());
+    }
+    engine.state.hibernate();
+
+    for i in 0..40 {
+        engine.process_bytes(format!("During {}\r\n", i).as_bytes());
+    }
+    assert!(engine.state.is_hibernated());
+
+    engine.state.thaw();
+    // 总行数 30，屏幕 10 行，历史最多 20 行
+    assert_eq!(engine.state.main_screen.active_transcript_rows, 20);
+    assert_eq!(row_text(&engine, -20), "During 11");
+    assert_eq!(row_text(&engine, -1), "During 30");
+    assert_eq!(row_text(&engine, 0), "During 31");
+
+    // 解冻后继续滚动应正常复用环形缓冲区
+    for i in 0..15 {
+        engine.process_bytes(format!("After {}\r\n", i).as_bytes());
+    }
+    assert_eq!(engine.state.main_screen.active_transcript_rows, 20);
+    assert_eq!(row_text(&engine, -1), "After 5");
+}
+
+#[test]
+fn test_resize_thaws_hibernated_screen() {
+    let mut engine = TerminalEngine::new(40, 10, 50, 10, 20);
+    for i in 0..30 {
+        engine.process_bytes(format!("Line {}\r\n", i).as_bytes());
+    }
+    engine.state.hibernate();
+    engine.state.resize(40, 12);
+    assert!(!engine.state.is_hibernated());
+    assert!(engine.state.flat_buffer.is_some());
+    assert_eq!(engine.state.main_screen.buffer.len(), 50);
+}
+
+#[test]
+fn test_clear_transcript_while_hibernated() {
+    let mut engine = TerminalEngine::new(40, 10, 50, 10, 20);
+    for i in 0..30 {
+        engine.process_bytes(format!("Line {}\r\n", i).as_bytes());
+    }
+    engine.state.hibernate();
+    engine.process_bytes(b"\x1b[3J");
+    engine.state.thaw();
+    assert_eq!(engine.state.main_screen.active_transcript_rows, 0);
+}
@@ -0,0 +1,309 @@
+// 延迟物化会话测试与内存基准
+// 验证轻量会话缓冲的输出在物化后完整重放、标题被跟踪、终端查询在未物化时即被应答，
+// 无头会话溢写的输出完整可读，并对比每个空闲会话的 RSS
+//
+// 运行：cargo test --test lazy_session_test --release -- --nocapture
+
+use std::sync::Arc;
+
+use termux_rust::engine::{TerminalContext, TerminalEngine};
+use termux_rust::engine::dormant::{OutputSpill, QueryScanner, RawOutputRing, TitleScanner, DORMANT_OUTPUT_CAPACITY};
+
+/// 与 IO 线程在未物化时的处理相同
+fn feed_dormant(context: &TerminalContext, data: &[u8]) {
+    context.feed_dormant(data).expect("会话应处于未物化状态");
+}
+
+/// 用管道代替 PTY，返回读端；写入 PTY 的应答可以从读端读出
+fn attach_pipe(context: &TerminalContext) -> i32 {
+    let mut fds = [0i32; 2];
+    assert_eq!(unsafe { libc::pipe(fds.as_mut_ptr()) }, 0);
+    unsafe { libc::fcntl(fds[0], libc::F_SETFL, libc::O_NONBLOCK) };
+    context.pty_fd.store(fds[1], std::sync::atomic::Ordering::SeqCst);
+    fds[0]
+}
+
+/// 读出管道中已有的全部字节
+fn read_pipe(fd: i32) -> Vec<u8> {
+    let mut out = Vec::new();
+    let mut buf = [0u8; 256];
+    loop {
+        let n = unsafe { libc::read(fd, buf.as_mut_ptr() as *mut _, buf.len()) };
+        if n <= 0 { return out; }
+        out.extend_from_slice(&buf[..n as usize]);
+    }
+}
+
+fn close_pipe(context: &TerminalContext, read_fd: i32) {
+    let write_fd = context.pty_fd.swap(-1, std::sync::atomic::Ordering::SeqCst);
+    unsafe {
+        libc::close(write_fd);
+        libc::close(read_fd);
+    }
+}
+
+fn sample_output(n: usize) -> Vec<u8> {
+    let mut out = Vec::new();
+    for i in 0..n {
+        out.extend_from_slice(format!("\x1b[3{}m[{:04}] compiling crate_{}\x1b[0m\r\n", i % 8, i, i).as_bytes());
+    }
+    out
+}
+
+#[test]
+fn test_materialize_replays_buffered_output() {
+    let output = sample_output(200);
+
+    let mut direct = TerminalEngine::new(80, 24, 1000, 10, 20);
+    direct.process_bytes(&output);
+
+    let context = TerminalContext::new_dormant(80, 24, 1000, 10, 20, None);
+    assert!(!context.is_materialized());
+    for chunk in output.chunks(777) {
+        feed_dormant(&context, chunk);
+    }
+    assert_eq!(context.lock.read().unwrap().state.main_screen.buffer.len(), 24, "占位引擎不应分配历史行");
+
+    assert!(context.materialize());
+    assert!(context.is_materialized());
+    assert!(!context.materialize(), "重复物化应为空操作");
+
+    let engine = context.lock.read().unwrap();
+    assert_eq!(engine.state.main_screen.get_transcript_text(), direct.state.main_screen.get_transcript_text());
+    assert_eq!(engine.state.main_screen.buffer.len(), 1000);
+    assert_eq!(engine.state.cursor.y, direct.state.cursor.y);
+}
+
+#[test]
+fn test_title_tracked_while_dormant() {
+    let context = TerminalContext::new_dormant(80, 24, 100, 10, 20, None);
+    feed_dormant(&context, b"before\x1b]0;first\x07middle\x1b]2;sec");
+    assert_eq!(context.lock.read().unwrap().state.title.as_deref(), Some("first"));
+    feed_dormant(&context, b"ond\x1b\\after\x1b]7;file:///tmp\x07");
+    assert_eq!(context.lock.read().unwrap().state.title.as_deref(), Some("second"));
+
+    context.materialize();
+    assert_eq!(context.lock.read().unwrap().state.title.as_deref(), Some("second"));
+}
+
+#[test]
+fn test_title_scanner_ignores_other_osc() {
+    let mut scanner = TitleScanner::new();
+    assert_eq!(scanner.scan(b"\x1b]10;?\x07\x1b]52;c;aGVsbG8=\x07"), None);
+    assert_eq!(scanner.scan(b"\x1b]0;vim main.rs\x07"), Some("vim main.rs".to_string()));
+}
+
+#[test]
+fn test_query_scanner() {
+    let mut scanner = QueryScanner::new();
+    assert!(!scanner.scan(b"plain \x1b[31mcolored\x1b[0m\r\n\x1b]0;title\x07\x1b]10;#ffffff\x07"));
+    assert!(!scanner.scan(b"\x1b[2J\x1b[?1049h\x1b[>4;2m\x1b[?25l"));
+    for query in [&b"\x1b[c"[..], b"\x1b[0c", b"\x1b[>c", b"\x1b[5n", b"\x1b[6n", b"\x1b[?6n",
+                  b"\x1b[>q", b"\x1b[?u", b"\x1b]11;?\x07", b"\x1b]4;1;?\x1b\\", b"\x1b]18\x07"] {
+        assert!(scanner.scan(query), "应识别查询 {:?}", String::from_utf8_lossy(query));
+    }
+
+    // 跨多段输出的查询在最后一段被识别
+    assert!(!scanner.scan(b"\x1b["));
+    assert!(!scanner.scan(b"6"));
+    assert!(scanner.scan(b"n"));
+
+    // ESC 结束 OSC 后紧接的 CSI 查询也被识别
+    assert!(scanner.scan(b"\x1b]0;title\x1b[c"));
+}
+
+#[test]
+fn test_dormant_session_answers_queries() {
+    let context = TerminalContext::new_dormant(80, 24, 1000, 10, 20, None);
+    let pipe = attach_pipe(&context);
+
+    // 没有查询时不处理输出也不应答
+    feed_dormant(&context, b"line 1\r\nab");
+    assert!(read_pipe(pipe).is_empty());
+
+    // 查询由占位引擎补处理之前的输出后应答，光标位置反映了之前的输出
+    feed_dormant(&context, b"c\x1b[6n\x1b[c");
+    feed_dormant(&context, b"\x1b[5n");
+    assert_eq!(read_pipe(pipe), b"\x1b[2;4R\x1b[?64;1;2;6;15;22c\x1b[0n".to_vec());
+    assert_eq!(context.dormant.lock().unwrap().as_ref().unwrap().unanswered, 0);
+
+    // 已应答的查询在物化重放时不重复应答
+    feed_dormant(&context, b"more output\r\n");
+    assert!(context.materialize());
+    assert!(read_pipe(pipe).is_empty(), "已应答的查询不应重复应答");
+    assert!(context.lock.read().unwrap().state.main_screen.get_transcript_text().contains("more output"));
+    close_pipe(&context, pipe);
+}
+
+#[test]
+fn test_materialize_answers_unanswered_queries() {
+    let context = TerminalContext::new_dormant(80, 24, 1000, 10, 20, None);
+    let pipe = attach_pipe(&context);
+
+    // 占位引擎尚未处理的输出中的查询在重放时应答，而不是被丢弃
+    {
+        let mut dormant = context.dormant.lock().unwrap();
+        let d = dormant.as_mut().unwrap();
+        let output = b"prompt$ \x1b[5n";
+        d.output.push(output);
+        d.unanswered += output.len();
+    }
+    assert!(context.materialize());
+    assert_eq!(read_pipe(pipe), b"\x1b[0n".to_vec());
+    close_pipe(&context, pipe);
+}
+
+#[test]
+fn test_headless_session_answers_queries() {
+    let path = temp_spill("queries");
+    let context = TerminalContext::new_headless(80, 24, 1000, 10, 20, path.to_str().unwrap());
+    let pipe = attach_pipe(&context);
+
+    feed_dormant(&context, &sample_output(100));
+    feed_dormant(&context, b"\x1b[c");
+    assert_eq!(read_pipe(pipe), b"\x1b[?64;1;2;6;15;22c".to_vec());
+
+    // 查询也保留在原始输出中
+    assert!(context.headless_output().unwrap().ends_with(b"\x1b[c"));
+    close_pipe(&context, pipe);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_ring_overflow_skips_partial_line() {
+    let mut ring = RawOutputRing::new(64);
+    ring.push(b"0123456789\r\n");
+    ring.push(&[b'x'; 60]);
+    ring.push(b"\r\ntail\r\n");
+    assert!(ring.is_truncated());
+    assert_eq!(ring.len(), 64);
+    assert_eq!(ring.take_replay_bytes(), b"tail\r\n".to_vec());
+}
+
+#[test]
+fn test_ring_is_bounded() {
+    let context = TerminalContext::new_dormant(80, 24, 1000, 10, 20, None);
+    feed_dormant(&context, &sample_output(20_000));
+    let buffered = context.dormant.lock().unwrap().as_ref().unwrap().output.len();
+    assert!(buffered <= DORMANT_OUTPUT_CAPACITY);
+
+    // 溢出后物化应保留最新输出
+    context.materialize();
+    let engine = context.lock.read().unwrap();
+    assert!(engine.state.main_screen.get_transcript_text().contains("[19999]"));
+}
+
+fn temp_spill(name: &str) -> std::path::PathBuf {
+    let path = std::env::temp_dir().join(format!("termux_headless_{}_{}.out", name, std::process::id()));
+    let _ = std::fs::remove_file(&path);
+    path
+}
+
+#[test]
+fn test_spill_ring_keeps_all_output() {
+    let path = temp_spill("ring");
+    let mut ring = RawOutputRing::with_spill(64, OutputSpill::new(&path, 1 << 20));
+    let output = sample_output(50);
+    for chunk in output.chunks(7) {
+        ring.push(chunk);
+    }
+    assert_eq!(ring.len(), 64);
+    assert_eq!(ring.spill().unwrap().written() as usize, output.len() - 64);
+    assert_eq!(ring.collect(), output);
+
+    // 超过一次性容量的写入同样溢写
+    ring.push(&[b'y'; 200]);
+    assert_eq!(ring.len(), 64);
+    let mut expected = output.clone();
+    expected.extend_from_slice(&[b'y'; 200]);
+    assert_eq!(ring.collect(), expected);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_spill_limit_keeps_head_and_tail() {
+    let path = temp_spill("limit");
+    let mut ring = RawOutputRing::with_spill(100, OutputSpill::new(&path, 1000));
+    let output = sample_output(200);
+    ring.push(&output);
+
+    let spill = ring.spill().unwrap();
+    assert_eq!(spill.written(), 1000);
+    assert_eq!(spill.omitted() as usize, output.len() - 1000 - 100);
+
+    let collected = ring.collect();
+    assert!(collected.starts_with(&output[..1000]));
+    assert!(collected.ends_with(&output[output.len() - 100..]));
+    let marker = format!("[... {} bytes omitted ...]", spill.omitted());
+    assert!(String::from_utf8_lossy(&collected).contains(&marker));
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_headless_output_and_upgrade() {
+    let path = temp_spill("context");
+    let context = TerminalContext::new_headless(80, 24, 1000, 10, 20, path.to_str().unwrap());
+    let output = sample_output(5_000);
+    for chunk in output.chunks(4096) {
+        feed_dormant(&context, chunk);
+    }
+    feed_dormant(&context, b"\x1b]0;apt install\x07");
+    assert_eq!(context.headless_output().unwrap().len(), output.len() + 16);
+    assert_eq!(context.lock.read().unwrap().state.title.as_deref(), Some("apt install"));
+
+    // 用户打开后升级为完整引擎，屏幕显示最新输出
+    assert!(context.materialize());
+    assert!(context.headless_output().is_none());
+    assert!(context.lock.read().unwrap().state.main_screen.get_transcript_text().contains("[4999]"));
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_dormant_session_is_not_headless() {
+    let context = TerminalContext::new_dormant(80, 24, 100, 10, 20, None);
+    feed_dormant(&context, b"output\r\n");
+    assert!(context.headless_output().is_none());
+}
+
+/// 读取当前进程的常驻内存（字节）
+fn rss_bytes() -> Option<usize> {
+    let statm = std::fs::read_to_string("/proc/self/statm").ok()?;
+    let pages: usize = statm.split_whitespace().nth(1)?.parse().ok()?;
+    let page_size = unsafe { libc::sysconf(libc::_SC_PAGESIZE) } as usize;
+    Some(pages * page_size)
+}
+
+fn measure_per_session<F: Fn() -> Arc<TerminalContext>>(count: usize, create: F) -> Option<usize> {
+    let before = rss_bytes()?;
+    let sessions: Vec<Arc<TerminalContext>> = (0..count).map(|_| create()).collect();
+    let after = rss_bytes()?;
+    drop(sessions);
+    Some(after.saturating_sub(before) / count)
+}
+
+#[test]
+fn benchmark_rss_per_idle_session() {
+    const SESSIONS: usize = 100;
+    // 每个空闲会话的典型输出：一个提示符加少量历史
+    let idle_output = sample_output(40);
+
+    let full = measure_per_session(SESSIONS, || {
+        let mut engine = TerminalEngine::new(80, 24, 2000, 10, 20);
+        engine.process_bytes(&idle_output);
+        Arc::new(TerminalContext::new(engine))
+    });
+    let lazy = measure_per_session(SESSIONS, || {
+        let context = Arc::new(TerminalContext::new_dormant(80, 24, 2000, 10, 20, None));
+        feed_dormant(&context, &idle_output);
+        context
+    });
+
+    match (full, lazy) {
+        (Some(full), Some(lazy)) => {
+            println!("每个空闲会话 RSS：完整引擎 {} KiB，轻量会话 {} KiB（{} 个会话）",
+                full / 1024, lazy / 1024, SESSIONS);
+            assert!(lazy < full, "轻量会话应占用更少内存");
+        }
+        _ => println!("无法读取 /proc/self/statm，跳过 RSS 基准"),
+    }
+}
@@ -0,0 +1,225 @@
+// 状态快照测试
+// 验证快照写入/恢复后屏幕、历史、光标、模式、颜色、标题和制表位一致，
+// 增量检查点只追加新行，截断的尾部被忽略
+//
+// 运行：cargo test --test snapshot_test --release -- --nocapture
+
+use std::path::PathBuf;
+use std::time::Instant;
+
+use termux_rust::engine::TerminalEngine;
+use termux_rust::engine::snapshot::{read_snapshot_header, restore_snapshot_file, SnapshotHeader, SnapshotWriter};
+
+fn temp_snapshot(name: &str) -> PathBuf {
+    let path = std::env::temp_dir().join(format!("termux_snapshot_{}_{}.snap", name, std::process::id()));
+    let _ = std::fs::remove_file(&path);
+    path
+}
+
+fn checkpoint(writer: &mut SnapshotWriter, engine: &TerminalEngine) -> usize {
+    let pending = writer.prepare(&engine.state);
+    writer.commit(pending).expect("写入快照失败")
+}
+
+fn fill(engine: &mut TerminalEngine, from: usize, to: usize) {
+    for i in from..to {
+        engine.process_bytes(format!("\x1b[3{}mLine {}\x1b[0m 中文\r\n", i % 8, i).as_bytes());
+    }
+}
+
+fn assert_same(a: &TerminalEngine, b: &TerminalEngine) {
+    assert_eq!(a.state.main_screen.get_transcript_text(), b.state.main_screen.get_transcript_text());
+    assert_eq!(a.state.main_screen.active_transcript_rows, b.state.main_screen.active_transcript_rows);
+    for y in -(a.state.main_screen.active_transcript_rows as i32)..a.state.rows {
+        assert_eq!(a.state.main_screen.get_row(y).styles, b.state.main_screen.get_row(y).styles, "第 {} 行样式不一致", y);
+    }
+    assert_eq!(a.state.cursor.x, b.state.cursor.x);
+    assert_eq!(a.state.cursor.y, b.state.cursor.y);
+    assert_eq!(a.state.modes.flags, b.state.modes.flags);
+    assert_eq!(a.state.title, b.state.title);
+    assert_eq!(a.state.tab_stops, b.state.tab_stops);
+    assert_eq!(a.state.colors.current_colors, b.state.colors.current_colors);
+    assert_eq!(a.state.current_style, b.state.current_style);
+}
+
+#[test]
+fn test_snapshot_roundtrip() {
+    let path = temp_snapshot("roundtrip");
+    let mut engine = TerminalEngine::new(40, 10, 200, 10, 20);
+    fill(&mut engine, 0, 120);
+    engine.process_bytes(b"\x1b]0;build farm\x07\x1b[3g\x1b[?1h\x1b]4;1;#123456\x07\x1b[5;7H\x1b[1;32m");
+
+    let mut writer = SnapshotWriter::new(&path);
+    assert!(checkpoint(&mut writer, &engine) > 0);
+
+    let mut restored = TerminalEngine::new(40, 10, 200, 10, 20);
+    let rows = restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_eq!(rows, engine.state.main_screen.active_transcript_rows);
+    assert_same(&engine, &restored);
+    assert!(restored.state.application_cursor_keys);
+
+    // 恢复后新 shell 的输出应接在原光标位置之后
+    restored.process_bytes(b"$ ");
+    assert_eq!(restored.state.cursor.x, 8);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_incremental_checkpoint_appends() {
+    let path = temp_snapshot("incremental");
+    let mut engine = TerminalEngine::new(40, 10, 1000, 10, 20);
+    fill(&mut engine, 0, 500);
+
+    let mut writer = SnapshotWriter::new(&path);
+    let full = checkpoint(&mut writer, &engine);
+
+    fill(&mut engine, 500, 510);
+    let incremental = checkpoint(&mut writer, &engine);
+    assert!(incremental < full / 4, "增量检查点应远小于完整快照: {} vs {}", incremental, full);
+    assert_eq!(std::fs::metadata(&path).unwrap().len() as usize, full + incremental);
+
+    // 清除历史会改写全部历史，下一次检查点重写整个文件
+    fill(&mut engine, 510, 520);
+    engine.process_bytes(b"\x1b[3J");
+    let rewritten = checkpoint(&mut writer, &engine);
+    assert_eq!(std::fs::metadata(&path).unwrap().len() as usize, rewritten);
+
+    fill(&mut engine, 520, 560);
+    checkpoint(&mut writer, &engine);
+
+    let mut restored = TerminalEngine::new(40, 10, 1000, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_same(&engine, &restored);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_truncated_tail_is_ignored() {
+    let path = temp_snapshot("truncated");
+    let mut engine = TerminalEngine::new(40, 10, 100, 10, 20);
+    fill(&mut engine, 0, 30);
+    let mut writer = SnapshotWriter::new(&path);
+    checkpoint(&mut writer, &engine);
+    let good_len = std::fs::metadata(&path).unwrap().len();
+    let mut expected = TerminalEngine::new(40, 10, 100, 10, 20);
+    restore_snapshot_file(&mut expected.state, &path).unwrap();
+
+    // 模拟写入中途进程被杀：追加一段后截断
+    fill(&mut engine, 30, 40);
+    checkpoint(&mut writer, &engine);
+    let file = std::fs::OpenOptions::new().write(true).open(&path).unwrap();
+    file.set_len(good_len + 20).unwrap();
+
+    let mut restored = TerminalEngine::new(40, 10, 100, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_same(&expected, &restored);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_checkpoint_while_hibernated() {
+    let path = temp_snapshot("hibernated");
+    let mut engine = TerminalEngine::new(40, 10, 100, 10, 20);
+    fill(&mut engine, 0, 50);
+    let mut writer = SnapshotWriter::new(&path);
+    checkpoint(&mut writer, &engine);
+
+    engine.state.hibernate();
+    fill(&mut engine, 50, 60);
+    checkpoint(&mut writer, &engine);
+    engine.state.thaw();
+
+    let mut restored = TerminalEngine::new(40, 10, 100, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_same(&engine, &restored);
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_snapshot_header() {
+    let path = temp_snapshot("header");
+    let mut engine = TerminalEngine::new(40, 10, 100, 10, 20);
+    fill(&mut engine, 0, 30);
+    let header = SnapshotHeader {
+        order: 1_700_000_000_123,
+        name: Some("构建".to_string()),
+        cwd: Some("/data/data/com.termux/files/home/项目".to_string()),
+    };
+    let mut writer = SnapshotWriter::with_header(&path, header.clone());
+    checkpoint(&mut writer, &engine);
+
+    // 增量追加不改写文件头，会话信息保持不变
+    fill(&mut engine, 30, 40);
+    checkpoint(&mut writer, &engine);
+    assert_eq!(read_snapshot_header(&path), Some(header));
+
+    let mut restored = TerminalEngine::new(40, 10, 100, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_same(&engine, &restored);
+
+    // 未设置的名称和工作目录读回为 None
+    let mut writer = SnapshotWriter::new(&path);
+    checkpoint(&mut writer, &engine);
+    assert_eq!(read_snapshot_header(&path), Some(SnapshotHeader::default()));
+    let mut restored = TerminalEngine::new(40, 10, 100, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_same(&engine, &restored);
+
+    // 其他版本和截断的文件头无效
+    let data = std::fs::read(&path).unwrap();
+    let mut other_version = data.clone();
+    other_version[8..12].copy_from_slice(&1u32.to_le_bytes());
+    std::fs::write(&path, &other_version).unwrap();
+    assert_eq!(read_snapshot_header(&path), None);
+    assert!(restore_snapshot_file(&mut restored.state, &path).is_err());
+    std::fs::write(&path, &data[..22]).unwrap();
+    assert_eq!(read_snapshot_header(&path), None);
+
+    let _ = std::fs::remove_file(&path);
+    assert_eq!(read_snapshot_header(&path), None);
+}
+
+#[test]
+fn test_restore_into_different_size() {
+    let path = temp_snapshot("resize");
+    let mut engine = TerminalEngine::new(40, 10, 100, 10, 20);
+    fill(&mut engine, 0, 50);
+    let mut writer = SnapshotWriter::new(&path);
+    checkpoint(&mut writer, &engine);
+
+    let mut restored = TerminalEngine::new(60, 20, 100, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    assert_eq!(restored.state.cols, 60);
+    assert_eq!(restored.state.rows, 20);
+    assert!(restored.state.main_screen.get_transcript_text().contains("Line 49"));
+    let _ = std::fs::remove_file(&path);
+}
+
+#[test]
+fn test_snapshot_performance_10k_rows() {
+    let path = temp_snapshot("perf");
+    let mut engine = TerminalEngine::new(80, 24, 10_000, 10, 20);
+    fill(&mut engine, 0, 10_000);
+    let mut writer = SnapshotWriter::new(&path);
+
+    let start = Instant::now();
+    let pending = writer.prepare(&engine.state);
+    let full_encode = start.elapsed();
+    writer.commit(pending).unwrap();
+
+    fill(&mut engine, 10_000, 10_100);
+    let start = Instant::now();
+    let pending = writer.prepare(&engine.state);
+    let incremental_encode = start.elapsed();
+    writer.commit(pending).unwrap();
+
+    let start = Instant::now();
+    let mut restored = TerminalEngine::new(80, 24, 10_000, 10, 20);
+    restore_snapshot_file(&mut restored.state, &path).unwrap();
+    let restore = start.elapsed();
+
+    println!("完整编码: {:?}, 增量编码: {:?}, 恢复: {:?}, 文件大小: {} 字节",
+        full_encode, incremental_encode, restore, std::fs::metadata(&path).unwrap().len());
+    assert_same(&engine, &restored);
+    let _ = std::fs::remove_file(&path);
+}
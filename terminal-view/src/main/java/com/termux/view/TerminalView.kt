@@ -248,6 +248,8 @@ class TerminalView @JvmOverloads constructor(
     fun attachSession(session: TerminalSession?): Boolean {
         if (session === mTermSession) return false
         mTopRow = 0
+        mTermSession?.onDetachedFromView()
+        session?.onAttachedToView()
         mTermSession = session
         mEmulator = null
         mEnginePointerSet = false  // 关键修复：切换 session 时必须重置，否则新 session 的 engine 指针永远不会被设置
@@ -1007,6 +1009,7 @@ class TerminalView @JvmOverloads constructor(
 
     override fun onAttachedToWindow() {
         super.onAttachedToWindow()
+        mTermSession?.onAttachedToView()
         if (mTextSelectionCursorController != null) {
             viewTreeObserver?.addOnTouchModeChangeListener(mTextSelectionCursorController)
         }
@@ -1014,6 +1017,7 @@ class TerminalView @JvmOverloads constructor(
 
     override fun onDetachedFromWindow() {
         super.onDetachedFromWindow()
+        mTermSession?.onDetachedFromView()
         if (mTextSelectionCursorController != null) {
             stopTextSelectionMode()
             viewTreeObserver?.removeOnTouchModeChangeListener(mTextSelectionCursorController)
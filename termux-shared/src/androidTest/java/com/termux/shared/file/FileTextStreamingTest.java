@@ -0,0 +1,138 @@
+package com.termux.shared.file;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.errors.Error;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class FileTextStreamingTest {
+
+    private File mRoot;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mRoot = new File(context.getFilesDir(), "file-text-streaming-test");
+        assertNull(FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true));
+        assertTrue(mRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true);
+    }
+
+    /** 生成包含多字节字符的文本，使字符跨越读取缓冲区的边界。 */
+    private static StringBuilder createText(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            text.append("第 ").append(i).append(" 行 crash log 内容 😀 stacktrace\n");
+        return text;
+    }
+
+    @Test
+    public void testWriteAndReadText() {
+        String path = new File(mRoot, "dir/text").getAbsolutePath();
+        StringBuilder text = createText(20000);
+
+        assertNull(FileUtils.writeTextToFileAtomically("text", path, StandardCharsets.UTF_8, text, true));
+
+        FileUtils.ReadTextResult result = FileUtils.readTextFromFileAsCharSequence("text", path, StandardCharsets.UTF_8, false);
+        assertNull(result.error);
+        assertEquals(text.toString(), result.text.toString());
+
+        StringBuilder chunks = new StringBuilder();
+        assertNull(FileUtils.readTextChunksFromFile("text", path, StandardCharsets.UTF_8, chunks::append, false));
+        assertEquals(text.toString(), chunks.toString());
+
+        // 旧的实现会去掉末尾的换行符
+        StringBuilder lines = new StringBuilder();
+        assertNull(FileUtils.readTextFromFile("text", path, StandardCharsets.UTF_8, lines, false));
+        assertEquals(text.substring(0, text.length() - 1), lines.toString());
+
+        // 替换已有文件，且不留下临时文件
+        assertNull(FileUtils.writeInputStreamToFileAtomically("text", path,
+            new ByteArrayInputStream("replaced".getBytes(StandardCharsets.UTF_8)), false));
+        result = FileUtils.readTextFromFileAsCharSequence("text", path, StandardCharsets.UTF_8, false);
+        assertEquals("replaced", result.text.toString());
+        assertArrayEquals(new String[]{"text"}, new File(mRoot, "dir").list());
+
+        // 空文件和不存在的文件
+        assertNull(FileUtils.writeTextToFileAtomically("text", path, null, "", false));
+        assertEquals(0, FileUtils.readTextFromFileAsCharSequence("text", path, null, false).text.length());
+        String missingPath = new File(mRoot, "missing").getAbsolutePath();
+        result = FileUtils.readTextFromFileAsCharSequence("text", missingPath, null, true);
+        assertNull(result.error);
+        assertNull(result.text);
+        assertNotNull(FileUtils.readTextFromFileAsCharSequence("text", missingPath, null, false).error);
+        assertNotNull(FileUtils.readTextChunksFromFile("text", mRoot.getAbsolutePath(), null, chunk -> {}, false));
+    }
+
+    @Test
+    public void testFailedWriteKeepsFile() {
+        String path = new File(mRoot, "text").getAbsolutePath();
+        assertNull(FileUtils.writeTextToFileAtomically("text", path, null, "original", false));
+
+        Error error = FileUtils.writeToFileAtomically("text", path, outputStream -> {
+            outputStream.write("partial".getBytes(StandardCharsets.UTF_8));
+            throw new IllegalStateException("failed");
+        }, false, FileUtilsErrno.ERRNO_WRITING_DATA_TO_FILE_FAILED_WITH_EXCEPTION);
+        assertNotNull(error);
+
+        assertEquals("original", FileUtils.readTextFromFileAsCharSequence("text", path, null, false).text.toString());
+        assertArrayEquals(new String[]{"text"}, mRoot.list());
+    }
+
+    @Test
+    public void benchmarkReadAndWriteText() {
+        String path = new File(mRoot, "text").getAbsolutePath();
+        StringBuilder text = createText(300000);
+
+        long start = System.nanoTime();
+        assertNull(FileUtils.writeTextToFile("text", path, StandardCharsets.UTF_8, text.toString(), false));
+        long writeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        assertNull(FileUtils.writeTextToFileAtomically("text", path, StandardCharsets.UTF_8, text, false));
+        long atomicWriteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        StringBuilder lines = new StringBuilder();
+        assertNull(FileUtils.readTextFromFile("text", path, StandardCharsets.UTF_8, lines, false));
+        long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        FileUtils.ReadTextResult result = FileUtils.readTextFromFileAsCharSequence("text", path, StandardCharsets.UTF_8, false);
+        long mappedReadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        final long[] chars = {0};
+        assertNull(FileUtils.readTextChunksFromFile("text", path, StandardCharsets.UTF_8, chunk -> chars[0] += chunk.remaining(), false));
+        long chunkReadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertNull(result.error);
+        assertEquals(text.length(), result.text.length());
+        assertEquals(text.length(), chars[0]);
+
+        long size = new File(path).length();
+        System.out.println(size + " 字节的文本：写入 " + writeMillis + "ms，原子流式写入 " + atomicWriteMillis + "ms");
+        System.out.println(size + " 字节的文本：逐行读取 " + readMillis + "ms，mmap 读取 " + mappedReadMillis +
+            "ms，分块读取 " + chunkReadMillis + "ms");
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.termux.shared.file;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.system.Os;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.filesystem.FileTypes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ParallelFileTreeTest {
+
+    /** 类似 prefix 的目录树：500 个目录，每个目录 100 个文件。 */
+    private static final int DIRECTORIES = 500;
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mRoot = new File(context.getFilesDir(), "parallel-file-tree-test");
+        assertNull(FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true));
+        assertTrue(mRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true);
+    }
+
+    private static void writeFile(File file, String content) throws Exception {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int createTree(File root, int directories, int filesPerDirectory) throws Exception {
+        assertTrue(root.mkdirs() || root.isDirectory());
+        int count = 0;
+        for (int d = 0; d < directories; d++) {
+            File directory = new File(root, "dir" + (d % 10) + "/sub" + d);
+            assertTrue(directory.mkdirs());
+            for (int f = 0; f < filesPerDirectory; f++) {
+                writeFile(new File(directory, "file" + f), "content " + d + " " + f);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testSymlinksNotFollowed() throws Exception {
+        File outside = new File(mRoot, "outside");
+        assertTrue(outside.mkdir());
+        writeFile(new File(outside, "keep"), "keep");
+
+        File src = new File(mRoot, "src");
+        createTree(src, 3, 3);
+        Os.symlink(outside.getAbsolutePath(), new File(src, "link").getAbsolutePath());
+
+        // 复制时符号链接应作为符号链接复制
+        File dest = new File(mRoot, "dest");
+        assertNull(FileUtils.copyDirectoryFile(null, src.getAbsolutePath(), dest.getAbsolutePath(), false));
+        assertEquals(outside.getAbsolutePath(), Os.readlink(new File(dest, "link").getAbsolutePath()));
+        assertEquals(3 * 3, countFiles(dest));
+
+        // 删除时不应删除符号链接指向的文件
+        assertNull(FileUtils.deleteDirectoryFile(null, src.getAbsolutePath(), false));
+        assertNull(FileUtils.clearDirectory(null, dest.getAbsolutePath()));
+        assertFalse(src.exists());
+        assertTrue(dest.isDirectory());
+        assertEquals(0, dest.list().length);
+        assertTrue(new File(outside, "keep").isFile());
+    }
+
+    @Test
+    public void testCopyIntoSubdirectoryOfItself() throws Exception {
+        File src = new File(mRoot, "src");
+        createTree(src, 2, 2);
+        File dest = new File(src, "copy");
+        assertNull(FileUtils.copyDirectoryFile(null, src.getAbsolutePath(), dest.getAbsolutePath(), false));
+        assertEquals(2 * 2, countFiles(dest));
+        assertFalse(new File(dest, "copy").exists());
+    }
+
+    @Test
+    public void testProgressAndCancellation() throws Exception {
+        File src = new File(mRoot, "src");
+        int files = createTree(src, 20, 50);
+
+        AtomicLong progress = new AtomicLong();
+        File dest = new File(mRoot, "dest");
+        assertNull(FileUtils.copyOrMoveFile(null, src.getAbsolutePath(), dest.getAbsolutePath(), false, false,
+            FileTypes.FILE_TYPE_ANY_FLAGS, true, true, progress::set, null));
+        assertTrue(progress.get() >= files);
+
+        // 在删除过程中取消
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        Error error = FileUtils.deleteFile(null, dest.getAbsolutePath(), false, false, FileTypes.FILE_TYPE_ANY_FLAGS,
+            processedFiles -> {
+                if (processedFiles >= ParallelFileTree.PROGRESS_INTERVAL) cancellationSignal.cancel();
+            }, cancellationSignal);
+        assertNotNull(error);
+        assertEquals(Integer.valueOf(FileUtilsErrno.ERRNO_DELETING_FILE_CANCELLED.getCode()), error.getCode());
+        assertTrue(dest.isDirectory());
+        assertTrue(countFiles(dest) > 0);
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+        File[] files = directory.listFiles();
+        if (files == null) return 0;
+        for (File file : files) {
+            if (file.isDirectory() && !FileUtils.symlinkFileExists(file.getAbsolutePath()))
+                count += countFiles(file);
+            else if (file.isFile())
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void benchmarkPrefixTree() throws Exception {
+        File src = new File(mRoot, "prefix");
+        int files = createTree(src, DIRECTORIES, FILES_PER_DIRECTORY);
+
+        // 单线程：commons-io 复制和 Guava 删除
+        File serialDest = new File(mRoot, "serial");
+        long start = System.nanoTime();
+        org.apache.commons.io.FileUtils.copyDirectory(src, serialDest, true);
+        long serialCopyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        start = System.nanoTime();
+        //noinspection UnstableApiUsage
+        MoreFiles.deleteRecursively(serialDest.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+        long serialDeleteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 并行
+        File parallelDest = new File(mRoot, "parallel");
+        start = System.nanoTime();
+        assertNull(FileUtils.copyDirectoryFile(null, src.getAbsolutePath(), parallelDest.getAbsolutePath(), false));
+        long parallelCopyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(files, countFiles(parallelDest));
+        start = System.nanoTime();
+        assertNull(FileUtils.deleteDirectoryFile(null, parallelDest.getAbsolutePath(), false));
+        long parallelDeleteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertFalse(parallelDest.exists());
+
+        System.out.println(files + " 个文件，单线程复制：" + serialCopyMillis + "ms，并行复制：" + parallelCopyMillis + "ms");
+        System.out.println(files + " 个文件，单线程删除：" + serialDeleteMillis + "ms，并行删除：" + parallelDeleteMillis + "ms");
+    }
+
+}
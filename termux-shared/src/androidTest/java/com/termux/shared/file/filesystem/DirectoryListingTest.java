@@ -0,0 +1,172 @@
+package com.termux.shared.file.filesystem;
+
+import android.content.Context;
+import android.os.Process;
+import android.system.Os;
+import android.system.StructStat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.file.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class DirectoryListingTest {
+
+    /** 基准测试目录中的文件数。 */
+    private static final int BENCHMARK_FILES = 10000;
+
+    private File mRoot;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mRoot = new File(context.getFilesDir(), "directory-listing-test");
+        assertNull(FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true));
+        assertTrue(mRoot.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFile(null, mRoot.getAbsolutePath(), true);
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, Integer> indexByName(DirectoryListing listing) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < listing.size(); i++)
+            indexes.put(listing.getName(i), i);
+        return indexes;
+    }
+
+    @Test
+    public void testListDirectory() throws Exception {
+        writeFile(new File(mRoot, "regular"), "12345");
+        writeFile(new File(mRoot, "名字"), "");
+        assertTrue(new File(mRoot, "directory").mkdir());
+        Os.symlink("directory", new File(mRoot, "link").getAbsolutePath());
+        Os.symlink("missing", new File(mRoot, "dangling").getAbsolutePath());
+
+        DirectoryListing listing = FileAttributes.listDirectory(mRoot.getAbsolutePath(), false);
+        Map<String, Integer> indexes = indexByName(listing);
+        assertEquals(5, listing.size());
+
+        int regular = indexes.get("regular");
+        assertTrue(listing.isRegularFile(regular));
+        assertEquals(5, listing.getSize(regular));
+        assertEquals(new File(mRoot, "regular"), listing.getFile(regular));
+        assertEquals(new File(mRoot, "regular").getAbsolutePath(), listing.getPath(regular));
+        StructStat structStat = Os.lstat(listing.getPath(regular));
+        assertEquals(structStat.st_ino, listing.getInode(regular));
+        assertEquals(structStat.st_mode, listing.getMode(regular));
+        assertEquals(new File(mRoot, "regular").lastModified(), listing.getLastModifiedMillis(regular));
+        assertTrue(listing.isWritableBy(regular, Process.myUid()));
+
+        assertNotNull(indexes.get("名字"));
+        assertEquals(FileType.DIRECTORY, listing.getFileType(indexes.get("directory")));
+        assertTrue(listing.isSymbolicLink(indexes.get("link")));
+        assertTrue(listing.isSymbolicLink(indexes.get("dangling")));
+
+        // 跟随符号链接时，悬空链接仍保留在列表中，使用链接本身的属性
+        listing = FileAttributes.listDirectory(mRoot.getAbsolutePath(), true);
+        indexes = indexByName(listing);
+        assertEquals(5, listing.size());
+        assertTrue(listing.isDirectory(indexes.get("link")));
+        assertTrue(listing.isSymbolicLink(indexes.get("dangling")));
+
+        // 本地实现与 Java 回退实现的结果应一致
+        DirectoryListing javaListing = NativeDispatcher.listDirectoryJava(mRoot.getAbsolutePath(), true);
+        Map<String, Integer> javaIndexes = indexByName(javaListing);
+        assertEquals(indexes.keySet(), javaIndexes.keySet());
+        for (String name : indexes.keySet()) {
+            int i = indexes.get(name);
+            int j = javaIndexes.get(name);
+            assertEquals(name, listing.getMode(i), javaListing.getMode(j));
+            assertEquals(name, listing.getSize(i), javaListing.getSize(j));
+            assertEquals(name, listing.getLastModifiedMillis(i), javaListing.getLastModifiedMillis(j));
+        }
+
+        assertNull(FileUtils.listDirectoryWithAttributes(new File(mRoot, "regular").getAbsolutePath(), false));
+        assertNull(FileUtils.listDirectoryWithAttributes(new File(mRoot, "missing").getAbsolutePath(), false));
+    }
+
+    @Test
+    public void testValidateDirectoryEmptyOrOnlyContainsSpecificFiles() throws Exception {
+        File ignored = new File(mRoot, "a/b/ignored");
+        assertTrue(ignored.getParentFile().mkdirs());
+        writeFile(ignored, "");
+        List<String> ignoredPaths = Collections.singletonList(ignored.getAbsolutePath());
+
+        assertNull(FileUtils.validateDirectoryFileEmptyOrOnlyContainsSpecificFiles(null, mRoot.getAbsolutePath(), ignoredPaths, false));
+
+        writeFile(new File(mRoot, "a/other"), "");
+        assertNotNull(FileUtils.validateDirectoryFileEmptyOrOnlyContainsSpecificFiles(null, mRoot.getAbsolutePath(), ignoredPaths, false));
+    }
+
+    @Test
+    public void benchmarkListDirectory10kFiles() throws Exception {
+        for (int i = 0; i < BENCHMARK_FILES; i++)
+            writeFile(new File(mRoot, "file" + i + ".txt"), "content " + i);
+
+        // 先遍历一次，使两种方式都在 dentry/inode 缓存已热的情况下比较
+        assertEquals(BENCHMARK_FILES, mRoot.listFiles().length);
+
+        // 旧的实现方式：listFiles() 后对每个文件调用 isDirectory()、length()、lastModified() 和 canWrite()
+        long start = System.nanoTime();
+        long checksum = 0;
+        File[] files = mRoot.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            if (!file.isDirectory()) checksum += file.length();
+            checksum += file.lastModified() & 1;
+            if (file.canWrite()) checksum++;
+        }
+        long fileMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        long listingChecksum = 0;
+        DirectoryListing listing = FileAttributes.listDirectory(mRoot.getAbsolutePath(), true);
+        int uid = Process.myUid();
+        for (int i = 0; i < listing.size(); i++) {
+            listing.getName(i);
+            if (!listing.isDirectory(i)) listingChecksum += listing.getSize(i);
+            listingChecksum += listing.getLastModifiedMillis(i) & 1;
+            if (listing.isWritableBy(i, uid)) listingChecksum++;
+        }
+        long listingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        DirectoryListing javaListing = NativeDispatcher.listDirectoryJava(mRoot.getAbsolutePath(), true);
+        long javaListingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(BENCHMARK_FILES, listing.size());
+        assertEquals(BENCHMARK_FILES, javaListing.size());
+        assertEquals(checksum, listingChecksum);
+
+        System.out.println(BENCHMARK_FILES + " 个文件的目录：listFiles() 加逐个 stat " + fileMillis +
+            "ms，批量本地 stat " + listingMillis + "ms，Java 回退实现 " + javaListingMillis + "ms");
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.termux.shared.logger;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class LogFileTest {
+
+    private static final int MESSAGES = 20_000;
+    private static final String LOG_TAG = "LogFileTest";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDirectory = new File(context.getCacheDir(), "log-file-test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogFile(null);
+        Logger.setLogcatEnabled(true);
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                assertTrue(file.delete());
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testMessagesWrittenAndRead() throws Exception {
+        LogFile logFile = LogFile.start(mDirectory, LogFile.DEFAULT_MAX_SIZE);
+        logFile.append(Log.INFO, "Tag", "first");
+        logFile.append(Log.ERROR, "Tag", "multi\nline ü");
+        assertTrue(logFile.flush(5000));
+
+        String log = LogFile.readLogString(mDirectory, Integer.MAX_VALUE);
+        String[] lines = log.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" I Tag: first"));
+        assertTrue(lines[1], lines[1].endsWith(" E Tag: multi"));
+        assertEquals("line ü", lines[2]);
+
+        // 只返回最近的消息
+        String lastMessage = lines[1] + "\n" + lines[2] + "\n";
+        assertEquals(lastMessage, LogFile.readLogString(mDirectory, lastMessage.length()));
+        logFile.stop();
+    }
+
+    @Test
+    public void testLongMessageTruncatedAtCharBoundary() throws Exception {
+        LogFile logFile = LogFile.start(mDirectory, LogFile.DEFAULT_MAX_SIZE);
+        // "ü" 占 2 字节，截断位置落在字符中间时应退回到字符开头
+        char[] chars = new char[LogFile.MAX_MESSAGE_SIZE];
+        Arrays.fill(chars, 'ü');
+        logFile.append(Log.INFO, "Tag", "x" + new String(chars));
+        assertTrue(logFile.flush(5000));
+        logFile.stop();
+
+        String log = LogFile.readLogString(mDirectory, Integer.MAX_VALUE);
+        assertFalse("截断后不应有不完整的字符", log.contains("\uFFFD"));
+        assertTrue(log, log.endsWith(" I Tag: x" + new String(chars, 0, (LogFile.MAX_MESSAGE_SIZE - 1) / 2) + "\n"));
+    }
+
+    @Test
+    public void testPartialRecordIgnored() throws Exception {
+        LogFile logFile = LogFile.start(mDirectory, LogFile.DEFAULT_MAX_SIZE);
+        logFile.append(Log.INFO, "Tag", "complete");
+        logFile.append(Log.INFO, "Tag", "partial");
+        assertTrue(logFile.flush(5000));
+        logFile.stop();
+
+        // 模拟进程在写入最后一条记录时被杀死
+        try (RandomAccessFile file = new RandomAccessFile(new File(mDirectory, LogFile.LOG_FILE_NAME), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        String log = LogFile.readLogString(mDirectory, Integer.MAX_VALUE);
+        assertTrue(log, log.endsWith(" I Tag: complete\n"));
+        assertFalse(log.contains("partial"));
+    }
+
+    @Test
+    public void testRotationKeepsSizeCapped() throws Exception {
+        long maxSize = 256 * 1024;
+        LogFile logFile = LogFile.start(mDirectory, maxSize);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String message = new String(chars);
+        for (int i = 0; i < 1000; i++) {
+            logFile.append(Log.INFO, "Tag", i + " " + message);
+            // 避免超出队列上限而丢弃消息
+            if (i % 100 == 0) assertTrue(logFile.flush(5000));
+        }
+        assertTrue(logFile.flush(5000));
+
+        // 两个文件的总大小不应超过上限，且最新的消息应被保留
+        File current = new File(mDirectory, LogFile.LOG_FILE_NAME);
+        File old = new File(mDirectory, LogFile.OLD_LOG_FILE_NAME);
+        assertTrue(old.isFile());
+        assertTrue(current.length() + old.length() <= maxSize);
+        assertTrue(LogFile.readLogString(mDirectory, Integer.MAX_VALUE).endsWith("Tag: 999 " + message + "\n"));
+        logFile.stop();
+    }
+
+    @Test
+    public void testLoggerWritesToLogFile() throws Exception {
+        Logger.setLogFile(LogFile.start(mDirectory, LogFile.DEFAULT_MAX_SIZE));
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_NORMAL);
+        Logger.logInfo(LOG_TAG, "info");
+        Logger.logDebug(LOG_TAG, "debug");
+        // 超过 logcat 条目大小的消息在日志文件中只写入一次，不分段
+        char[] chars = new char[Logger.LOGGER_ENTRY_MAX_PAYLOAD * 2];
+        Arrays.fill(chars, 'y');
+        Logger.logErrorExtended(LOG_TAG, new String(chars));
+        assertTrue(Logger.flushLogFile(5000));
+
+        String log = LogFile.readLogString(mDirectory, Integer.MAX_VALUE);
+        assertTrue(log, log.contains(Logger.getFullTag(LOG_TAG) + ": info\n"));
+        assertFalse("未启用的日志级别不应写入", log.contains("debug"));
+        assertTrue(log.contains(Logger.getFullTag(LOG_TAG) + ": " + new String(chars) + "\n"));
+        assertFalse(log.contains("(1/"));
+    }
+
+    @Test
+    public void benchmarkLogCallLatency() throws Exception {
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_NORMAL);
+
+        // 只写 logcat
+        long logcatNanos = measure();
+
+        // logcat 和日志文件，日志文件的写入不应增加调用线程的延迟
+        Logger.setLogFile(LogFile.start(mDirectory, LogFile.DEFAULT_MAX_SIZE));
+        long bothNanos = measure();
+        assertTrue(Logger.flushLogFile(10_000));
+
+        // 只写日志文件
+        Logger.setLogcatEnabled(false);
+        long logFileNanos = measure();
+        assertTrue(Logger.flushLogFile(10_000));
+
+        System.out.println("只写 logcat：" + logcatNanos + "ns/条");
+        System.out.println("logcat 和日志文件：" + bothNanos + "ns/条");
+        System.out.println("只写日志文件：" + logFileNanos + "ns/条");
+    }
+
+    private static long measure() {
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++)
+            Logger.logInfo(LOG_TAG, "message");
+        return (System.nanoTime() - start) / MESSAGES;
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.termux.shared.logger;
+
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class LoggerTest {
+
+    private static final int ITERATIONS = 10_000;
+    private static final String LOG_TAG = "LoggerTest";
+
+    private static final AtomicInteger sSupplied = new AtomicInteger();
+    private static final Supplier<String> SUPPLIER = () -> {
+        sSupplied.incrementAndGet();
+        return "message " + sSupplied.get();
+    };
+
+    @After
+    public void tearDown() {
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+    }
+
+    @Test
+    public void testSupplierOnlyCalledWhenLevelEnabled() {
+        // 默认日志级别下，debug 和 verbose 消息不应被构建
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_NORMAL);
+        sSupplied.set(0);
+        Logger.logDebug(LOG_TAG, SUPPLIER);
+        Logger.logDebugExtended(LOG_TAG, SUPPLIER);
+        Logger.logVerbose(LOG_TAG, SUPPLIER);
+        Logger.logVerboseExtended(LOG_TAG, SUPPLIER);
+        Logger.logErrorPrivateExtended(LOG_TAG, SUPPLIER);
+        assertEquals(0, sSupplied.get());
+
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_DEBUG);
+        Logger.logDebug(LOG_TAG, SUPPLIER);
+        Logger.logVerbose(LOG_TAG, SUPPLIER);
+        assertEquals(1, sSupplied.get());
+
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_VERBOSE);
+        Logger.logVerboseExtended(LOG_TAG, SUPPLIER);
+        assertEquals(2, sSupplied.get());
+    }
+
+    @Test
+    public void testCommandIdAndLabelLogStringCached() {
+        ExecutionCommand executionCommand = new ExecutionCommand(1);
+        executionCommand.commandLabel = "label";
+        String logString = executionCommand.getCommandIdAndLabelLogString();
+        assertEquals("(1) label", logString);
+        assertSame(logString, executionCommand.getCommandIdAndLabelLogString());
+
+        // id 或 label 改变后应重新构建
+        executionCommand.commandLabel = "other";
+        assertEquals("(1) other", executionCommand.getCommandIdAndLabelLogString());
+        executionCommand.id = 2;
+        assertEquals("(2) other", executionCommand.getCommandIdAndLabelLogString());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testNoLogStringAllocationsAtDefaultLogLevel() {
+        Logger.setLogLevel(null, Logger.DEFAULT_LOG_LEVEL);
+        ExecutionCommand executionCommand = new ExecutionCommand(1);
+        executionCommand.commandLabel = "label";
+
+        // 预热，避免类加载和 JIT 的分配计入结果
+        for (int i = 0; i < ITERATIONS; i++)
+            logCommand(executionCommand);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ITERATIONS; i++)
+            Logger.logDebug(LOG_TAG, SUPPLIER);
+        int nonCapturingAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < ITERATIONS; i++)
+            logCommand(executionCommand);
+        int capturingAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < ITERATIONS; i++)
+            Logger.logDebug(LOG_TAG, "Running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + executionCommand.mPid);
+        int eagerAllocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        System.out.println("不捕获变量的 supplier：" + nonCapturingAllocations + " 次分配");
+        System.out.println("捕获变量的 supplier：" + capturingAllocations + " 次分配");
+        System.out.println("直接拼接字符串：" + eagerAllocations + " 次分配");
+
+        // 不捕获变量的 lambda 是单例，不应有任何分配；捕获变量的 lambda 最多分配 lambda 对象本身，
+        // 不应分配日志字符串
+        assertEquals(0, nonCapturingAllocations);
+        assertTrue(capturingAllocations <= ITERATIONS);
+        assertTrue(eagerAllocations > capturingAllocations);
+    }
+
+    private static void logCommand(ExecutionCommand executionCommand) {
+        Logger.logDebug(LOG_TAG, () -> "Running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + executionCommand.mPid);
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.termux.shared.net.socket.local;
+
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.errors.Error;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class LocalClientSocketTest {
+
+    private static final int COMMAND_SIZE = 64 * 1024;
+    private static final int ROUND_TRIPS = 20;
+    private static final int PAYLOAD_SIZE = 100 * 1024 * 1024;
+
+    private LocalSocketManager mLocalSocketManager;
+
+    /** 把客户端发送的数据原样返回，模拟 am 命令的读取和结果发送。 */
+    private static class EchoClient extends LocalSocketManagerClientBase {
+        final boolean byteAtATime;
+        volatile Error error;
+
+        EchoClient(boolean byteAtATime) {
+            this.byteAtATime = byteAtATime;
+        }
+
+        @Override
+        public void onClientAccepted(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket) {
+            if (byteAtATime)
+                error = echoByteAtATime(clientSocket);
+            else {
+                StringBuilder data = new StringBuilder();
+                error = clientSocket.readDataOnInputStream(data, true);
+                if (error == null)
+                    error = clientSocket.sendDataToOutputStream(data.toString(), true);
+            }
+            clientSocket.closeClientSocket(false);
+        }
+
+        @Override
+        protected String getLogTag() {
+            return "LocalClientSocketTest";
+        }
+    }
+
+    /** 读取客户端发送的数据，通过文件描述符或者通过 socket 数据流，并返回读取的字节数。 */
+    private static class PayloadClient extends LocalSocketManagerClientBase {
+        final boolean byFd;
+        volatile Error error;
+
+        PayloadClient(boolean byFd) {
+            this.byFd = byFd;
+        }
+
+        @Override
+        public void onClientAccepted(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket) {
+            try {
+                long count;
+                if (byFd) {
+                    List<ParcelFileDescriptor> fds = new ArrayList<>();
+                    error = clientSocket.receiveFds(new byte[1], 0, 1, 1, new LocalClientSocket.MutableInt(0), fds);
+                    if (error != null) return;
+                    assertEquals(1, fds.size());
+                    try (InputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(fds.get(0))) {
+                        count = countBytes(inputStream);
+                    }
+                } else {
+                    count = countBytes(clientSocket.getInputStream());
+                }
+                error = clientSocket.sendDataToOutputStream(String.valueOf(count), true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                clientSocket.closeClientSocket(false);
+            }
+        }
+
+        @Override
+        protected String getLogTag() {
+            return "LocalClientSocketTest";
+        }
+    }
+
+    private static long countBytes(InputStream inputStream) throws Exception {
+        byte[] buffer = new byte[64 * 1024];
+        long count = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1)
+            count += read;
+        return count;
+    }
+
+    /** 旧的实现方式：每个字节一次 JNI 调用和一次 read()/send() 系统调用。 */
+    private static Error echoByteAtATime(LocalClientSocket clientSocket) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] bytes = new byte[1];
+        LocalClientSocket.MutableInt bytesRead = new LocalClientSocket.MutableInt(0);
+        while (true) {
+            Error error = clientSocket.read(bytes, bytesRead);
+            if (error != null) return error;
+            if (bytesRead.value == 0 || bytes[0] == 0) break;
+            data.write(bytes[0]);
+        }
+        for (byte b : data.toByteArray()) {
+            bytes[0] = b;
+            Error error = clientSocket.send(bytes);
+            if (error != null) return error;
+        }
+        return null;
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    private String startServer(LocalSocketManagerClientBase client) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String path = new File(context.getCacheDir(), "local-client-socket-test.sock").getAbsolutePath();
+        new File(path).delete();
+        mLocalSocketManager = new LocalSocketManager(context, new LocalSocketRunConfig("local-client-socket-test", path, client));
+        assertNull(mLocalSocketManager.start());
+        return path;
+    }
+
+    private static byte[] roundTrip(String path, byte[] command) throws Exception {
+        try (LocalSocket socket = new LocalSocket()) {
+            socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(command);
+            socket.shutdownOutput();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(command.length);
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1)
+                result.write(buffer, 0, count);
+            return result.toByteArray();
+        }
+    }
+
+    private static byte[] getCommand() {
+        // 包含多字节 UTF-8 字符，检查只在最后解码一次时不会在缓冲区边界处损坏字符
+        StringBuilder command = new StringBuilder("am start -a android.intent.action.VIEW -d ");
+        while (command.length() < COMMAND_SIZE / 2)
+            command.append("ü€x");
+        return command.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        EchoClient client = new EchoClient(false);
+        String path = startServer(client);
+        byte[] command = getCommand();
+        assertArrayEquals(command, roundTrip(path, command));
+        assertNull(client.error);
+
+        // 空字节之后的数据应被忽略
+        byte[] withNull = "am\0ignored".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals("am".getBytes(StandardCharsets.UTF_8), roundTrip(path, withNull));
+    }
+
+    @Test
+    public void benchmarkAmCommandRoundTrip() throws Exception {
+        byte[] command = getCommand();
+
+        long byteAtATimeNanos = measure(new EchoClient(true), command);
+        mLocalSocketManager.stop();
+        long bulkNanos = measure(new EchoClient(false), command);
+
+        System.out.println("64 KiB 命令往返，逐字节读写：" + byteAtATimeNanos / 1000 + "us");
+        System.out.println("64 KiB 命令往返，批量读写：" + bulkNanos / 1000 + "us");
+    }
+
+    private long measure(EchoClient client, byte[] command) throws Exception {
+        String path = startServer(client);
+        // 预热
+        assertArrayEquals(command, roundTrip(path, command));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUND_TRIPS; i++)
+            roundTrip(path, command);
+        long nanos = (System.nanoTime() - start) / ROUND_TRIPS;
+        assertNull(client.error);
+        return nanos;
+    }
+
+    private static String readAll(LocalSocket socket) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream inputStream = socket.getInputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            result.write(buffer, 0, count);
+        return result.toString("UTF-8");
+    }
+
+    /** 客户端发送文件描述符，服务端直接从中读取数据。 */
+    private static long transferByFd(String path, File payload) throws Exception {
+        try (LocalSocket socket = new LocalSocket();
+             ParcelFileDescriptor pfd = ParcelFileDescriptor.open(payload, ParcelFileDescriptor.MODE_READ_ONLY)) {
+            socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            socket.setFileDescriptorsForSend(new FileDescriptor[] {pfd.getFileDescriptor()});
+            socket.getOutputStream().write(0);
+            socket.shutdownOutput();
+            return Long.parseLong(readAll(socket));
+        }
+    }
+
+    /** 客户端通过 socket 数据流发送全部数据。 */
+    private static long transferByStream(String path, File payload) throws Exception {
+        try (LocalSocket socket = new LocalSocket();
+             FileInputStream inputStream = new FileInputStream(payload)) {
+            socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            OutputStream outputStream = socket.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, count);
+            socket.shutdownOutput();
+            return Long.parseLong(readAll(socket));
+        }
+    }
+
+    private static File createPayload(int size) throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File payload = new File(context.getCacheDir(), "local-client-socket-test.payload");
+        byte[] buffer = new byte[1024 * 1024];
+        for (int i = 0; i < buffer.length; i++)
+            buffer[i] = (byte) i;
+        try (FileOutputStream outputStream = new FileOutputStream(payload)) {
+            for (int written = 0; written < size; written += buffer.length)
+                outputStream.write(buffer, 0, Math.min(buffer.length, size - written));
+        }
+        return payload;
+    }
+
+    @Test
+    public void testReceiveFds() throws Exception {
+        PayloadClient client = new PayloadClient(true);
+        String path = startServer(client);
+        File payload = createPayload(3 * 1024 * 1024 + 7);
+        try {
+            assertEquals(payload.length(), transferByFd(path, payload));
+            assertNull(client.error);
+        } finally {
+            assertTrue(payload.delete());
+        }
+    }
+
+    @Test
+    public void testSendFds() throws Exception {
+        byte[] content = "result written by the app".getBytes(StandardCharsets.UTF_8);
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        try (OutputStream pipeOutputStream = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1])) {
+            pipeOutputStream.write(content);
+        }
+
+        // 服务端把管道的读取端发送给客户端
+        String path = startServer(new LocalSocketManagerClientBase() {
+            @Override
+            public void onClientAccepted(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket) {
+                assertNull(clientSocket.sendFds(new ParcelFileDescriptor[] {pipe[0]}, new byte[] {'x'}, 0, 1));
+                clientSocket.closeClientSocket(false);
+            }
+
+            @Override
+            protected String getLogTag() {
+                return "LocalClientSocketTest";
+            }
+        });
+
+        try (LocalSocket socket = new LocalSocket()) {
+            socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            assertEquals('x', socket.getInputStream().read());
+            FileDescriptor[] fds = socket.getAncillaryFileDescriptors();
+            assertNotNull(fds);
+            assertEquals(1, fds.length);
+            try (FileInputStream inputStream = new FileInputStream(fds[0])) {
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1)
+                    result.write(buffer, 0, count);
+                assertArrayEquals(content, result.toByteArray());
+            }
+        } finally {
+            pipe[0].close();
+        }
+    }
+
+    @Test
+    public void benchmarkPayloadByFdVersusStream() throws Exception {
+        File payload = createPayload(PAYLOAD_SIZE);
+        try {
+            PayloadClient streamClient = new PayloadClient(false);
+            String path = startServer(streamClient);
+            long start = System.nanoTime();
+            assertEquals(PAYLOAD_SIZE, transferByStream(path, payload));
+            long streamMillis = (System.nanoTime() - start) / 1_000_000;
+            assertNull(streamClient.error);
+            mLocalSocketManager.stop();
+
+            PayloadClient fdClient = new PayloadClient(true);
+            path = startServer(fdClient);
+            start = System.nanoTime();
+            assertEquals(PAYLOAD_SIZE, transferByFd(path, payload));
+            long fdMillis = (System.nanoTime() - start) / 1_000_000;
+            assertNull(fdClient.error);
+
+            System.out.println("100 MB 数据通过 socket 数据流传输：" + streamMillis + "ms");
+            System.out.println("100 MB 数据通过文件描述符传输：" + fdMillis + "ms");
+        } finally {
+            assertTrue(payload.delete());
+        }
+    }
+
+}
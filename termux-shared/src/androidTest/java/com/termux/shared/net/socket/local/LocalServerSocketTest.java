@@ -0,0 +1,160 @@
+package com.termux.shared.net.socket.local;
+
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class LocalServerSocketTest {
+
+    private static final int CLIENTS = 1000;
+    private static final int MAX_CLIENT_THREADS = 8;
+
+    private LocalSocketManager mLocalSocketManager;
+
+    /** 代替 am 命令处理的客户端：读取请求后返回 "ok " + 请求，并记录同时运行的线程数。 */
+    private static class StandInClient extends LocalSocketManagerClientBase {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch release;
+
+        StandInClient(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onClientAccepted(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket) {
+            int current = running.incrementAndGet();
+            maxRunning.accumulateAndGet(current, Math::max);
+            try {
+                StringBuilder data = new StringBuilder();
+                if (clientSocket.readDataOnInputStream(data, true) == null) {
+                    release.await(30, TimeUnit.SECONDS);
+                    clientSocket.sendDataToOutputStream("ok " + data, true);
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                running.decrementAndGet();
+                clientSocket.closeClientSocket(false);
+            }
+        }
+
+        @Override
+        protected String getLogTag() {
+            return "LocalServerSocketTest";
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    private String startServer(StandInClient client, int maxQueuedClients) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String path = new File(context.getCacheDir(), "local-server-socket-test.sock").getAbsolutePath();
+        LocalSocketRunConfig runConfig = new LocalSocketRunConfig("local-server-socket-test", path, client);
+        runConfig.setMaxClientThreads(MAX_CLIENT_THREADS);
+        runConfig.setMaxQueuedClients(maxQueuedClients);
+        mLocalSocketManager = new LocalSocketManager(context, runConfig);
+        assertNull(mLocalSocketManager.start());
+        return path;
+    }
+
+    /** 先建立所有连接，再发送请求，使所有客户端同时等待服务端处理。 */
+    private static List<LocalSocket> connectAndSend(String path, int count) throws Exception {
+        List<LocalSocket> sockets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalSocket socket = new LocalSocket();
+            socket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+            sockets.add(socket);
+        }
+        for (int i = 0; i < count; i++) {
+            sockets.get(i).getOutputStream().write(("request " + i).getBytes(StandardCharsets.UTF_8));
+            sockets.get(i).shutdownOutput();
+        }
+        return sockets;
+    }
+
+    private static String readResponse(LocalSocket socket) throws Exception {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        InputStream inputStream = socket.getInputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            response.write(buffer, 0, count);
+        socket.close();
+        return response.toString("UTF-8");
+    }
+
+    @Test
+    public void testConcurrentClientsLoad() throws Exception {
+        StandInClient client = new StandInClient(new CountDownLatch(0));
+        String path = startServer(client, CLIENTS);
+
+        long start = System.nanoTime();
+        List<LocalSocket> sockets = connectAndSend(path, CLIENTS);
+        for (int i = 0; i < CLIENTS; i++)
+            assertEquals("ok request " + i, readResponse(sockets.get(i)));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 所有客户端都应被处理，且同时运行的线程数不超过线程池上限
+        assertEquals(0, mLocalSocketManager.getRejectedTasksCount());
+        assertTrue(client.maxRunning.get() <= MAX_CLIENT_THREADS);
+
+        System.out.println(CLIENTS + " 个并发客户端：" + millis + "ms，最多同时运行 " + client.maxRunning.get() + " 个处理线程");
+    }
+
+    @Test
+    public void testClientsRejectedWhenQueueFull() throws Exception {
+        int maxQueuedClients = 10;
+        int clients = 100;
+        CountDownLatch release = new CountDownLatch(1);
+        StandInClient client = new StandInClient(release);
+        String path = startServer(client, maxQueuedClients);
+
+        List<LocalSocket> sockets = connectAndSend(path, clients);
+
+        // 等待所有客户端被处理或拒绝
+        long timeout = System.currentTimeMillis() + 10_000;
+        while (mLocalSocketManager.getAcceptedTasksCount() + mLocalSocketManager.getRejectedTasksCount() < clients &&
+            System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        release.countDown();
+
+        // 被拒绝的客户端会被关闭，收到空响应
+        int rejected = 0;
+        for (int i = 0; i < clients; i++) {
+            String response = readResponse(sockets.get(i));
+            if (response.isEmpty())
+                rejected++;
+            else
+                assertEquals("ok request " + i, response);
+        }
+
+        assertEquals(clients - MAX_CLIENT_THREADS - maxQueuedClients, mLocalSocketManager.getRejectedTasksCount());
+        assertEquals(mLocalSocketManager.getRejectedTasksCount(), rejected);
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ShellRegistryTest {
+
+    private static final int THREADS = 8;
+    private static final int SHELLS_PER_THREAD = 500;
+
+    private static final class Shell {
+        final String handle;
+        volatile String name;
+        volatile int pid;
+
+        Shell(String handle, String name, int pid) {
+            this.handle = handle;
+            this.name = name;
+            this.pid = pid;
+        }
+
+        @Override
+        public String toString() {
+            return handle;
+        }
+    }
+
+    private static ShellRegistry<Shell> newRegistry() {
+        return new ShellRegistry<>(new ShellRegistry.KeyExtractor<Shell>() {
+            @Nullable
+            @Override
+            public String getHandle(@NonNull Shell shell) {
+                return shell.handle;
+            }
+
+            @Nullable
+            @Override
+            public String getShellName(@NonNull Shell shell) {
+                return shell.name;
+            }
+
+            @Override
+            public int getPid(@NonNull Shell shell) {
+                return shell.pid;
+            }
+        });
+    }
+
+    @Test
+    public void testAddRemoveAndLookup() {
+        ShellRegistry<Shell> registry = newRegistry();
+        Shell a = new Shell("a", "name-a", 100);
+        Shell b = new Shell("b", null, 0);
+        Shell c = new Shell("c", "name-c", 300);
+
+        assertTrue(registry.isEmpty());
+        assertNull(registry.getLast());
+        registry.add(a);
+        registry.add(b);
+        registry.add(c);
+
+        // 重复添加应被忽略
+        registry.add(a);
+        assertEquals(3, registry.size());
+        assertEquals(Arrays.asList(a, b, c), registry.getShells());
+        assertSame(b, registry.get(1));
+        assertNull(registry.get(3));
+        assertNull(registry.get(-1));
+        assertSame(c, registry.getLast());
+        assertEquals(2, registry.indexOf(c));
+
+        assertSame(a, registry.getForHandle("a"));
+        assertSame(a, registry.getForShellName("name-a"));
+        assertSame(c, registry.getForPid(300));
+        assertNull(registry.getForHandle(null));
+        assertNull(registry.getForShellName(""));
+        assertNull(registry.getForPid(0));
+
+        // 删除中间的元素后，后面元素的位置前移，查找索引同时移除
+        assertTrue(registry.remove(b));
+        assertFalse(registry.remove(b));
+        assertFalse(registry.remove(null));
+        assertFalse(registry.contains(b));
+        assertEquals(-1, registry.indexOf(b));
+        assertEquals(1, registry.indexOf(c));
+        assertNull(registry.getForHandle("b"));
+
+        assertTrue(registry.remove(a));
+        assertNull(registry.getForHandle("a"));
+        assertNull(registry.getForShellName("name-a"));
+        assertNull(registry.getForPid(100));
+        assertEquals(Arrays.asList(c), registry.getShells());
+    }
+
+    @Test
+    public void testDuplicateShellNames() {
+        ShellRegistry<Shell> registry = newRegistry();
+        Shell first = new Shell("first", "same", 1);
+        Shell second = new Shell("second", "same", 2);
+        Shell third = new Shell("third", "same", 3);
+        registry.add(first);
+        registry.add(second);
+        registry.add(third);
+
+        // 与旧的线性查找一致，同名时返回最先添加的，删除后依次提升下一个
+        assertSame(first, registry.getForShellName("same"));
+        registry.remove(first);
+        assertSame(second, registry.getForShellName("same"));
+        registry.remove(third);
+        assertSame(second, registry.getForShellName("same"));
+        registry.remove(second);
+        assertNull(registry.getForShellName("same"));
+    }
+
+    @Test
+    public void testReindex() {
+        ShellRegistry<Shell> registry = newRegistry();
+        Shell shell = new Shell("handle", null, 0);
+        registry.add(shell);
+
+        // 名称和 pid 在添加后才确定，需要 reindex() 后才能查找到
+        shell.name = "name";
+        shell.pid = 42;
+        assertNull(registry.getForShellName("name"));
+        assertNull(registry.getForPid(42));
+        registry.reindex(shell);
+        assertSame(shell, registry.getForShellName("name"));
+        assertSame(shell, registry.getForPid(42));
+
+        // 旧的键在 reindex() 后不再能查找到
+        shell.name = "renamed";
+        shell.pid = 43;
+        registry.reindex(shell);
+        assertNull(registry.getForShellName("name"));
+        assertNull(registry.getForPid(42));
+        assertSame(shell, registry.getForShellName("renamed"));
+        assertSame(shell, registry.getForPid(43));
+
+        // 未注册的元素不会被加入索引
+        Shell other = new Shell("other", "other", 44);
+        registry.reindex(other);
+        assertNull(registry.getForHandle("other"));
+        registry.reindex(null);
+    }
+
+    @Test
+    public void testListenersAndImmutableSnapshots() {
+        ShellRegistry<Shell> registry = newRegistry();
+        List<List<Shell>> changes = new ArrayList<>();
+        ShellRegistry.Listener<Shell> listener = changes::add;
+        registry.addListener(listener);
+
+        Shell a = new Shell("a", null, 0);
+        Shell b = new Shell("b", null, 0);
+        registry.add(a);
+        List<Shell> snapshot = registry.getShells();
+        registry.add(b);
+        registry.add(b);
+        registry.remove(a);
+
+        // 重复添加不通知，每次修改都通知修改后的快照
+        assertEquals(3, changes.size());
+        assertEquals(Arrays.asList(a), changes.get(0));
+        assertEquals(Arrays.asList(a, b), changes.get(1));
+        assertEquals(Arrays.asList(b), changes.get(2));
+
+        // 已发布的快照不受之后的修改影响，且不能被修改
+        assertEquals(Arrays.asList(a), snapshot);
+        try {
+            snapshot.add(b);
+            fail("快照应该是不可修改的");
+        } catch (UnsupportedOperationException ignored) {
+        }
+
+        registry.removeListener(listener);
+        registry.remove(b);
+        assertEquals(3, changes.size());
+    }
+
+    @Test
+    public void testConcurrentMutation() throws Exception {
+        ShellRegistry<Shell> registry = newRegistry();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        // 读线程在写入的同时检查每个快照都是一致的，没有重复元素
+        Thread reader = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    List<Shell> shells = registry.getShells();
+                    Map<Shell, Boolean> seen = new IdentityHashMap<>();
+                    for (Shell shell : shells)
+                        assertNull("快照中有重复元素 " + shell, seen.put(shell, true));
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+        reader.start();
+
+        // 每个写线程添加自己的元素，设置 pid 后 reindex，再删除其中一半
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        List<List<Shell>> kept = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    List<Shell> shells = new ArrayList<>();
+                    for (int i = 0; i < SHELLS_PER_THREAD; i++) {
+                        Shell shell = new Shell(thread + "-" + i, "name-" + thread + "-" + i, 0);
+                        registry.add(shell);
+                        shell.pid = thread * SHELLS_PER_THREAD + i + 1;
+                        registry.reindex(shell);
+                        shells.add(shell);
+                    }
+                    List<Shell> threadKept = new ArrayList<>();
+                    for (int i = 0; i < shells.size(); i++) {
+                        if (i % 2 == 0)
+                            assertTrue(registry.remove(shells.get(i)));
+                        else
+                            threadKept.add(shells.get(i));
+                    }
+                    kept.add(threadKept);
+                } catch (Throwable t2) {
+                    failure.compareAndSet(null, t2);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+
+        start.countDown();
+        for (Thread writer : writers)
+            writer.join(TimeUnit.SECONDS.toMillis(60));
+        running.set(false);
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+
+        assertEquals(THREADS, kept.size());
+        assertEquals(THREADS * SHELLS_PER_THREAD / 2, registry.size());
+
+        // 留下的元素都能通过所有键查找到，且位置与快照一致，删除的元素都已从索引中移除
+        List<Shell> shells = registry.getShells();
+        for (int i = 0; i < shells.size(); i++)
+            assertEquals(i, registry.indexOf(shells.get(i)));
+        for (List<Shell> threadKept : kept) {
+            for (Shell shell : threadKept) {
+                assertTrue(registry.contains(shell));
+                assertSame(shell, registry.getForHandle(shell.handle));
+                assertSame(shell, registry.getForShellName(shell.name));
+                assertSame(shell, registry.getForPid(shell.pid));
+            }
+        }
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < SHELLS_PER_THREAD; i += 2) {
+                assertNull(registry.getForHandle(t + "-" + i));
+                assertNull(registry.getForShellName("name-" + t + "-" + i));
+                assertNull(registry.getForPid(t * SHELLS_PER_THREAD + i + 1));
+            }
+        }
+    }
+
+}
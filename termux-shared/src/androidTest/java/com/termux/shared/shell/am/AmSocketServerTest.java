@@ -0,0 +1,307 @@
+package com.termux.shared.shell.am;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.am.Am;
+import com.termux.shared.net.socket.local.LocalSocketManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class AmSocketServerTest {
+
+    private static final int COMMANDS = 200;
+    private static final String COMMAND = "broadcast -a com.termux.test.NOOP";
+    private static final String[] TO_URI_COMMAND = new String[] {"to-intent-uri", "-a", "android.intent.action.VIEW"};
+
+    private LocalSocketManager mLocalSocketManager;
+    private AmSocketServerRunConfig mRunConfig;
+    private String mPath;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mPath = new File(context.getCacheDir(), "am-socket-server-test.sock").getAbsolutePath();
+        new File(mPath).delete();
+        AmSocketServerRunConfig runConfig = new AmSocketServerRunConfig("am-socket-server-test", mPath,
+            new AmSocketServer.AmSocketServerClient() {
+                @Override
+                protected String getLogTag() {
+                    return "AmSocketServerTest";
+                }
+            });
+        runConfig.setCheckDisplayOverAppsPermission(false);
+        mRunConfig = runConfig;
+        mLocalSocketManager = AmSocketServer.start(context, runConfig);
+        assertNotNull(mLocalSocketManager);
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    private LocalSocket connect() throws Exception {
+        LocalSocket socket = new LocalSocket();
+        socket.connect(new LocalSocketAddress(mPath, LocalSocketAddress.Namespace.FILESYSTEM));
+        return socket;
+    }
+
+    /** 旧的协议：每个命令一个连接，返回 `exit_code\0stdout\0stderr`。 */
+    private String runLegacy(String command) throws Exception {
+        try (LocalSocket socket = connect()) {
+            socket.getOutputStream().write(command.getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1)
+                result.write(buffer, 0, count);
+            return result.toString("UTF-8");
+        }
+    }
+
+    private static class FramedResult {
+        int id;
+        int exitCode;
+        String stdout;
+        String stderr;
+    }
+
+    private static String readFramedString(DataInputStream inputStream) throws Exception {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** 新的协议：在同一个连接上连续发送所有命令，不等待结果，再按顺序读取所有结果。 */
+    private FramedResult[] runFramed(String... commands) throws Exception {
+        try (LocalSocket socket = connect()) {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+            outputStream.write(AmSocketServer.FRAMED_PROTOCOL_HEADER);
+            for (int i = 0; i < commands.length; i++) {
+                byte[] command = commands[i].getBytes(StandardCharsets.UTF_8);
+                outputStream.writeInt(1000 + i);
+                outputStream.writeInt(command.length);
+                outputStream.write(command);
+            }
+            outputStream.flush();
+            socket.shutdownOutput();
+
+            byte[] header = new byte[AmSocketServer.FRAMED_PROTOCOL_HEADER.length];
+            inputStream.readFully(header);
+            assertArrayEquals(AmSocketServer.FRAMED_PROTOCOL_HEADER, header);
+
+            FramedResult[] results = new FramedResult[commands.length];
+            for (int i = 0; i < commands.length; i++) {
+                FramedResult result = new FramedResult();
+                result.id = inputStream.readInt();
+                result.exitCode = inputStream.readInt();
+                result.stdout = readFramedString(inputStream);
+                result.stderr = readFramedString(inputStream);
+                results[i] = result;
+            }
+
+            // 所有结果发送后服务端应关闭连接
+            assertEquals(-1, inputStream.read());
+            return results;
+        }
+    }
+
+    @Test
+    public void testLegacyProtocol() throws Exception {
+        String result = runLegacy(COMMAND);
+        assertTrue(result, result.startsWith("0\0"));
+
+        // 解析失败时应返回退出码 1，且只返回一次结果
+        result = runLegacy("broadcast -a \"unterminated");
+        assertTrue(result, result.startsWith("1\0"));
+        assertEquals(2, result.length() - result.replace("\0", "").length());
+    }
+
+    @Test
+    public void testFramedProtocolPipelined() throws Exception {
+        FramedResult[] results = runFramed(COMMAND, "broadcast -a \"unterminated", COMMAND);
+
+        // 结果应按请求顺序返回，且带有对应的请求 id
+        for (int i = 0; i < results.length; i++)
+            assertEquals(1000 + i, results[i].id);
+        assertEquals(0, results[0].exitCode);
+        assertEquals(1, results[1].exitCode);
+        assertFalse(results[1].stderr.isEmpty());
+        assertEquals(0, results[2].exitCode);
+        assertEquals(results[0].stdout, results[2].stdout);
+    }
+
+    @Test
+    public void testFramedProtocolNoRequests() throws Exception {
+        assertEquals(0, runFramed().length);
+    }
+
+    /** 打开一个不发送请求的流水线连接，返回服务端是否接受了它。 */
+    private boolean openIdleFramed(LocalSocket socket) throws Exception {
+        socket.getOutputStream().write(AmSocketServer.FRAMED_PROTOCOL_HEADER);
+        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+        int first = inputStream.read();
+        if (first == -1) return false;
+        byte[] header = new byte[AmSocketServer.FRAMED_PROTOCOL_HEADER.length];
+        header[0] = (byte) first;
+        inputStream.readFully(header, 1, header.length - 1);
+        assertArrayEquals(AmSocketServer.FRAMED_PROTOCOL_HEADER, header);
+        return true;
+    }
+
+    @Test
+    public void testFramedClientsLimit() throws Exception {
+        int maxFramedClients = mRunConfig.getMaxFramedClients();
+        assertTrue(maxFramedClients < mRunConfig.getMaxClientThreads());
+
+        LocalSocket[] sockets = new LocalSocket[maxFramedClients];
+        try {
+            for (int i = 0; i < maxFramedClients; i++) {
+                sockets[i] = connect();
+                assertTrue(openIdleFramed(sockets[i]));
+            }
+
+            // 超过上限的流水线连接被直接关闭，旧的协议仍有空闲的客户端线程可用
+            try (LocalSocket socket = connect()) {
+                assertFalse(openIdleFramed(socket));
+            }
+            assertTrue(runLegacy(COMMAND).startsWith("0\0"));
+        } finally {
+            for (LocalSocket socket : sockets)
+                if (socket != null) socket.close();
+        }
+
+        // 连接关闭后释放名额
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                assertEquals(1, runFramed(COMMAND).length);
+                break;
+            } catch (Exception e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkCommandsPerSecond() throws Exception {
+        // 预热
+        runLegacy(COMMAND);
+        runFramed(COMMAND);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++)
+            assertTrue(runLegacy(COMMAND).startsWith("0\0"));
+        long legacyNanos = System.nanoTime() - start;
+
+        String[] commands = new String[COMMANDS];
+        for (int i = 0; i < COMMANDS; i++)
+            commands[i] = COMMAND;
+        start = System.nanoTime();
+        for (FramedResult result : runFramed(commands))
+            assertEquals(0, result.exitCode);
+        long framedNanos = System.nanoTime() - start;
+
+        System.out.println("每个命令一个连接：" + COMMANDS * TimeUnit.SECONDS.toNanos(1) / legacyNanos + " 命令/秒");
+        System.out.println("单个连接流水线：" + COMMANDS * TimeUnit.SECONDS.toNanos(1) / framedNanos + " 命令/秒");
+    }
+
+    @Test
+    public void testAmRunnerReused() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AmRunner amRunner = AmRunner.getInstance(context);
+        assertSame(amRunner, AmRunner.getInstance(context));
+
+        // 每次运行前应清空上一次的输出
+        assertNull(amRunner.run(TO_URI_COMMAND, false));
+        String stdout = amRunner.getStdout();
+        assertFalse(stdout.isEmpty());
+        assertNull(amRunner.run(TO_URI_COMMAND, false));
+        assertEquals(stdout, amRunner.getStdout());
+        assertEquals(stdout.getBytes(StandardCharsets.UTF_8).length, amRunner.getStdoutSize());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void benchmarkAmRunnerAllocations() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AmRunner amRunner = AmRunner.getInstance(context);
+        ByteArrayOutputStream socket = new ByteArrayOutputStream();
+
+        // 预热
+        for (int i = 0; i < COMMANDS; i++) {
+            runWithNewAm(context, socket);
+            amRunner.run(TO_URI_COMMAND, false);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++)
+            runWithNewAm(context, socket);
+        long newAmNanos = System.nanoTime() - start;
+        int newAmAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++) {
+            socket.reset();
+            amRunner.run(TO_URI_COMMAND, false);
+            amRunner.writeStdoutTo(socket);
+            amRunner.writeStderrTo(socket);
+        }
+        long amRunnerNanos = System.nanoTime() - start;
+        int amRunnerAllocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        System.out.println("每个命令新建 Am 并转换为字符串：" + newAmNanos / COMMANDS / 1000 + "us/命令，" + newAmAllocations / COMMANDS + " 次分配/命令");
+        System.out.println("重用 AmRunner 并直接写入字节：" + amRunnerNanos / COMMANDS / 1000 + "us/命令，" + amRunnerAllocations / COMMANDS + " 次分配/命令");
+        assertTrue(amRunnerAllocations < newAmAllocations);
+    }
+
+    /** 旧的实现方式：每个命令新建 Am 和输出流，并把输出转换为字符串后再编码发送。 */
+    private static void runWithNewAm(Context context, ByteArrayOutputStream socket) throws Exception {
+        try (ByteArrayOutputStream stdoutByteStream = new ByteArrayOutputStream();
+             PrintStream stdoutPrintStream = new PrintStream(stdoutByteStream);
+             ByteArrayOutputStream stderrByteStream = new ByteArrayOutputStream();
+             PrintStream stderrPrintStream = new PrintStream(stderrByteStream)) {
+            new Am(stdoutPrintStream, stderrPrintStream, (Application) context.getApplicationContext()).run(TO_URI_COMMAND);
+            stdoutPrintStream.flush();
+            stderrPrintStream.flush();
+            String result = "0\0" + stdoutByteStream.toString("UTF-8") + "\0" + stderrByteStream.toString("UTF-8");
+            socket.reset();
+            socket.write(result.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.termux.shared.shell.command.environment;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ShellEnvironmentTemplateTest {
+
+    private static final int COMMANDS = 1000;
+
+    private static String[] sortedEnviron(HashMap<String, String> environment) {
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
+    @Test
+    public void testToEnvironMatchesSort() {
+        // 名称互为前缀且含数字时（如 A、A1、A_B），合并结果也应与完整排序一致
+        HashMap<String, String> base = new HashMap<>();
+        base.put("A", "1");
+        base.put("A1", "2");
+        base.put("A_B", "3");
+        base.put("PATH", "/bin");
+        base.put("TMPDIR", "/tmp");
+        ShellEnvironmentTemplate template = new ShellEnvironmentTemplate(base);
+        assertArrayEquals(sortedEnviron(base), template.toEnviron(base));
+
+        // 修改、删除、新增变量，以及无效的名称和值
+        HashMap<String, String> environment = template.copyEnvironment();
+        environment.put("A", "zzz");
+        environment.remove("TMPDIR");
+        environment.put("A0", "x");
+        environment.put("B", "y");
+        environment.put("PWD", "/");
+        environment.put("1INVALID", "z");
+        environment.put("NUL", "a\0b");
+        assertArrayEquals(sortedEnviron(environment), template.toEnviron(environment));
+    }
+
+    @Test
+    public void benchmarkEnvironmentSetup() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        TermuxShellEnvironment shellEnvironment = new TermuxShellEnvironment();
+
+        // 旧方式：每个命令重新构建环境并完整排序
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++) {
+            HashMap<String, String> environment = shellEnvironment.getEnvironment(context, false);
+            environment.put(UnixShellEnvironment.ENV_PWD, "/");
+            sortedEnviron(environment);
+        }
+        long rebuildNanos = (System.nanoTime() - start) / COMMANDS;
+
+        // 缓存模板：复制模板后只合并每个命令的变量
+        ShellEnvironmentTemplate template = new ShellEnvironmentTemplate(shellEnvironment.getEnvironment(context, false));
+        start = System.nanoTime();
+        for (int i = 0; i < COMMANDS; i++) {
+            HashMap<String, String> environment = template.copyEnvironment();
+            environment.put(UnixShellEnvironment.ENV_PWD, "/");
+            template.toEnviron(environment);
+        }
+        long templateNanos = (System.nanoTime() - start) / COMMANDS;
+
+        System.out.println("每命令重新构建环境：" + rebuildNanos / 1000 + "us");
+        System.out.println("使用缓存模板：" + templateNanos / 1000 + "us");
+    }
+
+}
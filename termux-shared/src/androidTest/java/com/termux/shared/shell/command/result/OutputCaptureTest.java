@@ -0,0 +1,156 @@
+package com.termux.shared.shell.command.result;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class OutputCaptureTest {
+
+    private static byte[] sample(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++)
+            bytes[i] = (byte) (i * 31 + (i >> 8));
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            out.write(buffer, 0, count);
+        inputStream.close();
+        return out.toByteArray();
+    }
+
+    private static void write(OutputCapture capture, byte[] bytes, int chunkSize) {
+        for (int offset = 0; offset < bytes.length; offset += chunkSize)
+            capture.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+        capture.close();
+    }
+
+    private static File spillDirectory() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        return new File(context.getCacheDir(), "output-capture-test");
+    }
+
+    @Test
+    public void testSmallOutputIsKeptExactly() throws IOException {
+        // 能放进内存的输出：字节原样保留（包括 \r 和二进制），不创建溢写文件
+        byte[] bytes = "line1\r\nline2\r\n\0ÿ".getBytes(StandardCharsets.ISO_8859_1);
+        OutputCapture capture = new OutputCapture(8, 64, spillDirectory(), "small", 0);
+        write(capture, bytes, 3);
+
+        assertNull(capture.getSpillFile());
+        assertFalse(capture.isTruncated());
+        assertArrayEquals(bytes, readAll(capture.getInputStream()));
+        assertEquals(bytes.length, capture.getSize());
+    }
+
+    @Test
+    public void testHeadAndTailWithoutSpill() throws IOException {
+        byte[] bytes = sample(10_000);
+        OutputCapture capture = new OutputCapture(100, 200);
+        write(capture, bytes, 777);
+
+        assertTrue(capture.isTruncated());
+        byte[] expected = concat(Arrays.copyOf(bytes, 100),
+            OutputCapture.getOmittedMarker(10_000 - 300).getBytes(StandardCharsets.UTF_8),
+            Arrays.copyOfRange(bytes, 10_000 - 200, 10_000));
+        assertArrayEquals(expected, readAll(capture.getInputStream()));
+    }
+
+    @Test
+    public void testSpillKeepsFullOutput() throws IOException {
+        // 超过头尾容量后完整输出写入溢写文件，内存中只保留头尾
+        byte[] bytes = sample(1_000_000);
+        OutputCapture capture = new OutputCapture(1024, 1024, spillDirectory(), "full", 0);
+        write(capture, bytes, 8192);
+
+        File spillFile = capture.getSpillFile();
+        assertNotNull("应该创建溢写文件", spillFile);
+        assertEquals(bytes.length, spillFile.length());
+        assertFalse(capture.isTruncated());
+        assertArrayEquals(bytes, readAll(capture.getInputStream()));
+
+        capture.delete();
+        assertFalse("溢写文件应被删除", spillFile.exists());
+
+        // 删除后仍在运行的命令继续输出时不应再创建溢写文件
+        write(capture, bytes, 8192);
+        assertNull(capture.getSpillFile());
+    }
+
+    @Test
+    public void testSpillLimitKeepsHeadAndTail() throws IOException {
+        byte[] bytes = sample(100_000);
+        OutputCapture capture = new OutputCapture(1024, 2048, spillDirectory(), "limit", 10_000);
+        write(capture, bytes, 4096);
+
+        assertTrue(capture.isTruncated());
+        byte[] expected = concat(Arrays.copyOf(bytes, 10_000),
+            OutputCapture.getOmittedMarker(100_000 - 10_000 - 2048).getBytes(StandardCharsets.UTF_8),
+            Arrays.copyOfRange(bytes, 100_000 - 2048, 100_000));
+        assertArrayEquals(expected, readAll(capture.getInputStream()));
+        capture.delete();
+    }
+
+    @Test
+    public void testToStringDoesNotSplitCharacters() {
+        // 截断点落在多字节字符中间时，不应产生替换字符
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            text.append("中文输出");
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        OutputCapture capture = new OutputCapture(100, 100);
+        write(capture, bytes, 1000);
+
+        String decoded = capture.toString();
+        assertFalse("不应包含替换字符", decoded.contains("�"));
+        assertTrue(decoded.startsWith("中文输出"));
+        assertTrue(decoded.contains("bytes omitted"));
+        assertTrue(decoded.endsWith("中文输出"));
+    }
+
+    @Test
+    public void testTeeReceivesFullOutput() {
+        // 流式结果：即使内存中只保留首尾，tee 也应收到完整输出，并在 close 时被关闭
+        byte[] bytes = sample(50_000);
+        final boolean[] closed = {false};
+        ByteArrayOutputStream tee = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        OutputCapture capture = new OutputCapture(1024, 1024);
+        capture.setTee(tee);
+        write(capture, bytes, 777);
+
+        assertTrue(capture.isTruncated());
+        assertArrayEquals(bytes, tee.toByteArray());
+        assertTrue(closed[0]);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays)
+            out.write(array, 0, array.length);
+        return out.toByteArray();
+    }
+
+}
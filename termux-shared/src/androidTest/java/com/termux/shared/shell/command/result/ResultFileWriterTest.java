@@ -0,0 +1,119 @@
+package com.termux.shared.shell.command.result;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.markdown.MarkdownUtils;
+import com.termux.shared.shell.command.ShellCommandConstants.RESULT_SENDER;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ResultFileWriterTest {
+
+    private static File resultDirectory() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File directory = new File(context.getCacheDir(), "result-file-writer-test");
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static String writeAndRead(File file, ResultFileWriter.Content content) throws IOException {
+        Error error = ResultFileWriter.writeToFile("test", file.getAbsolutePath(), content);
+        assertNull(error);
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWriteFormatMatchesStringFormat() throws IOException {
+        // 流式格式化的结果应与 String.format 完全一致，包括 markdown 代码块的反引号数量
+        StringBuilder stdout = new StringBuilder("out ``` 中文\n");
+        StringBuilder stderr = new StringBuilder("err `x`");
+        String exitCode = "2";
+        File file = new File(resultDirectory(), "format");
+
+        String expected = String.format(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__STDERR__EXIT_CODE,
+            MarkdownUtils.getMarkdownCodeForString(stdout.toString(), true),
+            MarkdownUtils.getMarkdownCodeForString(stderr.toString(), true),
+            MarkdownUtils.getMarkdownCodeForString(exitCode, false));
+        String actual = writeAndRead(file, writer -> writer.writeFormat(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__STDERR__EXIT_CODE,
+            w -> w.writeMarkdownCodeBlock(stdout),
+            w -> w.writeMarkdownCodeBlock(stderr),
+            w -> w.write(MarkdownUtils.getMarkdownCodeForString(exitCode, false))));
+        assertEquals(expected, actual);
+
+        String format = "%2$s|%s|%%|%n|%1$s";
+        assertTrue(ResultFileWriter.isFormatSupported(format, 2));
+        actual = writeAndRead(file, writer -> writer.writeFormat(format, w -> w.write("a"), w -> w.write("b")));
+        assertEquals(String.format(format, "a", "b"), actual);
+
+        assertFalse(ResultFileWriter.isFormatSupported("%d", 1));
+        assertFalse(ResultFileWriter.isFormatSupported("%-10s", 1));
+        assertFalse(ResultFileWriter.isFormatSupported("%3$s", 2));
+        assertFalse(ResultFileWriter.isFormatSupported("%", 1));
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void testWriteLargeStringBuilderWithSurrogates() throws IOException {
+        // 超过编码缓冲区大小的输出，代理对跨越缓冲区边界时也应正确编码
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300_000)
+            text.append("line 😀 ").append(text.length()).append('\n');
+        File file = new File(resultDirectory(), "large");
+
+        assertEquals(text.toString(), writeAndRead(file, writer -> writer.write(text)));
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void benchmarkTransferSpilledOutput() throws IOException {
+        // 写入 100MB 溢写输出：transferTo 不经过 Java 堆，耗时应接近磁盘速度
+        final int size = 100 * 1024 * 1024;
+        byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < chunk.length; i++)
+            chunk[i] = (byte) ('a' + i % 26);
+
+        File directory = resultDirectory();
+        OutputCapture capture = new OutputCapture(64 * 1024, 64 * 1024, directory, "benchmark", 0);
+        for (int written = 0; written < size; written += chunk.length)
+            capture.write(chunk, 0, chunk.length);
+        capture.close();
+        assertNotNull(capture.getSpillFile());
+
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        File file = new File(directory, "stdout");
+        long start = System.nanoTime();
+        Error error = ResultFileWriter.writeToFile("stdout", file.getAbsolutePath(), writer -> writer.write(capture));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        assertNull(error);
+        assertEquals(size, file.length());
+        System.out.println("写入 100MB 结果文件：" + elapsedMillis + "ms，" +
+            (elapsedMillis > 0 ? (size / 1024 / 1024 * 1000 / elapsedMillis) : -1) + "MB/s，堆增长 " +
+            Math.max(0, usedAfter - usedBefore) / 1024 + "KiB");
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        capture.delete();
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.shell.StreamGobbler;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class AppShellSchedulerTest {
+
+    private static final int COMMANDS = 500;
+    private static final String TRUE = "/system/bin/true";
+
+    @Test
+    public void testOutputLinesMatchReadLine() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // 多路读取的分行方式应与 BufferedReader.readLine() 一致：\n、\r 和 \r\n 都是行结束，末尾不完整的行也保留
+        ExecutionCommand executionCommand = new ExecutionCommand(1, "/system/bin/sh",
+            new String[]{"-c", "printf 'a\\nb\\r\\nc\\rd'; printf '中文' >&2"}, null, "/", ExecutionCommand.Runner.APP_SHELL.getName(), false);
+        AppShell appShell = AppShell.execute(context, executionCommand, null, new AndroidShellEnvironment(), null, true);
+
+        assertNotNull("同步命令应该被执行", appShell);
+        assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+        assertEquals("a\nb\nc\nd\n", executionCommand.resultData.stdout.toString());
+        assertEquals("中文\n", executionCommand.resultData.stderr.toString());
+    }
+
+    @Test
+    public void testLongRunningCommandsReleaseSlots() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AppShellScheduler scheduler = AppShellScheduler.getInstance();
+        scheduler.setMaxConcurrency(2);
+
+        // 占满所有名额的长时间运行的命令不应一直阻塞后面的命令
+        AppShell[] sleeps = new AppShell[2];
+        try {
+            for (int i = 0; i < sleeps.length; i++) {
+                ExecutionCommand executionCommand = new ExecutionCommand(i, "/system/bin/sleep", new String[]{"30"}, null, "/",
+                    ExecutionCommand.Runner.APP_SHELL.getName(), false);
+                sleeps[i] = AppShell.execute(context, executionCommand, null, new AndroidShellEnvironment(), null, false);
+                assertNotNull(sleeps[i]);
+            }
+
+            CountDownLatch done = new CountDownLatch(1);
+            ExecutionCommand executionCommand = new ExecutionCommand(2, TRUE, null, null, "/",
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+            assertNotNull(AppShell.execute(context, executionCommand, appShell -> done.countDown(), new AndroidShellEnvironment(), null, false));
+            assertTrue("名额应在 " + AppShellScheduler.SLOT_HOLD_MILLIS + "ms 后释放",
+                done.await(AppShellScheduler.SLOT_HOLD_MILLIS + 5000, TimeUnit.MILLISECONDS));
+            assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+            assertTrue(scheduler.getMetrics().slotsReleasedEarly >= 2);
+        } finally {
+            for (AppShell sleep : sleeps)
+                if (sleep != null) sleep.killIfExecuting(context, false);
+            scheduler.setMaxConcurrency(AppShellScheduler.DEFAULT_MAX_CONCURRENCY);
+        }
+    }
+
+    @Test
+    public void testWorkerThreadsAreBoundedByMaxConcurrency() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AppShellScheduler scheduler = AppShellScheduler.getInstance();
+        scheduler.setMaxConcurrency(2);
+
+        // 长时间运行的命令释放名额后不占用线程，工作线程数不超过并发上限
+        AppShell[] sleeps = new AppShell[10];
+        try {
+            for (int i = 0; i < sleeps.length; i++) {
+                ExecutionCommand executionCommand = new ExecutionCommand(i, "/system/bin/sleep", new String[]{"30"}, null, "/",
+                    ExecutionCommand.Runner.APP_SHELL.getName(), false);
+                sleeps[i] = AppShell.execute(context, executionCommand, null, new AndroidShellEnvironment(), null, false);
+                assertNotNull(sleeps[i]);
+            }
+
+            long deadline = System.currentTimeMillis() + (sleeps.length / 2 + 2) * AppShellScheduler.SLOT_HOLD_MILLIS;
+            while (scheduler.getMetrics().queued > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertEquals("所有命令都应已启动", 0, scheduler.getMetrics().queued);
+            assertTrue("运行中的命令数应为 " + sleeps.length, scheduler.getMetrics().running >= sleeps.length);
+            assertTrue("工作线程数不应超过并发上限", countThreads("AppShell#") <= 2);
+
+            // 命令退出并关闭输出后被回收，退出码照常处理
+            CountDownLatch exited = new CountDownLatch(1);
+            ExecutionCommand executionCommand = new ExecutionCommand(sleeps.length, "/system/bin/sh", new String[]{"-c", "sleep 1; exit 7"}, null, "/",
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+            assertNotNull(AppShell.execute(context, executionCommand, appShell -> exited.countDown(), new AndroidShellEnvironment(), null, false));
+            assertTrue(exited.await(10, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(7), executionCommand.resultData.exitCode);
+        } finally {
+            for (AppShell sleep : sleeps)
+                if (sleep != null) sleep.killIfExecuting(context, false);
+            scheduler.setMaxConcurrency(AppShellScheduler.DEFAULT_MAX_CONCURRENCY);
+        }
+    }
+
+    @Test
+    public void benchmarkTrueCommands() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // 对照：旧方式每个命令一个等待线程加两个 StreamGobbler 线程
+        Result baseline = measure(() -> {
+            CountDownLatch done = new CountDownLatch(COMMANDS);
+            for (int i = 0; i < COMMANDS; i++) {
+                new Thread(() -> {
+                    try {
+                        Process process = Runtime.getRuntime().exec(new String[]{TRUE});
+                        StreamGobbler stdout = new StreamGobbler("stdout", process.getInputStream(), new StringBuilder(), null);
+                        StreamGobbler stderr = new StreamGobbler("stderr", process.getErrorStream(), new StringBuilder(), null);
+                        stdout.start();
+                        stderr.start();
+                        process.waitFor();
+                        stdout.join();
+                        stderr.join();
+                        process.destroy();
+                    } catch (IOException | InterruptedException e) {
+                        fail("执行失败: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            assertTrue("对照命令应在超时前完成", done.await(120, TimeUnit.SECONDS));
+        });
+
+        // 调度器：有界工作线程池，输出由单个 StreamPump 线程读取
+        AppShellScheduler scheduler = AppShellScheduler.getInstance();
+        scheduler.setMaxConcurrency(AppShellScheduler.DEFAULT_MAX_CONCURRENCY);
+        AtomicLong failed = new AtomicLong();
+        Result scheduled = measure(() -> {
+            CountDownLatch done = new CountDownLatch(COMMANDS);
+            AppShell.AppShellClient client = appShell -> {
+                if (!Integer.valueOf(0).equals(appShell.getExecutionCommand().resultData.exitCode))
+                    failed.incrementAndGet();
+                done.countDown();
+            };
+            for (int i = 0; i < COMMANDS; i++) {
+                ExecutionCommand executionCommand = new ExecutionCommand(i, TRUE, null, null, "/",
+                    ExecutionCommand.Runner.APP_SHELL.getName(), false);
+                assertNotNull(AppShell.execute(context, executionCommand, client, new AndroidShellEnvironment(), null, false));
+            }
+            assertTrue("调度的命令应在超时前完成", done.await(120, TimeUnit.SECONDS));
+        });
+
+        System.out.println("--- " + COMMANDS + " 个 true 命令 ---");
+        System.out.println("每命令线程: " + baseline);
+        System.out.println("调度器:     " + scheduled);
+        System.out.println("调度器指标: " + scheduler.getMetrics());
+        System.out.println("---------------------------------------");
+
+        assertEquals("所有命令都应以 0 退出", 0, failed.get());
+        assertTrue("峰值线程数应受并发上限约束", scheduled.peakThreads < baseline.peakThreads);
+    }
+
+
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().startsWith(prefix)) count++;
+        return count;
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private static final class Result {
+        long wallTimeMillis;
+        int peakThreads;
+        long peakRssKb;
+
+        @Override
+        public String toString() {
+            return "耗时 " + wallTimeMillis + "ms, 峰值线程 " + peakThreads + ", 峰值 RSS " + peakRssKb + " KiB";
+        }
+    }
+
+    /** 运行负载，同时每 2ms 采样一次 /proc/self/status 中的线程数和 RSS */
+    private static Result measure(Workload workload) throws Exception {
+        Result result = new Result();
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                sample(result);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+
+        long start = System.nanoTime();
+        try {
+            workload.run();
+        } finally {
+            result.wallTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            sampling.set(false);
+            sampler.join();
+        }
+        sample(result);
+        return result;
+    }
+
+    private static void sample(Result result) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Threads:"))
+                    result.peakThreads = Math.max(result.peakThreads, Integer.parseInt(line.substring(8).trim()));
+                else if (line.startsWith("VmRSS:"))
+                    result.peakRssKb = Math.max(result.peakRssKb, Long.parseLong(line.substring(6).trim().split("\\s+")[0]));
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+    }
+
+}
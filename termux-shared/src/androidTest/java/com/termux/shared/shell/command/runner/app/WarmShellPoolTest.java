@@ -0,0 +1,166 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
+import com.termux.shared.shell.command.result.OutputCapture;
+import com.termux.terminal.NativeProcess;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class WarmShellPoolTest {
+
+    private static final int COMMANDS = 200;
+    private static final String SH = "/system/bin/sh";
+
+    @After
+    public void tearDown() {
+        WarmShellPool.getInstance().shutdown();
+    }
+
+    @Test
+    public void testMarkersSplitAcrossReads() {
+        // 标记被拆分到多次读取中时也应被识别，标记之前的输出被丢弃，标记的部分前缀不应丢失
+        String token = "__t_1";
+        String output = "stale\n" + token + " P 42\n" + "a\n_" + "\n__t" + "\n" + token + " E 3\n";
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        OutputCapture capture = new OutputCapture(1024, 1024);
+        WarmShellPool.MarkedStream stream = new WarmShellPool.MarkedStream(token, capture);
+        for (int i = 0; i < bytes.length; i++)
+            stream.feed(bytes, i, 1);
+
+        assertTrue(stream.isDone());
+        assertEquals(Integer.valueOf(42), stream.mStartValue);
+        assertEquals(3, stream.mEndValue);
+        assertEquals("a\n_\n__t", capture.toString());
+    }
+
+    @Test
+    public void testWarmShellCommand() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+        WarmShellPool pool = WarmShellPool.getInstance();
+        pool.configure(SH, 1, WarmShellPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+        HashMap<String, String> base = new HashMap<>();
+        base.put("A", "1");
+        base.put("B", "2");
+        WarmShellPool.WarmShell shell = pool.acquire(base);
+        assertNotNull(shell);
+
+        // 工作目录、环境变量差异和退出码都应按命令生效，stdin 为空，没有末尾换行的输出不应被改变
+        HashMap<String, String> environment = new HashMap<>();
+        environment.put("A", "it's");
+        environment.put("C", "3");
+        OutputCapture stdout = new OutputCapture(1024, 1024);
+        OutputCapture stderr = new OutputCapture(1024, 1024);
+        AtomicInteger pid = new AtomicInteger();
+        int exitCode = shell.execute(new String[]{SH, "-c", "read l; printf '%s %s %s %s %s' \"${l:-eof}\" \"$A\" \"${B-unset}\" \"$C\" \"$(pwd)\"; echo err >&2; exit 5"},
+            environment, "/system", stdout, stderr, pid::set);
+        assertEquals(5, exitCode);
+        assertEquals("eof it's unset 3 /system", stdout.toString());
+        assertEquals("err\n", stderr.toString());
+        assertTrue(pid.get() > 0);
+
+        // 同一个 shell 可以继续执行下一个命令，上一个命令的环境变量不应残留
+        stdout = new OutputCapture(1024, 1024);
+        stderr = new OutputCapture(1024, 1024);
+        exitCode = shell.execute(new String[]{SH, "-c", "echo \"$A ${C-unset}\""}, base, "/", stdout, stderr, p -> {});
+        assertEquals(0, exitCode);
+        assertEquals("1 unset\n", stdout.toString());
+
+        pool.release(shell);
+        assertSame("空闲的 shell 应被复用", shell, pool.acquire(base));
+        pool.release(shell);
+    }
+
+    @Test
+    public void testPluginCommandStdin() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        WarmShellPool pool = WarmShellPool.getInstance();
+
+        // 启用预启动 shell 时，带 stdin 的插件命令收到的字节应与冷启动时相同
+        String[] stdout = new String[2];
+        for (int i = 0; i < 2; i++) {
+            if (i == 0) pool.shutdown();
+            else pool.configure(SH, 1, WarmShellPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+            CountDownLatch done = new CountDownLatch(1);
+            ExecutionCommand executionCommand = new ExecutionCommand(i, SH, new String[]{"-c", "od -An -c"}, "a\nb", "/",
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+            executionCommand.isPluginExecutionCommand = true;
+            assertNotNull(AppShell.execute(context, executionCommand, appShell -> done.countDown(),
+                new AndroidShellEnvironment(), null, false));
+            assertTrue("命令应在超时前完成", done.await(30, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+            stdout[i] = executionCommand.resultData.stdout.toString();
+            executionCommand.resultData.deleteOutputCaptures();
+        }
+        assertEquals(stdout[0], stdout[1]);
+    }
+
+    @Test
+    public void benchmarkRoundTripLatency() throws Exception {
+        Assume.assumeTrue(NativeProcess.isAvailable());
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // 顺序执行插件命令，比较冷启动 AppShell 与预启动 shell 的往返延迟（从提交到收到结果）
+        WarmShellPool pool = WarmShellPool.getInstance();
+        pool.shutdown();
+        long[] cold = measure(context);
+
+        pool.configure(SH, 1, WarmShellPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+        long[] warm = measure(context);
+
+        System.out.println("冷启动 AppShell 往返延迟：" + format(cold));
+        System.out.println("预启动 shell 往返延迟：" + format(warm));
+    }
+
+    private static long[] measure(Context context) throws Exception {
+        long[] latencies = new long[COMMANDS];
+        // 前 10 个命令用于预热，不计入结果
+        for (int i = -10; i < COMMANDS; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            ExecutionCommand executionCommand = new ExecutionCommand(i, SH, new String[]{"-c", "echo ok"}, null, "/",
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+            executionCommand.isPluginExecutionCommand = true;
+
+            long start = System.nanoTime();
+            assertNotNull(AppShell.execute(context, executionCommand, appShell -> done.countDown(),
+                new AndroidShellEnvironment(), null, false));
+            assertTrue("命令应在超时前完成", done.await(30, TimeUnit.SECONDS));
+            long latency = System.nanoTime() - start;
+
+            assertEquals(Integer.valueOf(0), executionCommand.resultData.exitCode);
+            assertEquals("ok\n", executionCommand.resultData.stdout.toString());
+            executionCommand.resultData.deleteOutputCaptures();
+            if (i >= 0) latencies[i] = latency;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static String format(long[] sortedLatencies) {
+        return String.format("p50 %.3fms, p99 %.3fms",
+            sortedLatencies[sortedLatencies.length / 2] / 1e6,
+            sortedLatencies[(int) (sortedLatencies.length * 0.99)] / 1e6);
+    }
+
+}
@@ -0,0 +1,156 @@
+#include <cerrno>
+#include <cstring>
+#include <jni.h>
+#include <string>
+#include <vector>
+#include <unistd.h>
+
+#include <fcntl.h>
+#include <sys/stat.h>
+#include <sys/syscall.h>
+#include <sys/types.h>
+
+using namespace std;
+
+/* The record returned by the getdents64 system call. */
+struct linux_dirent64 {
+    uint64_t       d_ino;
+    int64_t        d_off;
+    unsigned short d_reclen;
+    unsigned char  d_type;
+    char           d_name[];
+};
+
+/* The size of the buffer that directory entries are read into with each getdents64 call. */
+#define DIRENT_BUFFER_SIZE 32768
+
+/* Convert a jstring to a std:string. */
+static string jstring_to_stdstr(JNIEnv *env, jstring jString) {
+    const char* chars = env->GetStringUTFChars(jString, nullptr);
+    if (chars == nullptr) return "";
+    string stdString(chars);
+    env->ReleaseStringUTFChars(jString, chars);
+    return stdString;
+}
+
+static void throw_io_exception(JNIEnv *env, const string& message) {
+    jclass ioExceptionClass = env->FindClass("java/io/IOException");
+    if (ioExceptionClass != nullptr)
+        env->ThrowNew(ioExceptionClass, message.c_str());
+}
+
+template <typename T>
+static bool set_array(JNIEnv *env, jobject array, const vector<T>& values);
+
+template <>
+bool set_array(JNIEnv *env, jobject array, const vector<jint>& values) {
+    env->SetIntArrayRegion((jintArray) array, 0, (jsize) values.size(), values.data());
+    return !env->ExceptionCheck();
+}
+
+template <>
+bool set_array(JNIEnv *env, jobject array, const vector<jlong>& values) {
+    env->SetLongArrayRegion((jlongArray) array, 0, (jsize) values.size(), values.data());
+    return !env->ExceptionCheck();
+}
+
+/*
+ * List the entries of a directory with getdents64 and get their attributes with fstatat relative
+ * to the directory fd, and return them to Java in a single DirectoryListing object of packed
+ * arrays. The names are returned as raw bytes, since they may not be valid modified UTF-8.
+ *
+ * If links are followed, entries whose target cannot be stat-ed, like dangling symlinks, are
+ * returned with the attributes of the link itself. Entries that are deleted between being listed
+ * and stat-ed are skipped. Entries that cannot be stat-ed for another reason are returned with mode 0.
+ */
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_file_filesystem_NativeDispatcher_listDirectoryNative(JNIEnv *env, jclass clazz,
+                                                                            jstring jDirPath, jboolean followLinks) {
+    string dirPath = jstring_to_stdstr(env, jDirPath);
+    if (env->ExceptionCheck()) return nullptr;
+
+    int dirFd = open(dirPath.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (dirFd == -1) {
+        int errnoBackup = errno;
+        throw_io_exception(env, "Failed to open directory \"" + dirPath + "\": " + strerror(errnoBackup));
+        return nullptr;
+    }
+
+    vector<char> nameBytes;
+    vector<jint> nameOffsets;
+    vector<jint> modes;
+    vector<jint> uids;
+    vector<jlong> sizes;
+    vector<jlong> modifiedTimes;
+    vector<jlong> inodes;
+
+    int statFlags = followLinks ? 0 : AT_SYMLINK_NOFOLLOW;
+    char buffer[DIRENT_BUFFER_SIZE];
+    while (true) {
+        long count = syscall(SYS_getdents64, dirFd, buffer, sizeof(buffer));
+        if (count == -1) {
+            if (errno == EINTR) continue;
+            int errnoBackup = errno;
+            close(dirFd);
+            throw_io_exception(env, "Failed to read directory \"" + dirPath + "\": " + strerror(errnoBackup));
+            return nullptr;
+        }
+        if (count == 0) break;
+
+        for (long offset = 0; offset < count;) {
+            struct linux_dirent64 *dirent = (struct linux_dirent64 *) (buffer + offset);
+            offset += dirent->d_reclen;
+
+            const char* name = dirent->d_name;
+            if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0) continue;
+
+            struct stat st {};
+            if (fstatat(dirFd, name, &st, statFlags) == -1 &&
+                (!followLinks || fstatat(dirFd, name, &st, AT_SYMLINK_NOFOLLOW) == -1)) {
+                if (errno == ENOENT) continue;
+                memset(&st, 0, sizeof(st));
+                st.st_ino = dirent->d_ino;
+            }
+
+            nameOffsets.push_back((jint) nameBytes.size());
+            nameBytes.insert(nameBytes.end(), name, name + strlen(name));
+            modes.push_back((jint) st.st_mode);
+            uids.push_back((jint) st.st_uid);
+            sizes.push_back((jlong) st.st_size);
+            modifiedTimes.push_back((jlong) st.st_mtim.tv_sec * 1000000000LL + st.st_mtim.tv_nsec);
+            inodes.push_back((jlong) st.st_ino);
+        }
+    }
+    close(dirFd);
+    nameOffsets.push_back((jint) nameBytes.size());
+
+    jsize entryCount = (jsize) modes.size();
+
+    jclass listingClass = env->FindClass("com/termux/shared/file/filesystem/DirectoryListing");
+    if (listingClass == nullptr) return nullptr;
+    jmethodID constructor = env->GetMethodID(listingClass, "<init>", "(Ljava/lang/String;[B[I[I[I[J[J[J)V");
+    if (constructor == nullptr) return nullptr;
+
+    jbyteArray jNameBytes = env->NewByteArray((jsize) nameBytes.size());
+    if (jNameBytes == nullptr) return nullptr;
+    env->SetByteArrayRegion(jNameBytes, 0, (jsize) nameBytes.size(), (const jbyte *) nameBytes.data());
+
+    jintArray jNameOffsets = env->NewIntArray(entryCount + 1);
+    jintArray jModes = env->NewIntArray(entryCount);
+    jintArray jUids = env->NewIntArray(entryCount);
+    jlongArray jSizes = env->NewLongArray(entryCount);
+    jlongArray jModifiedTimes = env->NewLongArray(entryCount);
+    jlongArray jInodes = env->NewLongArray(entryCount);
+    if (jNameOffsets == nullptr || jModes == nullptr || jUids == nullptr || jSizes == nullptr ||
+        jModifiedTimes == nullptr || jInodes == nullptr)
+        return nullptr;
+
+    if (!set_array(env, jNameOffsets, nameOffsets) || !set_array(env, jModes, modes) ||
+        !set_array(env, jUids, uids) || !set_array(env, jSizes, sizes) ||
+        !set_array(env, jModifiedTimes, modifiedTimes) || !set_array(env, jInodes, inodes))
+        return nullptr;
+
+    return env->NewObject(listingClass, constructor, jDirPath, jNameBytes, jNameOffsets, jModes, jUids,
+                          jSizes, jModifiedTimes, jInodes);
+}
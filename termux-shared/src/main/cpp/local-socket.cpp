@@ -8,6 +8,9 @@
 
 #include <android/log.h>
 
+#include <fcntl.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
 #include <sys/ioctl.h>
 #include <sys/socket.h>
 #include <sys/types.h>
@@ -348,6 +351,181 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_acceptNative(JNIEnv *
     return getJniResult(env, logTitle, clientFd);
 }
 
+/* Event types returned by waitForEventsNative(). Must match LocalServerSocket.EVENT_*. */
+#define EVENT_CLIENT_ACCEPTED 1
+#define EVENT_CLIENT_READY 2
+#define EVENT_WAKEUP 3
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_createEventLoopNative(JNIEnv *env, jclass clazz,
+                                                                                 jstring logTitle,
+                                                                                 jint serverFd, jintArray fdsArray) {
+    if (serverFd < 0) {
+        return getJniResult(env, logTitle, -1, "createEventLoopNative(): Invalid server fd \"" + to_string(serverFd) + "\" passed");
+    }
+
+    int epollFd = epoll_create1(EPOLL_CLOEXEC);
+    if (epollFd == -1) {
+        return getJniResult(env, logTitle, -1, errno, "createEventLoopNative(): Failed to create epoll fd");
+    }
+
+    int eventFd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+    if (eventFd == -1) {
+        int errnoBackup = errno;
+        close(epollFd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "createEventLoopNative(): Failed to create event fd");
+    }
+
+    struct epoll_event event = {};
+    event.events = EPOLLIN;
+    event.data.fd = serverFd;
+    if (epoll_ctl(epollFd, EPOLL_CTL_ADD, serverFd, &event) == -1) {
+        int errnoBackup = errno;
+        close(eventFd);
+        close(epollFd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "createEventLoopNative(): Failed to add server fd " + to_string(serverFd) + " to epoll");
+    }
+
+    event.data.fd = eventFd;
+    if (epoll_ctl(epollFd, EPOLL_CTL_ADD, eventFd, &event) == -1) {
+        int errnoBackup = errno;
+        close(eventFd);
+        close(epollFd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "createEventLoopNative(): Failed to add event fd to epoll");
+    }
+
+    // Accept clients without blocking so that all pending clients can be accepted per wakeup. This
+    // is done last so that the server fd is left unchanged for blocking accept() on failure.
+    int flags = fcntl(serverFd, F_GETFL);
+    if (flags == -1 || fcntl(serverFd, F_SETFL, flags | O_NONBLOCK) == -1) {
+        int errnoBackup = errno;
+        close(eventFd);
+        close(epollFd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "createEventLoopNative(): Failed to set O_NONBLOCK on server fd " + to_string(serverFd));
+    }
+
+    jint fds[2] = {epollFd, eventFd};
+    env->SetIntArrayRegion(fdsArray, 0, 2, fds);
+    if (checkJniException(env)) {
+        close(eventFd);
+        close(epollFd);
+        return NULL;
+    }
+
+    // Return success, the epoll fd and event fd are returned in fdsArray
+    return getJniResult(env, logTitle);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_watchClientNative(JNIEnv *env, jclass clazz,
+                                                                             jstring logTitle,
+                                                                             jint epollFd, jint clientFd) {
+    if (epollFd < 0 || clientFd < 0) {
+        return getJniResult(env, logTitle, -1, "watchClientNative(): Invalid epoll fd \"" + to_string(epollFd) +
+                                               "\" or client fd \"" + to_string(clientFd) + "\" passed");
+    }
+
+    struct epoll_event event = {};
+    event.events = EPOLLIN | EPOLLRDHUP;
+    event.data.fd = clientFd;
+    if (epoll_ctl(epollFd, EPOLL_CTL_ADD, clientFd, &event) == -1) {
+        return getJniResult(env, logTitle, -1, errno, "watchClientNative(): Failed to add client fd " + to_string(clientFd) + " to epoll");
+    }
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_waitForEventsNative(JNIEnv *env, jclass clazz,
+                                                                               jstring logTitle,
+                                                                               jint epollFd, jint serverFd, jint eventFd,
+                                                                               jintArray eventsArray, jint timeout) {
+    if (epollFd < 0 || eventFd < 0) {
+        return getJniResult(env, logTitle, -1, "waitForEventsNative(): Invalid epoll fd \"" + to_string(epollFd) +
+                                               "\" or event fd \"" + to_string(eventFd) + "\" passed");
+    }
+
+    // The events are returned as (fd, type) pairs
+    int maxEvents = env->GetArrayLength(eventsArray) / 2;
+    if (checkJniException(env)) return NULL;
+    if (maxEvents < 1) {
+        return getJniResult(env, logTitle, -1, "waitForEventsNative(): Events array passed is too small");
+    }
+    if (maxEvents > 256) maxEvents = 256;
+
+    struct epoll_event epollEvents[256];
+    int ready = epoll_wait(epollFd, epollEvents, maxEvents, timeout);
+    if (ready == -1) {
+        if (errno == EINTR) return getJniResult(env, logTitle, 0);
+        return getJniResult(env, logTitle, -1, errno, "waitForEventsNative(): Failed to wait on epoll fd " + to_string(epollFd));
+    }
+
+    jint events[512];
+    int count = 0;
+    for (int i = 0; i < ready && count < maxEvents; i++) {
+        int fd = epollEvents[i].data.fd;
+        if (fd == eventFd) {
+            uint64_t value;
+            while (read(eventFd, &value, sizeof(value)) > 0);
+            events[count * 2] = eventFd;
+            events[count * 2 + 1] = EVENT_WAKEUP;
+            count++;
+        } else if (fd == serverFd) {
+            // Accept all pending clients that fit, the rest are accepted on the next call since
+            // the server fd stays ready
+            while (count < maxEvents) {
+                int clientFd = accept4(serverFd, nullptr, nullptr, SOCK_CLOEXEC);
+                if (clientFd == -1) {
+                    if (errno == EINTR) continue;
+                    if (errno != EAGAIN && errno != EWOULDBLOCK && errno != ECONNABORTED)
+                        log_warn(get_title_and_message(env, logTitle,
+                                                       "waitForEventsNative(): Failed to accept client on fd " + to_string(serverFd) +
+                                                       ": " + strerror(errno)));
+                    break;
+                }
+                events[count * 2] = clientFd;
+                events[count * 2 + 1] = EVENT_CLIENT_ACCEPTED;
+                count++;
+            }
+        } else {
+            // The client has sent data or closed its end, so stop watching it and hand it over
+            epoll_ctl(epollFd, EPOLL_CTL_DEL, fd, nullptr);
+            events[count * 2] = fd;
+            events[count * 2 + 1] = EVENT_CLIENT_READY;
+            count++;
+        }
+    }
+
+    if (count > 0) {
+        env->SetIntArrayRegion(eventsArray, 0, count * 2, events);
+        if (checkJniException(env)) return NULL;
+    }
+
+    // Return success and number of events in JniResult.intData field
+    return getJniResult(env, logTitle, count);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_wakeEventLoopNative(JNIEnv *env, jclass clazz,
+                                                                               jstring logTitle, jint eventFd) {
+    if (eventFd < 0) {
+        return getJniResult(env, logTitle, -1, "wakeEventLoopNative(): Invalid event fd \"" + to_string(eventFd) + "\" passed");
+    }
+
+    uint64_t value = 1;
+    if (write(eventFd, &value, sizeof(value)) == -1 && errno != EAGAIN) {
+        return getJniResult(env, logTitle, -1, errno, "wakeEventLoopNative(): Failed to write to event fd " + to_string(eventFd));
+    }
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *env, jclass clazz,
@@ -387,7 +565,7 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *en
         }
 
         // Read data from socket
-        int ret = read(fd, current, bytes);
+        int ret = read(fd, current, bytes - bytesRead);
         if (ret == -1) {
             int errnoBackup = errno;
             env->ReleaseByteArrayElements(dataArray, data, 0);
@@ -468,6 +646,292 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_sendNative(JNIEnv *en
     return getJniResult(env, logTitle);
 }
 
+/* The size of the native stack buffer used to copy data between the socket and java arrays. */
+#define BULK_BUFFER_SIZE 16384
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_readBytesNative(JNIEnv *env, jclass clazz,
+                                                                           jstring logTitle,
+                                                                           jint fd, jbyteArray dataArray,
+                                                                           jint offset, jint length,
+                                                                           jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "readBytesNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    if (length <= 0) {
+        return getJniResult(env, logTitle, 0);
+    }
+
+    struct timespec time = {};
+    if (deadline > 0) {
+        if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
+            // If current time is greater than the time defined in deadline
+            if (timespec_to_milliseconds(&time) > deadline) {
+                return getJniResult(env, logTitle, -1,
+                                    "readBytesNative(): Deadline \"" + to_string(deadline) + "\" timeout");
+            }
+        } else {
+            log_warn(get_title_and_message(env, logTitle,
+                                           "readBytesNative(): Deadline \"" + to_string(deadline) +
+                                           "\" timeout will not work since failed to get current time"));
+        }
+    }
+
+    // Read whatever is available up to length bytes with a single read() into a native buffer and
+    // copy only the bytes read into the java array, instead of pinning or copying the whole array
+    jbyte buffer[BULK_BUFFER_SIZE];
+    int ret;
+    do {
+        ret = read(fd, buffer, length < BULK_BUFFER_SIZE ? length : BULK_BUFFER_SIZE);
+    } while (ret == -1 && errno == EINTR);
+    if (ret == -1) {
+        return getJniResult(env, logTitle, -1, errno, "readBytesNative(): Failed to read on fd "  + to_string(fd));
+    }
+
+    if (ret > 0) {
+        env->SetByteArrayRegion(dataArray, offset, ret, buffer);
+        if (checkJniException(env)) return NULL;
+    }
+
+    // Return success and bytes read in JniResult.intData field, 0 for EOF
+    return getJniResult(env, logTitle, ret);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendBytesNative(JNIEnv *env, jclass clazz,
+                                                                           jstring logTitle,
+                                                                           jint fd, jbyteArray dataArray,
+                                                                           jint offset, jint length,
+                                                                           jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendBytesNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    struct timespec time = {};
+    jbyte buffer[BULK_BUFFER_SIZE];
+    while (length > 0) {
+        int chunk = length < BULK_BUFFER_SIZE ? length : BULK_BUFFER_SIZE;
+        env->GetByteArrayRegion(dataArray, offset, chunk, buffer);
+        if (checkJniException(env)) return NULL;
+
+        jbyte* current = buffer;
+        int bytes = chunk;
+        while (bytes > 0) {
+            if (deadline > 0) {
+                if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
+                    // If current time is greater than the time defined in deadline
+                    if (timespec_to_milliseconds(&time) > deadline) {
+                        return getJniResult(env, logTitle, -1,
+                                            "sendBytesNative(): Deadline \"" + to_string(deadline) + "\" timeout");
+                    }
+                } else {
+                    log_warn(get_title_and_message(env, logTitle,
+                                                   "sendBytesNative(): Deadline \"" + to_string(deadline) +
+                                                   "\" timeout will not work since failed to get current time"));
+                }
+            }
+
+            // Send data to socket
+            int ret = send(fd, current, bytes, MSG_NOSIGNAL);
+            if (ret == -1) {
+                if (errno == EINTR) continue;
+                return getJniResult(env, logTitle, -1, errno, "sendBytesNative(): Failed to send on fd " + to_string(fd));
+            }
+
+            bytes -= ret;
+            current += ret;
+        }
+
+        offset += chunk;
+        length -= chunk;
+    }
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+/* The max number of file descriptors that can be sent or received with a single message, same as SCM_MAX_FD of the kernel. */
+#define MAX_FDS 253
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_sendFdsNative(JNIEnv *env, jclass clazz,
+                                                                         jstring logTitle,
+                                                                         jint fd, jintArray fdsArray,
+                                                                         jbyteArray dataArray,
+                                                                         jint offset, jint length,
+                                                                         jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "sendFdsNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jsize fdsCount = env->GetArrayLength(fdsArray);
+    if (fdsCount <= 0 || fdsCount > MAX_FDS) {
+        return getJniResult(env, logTitle, -1, "sendFdsNative(): Invalid fds count \"" + to_string(fdsCount) + "\" passed");
+    }
+
+    // At least one byte of normal data must be sent along with the fds on a stream socket
+    if (length <= 0) {
+        return getJniResult(env, logTitle, -1, "sendFdsNative(): Invalid data length \"" + to_string(length) + "\" passed");
+    }
+
+    struct timespec time = {};
+    if (deadline > 0) {
+        if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
+            // If current time is greater than the time defined in deadline
+            if (timespec_to_milliseconds(&time) > deadline) {
+                return getJniResult(env, logTitle, -1,
+                                    "sendFdsNative(): Deadline \"" + to_string(deadline) + "\" timeout");
+            }
+        } else {
+            log_warn(get_title_and_message(env, logTitle,
+                                           "sendFdsNative(): Deadline \"" + to_string(deadline) +
+                                           "\" timeout will not work since failed to get current time"));
+        }
+    }
+
+    jbyte buffer[BULK_BUFFER_SIZE];
+    int chunk = length < BULK_BUFFER_SIZE ? length : BULK_BUFFER_SIZE;
+    env->GetByteArrayRegion(dataArray, offset, chunk, buffer);
+    if (checkJniException(env)) return NULL;
+
+    char control[CMSG_SPACE(sizeof(int) * MAX_FDS)] = {};
+    struct iovec iov = {};
+    iov.iov_base = buffer;
+    iov.iov_len = chunk;
+
+    struct msghdr msg = {};
+    msg.msg_iov = &iov;
+    msg.msg_iovlen = 1;
+    msg.msg_control = control;
+    msg.msg_controllen = CMSG_SPACE(sizeof(int) * fdsCount);
+
+    struct cmsghdr *cmsg = CMSG_FIRSTHDR(&msg);
+    cmsg->cmsg_level = SOL_SOCKET;
+    cmsg->cmsg_type = SCM_RIGHTS;
+    cmsg->cmsg_len = CMSG_LEN(sizeof(int) * fdsCount);
+    env->GetIntArrayRegion(fdsArray, 0, fdsCount, (jint *) CMSG_DATA(cmsg));
+    if (checkJniException(env)) return NULL;
+
+    // Send fds attached to the first chunk of data, the kernel attaches them to the first byte sent
+    int ret;
+    do {
+        ret = sendmsg(fd, &msg, MSG_NOSIGNAL);
+    } while (ret == -1 && errno == EINTR);
+    if (ret == -1) {
+        return getJniResult(env, logTitle, -1, errno, "sendFdsNative(): Failed to send fds on fd " + to_string(fd));
+    }
+
+    // Send remaining data without fds
+    if (ret < length) {
+        return Java_com_termux_shared_net_socket_local_LocalSocketManager_sendBytesNative(env, clazz, logTitle, fd, dataArray,
+                                                                                          offset + ret, length - ret, deadline);
+    }
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_receiveFdsNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint fd, jbyteArray dataArray,
+                                                                            jint offset, jint length,
+                                                                            jintArray fdsArray,
+                                                                            jlong deadline) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "receiveFdsNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    jsize maxFds = env->GetArrayLength(fdsArray);
+    if (maxFds <= 0 || maxFds > MAX_FDS) {
+        return getJniResult(env, logTitle, -1, "receiveFdsNative(): Invalid fds count \"" + to_string(maxFds) + "\" passed");
+    }
+
+    if (length <= 0) {
+        return getJniResult(env, logTitle, -1, "receiveFdsNative(): Invalid data length \"" + to_string(length) + "\" passed");
+    }
+
+    struct timespec time = {};
+    if (deadline > 0) {
+        if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
+            // If current time is greater than the time defined in deadline
+            if (timespec_to_milliseconds(&time) > deadline) {
+                return getJniResult(env, logTitle, -1,
+                                    "receiveFdsNative(): Deadline \"" + to_string(deadline) + "\" timeout");
+            }
+        } else {
+            log_warn(get_title_and_message(env, logTitle,
+                                           "receiveFdsNative(): Deadline \"" + to_string(deadline) +
+                                           "\" timeout will not work since failed to get current time"));
+        }
+    }
+
+    jbyte buffer[BULK_BUFFER_SIZE];
+    char control[CMSG_SPACE(sizeof(int) * MAX_FDS)] = {};
+    struct iovec iov = {};
+    iov.iov_base = buffer;
+    iov.iov_len = length < BULK_BUFFER_SIZE ? length : BULK_BUFFER_SIZE;
+
+    struct msghdr msg = {};
+    msg.msg_iov = &iov;
+    msg.msg_iovlen = 1;
+    msg.msg_control = control;
+    msg.msg_controllen = sizeof(control);
+
+    // Received fds are not inherited by processes started by the app
+    int ret;
+    do {
+        ret = recvmsg(fd, &msg, MSG_CMSG_CLOEXEC);
+    } while (ret == -1 && errno == EINTR);
+    if (ret == -1) {
+        return getJniResult(env, logTitle, -1, errno, "receiveFdsNative(): Failed to receive fds on fd " + to_string(fd));
+    }
+
+    // Copy received fds into the java array and close any that do not fit in it, so that a client
+    // cannot leak fds into the app by sending more than were expected
+    jint fds[MAX_FDS];
+    int fdsCount = 0;
+    for (struct cmsghdr *cmsg = CMSG_FIRSTHDR(&msg); cmsg != NULL; cmsg = CMSG_NXTHDR(&msg, cmsg)) {
+        if (cmsg->cmsg_level != SOL_SOCKET || cmsg->cmsg_type != SCM_RIGHTS)
+            continue;
+
+        int count = (cmsg->cmsg_len - CMSG_LEN(0)) / sizeof(int);
+        int *received = (int *) CMSG_DATA(cmsg);
+        for (int i = 0; i < count; i++) {
+            if (fdsCount < maxFds)
+                fds[fdsCount++] = received[i];
+            else
+                close(received[i]);
+        }
+    }
+
+    if (ret > 0) {
+        env->SetByteArrayRegion(dataArray, offset, ret, buffer);
+    }
+    if (fdsCount > 0 && !env->ExceptionCheck()) {
+        env->SetIntArrayRegion(fdsArray, 0, fdsCount, fds);
+    }
+    if (checkJniException(env)) {
+        for (int i = 0; i < fdsCount; i++)
+            close(fds[i]);
+        return NULL;
+    }
+
+    if (msg.msg_flags & MSG_CTRUNC) {
+        log_warn(get_title_and_message(env, logTitle,
+                                       "receiveFdsNative(): Some fds received on fd " + to_string(fd) +
+                                       " were discarded since they exceeded the max of " + to_string(MAX_FDS)));
+    }
+
+    // Return success and bytes read in JniResult.intData field, 0 for EOF
+    return getJniResult(env, logTitle, ret);
+}
+
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_termux_shared_net_socket_local_LocalSocketManager_availableNative(JNIEnv *env, jclass clazz,
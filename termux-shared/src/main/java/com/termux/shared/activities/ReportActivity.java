@@ -337,7 +337,7 @@ public class ReportActivity extends AppCompatActivity {
             String reportInfoDirectoryPath = getReportInfoDirectoryPath(context);
             String reportInfoFilePath = reportInfoDirectoryPath + "/" + CACHE_FILE_BASENAME_PREFIX + reportInfo.reportTimestamp;
             Logger.logVerbose(LOG_TAG, reportInfo.reportTitle + " " + ReportInfo.class.getSimpleName() + " serialized object size " + size + " is greater than " + DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES + " and it will be written to file at path \"" + reportInfoFilePath + "\"");
-            Error error = FileUtils.writeSerializableObjectToFile(ReportInfo.class.getSimpleName(), reportInfoFilePath, reportInfo);
+            Error error = FileUtils.writeSerializableObjectToFileAtomically(ReportInfo.class.getSimpleName(), reportInfoFilePath, reportInfo, false);
             if (error != null) {
                 Logger.logErrorExtended(LOG_TAG, error.toString());
                 Logger.showToast(context, Error.getMinimalErrorString(error), true);
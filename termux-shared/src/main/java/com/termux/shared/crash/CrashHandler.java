@@ -22,6 +22,9 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
     private final Thread.UncaughtExceptionHandler mDefaultUEH;
     private final boolean mIsDefaultHandler;
 
+    /** The max time to wait for the {@link com.termux.shared.logger.LogFile} to be written on a crash. */
+    private static final long LOG_FILE_FLUSH_TIMEOUT = 1000; // 1s
+
     private static final String LOG_TAG = "CrashUtils";
 
     private CrashHandler(@NonNull final Context context, @NonNull final CrashHandlerClient crashHandlerClient,
@@ -36,6 +39,10 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
         Logger.logInfo(LOG_TAG, "uncaughtException() for " + thread +  ": " + throwable.getMessage());
         logCrash(thread, throwable);
 
+        // Write the pending log messages, including the crash, before the process is killed
+        if (mIsDefaultHandler)
+            Logger.flushLogFile(LOG_FILE_FLUSH_TIMEOUT);
+
         // Don't stop the app if not on the main thread
         if (mIsDefaultHandler)
             mDefaultUEH.uncaughtException(thread, throwable);
@@ -106,9 +113,10 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
         // Log report string to logcat
         Logger.logError(reportString.toString());
 
-        // Write report string to crash log file
-        Error error = FileUtils.writeTextToFile("crash log", crashHandlerClient.getCrashLogFilePath(context),
-                        Charset.defaultCharset(), reportString.toString(), false);
+        // Write report string to crash log file. The app is about to be killed, so sync it to
+        // storage and replace the file atomically so that a partial crash log is never read.
+        Error error = FileUtils.writeTextToFileAtomically("crash log", crashHandlerClient.getCrashLogFilePath(context),
+                        Charset.defaultCharset(), reportString, true);
         if (error != null) {
             Logger.logErrorExtended(LOG_TAG, error.toString());
         }
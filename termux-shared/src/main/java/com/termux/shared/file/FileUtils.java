@@ -1,12 +1,16 @@
 package com.termux.shared.file;
 
 import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.system.Os;
+import android.system.OsConstants;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.common.io.RecursiveDeleteOption;
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileAttributes;
 import com.termux.shared.file.filesystem.FileType;
 import com.termux.shared.file.filesystem.FileTypes;
 import com.termux.shared.data.DataUtils;
@@ -18,19 +22,31 @@ import com.termux.shared.errors.FunctionErrno;
 import org.apache.commons.io.filefilter.AgeFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.LinkOption;
 import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
@@ -48,6 +64,9 @@ public class FileUtils {
      * Execute permissions should be attempted to be set, but ignored if they are missing */
     public static final String APP_WORKING_DIRECTORY_PERMISSIONS = "rwx"; // Default: "rwx"
 
+    /** The size of the byte and char buffers used for streaming reads and writes. */
+    private static final int TEXT_BUFFER_SIZE = 64 * 1024;
+
     private static final String LOG_TAG = "FileUtils";
 
     /**
@@ -211,7 +230,6 @@ public class FileUtils {
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "isDirectoryFileEmptyOrOnlyContainsSpecificFiles");
 
         try {
-            File file = new File(filePath);
             FileType fileType = getFileType(filePath, false);
 
             // If file exists but not a directory file
@@ -230,8 +248,8 @@ public class FileUtils {
                 }
             }
 
-            File[] subFiles = file.listFiles();
-            if (subFiles == null || subFiles.length == 0)
+            DirectoryListing subFiles = listDirectoryWithAttributes(filePath, false);
+            if (subFiles == null || subFiles.size() == 0)
                 return null;
 
             // If sub files exists but no file should be ignored
@@ -259,18 +277,21 @@ public class FileUtils {
      * This function should ideally not be called by itself but through
      * {@link #validateDirectoryFileEmptyOrOnlyContainsSpecificFiles(String, String, List, boolean)}.
      *
-     * @param subFiles The list of files of a directory to check.
+     * The file types of the sub files are taken from the {@link DirectoryListing} instead of
+     * being stat-ed again for each sub file.
+     *
+     * @param subFiles The listing of files of a directory to check.
      * @param ignoredSubFilePaths The list of absolute file paths under {@code filePath} dir.
      *                            Validation is done for the paths.
      * @return Returns {@code true} if a file was found that did not exist in the {@code ignoredSubFilePaths},
      * otherwise  {@code false}.
      */
-    public static boolean nonIgnoredSubFileExists(File[] subFiles, @NonNull List<String> ignoredSubFilePaths) {
-        if (subFiles == null || subFiles.length == 0) return false;
+    public static boolean nonIgnoredSubFileExists(DirectoryListing subFiles, @NonNull List<String> ignoredSubFilePaths) {
+        if (subFiles == null || subFiles.size() == 0) return false;
 
         String subFilePath;
-        for (File subFile : subFiles) {
-            subFilePath = subFile.getAbsolutePath();
+        for (int i = 0; i < subFiles.size(); i++) {
+            subFilePath = subFiles.getPath(i);
             // If sub file does not exist in ignored sub file paths
             if (!ignoredSubFilePaths.contains(subFilePath)) {
                 boolean isParentPath = false;
@@ -286,9 +307,9 @@ public class FileUtils {
                 }
             }
                 
-            if (getFileType(subFilePath, false) == FileType.DIRECTORY) {
+            if (subFiles.isDirectory(i)) {
                 // If non ignored sub file found, then early exit, otherwise continue looking
-                if (nonIgnoredSubFileExists(subFile.listFiles(), ignoredSubFilePaths))
+                if (nonIgnoredSubFileExists(listDirectoryWithAttributes(subFilePath, false), ignoredSubFilePaths))
                      return true;
             }
         }
@@ -380,6 +401,30 @@ public class FileUtils {
         return FileTypes.getFileType(filePath, followLinks);
     }
 
+    /**
+     * List the entries of the directory at {@code dirPath} with their attributes.
+     *
+     * This function is a wrapper for
+     * {@link FileAttributes#listDirectory(String, boolean)}
+     *
+     * @param dirPath The {@code path} for directory to list.
+     * @param followLinks The {@code boolean} that decides if symlink entries will be followed
+     *                    while getting their attributes.
+     * @return Returns the {@link DirectoryListing} of the directory, or {@code null} if
+     * {@code dirPath} is {@code null}, empty, not a directory or listing it failed.
+     */
+    @Nullable
+    public static DirectoryListing listDirectoryWithAttributes(final String dirPath, final boolean followLinks) {
+        if (dirPath == null || dirPath.isEmpty()) return null;
+
+        try {
+            return FileAttributes.listDirectory(dirPath, followLinks);
+        } catch (Exception e) {
+            Logger.logError(LOG_TAG, "Failed to list directory at path \"" + dirPath + "\": " + e.getMessage());
+            return null;
+        }
+    }
+
 
 
     /**
@@ -491,7 +536,6 @@ public class FileUtils {
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "directory file path", "validateDirectoryExistenceAndPermissions");
 
         try {
-            File file = new File(filePath);
             FileType fileType = getFileType(filePath, false);
 
             // If file exists but not a directory file
@@ -1051,6 +1095,40 @@ public class FileUtils {
     public static Error copyOrMoveFile(String label, final String srcFilePath, final String destFilePath,
                                        final boolean moveFile, final boolean ignoreNonExistentSrcFile, int allowedFileTypeFlags,
                                        final boolean overwrite, final boolean overwriteOnlyIfDestSameFileTypeAsSrc) {
+        return copyOrMoveFile(label, srcFilePath, destFilePath, moveFile, ignoreNonExistentSrcFile, allowedFileTypeFlags,
+            overwrite, overwriteOnlyIfDestSameFileTypeAsSrc, null, null);
+    }
+
+    /**
+     * Copy or move source file to destination path.
+     *
+     * This function is the same as {@link #copyOrMoveFile(String, String, String, boolean, boolean, int, boolean, boolean)},
+     * but directories are copied with {@link ParallelFileTree#copyDirectory(String, String, ParallelFileTree.ProgressListener, CancellationSignal)}
+     * which reports the files copied to {@code progressListener}, and the copy can be cancelled
+     * with {@code cancellationSignal}.
+     *
+     * @param label The optional label for file to copy or move. This can optionally be {@code null}.
+     * @param srcFilePath The {@code source path} for file to copy or move.
+     * @param destFilePath The {@code destination path} for file to copy or move.
+     * @param moveFile The {@code boolean} that decides if source file needs to be copied or moved.
+     * @param ignoreNonExistentSrcFile The {@code boolean} that decides if it should be considered an
+     *                              error if source file to copied or moved doesn't exist.
+     * @param allowedFileTypeFlags The flags that are matched against the source file's {@link FileType}
+     *                             to see if it should be copied/moved or not.
+     * @param overwrite The {@code boolean} that decides if destination file should be overwritten if
+     *                  it already exists.
+     * @param overwriteOnlyIfDestSameFileTypeAsSrc The {@code boolean} that decides if overwrite should
+     *                                         only be done if destination file is also the same file
+     *                                          type as the source file.
+     * @param progressListener The optional {@link ParallelFileTree.ProgressListener} for directory copies.
+     * @param cancellationSignal The optional {@link CancellationSignal} to cancel the copy or move.
+     * @return Returns the {@code error} if copy or move was not successful, otherwise {@code null}.
+     */
+    public static Error copyOrMoveFile(String label, final String srcFilePath, final String destFilePath,
+                                       final boolean moveFile, final boolean ignoreNonExistentSrcFile, int allowedFileTypeFlags,
+                                       final boolean overwrite, final boolean overwriteOnlyIfDestSameFileTypeAsSrc,
+                                       @Nullable ParallelFileTree.ProgressListener progressListener,
+                                       @Nullable CancellationSignal cancellationSignal) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (srcFilePath == null || srcFilePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "source file path", "copyOrMoveFile");
         if (destFilePath == null || destFilePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "destination file path", "copyOrMoveFile");
@@ -1104,7 +1182,7 @@ public class FileUtils {
                     return FileUtilsErrno.ERRNO_CANNOT_OVERWRITE_A_DIFFERENT_FILE_TYPE.getError(label + "source file", mode.toLowerCase(), srcFilePath, destFilePath, destFileType.getName(), srcFileType.getName());
 
                 // Delete the destination file
-                error = deleteFile(label + "destination", destFilePath, true);
+                error = deleteFile(label + "destination", destFilePath, true, false, FileTypes.FILE_TYPE_NORMAL_FLAGS, null, cancellationSignal);
                 if (error != null)
                     return error;
             }
@@ -1143,8 +1221,9 @@ public class FileUtils {
                     return error;
 
                 if (srcFileType == FileType.DIRECTORY) {
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.copyDirectory(srcFile, destFile, true);
+                    // Copy the tree in parallel without following symlinks, the destination is
+                    // excluded if it is under the source like it is by commons-io copyDirectory()
+                    ParallelFileTree.copyDirectory(srcFilePath, destFilePath, progressListener, cancellationSignal);
                 } else if (srcFileType == FileType.SYMLINK) {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         java.nio.file.Files.copy(srcFile.toPath(), destFile.toPath(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
@@ -1168,13 +1247,16 @@ public class FileUtils {
             // If source file had to be moved
             if (moveFile) {
                 // Delete the source file since copying would have succeeded
-                error = deleteFile(label + "source", srcFilePath, true);
+                error = deleteFile(label + "source", srcFilePath, true, false, FileTypes.FILE_TYPE_NORMAL_FLAGS, null, cancellationSignal);
                 if (error != null)
                     return error;
             }
 
             Logger.logVerbose(LOG_TAG, mode + " successful.");
         }
+        catch (OperationCanceledException e) {
+            return FileUtilsErrno.ERRNO_COPYING_OR_MOVING_FILE_CANCELLED.getError(mode + " " + label + "file", srcFilePath, destFilePath);
+        }
         catch (Exception e) {
             return FileUtilsErrno.ERRNO_COPYING_OR_MOVING_FILE_FAILED_WITH_EXCEPTION.getError(e, mode + " " + label + "file", srcFilePath, destFilePath, e.getMessage());
         }
@@ -1281,6 +1363,32 @@ public class FileUtils {
      * @return Returns the {@code error} if deletion was not successful, otherwise {@code null}.
      */
     public static Error deleteFile(String label, final String filePath, final boolean ignoreNonExistentFile, final boolean ignoreWrongFileType, int allowedFileTypeFlags) {
+        return deleteFile(label, filePath, ignoreNonExistentFile, ignoreWrongFileType, allowedFileTypeFlags, null, null);
+    }
+
+    /**
+     * Delete file at path.
+     *
+     * This function is the same as {@link #deleteFile(String, String, boolean, boolean, int)}, but
+     * reports the files deleted to {@code progressListener} and the deletion can be cancelled with
+     * {@code cancellationSignal}. Directories are deleted in parallel with
+     * {@link ParallelFileTree#delete(String, boolean, ParallelFileTree.ProgressListener, CancellationSignal)}.
+     *
+     * @param label The optional label for file to delete. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to delete.
+     * @param ignoreNonExistentFile The {@code boolean} that decides if it should be considered an
+     *                              error if file to deleted doesn't exist.
+     * @param ignoreWrongFileType The {@code boolean} that decides if it should be considered an
+     *                              error if file type is not one from {@code allowedFileTypeFlags}.
+     * @param allowedFileTypeFlags The flags that are matched against the file's {@link FileType} to
+     *                             see if it should be deleted or not.
+     * @param progressListener The optional {@link ParallelFileTree.ProgressListener}.
+     * @param cancellationSignal The optional {@link CancellationSignal} to cancel the deletion.
+     * @return Returns the {@code error} if deletion was not successful, otherwise {@code null}.
+     */
+    public static Error deleteFile(String label, final String filePath, final boolean ignoreNonExistentFile, final boolean ignoreWrongFileType, int allowedFileTypeFlags,
+                                   @Nullable ParallelFileTree.ProgressListener progressListener,
+                                   @Nullable CancellationSignal cancellationSignal) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "deleteFile");
 
@@ -1318,25 +1426,13 @@ public class FileUtils {
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 /*
-                 * Try to use {@link SecureDirectoryStream} if available for safer directory
-                 * deletion, it should be available for android >= 8.0
-                 * https://guava.dev/releases/24.1-jre/api/docs/com/google/common/io/MoreFiles.html#deleteRecursively-java.nio.file.Path-com.google.common.io.RecursiveDeleteOption...-
-                 * https://github.com/google/guava/issues/365
-                 * https://cs.android.com/android/platform/superproject/+/android-11.0.0_r3:libcore/ojluni/src/main/java/sun/nio/fs/UnixSecureDirectoryStream.java
-                 *
-                 * MoreUtils is marked with the @Beta annotation so the API may be removed in
-                 * future but has been there for a few years now.
-                 *
-                 * If an exception is thrown, the exception message might not contain the full errors.
-                 * Individual failures get added to suppressed throwables which can be extracted
-                 * from the exception object by calling `Throwable[] getSuppressed()`. So just logging
-                 * the exception message and stacktrace may not be enough, the suppressed throwables
-                 * need to be logged as well, which the Logger class does if they are found in the
-                 * exception added to the Error that's returned by this function.
-                 * https://github.com/google/guava/blob/v30.1.1/guava/src/com/google/common/io/MoreFiles.java#L775
+                 * Delete the directory tree in parallel without following symlinks. Like with
+                 * MoreFiles.deleteRecursively() that was used before, deletion continues after
+                 * failures and individual failures get added to suppressed throwables of the
+                 * exception thrown, which the Logger class logs if they are found in the exception
+                 * added to the Error that's returned by this function.
                  */
-                //noinspection UnstableApiUsage
-                com.google.common.io.MoreFiles.deleteRecursively(file.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+                ParallelFileTree.delete(filePath, true, progressListener, cancellationSignal);
             } else {
                 if (fileType == FileType.DIRECTORY) {
                     // deleteDirectory() instead of forceDelete() gets the files list first instead of walking directory tree, so seems safer
@@ -1353,6 +1449,9 @@ public class FileUtils {
             if (fileType != FileType.NO_EXIST)
                 return FileUtilsErrno.ERRNO_FILE_STILL_EXISTS_AFTER_DELETING.getError(label + "file meant to be deleted", filePath);
         }
+        catch (OperationCanceledException e) {
+            return FileUtilsErrno.ERRNO_DELETING_FILE_CANCELLED.getError(label + "file", filePath);
+        }
         catch (Exception e) {
             return FileUtilsErrno.ERRNO_DELETING_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage());
         }
@@ -1388,6 +1487,25 @@ public class FileUtils {
      * @return Returns the {@code error} if clearing was not successful, otherwise {@code null}.
      */
     public static Error clearDirectory(String label, final String filePath) {
+        return clearDirectory(label, filePath, null, null);
+    }
+
+    /**
+     * Clear contents of directory at path without deleting the directory. If directory does not exist
+     * it will be created automatically.
+     *
+     * This function is the same as {@link #clearDirectory(String, String)}, but reports the files
+     * deleted to {@code progressListener} and clearing can be cancelled with {@code cancellationSignal}.
+     *
+     * @param label The optional label for directory to clear. This can optionally be {@code null}.
+     * @param filePath The {@code path} for directory to clear.
+     * @param progressListener The optional {@link ParallelFileTree.ProgressListener}.
+     * @param cancellationSignal The optional {@link CancellationSignal} to cancel clearing.
+     * @return Returns the {@code error} if clearing was not successful, otherwise {@code null}.
+     */
+    public static Error clearDirectory(String label, final String filePath,
+                                       @Nullable ParallelFileTree.ProgressListener progressListener,
+                                       @Nullable CancellationSignal cancellationSignal) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "clearDirectory");
 
@@ -1409,11 +1527,10 @@ public class FileUtils {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                     /* If an exception is thrown, the exception message might not contain the full errors.
                      * Individual failures get added to suppressed throwables. */
-                    //noinspection UnstableApiUsage
-                    com.google.common.io.MoreFiles.deleteDirectoryContents(file.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+                    ParallelFileTree.delete(filePath, false, progressListener, cancellationSignal);
                 } else {
                     // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.cleanDirectory(new File(filePath));
+                    org.apache.commons.io.FileUtils.cleanDirectory(file);
                 }
             }
             // Else create it
@@ -1422,6 +1539,8 @@ public class FileUtils {
                 if (error != null)
                     return error;
             }
+        } catch (OperationCanceledException e) {
+            return FileUtilsErrno.ERRNO_CLEARING_DIRECTORY_CANCELLED.getError(label + "directory", filePath);
         } catch (Exception e) {
             return FileUtilsErrno.ERRNO_CLEARING_DIRECTORY_FAILED_WITH_EXCEPTION.getError(e, label + "directory", filePath, e.getMessage());
         }
@@ -1580,6 +1699,162 @@ public class FileUtils {
         return null;
     }
 
+    /** The callback for {@link #readTextChunksFromFile(String, String, Charset, TextChunkCallback, boolean)}. */
+    public interface TextChunkCallback {
+
+        /**
+         * Called for each decoded chunk of text in order. The {@code chunk} buffer is reused for
+         * the next chunk, so it must be consumed or copied before returning.
+         *
+         * @param chunk The decoded chunk of text.
+         */
+        void onTextChunk(@NonNull CharBuffer chunk) throws Exception;
+    }
+
+    /**
+     * Read text from file at path with a specific {@link Charset} and pass it to {@code callback}
+     * in chunks of at most {@link #TEXT_BUFFER_SIZE} chars. The file is read through a
+     * {@link FileChannel} and decoded with a {@link CharsetDecoder} into fixed size buffers, so
+     * memory usage does not depend on the file size. Malformed input is replaced like
+     * {@link InputStreamReader} does.
+     *
+     * Unlike {@link #readTextFromFile(String, String, Charset, StringBuilder, boolean)}, line
+     * endings are not normalized and a trailing newline is not removed.
+     *
+     * @param label The optional label for file to read. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to read.
+     * @param charset The {@link Charset} of the file. If this is {@code null},
+     *                then default {@link Charset} will be used.
+     * @param callback The {@link TextChunkCallback} to pass the chunks to.
+     * @param ignoreNonExistentFile The {@code boolean} that decides if it should be considered an
+     *                              error if file to read doesn't exist.
+     * @return Returns the {@code error} if reading was not successful, otherwise {@code null}.
+     */
+    public static Error readTextChunksFromFile(String label, final String filePath, Charset charset, @NonNull final TextChunkCallback callback, final boolean ignoreNonExistentFile) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+        if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "readTextChunksFromFile");
+
+        Logger.logVerbose(LOG_TAG, "Reading text chunks from " + label + "file at path \"" + filePath + "\"");
+
+        FileType fileType = getFileType(filePath, false);
+        if (fileType == FileType.NO_EXIST && ignoreNonExistentFile)
+            return null;
+
+        Error error = preReadFromFile(label, filePath, fileType);
+        if (error != null)
+            return error;
+
+        if (charset == null) charset = Charset.defaultCharset();
+
+        // Check if charset is supported
+        error = isCharsetSupported(charset);
+        if (error != null)
+            return error;
+
+        try (FileChannel fileChannel = new FileInputStream(filePath).getChannel()) {
+            CharsetDecoder decoder = newReplacingDecoder(charset);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(TEXT_BUFFER_SIZE);
+            CharBuffer charBuffer = CharBuffer.allocate(TEXT_BUFFER_SIZE);
+
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = fileChannel.read(byteBuffer) == -1;
+                byteBuffer.flip();
+                // With replacing decoders, the result is either an underflow or an overflow
+                while (decoder.decode(byteBuffer, charBuffer, endOfInput).isOverflow())
+                    passTextChunk(charBuffer, callback);
+                // Keep the bytes of an incomplete character for the next read
+                byteBuffer.compact();
+            }
+
+            while (decoder.flush(charBuffer).isOverflow())
+                passTextChunk(charBuffer, callback);
+            passTextChunk(charBuffer, callback);
+        } catch (Exception e) {
+            return FileUtilsErrno.ERRNO_READING_TEXT_FROM_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage());
+        }
+
+        return null;
+    }
+
+    private static void passTextChunk(@NonNull CharBuffer charBuffer, @NonNull TextChunkCallback callback) throws Exception {
+        charBuffer.flip();
+        if (charBuffer.hasRemaining())
+            callback.onTextChunk(charBuffer);
+        charBuffer.clear();
+    }
+
+    public static class ReadTextResult {
+        public final Error error;
+        public final CharSequence text;
+
+        ReadTextResult(Error error, CharSequence text) {
+            this.error = error;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Read text from file at path with a specific {@link Charset} as a {@link CharSequence}.
+     *
+     * The file is memory mapped and decoded in a single pass into a {@link CharBuffer} that is
+     * returned as is, instead of being read line by line into a growing {@link StringBuilder} and
+     * then copied again to a {@link String}. For UTF-8, the buffer is allocated once with the
+     * file size as its capacity. Malformed input is replaced like {@link InputStreamReader} does.
+     *
+     * Unlike {@link #readTextFromFile(String, String, Charset, StringBuilder, boolean)}, line
+     * endings are not normalized and a trailing newline is not removed.
+     *
+     * @param label The optional label for file to read. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to read.
+     * @param charset The {@link Charset} of the file. If this is {@code null},
+     *                then default {@link Charset} will be used.
+     * @param ignoreNonExistentFile The {@code boolean} that decides if it should be considered an
+     *                              error if file to read doesn't exist.
+     * @return Returns the {@link ReadTextResult}. The {@link ReadTextResult#text} will be
+     * {@code null} if reading was not successful or if file does not exist and
+     * {@code ignoreNonExistentFile} is {@code true}.
+     */
+    @NonNull
+    public static ReadTextResult readTextFromFileAsCharSequence(String label, final String filePath, Charset charset, final boolean ignoreNonExistentFile) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+        if (filePath == null || filePath.isEmpty()) return new ReadTextResult(FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "readTextFromFileAsCharSequence"), null);
+
+        Logger.logVerbose(LOG_TAG, "Reading text from " + label + "file at path \"" + filePath + "\" with mmap");
+
+        FileType fileType = getFileType(filePath, false);
+        if (fileType == FileType.NO_EXIST && ignoreNonExistentFile)
+            return new ReadTextResult(null, null);
+
+        Error error = preReadFromFile(label, filePath, fileType);
+        if (error != null)
+            return new ReadTextResult(error, null);
+
+        if (charset == null) charset = Charset.defaultCharset();
+
+        // Check if charset is supported
+        error = isCharsetSupported(charset);
+        if (error != null)
+            return new ReadTextResult(error, null);
+
+        try (FileChannel fileChannel = new FileInputStream(filePath).getChannel()) {
+            long size = fileChannel.size();
+            if (size > Integer.MAX_VALUE)
+                return new ReadTextResult(FileUtilsErrno.ERRNO_FILE_TOO_LARGE_TO_MAP.getError(label + "file", filePath, size), null);
+
+            MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ReadTextResult(null, newReplacingDecoder(charset).decode(mappedByteBuffer));
+        } catch (Exception e) {
+            return new ReadTextResult(FileUtilsErrno.ERRNO_READING_TEXT_FROM_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage()), null);
+        }
+    }
+
+    private static CharsetDecoder newReplacingDecoder(@NonNull Charset charset) {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
     public static class ReadSerializableObjectResult {
         public final Error error;
         public final Serializable serializableObject;
@@ -1633,7 +1908,7 @@ public class FileUtils {
         try {
             // Read serializable object from file
             fileInputStream = new FileInputStream(filePath);
-            objectInputStream = new ObjectInputStream(fileInputStream);
+            objectInputStream = new ObjectInputStream(new BufferedInputStream(fileInputStream));
             //serializableObject = (T) objectInputStream.readObject();
             serializableObject = readObjectType.cast(objectInputStream.readObject());
 
@@ -1722,7 +1997,7 @@ public class FileUtils {
         try {
             // Write serializable object to file
             fileOutputStream = new FileOutputStream(filePath);
-            objectOutputStream = new ObjectOutputStream(fileOutputStream);
+            objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(fileOutputStream));
 
             objectOutputStream.writeObject(serializableObject);
             objectOutputStream.flush();
@@ -1736,6 +2011,191 @@ public class FileUtils {
         return null;
     }
 
+    /** The writer for {@link #writeToFileAtomically(String, String, FileDataWriter, boolean, Errno)}. */
+    public interface FileDataWriter {
+
+        /**
+         * Write the data to {@code outputStream}. The stream is buffered and must not be closed.
+         *
+         * @param outputStream The {@link OutputStream} of the temp file.
+         */
+        void write(@NonNull OutputStream outputStream) throws Exception;
+    }
+
+    /**
+     * Write text {@code data} with a specific {@link Charset} to file at path atomically.
+     *
+     * The text is encoded in chunks of at most {@link #TEXT_BUFFER_SIZE} chars, so a
+     * {@link StringBuilder} or other {@link CharSequence} does not need to be converted to a
+     * {@link String} first. Check {@link #writeToFileAtomically(String, String, FileDataWriter, boolean, Errno)}
+     * for details of how the file is replaced.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param charset The {@link Charset} of the {@code data}. If this is {@code null},
+     *                then default {@link Charset} will be used.
+     * @param data The data to write to file.
+     * @param sync The {@code boolean} that decides if the file and its parent directory should
+     *             be synced to storage before returning.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static Error writeTextToFileAtomically(String label, final String filePath, Charset charset, @NonNull final CharSequence data, final boolean sync) {
+        if (charset == null) charset = Charset.defaultCharset();
+
+        // Check if charset is supported
+        Error error = isCharsetSupported(charset);
+        if (error != null)
+            return error;
+
+        final Charset finalCharset = charset;
+        return writeToFileAtomically(label, filePath, outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, finalCharset);
+            int length = data.length();
+            for (int start = 0; start < length; start += TEXT_BUFFER_SIZE)
+                writer.append(data, start, Math.min(length, start + TEXT_BUFFER_SIZE));
+            writer.flush();
+        }, sync, FileUtilsErrno.ERRNO_WRITING_TEXT_TO_FILE_FAILED_WITH_EXCEPTION);
+    }
+
+    /**
+     * Write the data read from {@code inputStream} to file at path atomically. The
+     * {@code inputStream} is not closed.
+     *
+     * Check {@link #writeToFileAtomically(String, String, FileDataWriter, boolean, Errno)}
+     * for details of how the file is replaced.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param inputStream The {@link InputStream} to read the data to write from.
+     * @param sync The {@code boolean} that decides if the file and its parent directory should
+     *             be synced to storage before returning.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static Error writeInputStreamToFileAtomically(String label, final String filePath, @NonNull final InputStream inputStream, final boolean sync) {
+        return writeToFileAtomically(label, filePath, outputStream -> {
+            byte[] buffer = new byte[TEXT_BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, read);
+        }, sync, FileUtilsErrno.ERRNO_WRITING_DATA_TO_FILE_FAILED_WITH_EXCEPTION);
+    }
+
+    /**
+     * Write the {@link Serializable} {@code serializableObject} to file at path atomically.
+     *
+     * Check {@link #writeToFileAtomically(String, String, FileDataWriter, boolean, Errno)}
+     * for details of how the file is replaced.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param serializableObject The object to write to file.
+     * @param sync The {@code boolean} that decides if the file and its parent directory should
+     *             be synced to storage before returning.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static <T extends Serializable> Error writeSerializableObjectToFileAtomically(String label, final String filePath, final T serializableObject, final boolean sync) {
+        return writeToFileAtomically(label, filePath, outputStream -> {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(serializableObject);
+            objectOutputStream.flush();
+        }, sync, FileUtilsErrno.ERRNO_WRITING_SERIALIZABLE_OBJECT_TO_FILE_FAILED_WITH_EXCEPTION);
+    }
+
+    /**
+     * Write data to file at path atomically.
+     *
+     * The data is written by {@code dataWriter} to a temp file in the same directory as
+     * {@code filePath}, which is then renamed over {@code filePath}. Readers will either see the
+     * old file or the complete new file, and a failed or interrupted write will not leave a
+     * truncated file behind. If {@code sync} is {@code true}, the temp file is synced before it
+     * is renamed and the parent directory is synced after it is renamed, so that the new file
+     * survives a crash or power loss right after returning.
+     *
+     * The new file will have the default permissions of a new temp file instead of the
+     * permissions of the file it replaces.
+     *
+     * @param label The optional label for file to write. This can optionally be {@code null}.
+     * @param filePath The {@code path} for file to write.
+     * @param dataWriter The {@link FileDataWriter} to write the data.
+     * @param sync The {@code boolean} that decides if the file and its parent directory should
+     *             be synced to storage before returning.
+     * @param errno The {@link Errno} to return if writing failed with an exception.
+     * @return Returns the {@code error} if writing was not successful, otherwise {@code null}.
+     */
+    public static Error writeToFileAtomically(String label, final String filePath, @NonNull final FileDataWriter dataWriter,
+                                              final boolean sync, @NonNull final Errno errno) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+        if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "writeToFileAtomically");
+
+        Logger.logVerbose(LOG_TAG, "Writing to " + label + "file at path \"" + filePath + "\" atomically");
+
+        Error error = preWriteToFile(label, filePath);
+        if (error != null)
+            return error;
+
+        File file = new File(filePath).getAbsoluteFile();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+            try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+                BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream, TEXT_BUFFER_SIZE);
+                dataWriter.write(bufferedOutputStream);
+                bufferedOutputStream.flush();
+                if (sync)
+                    fileOutputStream.getFD().sync();
+            }
+
+            Os.rename(tempFile.getAbsolutePath(), file.getAbsolutePath());
+            tempFile = null;
+
+            if (sync)
+                syncDirectory(file.getParent());
+        } catch (Exception e) {
+            return errno.getError(e, label + "file", filePath, e.getMessage());
+        } finally {
+            if (tempFile != null && !tempFile.delete())
+                Logger.logWarn(LOG_TAG, "Failed to delete temp file at path \"" + tempFile.getAbsolutePath() + "\"");
+        }
+
+        return null;
+    }
+
+    /** Sync the directory entries of directory at path, ignoring any failures. */
+    private static void syncDirectory(String directoryPath) {
+        if (directoryPath == null) return;
+
+        FileDescriptor fileDescriptor = null;
+        try {
+            fileDescriptor = Os.open(directoryPath, OsConstants.O_RDONLY, 0);
+            Os.fsync(fileDescriptor);
+        } catch (Exception e) {
+            Logger.logDebug(LOG_TAG, "Failed to sync directory at path \"" + directoryPath + "\": " + e.getMessage());
+        } finally {
+            if (fileDescriptor != null) {
+                try {
+                    Os.close(fileDescriptor);
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static Error preReadFromFile(String label, String filePath, FileType fileType) {
+        // If file exists but not a regular file
+        if (fileType != FileType.NO_EXIST && fileType != FileType.REGULAR) {
+            return FileUtilsErrno.ERRNO_NON_REGULAR_FILE_FOUND.getError(label + "file", filePath).setLabel(label + "file");
+        }
+
+        // If file does not exist
+        if (fileType == FileType.NO_EXIST) {
+            label += "file meant to be read";
+            return FileUtilsErrno.ERRNO_FILE_NOT_FOUND_AT_PATH.getError(label, filePath).setLabel(label);
+        }
+
+        return null;
+    }
+
     private static Error preWriteToFile(String label, String filePath) {
         Error error;
 
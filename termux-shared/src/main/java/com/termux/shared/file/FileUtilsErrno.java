@@ -56,6 +56,7 @@ public class FileUtilsErrno extends Errno {
     public static final Errno ERRNO_COPYING_OR_MOVING_FILE_TO_SAME_PATH = new Errno(TYPE, 251, "%1$s from \"%2$s\" to \"%3$s\" cannot be done since they point to the same path.");
     public static final Errno ERRNO_CANNOT_OVERWRITE_A_DIFFERENT_FILE_TYPE = new Errno(TYPE, 252, "Cannot overwrite %1$s while %2$s it from \"%3$s\" to \"%4$s\" since destination file type \"%5$s\" is different from source file type \"%6$s\".");
     public static final Errno ERRNO_CANNOT_MOVE_DIRECTORY_TO_SUB_DIRECTORY_OF_ITSELF = new Errno(TYPE, 253, "Cannot move %1$s from \"%2$s\" to \"%3$s\" since destination is a subdirectory of the source.");
+    public static final Errno ERRNO_COPYING_OR_MOVING_FILE_CANCELLED = new Errno(TYPE, 254, "%1$s from \"%2$s\" to \"%3$s\" was cancelled.");
 
 
 
@@ -65,6 +66,8 @@ public class FileUtilsErrno extends Errno {
     public static final Errno ERRNO_CLEARING_DIRECTORY_FAILED_WITH_EXCEPTION = new Errno(TYPE, 302, "Clearing %1$s at path \"%2$s\" failed.\nException: %3$s");
     public static final Errno ERRNO_FILE_STILL_EXISTS_AFTER_DELETING = new Errno(TYPE, 303, "The %1$s still exists after deleting it from \"%2$s\".");
     public static final Errno ERRNO_DELETING_FILES_OLDER_THAN_X_DAYS_FAILED_WITH_EXCEPTION = new Errno(TYPE, 304, "Deleting %1$s under directory at path \"%2$s\" old than %3$s days failed.\nException: %4$s");
+    public static final Errno ERRNO_DELETING_FILE_CANCELLED = new Errno(TYPE, 305, "Deleting %1$s at path \"%2$s\" was cancelled.");
+    public static final Errno ERRNO_CLEARING_DIRECTORY_CANCELLED = new Errno(TYPE, 306, "Clearing %1$s at path \"%2$s\" was cancelled.");
 
 
 
@@ -76,6 +79,8 @@ public class FileUtilsErrno extends Errno {
     public static final Errno ERRNO_GET_CHARSET_FOR_NAME_FAILED = new Errno(TYPE, 354, "The \"%1$s\" charset is not supported.\nException: %2$s");
     public static final Errno ERRNO_READING_SERIALIZABLE_OBJECT_TO_FILE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 355, "Reading serializable object from %1$s at path \"%2$s\" failed.\nException: %3$s");
     public static final Errno ERRNO_WRITING_SERIALIZABLE_OBJECT_TO_FILE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 356, "Writing serializable object to %1$s at path \"%2$s\" failed.\nException: %3$s");
+    public static final Errno ERRNO_WRITING_DATA_TO_FILE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 357, "Writing data to %1$s at path \"%2$s\" failed.\nException: %3$s");
+    public static final Errno ERRNO_FILE_TOO_LARGE_TO_MAP = new Errno(TYPE, 358, "The %1$s at path \"%2$s\" of size %3$s is too large to be mapped.");
 
 
 
@@ -0,0 +1,434 @@
+package com.termux.shared.file;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recursive delete and copy of directory trees on a bounded {@link ForkJoinPool}, so that trees
+ * with tens of thousands of files, like the Termux prefix, are processed by multiple threads
+ * instead of one. Each directory and each batch of {@link #BATCH_SIZE} entries of a directory is
+ * a separate task.
+ *
+ * Symlinks are never followed. Files are checked with lstat() and symlinks found in the tree are
+ * deleted or copied as symlinks, not their targets. Like {@link com.google.common.io.MoreFiles#deleteRecursively}
+ * with {@link com.google.common.io.RecursiveDeleteOption#ALLOW_INSECURE}, this is not safe against
+ * another process replacing a directory with a symlink while the tree is being walked.
+ *
+ * Deletion continues after failures and throws an {@link IOException} at the end with all the
+ * failures added as suppressed exceptions. Copying stops at the first failure. Both stop if the
+ * {@link CancellationSignal} is cancelled and throw an {@link OperationCanceledException}.
+ */
+public class ParallelFileTree {
+
+    /** The listener for progress of a {@link ParallelFileTree} operation. */
+    public interface ProgressListener {
+
+        /**
+         * Called after every {@link #PROGRESS_INTERVAL} files and once when the operation is done.
+         * This is called from the worker threads, possibly at the same time from multiple threads,
+         * so must be fast and thread safe.
+         *
+         * @param processedFiles The number of files deleted or copied so far, including directories
+         *                       and symlinks.
+         */
+        void onProgress(long processedFiles);
+
+    }
+
+    /** The number of files processed between calls to {@link ProgressListener#onProgress(long)}. */
+    public static final int PROGRESS_INTERVAL = 100;
+
+    /** The max number of entries of a directory processed by a single task. */
+    private static final int BATCH_SIZE = 128;
+
+    /** The max number of threads used, since the operations are limited by storage and not cpu. */
+    private static final int MAX_PARALLELISM = 8;
+
+    private static final String LOG_TAG = "ParallelFileTree";
+
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.max(2, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors())));
+    }
+
+
+
+    /**
+     * Delete the file at {@code path}. If it is a directory, its contents are deleted in parallel
+     * before it.
+     *
+     * @param path The path of the file to delete.
+     * @param deleteRoot If {@code false} and {@code path} is a directory, then only its contents
+     *                   are deleted.
+     * @param progressListener The optional {@link ProgressListener}.
+     * @param cancellationSignal The optional {@link CancellationSignal} to stop the deletion.
+     */
+    public static void delete(@NonNull String path, boolean deleteRoot,
+                              @Nullable ProgressListener progressListener,
+                              @Nullable CancellationSignal cancellationSignal) throws IOException {
+        Operation operation = new Operation(false, null, progressListener, cancellationSignal);
+
+        StructStat stat = lstat(path);
+        if (stat != null && OsConstants.S_ISDIR(stat.st_mode)) {
+            operation.run(new DeleteDirectoryTask(operation, path, deleteRoot));
+        } else if (stat != null && deleteRoot) {
+            operation.run(new DeleteFileTask(operation, path));
+        }
+    }
+
+    /**
+     * Copy the directory at {@code srcPath} to {@code destPath} in parallel. The destination
+     * directory is created if it does not exist and existing files under it are replaced.
+     * Permissions and modification times of regular files and directories are preserved.
+     * Files that are not regular files, directories or symlinks are skipped.
+     *
+     * If {@code destPath} is under {@code srcPath}, then it is excluded from the copy.
+     *
+     * @param srcPath The path of the directory to copy.
+     * @param destPath The path to copy the directory to.
+     * @param progressListener The optional {@link ProgressListener}.
+     * @param cancellationSignal The optional {@link CancellationSignal} to stop the copy.
+     */
+    public static void copyDirectory(@NonNull String srcPath, @NonNull String destPath,
+                                     @Nullable ProgressListener progressListener,
+                                     @Nullable CancellationSignal cancellationSignal) throws IOException {
+        StructStat stat = lstat(srcPath);
+        if (stat == null || !OsConstants.S_ISDIR(stat.st_mode))
+            throw new IOException("Source \"" + srcPath + "\" is not a directory");
+
+        // Use canonical paths so that the destination can be excluded if it is under the source
+        Operation operation = new Operation(true, new File(destPath).getCanonicalPath(), progressListener, cancellationSignal);
+        operation.run(new CopyDirectoryTask(operation, new File(srcPath).getCanonicalPath(), destPath, stat));
+    }
+
+
+
+    /** The state shared by all tasks of an operation. */
+    private static final class Operation {
+
+        final boolean stopOnFailure;
+        @Nullable final String excludedPath;
+        @Nullable final ProgressListener progressListener;
+        @Nullable final CancellationSignal cancellationSignal;
+
+        final AtomicLong processedFiles = new AtomicLong();
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+        Operation(boolean stopOnFailure, @Nullable String excludedPath,
+                  @Nullable ProgressListener progressListener, @Nullable CancellationSignal cancellationSignal) {
+            this.stopOnFailure = stopOnFailure;
+            this.excludedPath = excludedPath;
+            this.progressListener = progressListener;
+            this.cancellationSignal = cancellationSignal;
+        }
+
+        boolean isStopped() {
+            return (cancellationSignal != null && cancellationSignal.isCanceled()) ||
+                (stopOnFailure && !failures.isEmpty());
+        }
+
+        void onFileProcessed() {
+            long count = processedFiles.incrementAndGet();
+            if (progressListener != null && count % PROGRESS_INTERVAL == 0)
+                progressListener.onProgress(count);
+        }
+
+        void onFailure(@NonNull String message, @NonNull Throwable throwable) {
+            failures.add(new IOException(message + ": " + throwable.getMessage(), throwable));
+        }
+
+        void run(@NonNull ForkJoinTask<?> task) throws IOException {
+            PoolHolder.POOL.invoke(task);
+
+            if (progressListener != null)
+                progressListener.onProgress(processedFiles.get());
+
+            if (cancellationSignal != null)
+                cancellationSignal.throwIfCanceled();
+
+            Throwable first = failures.peek();
+            if (first != null) {
+                int count = failures.size();
+                IOException exception = new IOException(count == 1 ? first.getMessage() :
+                    count + " failures, first: " + first.getMessage());
+                for (Throwable failure : failures)
+                    exception.addSuppressed(failure);
+                throw exception;
+            }
+        }
+
+    }
+
+    @Nullable
+    private static StructStat lstat(@NonNull String path) throws IOException {
+        try {
+            return Os.lstat(path);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOENT) return null;
+            throw new IOException("Failed to get file status of \"" + path + "\": " + e.getMessage(), e);
+        }
+    }
+
+    @NonNull
+    private static String[] list(@NonNull String path) throws IOException {
+        String[] names = new File(path).list();
+        if (names == null)
+            throw new IOException("Failed to list directory \"" + path + "\"");
+        return names;
+    }
+
+    /** Split {@code names} into tasks of at most {@link #BATCH_SIZE} entries and run them. */
+    private static void invokeEntries(@NonNull List<ForkJoinTask<?>> tasks, @NonNull String[] names,
+                                      @NonNull EntriesTaskFactory factory) {
+        for (int from = 0; from < names.length; from += BATCH_SIZE)
+            tasks.add(factory.create(from, Math.min(names.length, from + BATCH_SIZE)));
+        if (tasks.size() == 1)
+            tasks.get(0).invoke();
+        else
+            ForkJoinTask.invokeAll(tasks);
+    }
+
+    private interface EntriesTaskFactory {
+        ForkJoinTask<?> create(int from, int to);
+    }
+
+
+
+    private static final class DeleteFileTask extends RecursiveAction {
+
+        private final Operation mOperation;
+        private final String mPath;
+
+        DeleteFileTask(@NonNull Operation operation, @NonNull String path) {
+            mOperation = operation;
+            mPath = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // unlink() does not follow symlinks
+                Os.unlink(mPath);
+                mOperation.onFileProcessed();
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.ENOENT)
+                    mOperation.onFailure("Failed to delete \"" + mPath + "\"", e);
+            }
+        }
+
+    }
+
+    private static final class DeleteDirectoryTask extends RecursiveAction {
+
+        private final Operation mOperation;
+        private final String mPath;
+        private final boolean mDeleteDirectory;
+
+        DeleteDirectoryTask(@NonNull Operation operation, @NonNull String path, boolean deleteDirectory) {
+            mOperation = operation;
+            mPath = path;
+            mDeleteDirectory = deleteDirectory;
+        }
+
+        @Override
+        protected void compute() {
+            if (mOperation.isStopped()) return;
+
+            try {
+                String[] names = list(mPath);
+                invokeEntries(new ArrayList<>(), names, (from, to) -> new DeleteEntriesTask(mOperation, mPath, names, from, to));
+            } catch (IOException e) {
+                mOperation.failures.add(e);
+                return;
+            }
+
+            if (!mDeleteDirectory || mOperation.isStopped()) return;
+
+            try {
+                Os.rmdir(mPath);
+                mOperation.onFileProcessed();
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.ENOENT)
+                    mOperation.onFailure("Failed to delete directory \"" + mPath + "\"", e);
+            }
+        }
+
+    }
+
+    private static final class DeleteEntriesTask extends RecursiveAction {
+
+        private final Operation mOperation;
+        private final String mDirectoryPath;
+        private final String[] mNames;
+        private final int mFrom;
+        private final int mTo;
+
+        DeleteEntriesTask(@NonNull Operation operation, @NonNull String directoryPath, @NonNull String[] names, int from, int to) {
+            mOperation = operation;
+            mDirectoryPath = directoryPath;
+            mNames = names;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> directoryTasks = null;
+            for (int i = mFrom; i < mTo; i++) {
+                if (mOperation.isStopped()) return;
+
+                String path = mDirectoryPath + "/" + mNames[i];
+                StructStat stat;
+                try {
+                    stat = lstat(path);
+                } catch (IOException e) {
+                    mOperation.failures.add(e);
+                    continue;
+                }
+                if (stat == null) continue;
+
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    if (directoryTasks == null) directoryTasks = new ArrayList<>();
+                    directoryTasks.add(new DeleteDirectoryTask(mOperation, path, true));
+                } else {
+                    new DeleteFileTask(mOperation, path).compute();
+                }
+            }
+
+            if (directoryTasks != null)
+                ForkJoinTask.invokeAll(directoryTasks);
+        }
+
+    }
+
+
+
+    private static final class CopyDirectoryTask extends RecursiveAction {
+
+        private final Operation mOperation;
+        private final String mSrcPath;
+        private final String mDestPath;
+        private final StructStat mStat;
+
+        CopyDirectoryTask(@NonNull Operation operation, @NonNull String srcPath, @NonNull String destPath, @NonNull StructStat stat) {
+            mOperation = operation;
+            mSrcPath = srcPath;
+            mDestPath = destPath;
+            mStat = stat;
+        }
+
+        @Override
+        protected void compute() {
+            if (mOperation.isStopped()) return;
+
+            try {
+                // Create the directory writable by the owner so its contents can be copied, and
+                // set the source permissions after that
+                try {
+                    Os.mkdir(mDestPath, (mStat.st_mode & 07777) | OsConstants.S_IRWXU);
+                } catch (ErrnoException e) {
+                    StructStat destStat = lstat(mDestPath);
+                    if (e.errno != OsConstants.EEXIST || destStat == null || !OsConstants.S_ISDIR(destStat.st_mode))
+                        throw e;
+                }
+
+                String[] names = list(mSrcPath);
+                invokeEntries(new ArrayList<>(), names, (from, to) -> new CopyEntriesTask(mOperation, mSrcPath, mDestPath, names, from, to));
+                if (mOperation.isStopped()) return;
+
+                Os.chmod(mDestPath, mStat.st_mode & 07777);
+                //noinspection ResultOfMethodCallIgnored
+                new File(mDestPath).setLastModified(mStat.st_mtime * 1000);
+                mOperation.onFileProcessed();
+            } catch (Exception e) {
+                mOperation.onFailure("Failed to copy directory \"" + mSrcPath + "\" to \"" + mDestPath + "\"", e);
+            }
+        }
+
+    }
+
+    private static final class CopyEntriesTask extends RecursiveAction {
+
+        private final Operation mOperation;
+        private final String mSrcDirectoryPath;
+        private final String mDestDirectoryPath;
+        private final String[] mNames;
+        private final int mFrom;
+        private final int mTo;
+
+        CopyEntriesTask(@NonNull Operation operation, @NonNull String srcDirectoryPath, @NonNull String destDirectoryPath,
+                        @NonNull String[] names, int from, int to) {
+            mOperation = operation;
+            mSrcDirectoryPath = srcDirectoryPath;
+            mDestDirectoryPath = destDirectoryPath;
+            mNames = names;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> directoryTasks = null;
+            for (int i = mFrom; i < mTo; i++) {
+                if (mOperation.isStopped()) return;
+
+                String srcPath = mSrcDirectoryPath + "/" + mNames[i];
+                String destPath = mDestDirectoryPath + "/" + mNames[i];
+                if (srcPath.equals(mOperation.excludedPath)) continue;
+
+                try {
+                    StructStat stat = lstat(srcPath);
+                    if (stat == null) continue;
+
+                    if (OsConstants.S_ISDIR(stat.st_mode)) {
+                        if (directoryTasks == null) directoryTasks = new ArrayList<>();
+                        directoryTasks.add(new CopyDirectoryTask(mOperation, srcPath, destPath, stat));
+                        continue;
+                    } else if (OsConstants.S_ISLNK(stat.st_mode)) {
+                        String target = Os.readlink(srcPath);
+                        if (lstat(destPath) != null) Os.unlink(destPath);
+                        Os.symlink(target, destPath);
+                    } else if (OsConstants.S_ISREG(stat.st_mode)) {
+                        java.nio.file.Files.copy(Paths.get(srcPath), Paths.get(destPath), LinkOption.NOFOLLOW_LINKS,
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    } else {
+                        Logger.logVerbose(LOG_TAG, () -> "Not copying special file at path \"" + srcPath + "\"");
+                        continue;
+                    }
+                    mOperation.onFileProcessed();
+                } catch (Exception e) {
+                    mOperation.onFailure("Failed to copy \"" + srcPath + "\" to \"" + destPath + "\"", e);
+                    return;
+                }
+            }
+
+            if (directoryTasks != null)
+                ForkJoinTask.invokeAll(directoryTasks);
+        }
+
+    }
+
+}
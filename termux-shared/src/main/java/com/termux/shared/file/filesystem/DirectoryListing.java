@@ -0,0 +1,130 @@
+package com.termux.shared.file.filesystem;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The entries of a directory and their attributes, returned by
+ * {@link NativeDispatcher#listDirectory(String, boolean)} in packed arrays so that a directory can
+ * be listed and stat-ed with a single JNI call instead of a {@link File#listFiles()} call followed
+ * by a stat call for each entry. The "." and ".." entries are not included and the entries are
+ * in directory order, not sorted.
+ *
+ * The names are stored as UTF-8 bytes and only decoded when {@link #getName(int)} is called.
+ */
+public class DirectoryListing {
+
+    private final String mDirectoryPath;
+    private final byte[] mNameBytes;
+    /** The start offset of each name in {@link #mNameBytes}, followed by the end offset of the last name. */
+    private final int[] mNameOffsets;
+    private final int[] mModes;
+    private final int[] mUids;
+    private final long[] mSizes;
+    /** The last modified times in nanoseconds since epoch. */
+    private final long[] mModifiedTimes;
+    private final long[] mInodes;
+    private final String[] mNames;
+
+    // Also called from native code
+    DirectoryListing(@NonNull String directoryPath, @NonNull byte[] nameBytes, @NonNull int[] nameOffsets,
+                     @NonNull int[] modes, @NonNull int[] uids, @NonNull long[] sizes,
+                     @NonNull long[] modifiedTimes, @NonNull long[] inodes) {
+        mDirectoryPath = directoryPath;
+        mNameBytes = nameBytes;
+        mNameOffsets = nameOffsets;
+        mModes = modes;
+        mUids = uids;
+        mSizes = sizes;
+        mModifiedTimes = modifiedTimes;
+        mInodes = inodes;
+        mNames = new String[modes.length];
+    }
+
+    @NonNull
+    public String getDirectoryPath() {
+        return mDirectoryPath;
+    }
+
+    /** Get the number of entries. */
+    public int size() {
+        return mModes.length;
+    }
+
+    /** Get the name of the entry at {@code index}. */
+    @NonNull
+    public String getName(int index) {
+        String name = mNames[index];
+        if (name == null) {
+            int start = mNameOffsets[index];
+            name = new String(mNameBytes, start, mNameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+            mNames[index] = name;
+        }
+        return name;
+    }
+
+    /** Get the absolute path of the entry at {@code index}. */
+    @NonNull
+    public String getPath(int index) {
+        return mDirectoryPath.endsWith("/") ? mDirectoryPath + getName(index) : mDirectoryPath + "/" + getName(index);
+    }
+
+    @NonNull
+    public File getFile(int index) {
+        return new File(mDirectoryPath, getName(index));
+    }
+
+    /**
+     * Get the {@code st_mode} of the entry at {@code index}. If links were followed, this is the
+     * mode of the link itself for a dangling symlink. This will be {@code 0} if the entry could
+     * not be stat-ed at all.
+     */
+    public int getMode(int index) {
+        return mModes[index];
+    }
+
+    @NonNull
+    public FileType getFileType(int index) {
+        return FileTypes.getFileType(mModes[index]);
+    }
+
+    public boolean isRegularFile(int index) {
+        return (mModes[index] & UnixConstants.S_IFMT) == UnixConstants.S_IFREG;
+    }
+
+    public boolean isDirectory(int index) {
+        return (mModes[index] & UnixConstants.S_IFMT) == UnixConstants.S_IFDIR;
+    }
+
+    public boolean isSymbolicLink(int index) {
+        return (mModes[index] & UnixConstants.S_IFMT) == UnixConstants.S_IFLNK;
+    }
+
+    public int getUid(int index) {
+        return mUids[index];
+    }
+
+    public long getSize(int index) {
+        return mSizes[index];
+    }
+
+    public long getLastModifiedMillis(int index) {
+        return mModifiedTimes[index] / 1000000L;
+    }
+
+    public long getInode(int index) {
+        return mInodes[index];
+    }
+
+    /**
+     * Check if the entry at {@code index} is likely writable by {@code uid} from its owner and
+     * permission bits, without an access() call for each entry, see
+     * {@link FileAttributes#isWritableBy(int, int, int)}.
+     */
+    public boolean isWritableBy(int index, int uid) {
+        return FileAttributes.isWritableBy(mModes[index], mUids[index], uid);
+    }
+
+}
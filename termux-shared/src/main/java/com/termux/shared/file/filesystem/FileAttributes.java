@@ -103,6 +103,11 @@ public class FileAttributes {
         return fileAttributes;
     }
 
+    // get the entries of a directory with their attributes in a single call
+    public static DirectoryListing listDirectory(String dirPath, boolean followLinks) throws IOException {
+        return NativeDispatcher.listDirectory(dirPath, followLinks);
+    }
+
     public String file() {
         if (filePath != null)
             return filePath;
@@ -224,6 +229,23 @@ public class FileAttributes {
             type == UnixConstants.S_IFIFO);
     }
 
+    /** Check if the file is likely writable by {@code uid}, see {@link #isWritableBy(int, int, int)}. */
+    public boolean isWritableBy(int uid) {
+        return isWritableBy(st_mode, st_uid, uid);
+    }
+
+    /**
+     * Check if a file with {@code mode} that is owned by {@code ownerUid} is likely writable by
+     * {@code uid} from its owner and permission bits, without an access() call. This does not
+     * consider supplementary groups, ACLs or a read-only mount.
+     */
+    public static boolean isWritableBy(int mode, int ownerUid, int uid) {
+        if (ownerUid == uid)
+            return (mode & UnixConstants.S_IWUSR) != 0;
+        else
+            return (mode & UnixConstants.S_IWOTH) != 0;
+    }
+
     public long size() {
         return st_size;
     }
@@ -98,19 +98,26 @@ public class FileTypes {
     }
 
     public static FileType getFileType(@NonNull final FileAttributes fileAttributes) {
-        if (fileAttributes.isRegularFile())
+        return getFileType(fileAttributes.mode());
+    }
+
+    /** Get the {@link FileType} for the file type bits of a {@code st_mode}. */
+    @NonNull
+    public static FileType getFileType(final int mode) {
+        int type = mode & UnixConstants.S_IFMT;
+        if (type == UnixConstants.S_IFREG)
             return FileType.REGULAR;
-        else if (fileAttributes.isDirectory())
+        else if (type == UnixConstants.S_IFDIR)
             return FileType.DIRECTORY;
-        else if (fileAttributes.isSymbolicLink())
+        else if (type == UnixConstants.S_IFLNK)
             return FileType.SYMLINK;
-        else if (fileAttributes.isSocket())
+        else if (type == UnixConstants.S_IFSOCK)
             return FileType.SOCKET;
-        else if (fileAttributes.isCharacter())
+        else if (type == UnixConstants.S_IFCHR)
             return FileType.CHARACTER;
-        else if (fileAttributes.isFifo())
+        else if (type == UnixConstants.S_IFIFO)
             return FileType.FIFO;
-        else if (fileAttributes.isBlock())
+        else if (type == UnixConstants.S_IFBLK)
             return FileType.BLOCK;
         else
             return FileType.UNKNOWN;
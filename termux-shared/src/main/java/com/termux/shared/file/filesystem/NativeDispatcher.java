@@ -1,14 +1,31 @@
 package com.termux.shared.file.filesystem;
 
+import android.os.Build;
 import android.system.ErrnoException;
 import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import com.termux.shared.logger.Logger;
 
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class NativeDispatcher {
 
+    private static final String LOG_TAG = "NativeDispatcher";
+
+    /** The native library with the {@link #listDirectoryNative(String, boolean)} implementation. */
+    private static final String FILE_ATTRIBUTES_LIBRARY = "file-attributes";
+
+    /** If {@link #FILE_ATTRIBUTES_LIBRARY} has been tried to be loaded. */
+    private static volatile boolean fileAttributesLibraryLoadAttempted;
+    /** If {@link #FILE_ATTRIBUTES_LIBRARY} has been loaded. */
+    private static volatile boolean fileAttributesLibraryLoaded;
+
     public static void stat(String filePath, FileAttributes fileAttributes) throws IOException {
         validateFileExistence(filePath);
 
@@ -39,6 +56,120 @@ public class NativeDispatcher {
         }
     }
 
+    /**
+     * List the entries of the directory at {@code dirPath} with their attributes. The native
+     * {@link #FILE_ATTRIBUTES_LIBRARY} library reads the entries with getdents64 and stat-s them
+     * with fstatat relative to the directory fd, so the whole listing is done with a single JNI
+     * call and without resolving the directory path again for each entry. If the library fails
+     * to load, then {@link File#list()} and {@link Os#lstat(String)}/{@link Os#stat(String)} for
+     * each entry are used instead.
+     *
+     * @param dirPath The {@code path} for the directory to list.
+     * @param followLinks If symlink entries should be followed while getting their attributes.
+     *                    Entries whose target cannot be stat-ed, like dangling symlinks, get the
+     *                    attributes of the link itself.
+     * @return Returns the {@link DirectoryListing}.
+     */
+    public static DirectoryListing listDirectory(String dirPath, boolean followLinks) throws IOException {
+        validateFileExistence(dirPath);
+        dirPath = new File(dirPath).getAbsolutePath();
+
+        if (loadFileAttributesLibrary())
+            return listDirectoryNative(dirPath, followLinks);
+        else
+            return listDirectoryJava(dirPath, followLinks);
+    }
+
+    private static boolean loadFileAttributesLibrary() {
+        if (!fileAttributesLibraryLoadAttempted) {
+            synchronized (NativeDispatcher.class) {
+                if (!fileAttributesLibraryLoadAttempted) {
+                    try {
+                        Logger.logDebug(LOG_TAG, "Loading \"" + FILE_ATTRIBUTES_LIBRARY + "\" library");
+                        System.loadLibrary(FILE_ATTRIBUTES_LIBRARY);
+                        fileAttributesLibraryLoaded = true;
+                    } catch (Throwable t) {
+                        Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load \"" + FILE_ATTRIBUTES_LIBRARY + "\" library", t);
+                    }
+                    fileAttributesLibraryLoadAttempted = true;
+                }
+            }
+        }
+        return fileAttributesLibraryLoaded;
+    }
+
+    private static native DirectoryListing listDirectoryNative(String dirPath, boolean followLinks) throws IOException;
+
+    /** Stat the target of the symlink at {@code path}, or the link itself if that fails, like if it is dangling. */
+    private static StructStat statOrLstat(String path) throws ErrnoException {
+        try {
+            return Os.stat(path);
+        } catch (ErrnoException e) {
+            return Os.lstat(path);
+        }
+    }
+
+    static DirectoryListing listDirectoryJava(String dirPath, boolean followLinks) throws IOException {
+        File dir = new File(dirPath);
+        String[] names = dir.list();
+        if (names == null)
+            throw new IOException("Failed to list directory at path \"" + dirPath + "\"");
+
+        byte[][] encodedNames = new byte[names.length][];
+        int[] modes = new int[names.length];
+        int[] uids = new int[names.length];
+        long[] sizes = new long[names.length];
+        long[] modifiedTimes = new long[names.length];
+        long[] inodes = new long[names.length];
+
+        int count = 0;
+        int nameBytesLength = 0;
+        for (String name : names) {
+            String path = new File(dir, name).getAbsolutePath();
+            StructStat structStat = null;
+            try {
+                structStat = followLinks ? statOrLstat(path) : Os.lstat(path);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOENT) continue;
+            }
+
+            encodedNames[count] = name.getBytes(StandardCharsets.UTF_8);
+            nameBytesLength += encodedNames[count].length;
+            if (structStat != null) {
+                modes[count] = structStat.st_mode;
+                uids[count] = structStat.st_uid;
+                sizes[count] = structStat.st_size;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+                    modifiedTimes[count] = structStat.st_mtim.tv_sec * 1000000000L + structStat.st_mtim.tv_nsec;
+                else
+                    modifiedTimes[count] = structStat.st_mtime * 1000000000L;
+                inodes[count] = structStat.st_ino;
+            }
+            count++;
+        }
+
+        byte[] nameBytes = new byte[nameBytesLength];
+        int[] nameOffsets = new int[count + 1];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            nameOffsets[i] = offset;
+            System.arraycopy(encodedNames[i], 0, nameBytes, offset, encodedNames[i].length);
+            offset += encodedNames[i].length;
+        }
+        nameOffsets[count] = offset;
+
+        return new DirectoryListing(dirPath, nameBytes, nameOffsets, trim(modes, count), trim(uids, count),
+            trim(sizes, count), trim(modifiedTimes, count), trim(inodes, count));
+    }
+
+    private static int[] trim(int[] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
+    }
+
+    private static long[] trim(long[] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
+    }
+
     public static void validateFileExistence(String filePath) throws IOException {
         if (filePath == null || filePath.isEmpty()) throw new IOException("The path is null or empty");
 
@@ -211,7 +211,7 @@ public class ShareUtils {
             return;
         }
 
-        Error error = FileUtils.writeTextToFile(label, filePath,
+        Error error = FileUtils.writeTextToFileAtomically(label, filePath,
             Charset.defaultCharset(), text, false);
         if (error != null) {
             Logger.logErrorExtended(LOG_TAG, error.toString());
@@ -0,0 +1,398 @@
+package com.termux.shared.logger;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.markdown.MarkdownUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A persistent log that {@link Logger} messages are written to asynchronously, so that they are
+ * still available after the app process is killed, like by the phantom process killer or the low
+ * memory killer.
+ *
+ * Messages are added to a lock-free queue by the logging threads, which never wait for file IO,
+ * and are written in batches by a single writer thread. If the writer falls behind by more than
+ * {@link #MAX_PENDING_MESSAGES}, then new messages are dropped and the number of dropped messages
+ * is logged instead.
+ *
+ * The log is kept in two files in {@link #getDirectory()}, {@link #LOG_FILE_NAME} and
+ * {@link #OLD_LOG_FILE_NAME}. Once the current file reaches half of the max size, it replaces the
+ * old file and a new current file is started, so that at most the max size is used and at least
+ * half of it has the most recent messages.
+ *
+ * Each message is stored as a binary record:
+ * `[byte magic][int length][long time millis][int tid][byte priority][short tag length][tag][message]`,
+ * where the tag and message are UTF-8 and `length` is the size of the record after it. Use
+ * {@link #readLogString(File, int)} to read the log.
+ */
+public final class LogFile {
+
+    public static final String LOG_FILE_NAME = "app.log";
+    public static final String OLD_LOG_FILE_NAME = "app.log.1";
+
+    public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024; // 4MB
+    public static final int MAX_PENDING_MESSAGES = 10_000;
+    /** The max size of a message in a record, longer messages are truncated. */
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024; // 16KB
+    /** The default max number of chars of the log to attach to reports. */
+    public static final int DEFAULT_REPORT_LOG_SIZE = 64 * 1024; // 64K chars
+
+    private static final byte RECORD_MAGIC = (byte) 0xA5;
+    private static final int RECORD_HEADER_SIZE = 1 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Thread mWriterThread;
+    /** Whether the writer thread is about to park or parked, and needs to be unparked for new messages. */
+    private volatile boolean mWriterWaiting;
+    private volatile boolean mStopped;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel mChannel;
+    private long mSize;
+
+    private static final String LOG_TAG = "LogFile";
+
+    private static final class Entry {
+        final long time;
+        final int tid;
+        final int priority;
+        final String tag;
+        final String message;
+        /** Set for flush requests, which have no message. */
+        final CountDownLatch flushed;
+
+        Entry(long time, int tid, int priority, String tag, String message, CountDownLatch flushed) {
+            this.time = time;
+            this.tid = tid;
+            this.priority = priority;
+            this.tag = tag;
+            this.message = message;
+            this.flushed = flushed;
+        }
+    }
+
+    private LogFile(@NonNull File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = Math.max(2 * BUFFER_SIZE, maxSize);
+        mWriterThread = new Thread(this::runWriter, "LogFileWriter");
+        mWriterThread.setDaemon(true);
+        mWriterThread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Start a {@link LogFile}. The directory is created by the writer thread if needed.
+     *
+     * @param directory The directory for the log files.
+     * @param maxSize The max total size of the log files.
+     * @return Returns the {@link LogFile}.
+     */
+    @NonNull
+    public static LogFile start(@NonNull File directory, long maxSize) {
+        LogFile logFile = new LogFile(directory, maxSize);
+        logFile.mWriterThread.start();
+        return logFile;
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /** Add a message to the log. This never blocks. */
+    public void append(int priority, @NonNull String tag, @Nullable String message) {
+        if (mStopped) return;
+        if (mPending.incrementAndGet() > MAX_PENDING_MESSAGES) {
+            mPending.decrementAndGet();
+            mDropped.incrementAndGet();
+            return;
+        }
+        enqueue(new Entry(System.currentTimeMillis(), android.os.Process.myTid(), priority, tag,
+            message != null ? message : "null", null));
+    }
+
+    /**
+     * Wait until the messages added before this call have been written to the file, like before
+     * the process exits on a crash.
+     *
+     * @param timeoutMillis The max time to wait.
+     * @return Returns {@code true} if the messages were written before the timeout.
+     */
+    public boolean flush(long timeoutMillis) {
+        if (mStopped) return false;
+        CountDownLatch flushed = new CountDownLatch(1);
+        mPending.incrementAndGet();
+        enqueue(new Entry(0, 0, 0, null, null, flushed));
+        try {
+            return flushed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Stop the writer thread after writing the pending messages. */
+    public void stop() {
+        mStopped = true;
+        LockSupport.unpark(mWriterThread);
+    }
+
+    private void enqueue(@NonNull Entry entry) {
+        mQueue.offer(entry);
+        // The writer only parks when the queue is empty, so most messages do not need to wake it
+        if (mWriterWaiting)
+            LockSupport.unpark(mWriterThread);
+    }
+
+    private void runWriter() {
+        try {
+            openChannel();
+        } catch (IOException e) {
+            // Logger must not be used here since it would log to this file
+            Log.w(Logger.getFullTag(LOG_TAG), "Failed to open log file in \"" + mDirectory + "\", disabling it: " + e.getMessage());
+            mStopped = true;
+            mQueue.clear();
+            return;
+        }
+
+        while (true) {
+            Entry entry = mQueue.poll();
+            if (entry == null) {
+                try {
+                    long dropped = mDropped.getAndSet(0);
+                    if (dropped > 0)
+                        writeRecord(System.currentTimeMillis(), android.os.Process.myTid(), Log.WARN,
+                            Logger.getFullTag(LOG_TAG), dropped + " messages were dropped since the log file writer fell behind");
+                    drainBuffer();
+                } catch (IOException e) {
+                    Log.w(Logger.getFullTag(LOG_TAG), "Failed to write log file: " + e.getMessage());
+                }
+                if (mStopped && mQueue.isEmpty()) break;
+                mWriterWaiting = true;
+                // Check again after publishing mWriterWaiting so that a message added in between is not missed
+                if (mQueue.isEmpty() && !mStopped)
+                    LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+                mWriterWaiting = false;
+                continue;
+            }
+
+            mPending.decrementAndGet();
+            try {
+                if (entry.flushed != null) {
+                    drainBuffer();
+                    mChannel.force(false);
+                    entry.flushed.countDown();
+                } else {
+                    writeRecord(entry.time, entry.tid, entry.priority, entry.tag, entry.message);
+                }
+            } catch (IOException e) {
+                Log.w(Logger.getFullTag(LOG_TAG), "Failed to write log file: " + e.getMessage());
+                if (entry.flushed != null) entry.flushed.countDown();
+            }
+        }
+
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void openChannel() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs() && !mDirectory.isDirectory())
+            throw new IOException("Failed to create directory");
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory, LOG_FILE_NAME), "rw");
+        mChannel = file.getChannel();
+        mSize = mChannel.size();
+        mChannel.position(mSize);
+    }
+
+    private void writeRecord(long time, int tid, int priority, @NonNull String tag, @NonNull String message) throws IOException {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (tagBytes.length > Short.MAX_VALUE) tagBytes = new byte[0];
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int messageLength = getTruncatedLength(messageBytes, MAX_MESSAGE_SIZE);
+
+        int length = 8 + 4 + 1 + 2 + tagBytes.length + messageLength;
+        int recordSize = RECORD_HEADER_SIZE + length;
+
+        // Rotate once the current file reaches half the max size
+        if (mSize + mBuffer.position() + recordSize > mMaxSize / 2)
+            rotate();
+
+        // The tag and message sizes are capped, so a record always fits in the empty buffer
+        if (mBuffer.remaining() < recordSize)
+            drainBuffer();
+
+        putRecord(mBuffer, length, time, tid, priority, tagBytes, messageBytes, messageLength);
+    }
+
+    /**
+     * Get the length of the first {@code maxLength} bytes of UTF-8 {@code bytes}, moved back to the
+     * start of a character so that a truncated message does not end with a partial character.
+     */
+    static int getTruncatedLength(@NonNull byte[] bytes, int maxLength) {
+        if (bytes.length <= maxLength) return bytes.length;
+        int length = maxLength;
+        // Continuation bytes are 10xxxxxx
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80)
+            length--;
+        return length;
+    }
+
+    private static void putRecord(@NonNull ByteBuffer buffer, int length, long time, int tid, int priority,
+                                  @NonNull byte[] tagBytes, @NonNull byte[] messageBytes, int messageLength) {
+        buffer.put(RECORD_MAGIC).putInt(length).putLong(time).putInt(tid).put((byte) priority)
+            .putShort((short) tagBytes.length).put(tagBytes).put(messageBytes, 0, messageLength);
+    }
+
+    private void rotate() throws IOException {
+        drainBuffer();
+        mChannel.close();
+        File current = new File(mDirectory, LOG_FILE_NAME);
+        File old = new File(mDirectory, OLD_LOG_FILE_NAME);
+        boolean renamed = current.renameTo(old);
+        openChannel();
+        if (!renamed) {
+            // Start over in the current file so that the size stays capped
+            Log.w(Logger.getFullTag(LOG_TAG), "Failed to rename \"" + current + "\" to \"" + old + "\"");
+            mChannel.truncate(0);
+            mChannel.position(0);
+            mSize = 0;
+        }
+    }
+
+    private void drainBuffer() throws IOException {
+        if (mBuffer.position() == 0) return;
+        mBuffer.flip();
+        write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void write(@NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            mSize += mChannel.write(buffer);
+    }
+
+    /**
+     * Read the log files in {@code directory} as text in the format of `logcat -v threadtime`
+     * without the pid, oldest message first. A record that was only partially written, like when
+     * the process was killed, ends the file it is in.
+     *
+     * @param directory The directory of the log files.
+     * @param maxChars The max number of chars to return. If the log is larger, then only the most
+     *                 recent messages are returned.
+     * @return Returns the log text, which is empty if no log exists.
+     */
+    @NonNull
+    public static String readLogString(@NonNull File directory, int maxChars) {
+        ArrayDeque<String> lines = new ArrayDeque<>();
+        int[] size = new int[1];
+        readLogFile(new File(directory, OLD_LOG_FILE_NAME), lines, size, maxChars);
+        readLogFile(new File(directory, LOG_FILE_NAME), lines, size, maxChars);
+
+        StringBuilder logString = new StringBuilder(size[0]);
+        for (String line : lines)
+            logString.append(line);
+        return logString.toString();
+    }
+
+    /**
+     * Get a markdown section for the log files in {@code directory}, like to attach it to a crash
+     * report in {@link com.termux.shared.activities.ReportActivity}.
+     *
+     * @param directory The directory of the log files.
+     * @param maxChars The max number of chars of the log to add.
+     * @return Returns the markdown string, or {@code null} if no log exists.
+     */
+    @Nullable
+    public static String getLogMarkdownString(@NonNull File directory, int maxChars) {
+        String logString = readLogString(directory, maxChars);
+        if (logString.isEmpty()) return null;
+        return "## Recent Log\n\n" + MarkdownUtils.getMarkdownCodeForString(logString, true);
+    }
+
+    private static void readLogFile(@NonNull File file, @NonNull ArrayDeque<String> lines,
+                                    @NonNull int[] size, int maxChars) {
+        if (!file.isFile()) return;
+
+        @SuppressLint("SimpleDateFormat")
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            while (true) {
+                byte magic;
+                try {
+                    magic = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (magic != RECORD_MAGIC) break;
+
+                int length = in.readInt();
+                if (length < 8 + 4 + 1 + 2 || length > Short.MAX_VALUE + MAX_MESSAGE_SIZE + 15) break;
+                long time = in.readLong();
+                int tid = in.readInt();
+                int priority = in.readByte();
+                int tagLength = in.readShort();
+                if (tagLength < 0 || tagLength > length - 15) break;
+                byte[] tag = new byte[tagLength];
+                in.readFully(tag);
+                byte[] message = new byte[length - 15 - tagLength];
+                in.readFully(message);
+
+                String line = dateFormat.format(new Date(time)) + " " + String.format("%5d", tid) + " " +
+                    getPriorityChar(priority) + " " + new String(tag, StandardCharsets.UTF_8) + ": " +
+                    new String(message, StandardCharsets.UTF_8) + "\n";
+                lines.addLast(line);
+                size[0] += line.length();
+                while (size[0] > maxChars && !lines.isEmpty())
+                    size[0] -= lines.removeFirst().length();
+            }
+        } catch (EOFException e) {
+            // Partially written record
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read log file at path \"" + file + "\"", e);
+        }
+    }
+
+    private static char getPriorityChar(int priority) {
+        switch (priority) {
+            case Log.VERBOSE: return 'V';
+            case Log.DEBUG: return 'D';
+            case Log.INFO: return 'I';
+            case Log.WARN: return 'W';
+            case Log.ERROR: return 'E';
+            case Log.ASSERT: return 'A';
+            default: return '?';
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
@@ -17,6 +18,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Logger {
 
@@ -31,6 +33,11 @@ public class Logger {
     public static final int MAX_LOG_LEVEL = LOG_LEVEL_VERBOSE;
     private static int CURRENT_LOG_LEVEL = DEFAULT_LOG_LEVEL;
 
+    /** The {@link LogFile} that messages are also written to, if set. */
+    private static volatile LogFile LOG_FILE;
+    /** Whether messages are written to logcat. */
+    private static volatile boolean LOGCAT_ENABLED = true;
+
     /**
      * The maximum size of the log entry payload that can be written to the logger. An attempt to
      * write more than this amount will result in a truncated log entry.
@@ -54,49 +61,59 @@ public class Logger {
 
 
     public static void logMessage(int logPriority, String tag, String message) {
-        if (logPriority == Log.ERROR && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.e(getFullTag(tag), message);
-        else if (logPriority == Log.WARN && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.w(getFullTag(tag), message);
-        else if (logPriority == Log.INFO && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.i(getFullTag(tag), message);
-        else if (logPriority == Log.DEBUG && CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
-            Log.d(getFullTag(tag), message);
-        else if (logPriority == Log.VERBOSE && CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
-            Log.v(getFullTag(tag), message);
+        if (!isLogPriorityEnabled(logPriority)) return;
+
+        String fullTag = getFullTag(tag);
+        if (LOGCAT_ENABLED)
+            Log.println(logPriority, fullTag, message);
+
+        LogFile logFile = LOG_FILE;
+        if (logFile != null)
+            logFile.append(logPriority, fullTag, message);
     }
 
     public static void logExtendedMessage(int logLevel, String tag, String message) {
         if (message == null) return;
+        if (!isLogPriorityEnabled(logLevel)) return;
 
-        int cutOffIndex;
-        int nextNewlineIndex;
-        String prefix = "";
+        String fullTag = getFullTag(tag);
+
+        // The log file has no entry size limit, so the message is written to it only once
+        LogFile logFile = LOG_FILE;
+        if (logFile != null)
+            logFile.append(logLevel, fullTag, message);
+
+        if (!LOGCAT_ENABLED) return;
 
         // -8 for prefix "(xx/xx)" (max 99 sections), - log tag length, -4 for log tag prefix "D/" and suffix ": "
-        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - getFullTag(tag).length() - 4;
-
-        List<String> messagesList = new ArrayList<>();
-
-        while(!message.isEmpty()) {
-            if (message.length() > maxEntrySize) {
-                cutOffIndex = maxEntrySize;
-                nextNewlineIndex = message.lastIndexOf('\n', cutOffIndex);
-                if (nextNewlineIndex != -1) {
-                    cutOffIndex = nextNewlineIndex + 1;
-                }
-                messagesList.add(message.substring(0, cutOffIndex));
-                message = message.substring(cutOffIndex);
-            } else {
-                messagesList.add(message);
-                break;
-            }
+        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - fullTag.length() - 4;
+
+        if (message.length() <= maxEntrySize) {
+            Log.println(logLevel, fullTag, message);
+            return;
         }
 
-        for(int i=0; i<messagesList.size(); i++) {
-            if (messagesList.size() > 1)
-                prefix = "(" + (i + 1) + "/" + messagesList.size() + ")\n";
-            logMessage(logLevel, tag, prefix + messagesList.get(i));
+        // Find the section boundaries first, so that the sections are not copied until logged
+        List<Integer> cutOffIndexes = new ArrayList<>();
+        int startIndex = 0;
+        while (message.length() - startIndex > maxEntrySize) {
+            int cutOffIndex = startIndex + maxEntrySize;
+            int nextNewlineIndex = message.lastIndexOf('\n', cutOffIndex);
+            if (nextNewlineIndex >= startIndex)
+                cutOffIndex = nextNewlineIndex + 1;
+            cutOffIndexes.add(cutOffIndex);
+            startIndex = cutOffIndex;
+        }
+        cutOffIndexes.add(message.length());
+
+        StringBuilder section = new StringBuilder(maxEntrySize + 8);
+        startIndex = 0;
+        for (int i = 0; i < cutOffIndexes.size(); i++) {
+            section.setLength(0);
+            section.append('(').append(i + 1).append('/').append(cutOffIndexes.size()).append(")\n");
+            section.append(message, startIndex, cutOffIndexes.get(i));
+            Log.println(logLevel, fullTag, section.toString());
+            startIndex = cutOffIndexes.get(i);
         }
     }
 
@@ -140,6 +157,11 @@ public class Logger {
             logExtendedMessage(Log.ERROR, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logErrorPrivateExtended(String tag, @NonNull Supplier<String> message) {
+        if (CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
+            logExtendedMessage(Log.ERROR, tag, message.get());
+    }
+
 
 
     public static void logWarn(String tag, String message) {
@@ -194,6 +216,18 @@ public class Logger {
         logExtendedMessage(Log.DEBUG, DEFAULT_LOG_TAG, message);
     }
 
+    /** Log a debug message that is only built if the {@link #CURRENT_LOG_LEVEL} allows it. */
+    public static void logDebug(String tag, @NonNull Supplier<String> message) {
+        if (CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
+            logMessage(Log.DEBUG, tag, message.get());
+    }
+
+    /** Log an extended debug message that is only built if the {@link #CURRENT_LOG_LEVEL} allows it. */
+    public static void logDebugExtended(String tag, @NonNull Supplier<String> message) {
+        if (CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
+            logExtendedMessage(Log.DEBUG, tag, message.get());
+    }
+
 
 
     public static void logVerbose(String tag, String message) {
@@ -212,8 +246,24 @@ public class Logger {
         logExtendedMessage(Log.VERBOSE, DEFAULT_LOG_TAG, message);
     }
 
+    /** Log a verbose message that is only built if the {@link #CURRENT_LOG_LEVEL} allows it. */
+    public static void logVerbose(String tag, @NonNull Supplier<String> message) {
+        if (CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
+            logMessage(Log.VERBOSE, tag, message.get());
+    }
+
+    /** Log an extended verbose message that is only built if the {@link #CURRENT_LOG_LEVEL} allows it. */
+    public static void logVerboseExtended(String tag, @NonNull Supplier<String> message) {
+        if (CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
+            logExtendedMessage(Log.VERBOSE, tag, message.get());
+    }
+
     public static void logVerboseForce(String tag, String message) {
         Log.v(tag, message);
+
+        LogFile logFile = LOG_FILE;
+        if (logFile != null)
+            logFile.append(Log.VERBOSE, tag, message);
     }
 
 
@@ -472,6 +522,61 @@ public class Logger {
         return CURRENT_LOG_LEVEL;
     }
 
+    /** Check if messages of {@code logPriority} should be logged for {@link #CURRENT_LOG_LEVEL}. */
+    public static boolean isLogPriorityEnabled(int logPriority) {
+        switch (logPriority) {
+            case Log.ERROR:
+            case Log.WARN:
+            case Log.INFO:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL;
+            case Log.DEBUG:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG;
+            case Log.VERBOSE:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE;
+            default:
+                return false;
+        }
+    }
+
+
+
+    @Nullable
+    public static LogFile getLogFile() {
+        return LOG_FILE;
+    }
+
+    /**
+     * Set the {@link LogFile} that messages are also written to. The previous log file, if any,
+     * is stopped.
+     *
+     * @param logFile The {@link LogFile}, or {@code null} to stop writing messages to a file.
+     */
+    public static synchronized void setLogFile(@Nullable LogFile logFile) {
+        LogFile oldLogFile = LOG_FILE;
+        LOG_FILE = logFile;
+        if (oldLogFile != null && oldLogFile != logFile)
+            oldLogFile.stop();
+    }
+
+    /** Set whether messages are written to logcat, in addition to the {@link LogFile} if set. */
+    public static void setLogcatEnabled(boolean logcatEnabled) {
+        LOGCAT_ENABLED = logcatEnabled;
+    }
+
+    /**
+     * Wait until the messages logged so far are written to the {@link LogFile}, like before the
+     * process exits on a crash.
+     *
+     * @param timeoutMillis The max time to wait.
+     * @return Returns {@code true} if no log file is set or the messages were written before the timeout.
+     */
+    public static boolean flushLogFile(long timeoutMillis) {
+        LogFile logFile = LOG_FILE;
+        return logFile == null || logFile.flush(timeoutMillis);
+    }
+
+
+
     /** The colon character ":" must not exist inside the tag, otherwise the `logcat` command
      * filterspecs arguments `<tag>[:priority]` will not work and will throw `Invalid filter expression`
      * error.
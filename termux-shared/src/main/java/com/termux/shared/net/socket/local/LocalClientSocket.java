@@ -1,5 +1,7 @@
 package com.termux.shared.net.socket.local;
 
+import android.os.ParcelFileDescriptor;
+
 import androidx.annotation.NonNull;
 
 import com.termux.shared.data.DataUtils;
@@ -8,13 +10,15 @@ import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 /** The client socket for {@link LocalSocketManager}. */
 public class LocalClientSocket implements Closeable {
@@ -33,9 +37,15 @@ public class LocalClientSocket implements Closeable {
      */
     protected int mFD;
 
-    /** The creation time of {@link LocalClientSocket}. This is also used for deadline. */
+    /** The creation time of {@link LocalClientSocket}. */
     protected final long mCreationTime;
 
+    /**
+     * The time from which {@link LocalSocketRunConfig#getDeadline()} is counted. This is the
+     * {@link #mCreationTime} unless a new deadline is started with {@link #startDeadline()}.
+     */
+    protected long mDeadlineStartTime;
+
     /** The {@link PeerCred} of the {@link LocalClientSocket} containing info of client/peer. */
     @NonNull protected final PeerCred mPeerCred;
 
@@ -56,6 +66,7 @@ public class LocalClientSocket implements Closeable {
         mLocalSocketManager = localSocketManager;
         mLocalSocketRunConfig = localSocketManager.getLocalSocketRunConfig();
         mCreationTime = System.currentTimeMillis();
+        mDeadlineStartTime = mCreationTime;
         mOutputStream = new SocketOutputStream();
         mInputStream = new SocketInputStream();
         mPeerCred = peerCred;
@@ -107,7 +118,7 @@ public class LocalClientSocket implements Closeable {
      * to end-of-file, or because we are reading from a pipe), or because read() was interrupted by
      * a signal.
      *
-     * If while reading the {@link #mCreationTime} + the milliseconds returned by
+     * If while reading the {@link #mDeadlineStartTime} + the milliseconds returned by
      * {@link LocalSocketRunConfig#getDeadline()} elapses but all the data has not been read, an
      * error would be returned.
      *
@@ -130,7 +141,45 @@ public class LocalClientSocket implements Closeable {
 
         JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
             mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        bytesRead.value = result.intData;
+        return null;
+    }
+
+    /**
+     * Attempts to read up to {@code length} bytes from file descriptor into the data buffer at
+     * {@code offset} with a single native read. On success, the number of bytes read is returned
+     * (zero indicates end of file) in bytesRead, which may be smaller than {@code length} if fewer
+     * bytes are available right now.
+     *
+     * If the {@link #mDeadlineStartTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} has elapsed, an error would be returned.
+     *
+     * This is a wrapper for {@link LocalSocketManager#read(String, int, byte[], int, int, long)}.
+     *
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data buffer at which to start writing the bytes read.
+     * @param length The max number of bytes to read.
+     * @param bytesRead The actual bytes read.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error read(@NonNull byte[] data, int offset, int length, MutableInt bytesRead) {
+        bytesRead.value = 0;
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        JniResult result = LocalSocketManager.read(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, data, offset, length,
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -143,7 +192,7 @@ public class LocalClientSocket implements Closeable {
     /**
      * Attempts to send data buffer to the file descriptor.
      *
-     * If while sending the {@link #mCreationTime} + the milliseconds returned by
+     * If while sending the {@link #mDeadlineStartTime} + the milliseconds returned by
      * {@link LocalSocketRunConfig#getDeadline()} elapses but all the data has not been sent, an
      * error would be returned.
      *
@@ -163,7 +212,7 @@ public class LocalClientSocket implements Closeable {
 
         JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
             mFD, data,
-            mLocalSocketRunConfig.getDeadline() > 0 ? mCreationTime + mLocalSocketRunConfig.getDeadline() : 0);
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -173,23 +222,172 @@ public class LocalClientSocket implements Closeable {
     }
 
     /**
-     * Attempts to read all the bytes available on {@link SocketInputStream} and appends them to
-     * {@code data} {@link StringBuilder}.
+     * Attempts to send {@code length} bytes of data buffer starting at {@code offset} to the file
+     * descriptor.
      *
-     * This is a wrapper for {@link #read(byte[], MutableInt)} called via {@link SocketInputStream#read()}.
+     * If while sending the {@link #mDeadlineStartTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} elapses but all the data has not been sent, an
+     * error would be returned.
      *
-     * @param data The data {@link StringBuilder} to append the bytes read into.
-     * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
-     *                            and further attempts to read from socket will fail.
+     * This is a wrapper for {@link LocalSocketManager#send(String, int, byte[], int, int, long)}.
+     *
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data buffer of the first byte to send.
+     * @param length The number of bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error send(@NonNull byte[] data, int offset, int length) {
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        JniResult result = LocalSocketManager.send(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, data, offset, length,
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_SEND_DATA_TO_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to send file descriptors along with {@code length} bytes of data buffer starting at
+     * {@code offset}, so that the client can use them directly instead of the data being streamed
+     * through the socket. The fds are attached to the first byte sent, so at least one byte must be
+     * sent. The fds are duplicated for the client and the caller still owns {@code fds}.
+     *
+     * If while sending the {@link #mDeadlineStartTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} elapses but all the data has not been sent, an
+     * error would be returned.
+     *
+     * This is a wrapper for {@link LocalSocketManager#sendFds(String, int, int[], byte[], int, int, long)}.
+     *
+     * @param fds The file descriptors to send.
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data buffer of the first byte to send.
+     * @param length The number of bytes to send.
+     * @return Returns the {@code error} if sending was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error sendFds(@NonNull ParcelFileDescriptor[] fds, @NonNull byte[] data, int offset, int length) {
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int[] fdsArray = new int[fds.length];
+        for (int i = 0; i < fds.length; i++)
+            fdsArray[i] = fds[i].getFd();
+
+        JniResult result = LocalSocketManager.sendFds(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, fdsArray, data, offset, length,
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_SEND_FDS_TO_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to read up to {@code length} bytes into the data buffer at {@code offset} with a
+     * single native read, and receive any file descriptors the client sent along with them. The
+     * client can pass open files this way, like to have the app read an input directly or write a
+     * result into a file the client owns. The received fds are added to {@code fds} and the caller
+     * must close them. If the client sends more than {@code maxFds}, then the extra fds are closed.
+     *
+     * The kernel discards fds attached to bytes read with a normal read, so this must be called
+     * before the bytes the client sent the fds with are read with {@link #read(byte[], int, int, MutableInt)}
+     * or through {@link #mInputStream}. An error is returned if {@link #mInputStream} has already
+     * buffered any bytes.
+     *
+     * If the {@link #mDeadlineStartTime} + the milliseconds returned by
+     * {@link LocalSocketRunConfig#getDeadline()} has elapsed, an error would be returned.
+     *
+     * This is a wrapper for {@link LocalSocketManager#receiveFds(String, int, byte[], int, int, int[], long)}.
+     *
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data buffer at which to start writing the bytes read.
+     * @param length The max number of bytes to read.
+     * @param maxFds The max number of fds to receive.
+     * @param bytesRead The actual bytes read, 0 for end of file.
+     * @param fds The {@link List} to add the received fds to.
      * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
      * error {@link String}, otherwise {@code null}.
      */
-    public Error readDataOnInputStream(@NonNull StringBuilder data, boolean closeStreamOnFinish) {
-        int c;
-        InputStreamReader inputStreamReader = getInputStreamReader();
+    public Error receiveFds(@NonNull byte[] data, int offset, int length, int maxFds,
+                            MutableInt bytesRead, @NonNull List<ParcelFileDescriptor> fds) {
+        bytesRead.value = 0;
+
+        if (mFD < 0) {
+            return LocalSocketErrno.ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD.getError(mFD,
+                mLocalSocketRunConfig.getTitle());
+        }
+
+        int buffered = mInputStream.getBufferedCount();
+        if (buffered > 0) {
+            return LocalSocketErrno.ERRNO_RECEIVE_FDS_FROM_CLIENT_SOCKET_WITH_BUFFERED_DATA.getError(
+                mLocalSocketRunConfig.getTitle(), buffered);
+        }
+
+        int[] fdsArray = new int[maxFds];
+        Arrays.fill(fdsArray, -1);
+        JniResult result = LocalSocketManager.receiveFds(mLocalSocketRunConfig.getLogTitle() + " (client)",
+            mFD, data, offset, length, fdsArray,
+            mLocalSocketRunConfig.getDeadline() > 0 ? mDeadlineStartTime + mLocalSocketRunConfig.getDeadline() : 0);
+        if (result == null || result.retval != 0) {
+            return LocalSocketErrno.ERRNO_RECEIVE_FDS_FROM_CLIENT_SOCKET_FAILED.getError(
+                mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
+        }
+
+        for (int fd : fdsArray) {
+            if (fd >= 0)
+                fds.add(ParcelFileDescriptor.adoptFd(fd));
+        }
+
+        bytesRead.value = result.intData;
+        return null;
+    }
+
+    /**
+     * Attempts to read all the bytes on {@link SocketInputStream} until end of file or a null `\0`
+     * byte, and appends them to {@code data} {@link StringBuilder} decoded as UTF-8. The bytes are
+     * read in bulk and are only decoded once at the end.
+     *
+     * @param maxBytes The max number of bytes to read. If more bytes are sent, an error is returned.
+     * @param data The data {@link StringBuilder} to append the bytes read into.
+     * @return Returns the {@code error} if reading was not successful, otherwise {@code null}.
+     */
+    public Error readAll(int maxBytes, @NonNull StringBuilder data) {
+        byte[] bytes = new byte[Math.max(0, Math.min(maxBytes, SocketInputStream.BUFFER_SIZE))];
+        int length = 0;
         try {
-            while ((c = inputStreamReader.read()) > 0) {
-                data.append((char) c);
+            while (true) {
+                if (length == bytes.length) {
+                    if (length >= maxBytes) {
+                        // Check if there are more bytes than allowed
+                        int c = mInputStream.read();
+                        if (c <= 0) break;
+                        return LocalSocketErrno.ERRNO_CLIENT_SOCKET_DATA_SIZE_LIMIT_EXCEEDED.getError(
+                            mLocalSocketRunConfig.getTitle(), maxBytes);
+                    }
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(maxBytes, 2L * bytes.length));
+                }
+
+                int bytesRead = mInputStream.read(bytes, length, bytes.length - length);
+                if (bytesRead < 0) break;
+
+                int nullIndex = indexOfNull(bytes, length, bytesRead);
+                if (nullIndex >= 0) {
+                    length = nullIndex;
+                    break;
+                }
+                length += bytesRead;
             }
         } catch (IOException e) {
             // The SocketInputStream.read() throws the Error message in an IOException,
@@ -197,25 +395,52 @@ public class LocalClientSocket implements Closeable {
             // in a messy nested error message.
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
                 mLocalSocketRunConfig.getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
+        }
+
+        data.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        return null;
+    }
+
+    private static int indexOfNull(@NonNull byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Attempts to read all the bytes available on {@link SocketInputStream} and appends them to
+     * {@code data} {@link StringBuilder}.
+     *
+     * This is a wrapper for {@link #readAll(int, StringBuilder)} without a max size.
+     *
+     * @param data The data {@link StringBuilder} to append the bytes read into.
+     * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
+     *                            and further attempts to read from socket will fail.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error readDataOnInputStream(@NonNull StringBuilder data, boolean closeStreamOnFinish) {
+        try {
+            return readAll(Integer.MAX_VALUE - 8, data);
         } catch (Exception e) {
             return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
                 e, mLocalSocketRunConfig.getTitle(), e.getMessage());
         } finally {
             if (closeStreamOnFinish) {
-                try { inputStreamReader.close();
+                try { mInputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
             }
         }
-
-        return null;
     }
 
     /**
      * Attempts to send all the bytes passed to {@link SocketOutputStream} .
      *
-     * This is a wrapper for {@link #send(byte[])} called via {@link SocketOutputStream#write(int)}.
+     * This is a wrapper for {@link #send(byte[], int, int)} called via
+     * {@link SocketOutputStream#write(byte[], int, int)}, with {@code data} encoded as UTF-8 once.
      *
      * @param data The {@link String} bytes to send.
      * @param closeStreamOnFinish If set to {@code true}, then underlying output stream will closed
@@ -224,12 +449,10 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error sendDataToOutputStream(@NonNull String data, boolean closeStreamOnFinish) {
-
-        OutputStreamWriter outputStreamWriter = getOutputStreamWriter();
-
-        try (BufferedWriter byteStreamWriter = new BufferedWriter(outputStreamWriter)) {
-            byteStreamWriter.write(data);
-            byteStreamWriter.flush();
+        try {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            mOutputStream.write(bytes, 0, bytes.length);
+            mOutputStream.flush();
         } catch (IOException e) {
             // The SocketOutputStream.write() throws the Error message in an IOException,
             // so just read the exception message and not the stack trace, otherwise it would result
@@ -242,7 +465,7 @@ public class LocalClientSocket implements Closeable {
         } finally {
             if (closeStreamOnFinish) {
                 try {
-                    outputStreamWriter.close();
+                    mOutputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -270,11 +493,11 @@ public class LocalClientSocket implements Closeable {
                 mLocalSocketRunConfig.getTitle());
         }
 
-        if (checkDeadline && mLocalSocketRunConfig.getDeadline() > 0 && System.currentTimeMillis() > (mCreationTime + mLocalSocketRunConfig.getDeadline())) {
+        if (checkDeadline && mLocalSocketRunConfig.getDeadline() > 0 && System.currentTimeMillis() > (mDeadlineStartTime + mLocalSocketRunConfig.getDeadline())) {
             return null;
         }
 
-        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mLocalSocketRunConfig.getFD());
+        JniResult result = LocalSocketManager.available(mLocalSocketRunConfig.getLogTitle() + " (client)", mFD);
         if (result == null || result.retval != 0) {
             return LocalSocketErrno.ERRNO_CHECK_AVAILABLE_DATA_ON_CLIENT_SOCKET_FAILED.getError(
                 mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result));
@@ -286,6 +509,35 @@ public class LocalClientSocket implements Closeable {
 
 
 
+    /**
+     * Get the next byte on {@link #mInputStream} without consuming it, like to detect the protocol
+     * used by the client.
+     *
+     * @param value The next byte as an int in the range 0-255, or -1 for end of file.
+     * @return Returns the {@code error} if reading was not successful, otherwise {@code null}.
+     */
+    public Error peek(MutableInt value) {
+        value.value = -1;
+        try {
+            value.value = mInputStream.peek();
+        } catch (IOException e) {
+            return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
+                mLocalSocketRunConfig.getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
+        }
+        return null;
+    }
+
+    /**
+     * Start a new {@link LocalSocketRunConfig#getDeadline()} from the current time, so that the
+     * deadline applies to each request on a connection that is used for multiple requests instead
+     * of to the whole connection.
+     */
+    public void startDeadline() {
+        mDeadlineStartTime = System.currentTimeMillis();
+    }
+
+
+
     /** Set {@link LocalClientSocket} receiving (SO_RCVTIMEO) timeout to value returned by {@link LocalSocketRunConfig#getReceiveTimeout()}. */
     public Error setReadTimeout() {
         if (mFD >= 0) {
@@ -406,42 +658,74 @@ public class LocalClientSocket implements Closeable {
 
 
 
-    /** The {@link InputStream} implementation for the {@link LocalClientSocket}. */
+    /**
+     * The {@link InputStream} implementation for the {@link LocalClientSocket}.
+     *
+     * Reads are buffered, so that reading a byte or a few bytes at a time, like done by
+     * {@link InputStreamReader}, does not cost a native call and a read() syscall per byte.
+     */
     protected class SocketInputStream extends InputStream {
-        private final byte[] mBytes = new byte[1];
+        static final int BUFFER_SIZE = 8192;
+
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mPosition;
+        private int mCount;
 
         @Override
         public int read() throws IOException {
-            MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(mBytes, bytesRead);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
-            }
-
-            if (bytesRead.value == 0) {
+            if (mPosition >= mCount && fill() <= 0) {
                 return -1;
             }
 
-            return mBytes[0];
+            return mBuffer[mPosition++] & 0xff;
         }
 
         @Override
-        public int read(byte[] bytes) throws IOException {
+        public int read(byte[] bytes, int offset, int length) throws IOException {
             if (bytes == null) {
                 throw new NullPointerException("Read buffer can't be null");
             }
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
+            }
 
-            MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(bytes, bytesRead);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
+            int buffered = mCount - mPosition;
+            if (buffered > 0) {
+                int count = Math.min(buffered, length);
+                System.arraycopy(mBuffer, mPosition, bytes, offset, count);
+                mPosition += count;
+                return count;
             }
 
-            if (bytesRead.value == 0) {
+            // Read large requests directly into the caller's buffer
+            if (length >= BUFFER_SIZE) {
+                return readFromSocket(bytes, offset, length);
+            }
+
+            if (fill() <= 0) {
                 return -1;
             }
+            int count = Math.min(mCount, length);
+            System.arraycopy(mBuffer, 0, bytes, offset, count);
+            mPosition = count;
+            return count;
+        }
 
-            return bytesRead.value;
+        /** Get the number of bytes read from the socket that have not been consumed yet. */
+        int getBufferedCount() {
+            return mCount - mPosition;
+        }
+
+        /** Get the next byte without consuming it, or -1 for end of file. */
+        public int peek() throws IOException {
+            if (mPosition >= mCount && fill() <= 0) {
+                return -1;
+            }
+
+            return mBuffer[mPosition] & 0xff;
         }
 
         @Override
@@ -451,7 +735,31 @@ public class LocalClientSocket implements Closeable {
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
-            return available.value;
+            return (mCount - mPosition) + available.value;
+        }
+
+        private int fill() throws IOException {
+            mPosition = 0;
+            mCount = 0;
+            int bytesRead = readFromSocket(mBuffer, 0, BUFFER_SIZE);
+            if (bytesRead > 0) {
+                mCount = bytesRead;
+            }
+            return bytesRead;
+        }
+
+        private int readFromSocket(byte[] bytes, int offset, int length) throws IOException {
+            MutableInt bytesRead = new MutableInt(0);
+            Error error = LocalClientSocket.this.read(bytes, offset, length, bytesRead);
+            if (error != null) {
+                throw new IOException(error.getErrorMarkdownString());
+            }
+
+            if (bytesRead.value == 0) {
+                return -1;
+            }
+
+            return bytesRead.value;
         }
     }
 
@@ -472,8 +780,18 @@ public class LocalClientSocket implements Closeable {
         }
 
         @Override
-        public void write(byte[] bytes) throws IOException {
-            Error error = LocalClientSocket.this.send(bytes);
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (bytes == null) {
+                throw new NullPointerException("Write buffer can't be null");
+            }
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return;
+            }
+
+            Error error = LocalClientSocket.this.send(bytes, offset, length);
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
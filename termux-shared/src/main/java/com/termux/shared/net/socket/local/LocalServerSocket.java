@@ -11,6 +11,9 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /** The server socket for {@link LocalSocketManager}. */
 public class LocalServerSocket implements Closeable {
@@ -29,6 +32,27 @@ public class LocalServerSocket implements Closeable {
     /** The {@link ClientSocketListener} {@link Thread} for the {@link LocalServerSocket}. */
     @NonNull protected final Thread mClientSocketListener;
 
+    /**
+     * The epoll and eventfd file descriptors of the event loop of {@link ClientSocketListener}.
+     * Values will be `>= 0` while the event loop is running and `-1` otherwise.
+     */
+    protected int mEpollFD = -1;
+    protected int mEventFD = -1;
+
+    /** The event types returned by {@link LocalSocketManager#waitForEvents(String, int, int, int, int[], int)}. */
+    public static final int EVENT_CLIENT_ACCEPTED = 1;
+    public static final int EVENT_CLIENT_READY = 2;
+    public static final int EVENT_WAKEUP = 3;
+
+    /** The max number of events returned per wait of the event loop. */
+    protected static final int MAX_EVENTS = 64;
+
+    /**
+     * The max time in milliseconds the event loop waits for events, after which accepted clients
+     * that have not sent any data within {@link LocalSocketRunConfig#getReceiveTimeout()} are closed.
+     */
+    protected static final int EVENT_LOOP_TIMEOUT = 1000;
+
     /**
      * The required permissions for server socket file parent directory.
      * Creation of a new socket will fail if the server starter app process does not have
@@ -132,6 +156,9 @@ public class LocalServerSocket implements Closeable {
             mClientSocketListener.interrupt();
         } catch (Exception ignored) {}
 
+        if (mEventFD >= 0)
+            LocalSocketManager.wakeEventLoop(mLocalSocketRunConfig.getLogTitle() + " (server)", mEventFD);
+
         Error error = closeServerSocket(false);
         if (error != null)
             return error;
@@ -203,49 +230,102 @@ public class LocalServerSocket implements Closeable {
             }
 
             clientFD = result.intData;
-            if (clientFD < 0) {
-                mLocalSocketManager.onError(
-                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_FD_INVALID.getError(clientFD, mLocalSocketRunConfig.getTitle()));
-                continue;
-            }
+            LocalClientSocket clientSocket = createClientSocket(clientFD);
+            if (clientSocket != null)
+                return clientSocket;
+        }
+    }
 
-            PeerCred peerCred = new PeerCred();
-            result = LocalSocketManager.getPeerCred(mLocalSocketRunConfig.getLogTitle() + " (client)", clientFD, peerCred);
-            if (result == null || result.retval != 0) {
-                mLocalSocketManager.onError(
-                    LocalSocketErrno.ERRNO_GET_CLIENT_SOCKET_PEER_UID_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
-                LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
-                continue;
-            }
+    /**
+     * Create a {@link LocalClientSocket} for an accepted client fd and check that its peer is
+     * allowed to connect. If not, the client is closed.
+     *
+     * @param clientFD The accepted client fd.
+     * @return Returns the {@link LocalClientSocket} if the client is allowed, otherwise {@code null}.
+     */
+    protected LocalClientSocket createClientSocket(int clientFD) {
+        if (clientFD < 0) {
+            mLocalSocketManager.onError(
+                LocalSocketErrno.ERRNO_CLIENT_SOCKET_FD_INVALID.getError(clientFD, mLocalSocketRunConfig.getTitle()));
+            return null;
+        }
 
-            int peerUid = peerCred.uid;
-            if (peerUid < 0) {
-                mLocalSocketManager.onError(
-                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_INVALID.getError(peerUid, mLocalSocketRunConfig.getTitle()));
-                LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
-                continue;
-            }
+        PeerCred peerCred = new PeerCred();
+        JniResult result = LocalSocketManager.getPeerCred(mLocalSocketRunConfig.getLogTitle() + " (client)", clientFD, peerCred);
+        if (result == null || result.retval != 0) {
+            mLocalSocketManager.onError(
+                LocalSocketErrno.ERRNO_GET_CLIENT_SOCKET_PEER_UID_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+            LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
+            return null;
+        }
 
-            LocalClientSocket clientSocket =  new LocalClientSocket(mLocalSocketManager, clientFD, peerCred);
-            Logger.logVerbose(LOG_TAG, "Client socket accept for \"" + mLocalSocketRunConfig.getTitle() + "\" server\n" + clientSocket.getLogString());
+        int peerUid = peerCred.uid;
+        if (peerUid < 0) {
+            mLocalSocketManager.onError(
+                LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_INVALID.getError(peerUid, mLocalSocketRunConfig.getTitle()));
+            LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
+            return null;
+        }
 
-            // Only allow connection if the peer has the same uid as server app's user id or root user id
-            if (peerUid != mLocalSocketManager.getContext().getApplicationInfo().uid && peerUid != 0) {
-                mLocalSocketManager.onDisallowedClientConnected(clientSocket,
-                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED.getError(clientSocket.getPeerCred().getMinimalString(),
-                        mLocalSocketManager.getLocalSocketRunConfig().getTitle()));
-                clientSocket.closeClientSocket(true);
-                continue;
-            }
+        LocalClientSocket clientSocket =  new LocalClientSocket(mLocalSocketManager, clientFD, peerCred);
+        Logger.logVerbose(LOG_TAG, () -> "Client socket accept for \"" + mLocalSocketRunConfig.getTitle() + "\" server\n" + clientSocket.getLogString());
 
-            return clientSocket;
+        // Only allow connection if the peer has the same uid as server app's user id or root user id
+        if (peerUid != mLocalSocketManager.getContext().getApplicationInfo().uid && peerUid != 0) {
+            mLocalSocketManager.onDisallowedClientConnected(clientSocket,
+                LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED.getError(clientSocket.getPeerCred().getMinimalString(),
+                    mLocalSocketManager.getLocalSocketRunConfig().getTitle()));
+            clientSocket.closeClientSocket(true);
+            return null;
         }
+
+        return clientSocket;
     }
 
+    /** Set the read and write timeouts of a client socket. If that fails, the client is closed. */
+    protected boolean setClientSocketTimeouts(@NonNull LocalClientSocket clientSocket) {
+        Error error;
+
+        error = clientSocket.setReadTimeout();
+        if (error != null) {
+            mLocalSocketManager.onError(clientSocket, error);
+            clientSocket.closeClientSocket(true);
+            return false;
+        }
 
+        error = clientSocket.setWriteTimeout();
+        if (error != null) {
+            mLocalSocketManager.onError(clientSocket, error);
+            clientSocket.closeClientSocket(true);
+            return false;
+        }
 
+        return true;
+    }
+
+    /** Close the event loop fds if open. */
+    protected synchronized void closeEventLoop() {
+        if (mEventFD >= 0) {
+            LocalSocketManager.closeSocket(mLocalSocketRunConfig.getLogTitle() + " (server event)", mEventFD);
+            mEventFD = -1;
+        }
+        if (mEpollFD >= 0) {
+            LocalSocketManager.closeSocket(mLocalSocketRunConfig.getLogTitle() + " (server epoll)", mEpollFD);
+            mEpollFD = -1;
+        }
+    }
 
-    /** The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}. */
+
+
+
+    /**
+     * The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}.
+     *
+     * New clients are accepted by an epoll event loop, and each client is only passed to
+     * {@link LocalSocketManager#onClientAccepted(LocalClientSocket)} once it has sent data or closed
+     * its end, so that clients that are slow to send their request do not hold a client thread.
+     * If the event loop cannot be created, then clients are accepted with blocking accept() calls.
+     */
     protected class ClientSocketListener implements Runnable {
 
         @Override
@@ -253,43 +333,23 @@ public class LocalServerSocket implements Closeable {
             try {
                 Logger.logVerbose(LOG_TAG, "ClientSocketListener start");
 
-                while (!Thread.currentThread().isInterrupted()) {
-                    LocalClientSocket clientSocket = null;
-                    try {
-                        // Listen for new client socket connections
-                        clientSocket = null;
-                        clientSocket = accept();
-                        // If server socket is closed, then stop listener thread.
-                        if (clientSocket == null)
-                            break;
-
-                        Error error;
-
-                        error = clientSocket.setReadTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        error = clientSocket.setWriteTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        // Start new thread for client logic and pass control to ILocalSocketManager implementation
-                        mLocalSocketManager.onClientAccepted(clientSocket);
-                    } catch (Throwable t) {
-                        mLocalSocketManager.onError(clientSocket,
-                            LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
-                        if (clientSocket != null)
-                            clientSocket.closeClientSocket(true);
+                int[] fds = new int[2];
+                JniResult result = LocalSocketManager.createEventLoop(mLocalSocketRunConfig.getLogTitle() + " (server)",
+                    mLocalSocketRunConfig.getFD(), fds);
+                if (result != null && result.retval == 0) {
+                    synchronized (LocalServerSocket.this) {
+                        mEpollFD = fds[0];
+                        mEventFD = fds[1];
                     }
+                    runEventLoop();
+                } else {
+                    Logger.logWarn(LOG_TAG, "Failed to create event loop for \"" + mLocalSocketRunConfig.getTitle() +
+                        "\" server, using blocking accept instead: " + JniResult.getErrorString(result));
+                    runAcceptLoop();
                 }
             } catch (Exception ignored) {
             } finally {
+                closeEventLoop();
                 try {
                     close();
                 } catch (Exception ignored) {}
@@ -298,6 +358,134 @@ public class LocalServerSocket implements Closeable {
             Logger.logVerbose(LOG_TAG, "ClientSocketListener end");
         }
 
+        private void runEventLoop() {
+            // Accepted clients that have not sent any data yet
+            Map<Integer, LocalClientSocket> waitingClients = new HashMap<>();
+            int[] events = new int[MAX_EVENTS * 2];
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    // If server socket is closed, then stop listener thread.
+                    int fd = mLocalSocketRunConfig.getFD();
+                    if (fd < 0)
+                        break;
+
+                    JniResult result = LocalSocketManager.waitForEvents(mLocalSocketRunConfig.getLogTitle() + " (server)",
+                        mEpollFD, fd, mEventFD, events, EVENT_LOOP_TIMEOUT);
+                    if (result == null || result.retval != 0) {
+                        if (mLocalSocketRunConfig.getFD() >= 0)
+                            mLocalSocketManager.onError(
+                                LocalSocketErrno.ERRNO_ACCEPT_CLIENT_SOCKET_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                        break;
+                    }
+
+                    for (int i = 0; i < result.intData; i++) {
+                        int eventFD = events[i * 2];
+                        switch (events[i * 2 + 1]) {
+                            case EVENT_CLIENT_ACCEPTED:
+                                onClientSocketAccepted(eventFD, waitingClients);
+                                break;
+                            case EVENT_CLIENT_READY:
+                                LocalClientSocket clientSocket = waitingClients.remove(eventFD);
+                                if (clientSocket != null)
+                                    onClientSocketReady(clientSocket);
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+
+                    closeTimedOutClients(waitingClients);
+                }
+            } finally {
+                for (LocalClientSocket clientSocket : waitingClients.values())
+                    clientSocket.closeClientSocket(false);
+            }
+        }
+
+        private void onClientSocketAccepted(int clientFD, @NonNull Map<Integer, LocalClientSocket> waitingClients) {
+            LocalClientSocket clientSocket = null;
+            try {
+                clientSocket = createClientSocket(clientFD);
+                if (clientSocket == null || !setClientSocketTimeouts(clientSocket))
+                    return;
+
+                JniResult result = LocalSocketManager.watchClient(mLocalSocketRunConfig.getLogTitle() + " (client)", mEpollFD, clientFD);
+                if (result == null || result.retval != 0) {
+                    // Hand over the client directly, it will just block on its first read
+                    Logger.logWarn(LOG_TAG, "Failed to watch client for \"" + mLocalSocketRunConfig.getTitle() + "\" server: " + JniResult.getErrorString(result));
+                    onClientSocketReady(clientSocket);
+                    return;
+                }
+
+                waitingClients.put(clientFD, clientSocket);
+            } catch (Throwable t) {
+                mLocalSocketManager.onError(clientSocket,
+                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                if (clientSocket != null)
+                    clientSocket.closeClientSocket(true);
+            }
+        }
+
+        private void onClientSocketReady(@NonNull LocalClientSocket clientSocket) {
+            try {
+                // Pass control to ILocalSocketManager implementation on a client thread
+                mLocalSocketManager.onClientAccepted(clientSocket);
+            } catch (Throwable t) {
+                mLocalSocketManager.onError(clientSocket,
+                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                clientSocket.closeClientSocket(true);
+            }
+        }
+
+        /** Close clients that have not sent any data within the receive timeout or their deadline. */
+        private void closeTimedOutClients(@NonNull Map<Integer, LocalClientSocket> waitingClients) {
+            if (waitingClients.isEmpty()) return;
+
+            long now = System.currentTimeMillis();
+            long timeout = mLocalSocketRunConfig.getReceiveTimeout();
+            long deadline = mLocalSocketRunConfig.getDeadline();
+            if (deadline > 0 && (timeout <= 0 || deadline < timeout))
+                timeout = deadline;
+            if (timeout <= 0) return;
+
+            Iterator<LocalClientSocket> iterator = waitingClients.values().iterator();
+            while (iterator.hasNext()) {
+                LocalClientSocket clientSocket = iterator.next();
+                if (now - clientSocket.getCreationTime() > timeout) {
+                    Logger.logVerbose(LOG_TAG, () -> "Closing client for \"" + mLocalSocketRunConfig.getTitle() +
+                        "\" server since it did not send any data: " + clientSocket.getPeerCred().getMinimalString());
+                    iterator.remove();
+                    // Closing the fd also removes it from the event loop
+                    clientSocket.closeClientSocket(true);
+                }
+            }
+        }
+
+        private void runAcceptLoop() {
+            while (!Thread.currentThread().isInterrupted()) {
+                LocalClientSocket clientSocket = null;
+                try {
+                    // Listen for new client socket connections
+                    clientSocket = accept();
+                    // If server socket is closed, then stop listener thread.
+                    if (clientSocket == null)
+                        break;
+
+                    if (!setClientSocketTimeouts(clientSocket))
+                        continue;
+
+                    // Pass control to ILocalSocketManager implementation on a client thread
+                    mLocalSocketManager.onClientAccepted(clientSocket);
+                } catch (Throwable t) {
+                    mLocalSocketManager.onError(clientSocket,
+                        LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                    if (clientSocket != null)
+                        clientSocket.closeClientSocket(true);
+                }
+            }
+        }
+
     }
 
 }
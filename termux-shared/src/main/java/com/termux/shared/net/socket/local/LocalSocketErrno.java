@@ -35,6 +35,10 @@ public class LocalSocketErrno extends Errno {
     public static final Errno ERRNO_CHECK_AVAILABLE_DATA_ON_CLIENT_SOCKET_FAILED = new Errno(TYPE, 206, "Check available data on \"%1$s\" client socket failed.\n%2$s");
     public static final Errno ERRNO_CLOSE_CLIENT_SOCKET_FAILED_WITH_EXCEPTION = new Errno(TYPE, 207, "Close \"%1$s\" client socket failed.\n%2$s");
     public static final Errno ERRNO_USING_CLIENT_SOCKET_WITH_INVALID_FD = new Errno(TYPE, 208, "Trying to use client socket with invalid file descriptor \"%1$s\" for \"%2$s\" server.");
+    public static final Errno ERRNO_CLIENT_SOCKET_DATA_SIZE_LIMIT_EXCEEDED = new Errno(TYPE, 209, "Data read from \"%1$s\" client socket exceeds the max size of %2$s bytes.");
+    public static final Errno ERRNO_SEND_FDS_TO_CLIENT_SOCKET_FAILED = new Errno(TYPE, 210, "Send file descriptors to \"%1$s\" client socket failed.\n%2$s");
+    public static final Errno ERRNO_RECEIVE_FDS_FROM_CLIENT_SOCKET_FAILED = new Errno(TYPE, 211, "Receive file descriptors from \"%1$s\" client socket failed.\n%2$s");
+    public static final Errno ERRNO_RECEIVE_FDS_FROM_CLIENT_SOCKET_WITH_BUFFERED_DATA = new Errno(TYPE, 212, "Cannot receive file descriptors from \"%1$s\" client socket since %2$s bytes have already been read into its input stream buffer.");
 
     LocalSocketErrno(final String type, final int code, final String message) {
         super(type, code, message);
@@ -9,6 +9,13 @@ import com.termux.shared.errors.Error;
 import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Manager for an AF_UNIX/SOCK_STREAM local server.
  *
@@ -48,6 +55,16 @@ public class LocalSocketManager {
     /** Whether the {@link LocalServerSocket} managed by {@link LocalSocketManager} in running or not. */
     protected boolean mIsRunning;
 
+    /** The bounded thread pool on which {@link ILocalSocketManager} callbacks are run. */
+    @NonNull protected final ThreadPoolExecutor mClientExecutor;
+
+    /** The number of callbacks run and rejected on {@link #mClientExecutor}. */
+    @NonNull protected final AtomicLong mAcceptedTasksCount = new AtomicLong();
+    @NonNull protected final AtomicLong mRejectedTasksCount = new AtomicLong();
+
+    /** The time in milliseconds idle client threads are kept alive. */
+    public static final long CLIENT_THREAD_KEEP_ALIVE_TIME = 30_000;
+
 
     /**
      * Create an new instance of {@link LocalSocketManager}.
@@ -61,6 +78,7 @@ public class LocalSocketManager {
         mServerSocket = new LocalServerSocket(this);
         mLocalSocketManagerClient = mLocalSocketRunConfig.getLocalSocketManagerClient();
         mLocalSocketManagerClientThreadUEH = getLocalSocketManagerClientThreadUEHOrDefault();
+        mClientExecutor = createClientExecutor();
         mIsRunning = false;
     }
 
@@ -171,6 +189,95 @@ public class LocalSocketManager {
         }
     }
 
+    /**
+     * Creates an epoll event loop for the server socket. The server socket is made non-blocking and
+     * an eventfd is created that can be used to wake the event loop with
+     * {@link #wakeEventLoop(String, int)}.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The server socket fd.
+     * @param fds The array of size 2 in which the epoll fd and the event fd are returned.
+     * @return Returns the {@link JniResult}. If creation was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult createEventLoop(@NonNull String serverTitle, int fd, @NonNull int[] fds) {
+        try {
+            return createEventLoopNative(serverTitle, fd, fds);
+        } catch (Throwable t) {
+            String message = "Exception in createEventLoopNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Watch a client socket in an event loop, so that it is returned by
+     * {@link #waitForEvents(String, int, int, int, int[], int)} once it has data to read or is
+     * closed by the peer.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param epollFd The epoll fd of the event loop.
+     * @param clientFd The client socket fd.
+     * @return Returns the {@link JniResult}. If watching was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult watchClient(@NonNull String serverTitle, int epollFd, int clientFd) {
+        try {
+            return watchClientNative(serverTitle, epollFd, clientFd);
+        } catch (Throwable t) {
+            String message = "Exception in watchClientNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Wait for events of an event loop. New clients on the server socket are accepted and returned
+     * as accepted events, and watched clients with data to read are removed from the event loop and
+     * returned as ready events.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param epollFd The epoll fd of the event loop.
+     * @param serverFd The server socket fd.
+     * @param eventFd The event fd of the event loop.
+     * @param events The array in which the events are returned as (fd, type) pairs.
+     * @param timeout The max time in milliseconds to wait for events, or -1 to wait forever.
+     * @return Returns the {@link JniResult}. If waiting was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the number of events.
+     */
+    @Nullable
+    public static JniResult waitForEvents(@NonNull String serverTitle, int epollFd, int serverFd, int eventFd,
+                                          @NonNull int[] events, int timeout) {
+        try {
+            return waitForEventsNative(serverTitle, epollFd, serverFd, eventFd, events, timeout);
+        } catch (Throwable t) {
+            String message = "Exception in waitForEventsNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Wake an event loop waiting in {@link #waitForEvents(String, int, int, int, int[], int)}.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param eventFd The event fd of the event loop.
+     * @return Returns the {@link JniResult}. If waking was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult wakeEventLoop(@NonNull String serverTitle, int eventFd) {
+        try {
+            return wakeEventLoopNative(serverTitle, eventFd);
+        } catch (Throwable t) {
+            String message = "Exception in wakeEventLoopNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
     /**
      * Attempts to read up to data buffer length bytes from file descriptor fd into the data buffer.
      * On success, the number of bytes read is returned (zero indicates end of file).
@@ -223,6 +330,126 @@ public class LocalSocketManager {
         }
     }
 
+    /**
+     * Attempts to read up to {@code length} bytes from file descriptor fd into the data buffer at
+     * {@code offset} with a single read() call. On success, the number of bytes read is returned
+     * (zero indicates end of file), which may be smaller than {@code length} if fewer bytes are
+     * available right now. On error, the {@link JniResult#errno} and {@link JniResult#errmsg} will
+     * be set.
+     *
+     * Unlike {@link #read(String, int, byte[], long)}, this does not wait for the whole buffer to
+     * be filled and only copies the bytes read into the data buffer.
+     *
+     * If the deadline has elapsed before reading, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data buffer at which to start writing the bytes read.
+     * @param length The max number of bytes to read.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If reading was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the bytes read.
+     */
+    @Nullable
+    public static JniResult read(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, long deadline) {
+        try {
+            return readBytesNative(serverTitle, fd, data, offset, length, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in readBytesNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to send {@code length} bytes of data buffer starting at {@code offset} to the file
+     * descriptor. On error, the {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     *
+     * If while sending the deadline elapses but all the data has not been sent, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data buffer of the first byte to send.
+     * @param length The number of bytes to send.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If sending was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult send(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, long deadline) {
+        try {
+            return sendBytesNative(serverTitle, fd, data, offset, length, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in sendBytesNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to send file descriptors along with {@code length} bytes of data buffer starting at
+     * {@code offset} to the socket file descriptor with a SCM_RIGHTS control message. The fds are
+     * attached to the first byte sent, so at least one byte must be sent. On error, the
+     * {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     *
+     * If while sending the deadline elapses but all the data has not been sent, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param fds The file descriptors to send. The caller still owns them and must close them.
+     * @param data The data buffer containing bytes to send.
+     * @param offset The offset in data buffer of the first byte to send.
+     * @param length The number of bytes to send.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If sending was successful, then {@link JniResult#retval}
+     * will be 0.
+     */
+    @Nullable
+    public static JniResult sendFds(@NonNull String serverTitle, int fd, @NonNull int[] fds, @NonNull byte[] data, int offset, int length, long deadline) {
+        try {
+            return sendFdsNative(serverTitle, fd, fds, data, offset, length, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in sendFdsNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Attempts to read up to {@code length} bytes from the socket file descriptor into the data
+     * buffer at {@code offset} with a single recvmsg() call, and receive any file descriptors sent
+     * by the peer with a SCM_RIGHTS control message along with them. On error, the
+     * {@link JniResult#errno} and {@link JniResult#errmsg} will be set.
+     *
+     * The received fds are set at the start of the {@code fds} array and the caller owns them. The
+     * remaining entries are not changed. If more fds are received than the {@code fds} array can
+     * hold, then the extra fds are closed.
+     *
+     * If the deadline has elapsed before reading, the call will fail.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The socket fd.
+     * @param data The data buffer to read bytes into.
+     * @param offset The offset in data buffer at which to start writing the bytes read.
+     * @param length The max number of bytes to read.
+     * @param fds The array to set the received fds in.
+     * @param deadline The deadline milliseconds since epoch.
+     * @return Returns the {@link JniResult}. If reading was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the bytes read.
+     */
+    @Nullable
+    public static JniResult receiveFds(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, @NonNull int[] fds, long deadline) {
+        try {
+            return receiveFdsNative(serverTitle, fd, data, offset, length, fds, deadline);
+        } catch (Throwable t) {
+            String message = "Exception in receiveFdsNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
     /**
      * Gets the number of bytes available to read on the socket.
      *
@@ -309,35 +536,95 @@ public class LocalSocketManager {
         onError(null, error);
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} on a client thread. */
     public void onError(@Nullable LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onError(this, clientSocket, error));
+        if (!runOnLocalSocketManagerClientThread(() ->
+            mLocalSocketManagerClient.onError(this, clientSocket, error))) {
+            // Do not drop errors silently even if all client threads are busy
+            Logger.logErrorExtended(LOG_TAG, getErrorLogString(error, mLocalSocketRunConfig, clientSocket));
+        }
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} on a client thread. */
     public void onDisallowedClientConnected(@NonNull LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
+        runOnLocalSocketManagerClientThread(() ->
             mLocalSocketManagerClient.onDisallowedClientConnected(this, clientSocket, error));
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} in a new thread. */
+    /**
+     * Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)}
+     * on a client thread. If all client threads are busy and {@link LocalSocketRunConfig#getMaxQueuedClients()}
+     * clients are already waiting, then the client is rejected and closed.
+     */
     public void onClientAccepted(@NonNull LocalClientSocket clientSocket) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onClientAccepted(this, clientSocket));
+        if (!runOnLocalSocketManagerClientThread(() ->
+            mLocalSocketManagerClient.onClientAccepted(this, clientSocket))) {
+            Logger.logWarn(LOG_TAG, "Rejecting client for \"" + mLocalSocketRunConfig.getTitle() + "\" server since " +
+                mClientExecutor.getQueue().size() + " clients are already waiting for a client thread: " + clientSocket.getPeerCred().getMinimalString());
+            clientSocket.closeClientSocket(true);
+        }
     }
 
-    /** All client accept logic must be run on separate threads so that incoming client acceptance is not blocked. */
+    /**
+     * All client accept logic must be run on separate threads so that incoming client acceptance is
+     * not blocked. The runnable is run on the bounded client thread pool.
+     */
     public void startLocalSocketManagerClientThread(@NonNull Runnable runnable) {
-        Thread thread = new Thread(runnable);
-        thread.setUncaughtExceptionHandler(getLocalSocketManagerClientThreadUEH());
+        runOnLocalSocketManagerClientThread(runnable);
+    }
+
+    /**
+     * Run a runnable on the bounded client thread pool of {@link LocalSocketRunConfig#getMaxClientThreads()}
+     * threads, which are only kept alive while there are clients to handle.
+     *
+     * @param runnable The {@link Runnable} to run.
+     * @return Returns {@code true} if the runnable was queued, otherwise {@code false} if it was
+     * rejected since the queue of {@link LocalSocketRunConfig#getMaxQueuedClients()} is full.
+     */
+    public boolean runOnLocalSocketManagerClientThread(@NonNull Runnable runnable) {
         try {
-            thread.start();
-        } catch (Exception e) {
-            Logger.logStackTraceWithMessage(LOG_TAG, "LocalSocketManagerClientThread start failed", e);
+            mClientExecutor.execute(runnable);
+            mAcceptedTasksCount.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            mRejectedTasksCount.incrementAndGet();
+            return false;
         }
     }
 
+    /** Get the number of callbacks, like for accepted clients, that have been run on client threads. */
+    public long getAcceptedTasksCount() {
+        return mAcceptedTasksCount.get();
+    }
+
+    /** Get the number of callbacks, like for accepted clients, that have been rejected since the queue was full. */
+    public long getRejectedTasksCount() {
+        return mRejectedTasksCount.get();
+    }
+
+    /** Get the number of callbacks currently waiting for a free client thread. */
+    public int getQueuedTasksCount() {
+        return mClientExecutor.getQueue().size();
+    }
+
+    @NonNull
+    private ThreadPoolExecutor createClientExecutor() {
+        int maxClientThreads = mLocalSocketRunConfig.getMaxClientThreads();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxClientThreads, maxClientThreads,
+            CLIENT_THREAD_KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(mLocalSocketRunConfig.getMaxQueuedClients()),
+            runnable -> {
+                Thread thread = new Thread(runnable, mLocalSocketRunConfig.getTitle() + "-client-" + threadCount.incrementAndGet());
+                thread.setUncaughtExceptionHandler(mLocalSocketManagerClientThreadUEH);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        // Do not keep idle threads for servers that are rarely used
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
 
 
     /** Get {@link #mContext}. */
@@ -435,10 +722,26 @@ public class LocalSocketManager {
 
     @Nullable private static native JniResult acceptNative(@NonNull String serverTitle, int fd);
 
+    @Nullable private static native JniResult createEventLoopNative(@NonNull String serverTitle, int fd, @NonNull int[] fds);
+
+    @Nullable private static native JniResult watchClientNative(@NonNull String serverTitle, int epollFd, int clientFd);
+
+    @Nullable private static native JniResult waitForEventsNative(@NonNull String serverTitle, int epollFd, int serverFd, int eventFd, @NonNull int[] events, int timeout);
+
+    @Nullable private static native JniResult wakeEventLoopNative(@NonNull String serverTitle, int eventFd);
+
     @Nullable private static native JniResult readNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
 
     @Nullable private static native JniResult sendNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
 
+    @Nullable private static native JniResult readBytesNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, long deadline);
+
+    @Nullable private static native JniResult sendBytesNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, long deadline);
+
+    @Nullable private static native JniResult sendFdsNative(@NonNull String serverTitle, int fd, @NonNull int[] fds, @NonNull byte[] data, int offset, int length, long deadline);
+
+    @Nullable private static native JniResult receiveFdsNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, int offset, int length, @NonNull int[] fds, long deadline);
+
     @Nullable private static native JniResult availableNative(@NonNull String serverTitle, int fd);
 
     private static native JniResult setSocketReadTimeoutNative(@NonNull String serverTitle, int fd, int timeout);
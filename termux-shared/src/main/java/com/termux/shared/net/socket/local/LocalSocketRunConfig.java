@@ -94,6 +94,22 @@ public class LocalSocketRunConfig implements Serializable {
     protected Integer mBacklog;
     public static final int DEFAULT_BACKLOG = 50;
 
+    /**
+     * The max number of threads that run {@link ILocalSocketManager} callbacks for clients at the
+     * same time. Value must be greater than 0.
+     * Defaults to {@link #DEFAULT_MAX_CLIENT_THREADS}.
+     */
+    protected Integer mMaxClientThreads;
+    public static final int DEFAULT_MAX_CLIENT_THREADS = 8;
+
+    /**
+     * The max number of clients that may wait for a free client thread. Clients beyond this limit
+     * are rejected and closed. Value must be greater than 0.
+     * Defaults to {@link #DEFAULT_MAX_QUEUED_CLIENTS}.
+     */
+    protected Integer mMaxQueuedClients;
+    public static final int DEFAULT_MAX_QUEUED_CLIENTS = 200;
+
 
     /**
      * Create an new instance of {@link LocalSocketRunConfig}.
@@ -194,6 +210,28 @@ public class LocalSocketRunConfig implements Serializable {
             mBacklog = backlog;
     }
 
+    /** Get {@link #mMaxClientThreads} if set, otherwise {@link #DEFAULT_MAX_CLIENT_THREADS}. */
+    public Integer getMaxClientThreads() {
+        return mMaxClientThreads != null ? mMaxClientThreads : DEFAULT_MAX_CLIENT_THREADS;
+    }
+
+    /** Set {@link #mMaxClientThreads}. Value must be greater than 0. */
+    public void setMaxClientThreads(Integer maxClientThreads) {
+        if (maxClientThreads > 0)
+            mMaxClientThreads = maxClientThreads;
+    }
+
+    /** Get {@link #mMaxQueuedClients} if set, otherwise {@link #DEFAULT_MAX_QUEUED_CLIENTS}. */
+    public Integer getMaxQueuedClients() {
+        return mMaxQueuedClients != null ? mMaxQueuedClients : DEFAULT_MAX_QUEUED_CLIENTS;
+    }
+
+    /** Set {@link #mMaxQueuedClients}. Value must be greater than 0. */
+    public void setMaxQueuedClients(Integer maxQueuedClients) {
+        if (maxQueuedClients > 0)
+            mMaxQueuedClients = maxQueuedClients;
+    }
+
 
     /**
      * Get a log {@link String} for {@link LocalSocketRunConfig}.
@@ -221,6 +259,8 @@ public class LocalSocketRunConfig implements Serializable {
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("SendTimeout", getSendTimeout(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Deadline", getDeadline(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Backlog", getBacklog(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxClientThreads", getMaxClientThreads(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxQueuedClients", getMaxQueuedClients(), "-"));
 
         return logString.toString();
     }
@@ -250,6 +290,8 @@ public class LocalSocketRunConfig implements Serializable {
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("SendTimeout", getSendTimeout(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Deadline", getDeadline(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Backlog", getBacklog(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxClientThreads", getMaxClientThreads(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxQueuedClients", getMaxQueuedClients(), "-"));
 
         return markdownString.toString();
     }
@@ -0,0 +1,101 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incrementally decodes UTF-8 bytes and splits them into lines like
+ * {@link java.io.BufferedReader#readLine()} does: '\n', '\r' and "\r\n" end a line, and a
+ * final line without a line ending is returned by {@link #finish()}. Malformed input is replaced.
+ *
+ * Characters split across calls to {@link #decode(byte[], int, int)} are decoded correctly.
+ */
+public final class LineDecoder {
+
+    /** Line callback interface */
+    public interface OnLineListener {
+        /**
+         * Called for each complete line, without the line ending.
+         *
+         * @param line The line. It is only valid until the callback returns.
+         */
+        void onLine(@NonNull CharSequence line);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OnLineListener mOnLineListener;
+
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder mLine = new StringBuilder();
+    private boolean mSkipLF;
+
+    public LineDecoder(@NonNull OnLineListener onLineListener) {
+        mOnLineListener = onLineListener;
+    }
+
+    public void decode(@NonNull byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            int count = Math.min(length, mBytes.remaining());
+            mBytes.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+
+            mBytes.flip();
+            decode(false);
+            mBytes.compact();
+        }
+    }
+
+    /** Decode any remaining bytes and call the listener for the final line, if not empty. */
+    public void finish() {
+        mBytes.flip();
+        decode(true);
+        mBytes.clear();
+        if (mLine.length() > 0)
+            onLine();
+    }
+
+    private void decode(boolean endOfInput) {
+        while (true) {
+            boolean overflow = mDecoder.decode(mBytes, mChars, endOfInput).isOverflow();
+            if (!overflow && endOfInput)
+                overflow = mDecoder.flush(mChars).isOverflow();
+            mChars.flip();
+            processChars();
+            mChars.clear();
+            if (!overflow) break;
+        }
+    }
+
+    private void processChars() {
+        while (mChars.hasRemaining()) {
+            char c = mChars.get();
+            if (mSkipLF) {
+                mSkipLF = false;
+                if (c == '\n') continue;
+            }
+            if (c == '\n' || c == '\r') {
+                mSkipLF = c == '\r';
+                onLine();
+            } else {
+                mLine.append(c);
+            }
+        }
+    }
+
+    private void onLine() {
+        mOnLineListener.onLine(mLine);
+        mLine.setLength(0);
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A registry of shells, like terminal sessions or background tasks, that can be read from any
+ * thread without locking.
+ *
+ * Shells are indexed by handle, shell name and pid in concurrent maps for O(1) lookups, and the
+ * ordered list of shells is published as an immutable snapshot that can be handed to UI adapters
+ * as is. Writes are serialized and replace the snapshot, so readers always see a consistent list.
+ * Changes are published to {@link Listener}s after the write lock is released.
+ *
+ * Since the shell name and pid may only be known or may change after a shell is added, callers
+ * must call {@link #reindex(Object)} after changing them.
+ */
+public class ShellRegistry<T> {
+
+    /** Extracts the lookup keys of a shell. Each key may be {@code null} if not known (yet). */
+    public interface KeyExtractor<T> {
+        @Nullable String getHandle(@NonNull T shell);
+        @Nullable String getShellName(@NonNull T shell);
+        /** Returns the pid, or a value {@code <= 0} if not known. */
+        int getPid(@NonNull T shell);
+    }
+
+    /** Listener for changes in the registry. Called on the thread that made the change. */
+    public interface Listener<T> {
+        /**
+         * Called after a shell has been added or removed.
+         *
+         * @param shells The immutable snapshot of shells after the change.
+         */
+        void onShellsChanged(@NonNull List<T> shells);
+    }
+
+    private final KeyExtractor<T> mKeyExtractor;
+
+    private final Object mWriteLock = new Object();
+
+    private volatile List<T> mShells = Collections.emptyList();
+    private volatile Map<T, Integer> mIndexes = Collections.emptyMap();
+
+    private final Map<String, T> mShellsByHandle = new ConcurrentHashMap<>();
+    private final Map<String, T> mShellsByName = new ConcurrentHashMap<>();
+    private final Map<Integer, T> mShellsByPid = new ConcurrentHashMap<>();
+
+    /** The keys each shell is currently indexed with, so that they can be removed on change. Guarded by {@link #mWriteLock}. */
+    private final Map<T, Object[]> mIndexedKeys = new IdentityHashMap<>();
+
+    private final List<Listener<T>> mListeners = new CopyOnWriteArrayList<>();
+
+    public ShellRegistry(@NonNull KeyExtractor<T> keyExtractor) {
+        mKeyExtractor = keyExtractor;
+    }
+
+    /** Add a shell at the end of the list. Does nothing if it is already registered. */
+    public void add(@NonNull T shell) {
+        List<T> shells;
+        synchronized (mWriteLock) {
+            if (mIndexedKeys.containsKey(shell)) return;
+            List<T> newShells = new ArrayList<>(mShells.size() + 1);
+            newShells.addAll(mShells);
+            newShells.add(shell);
+            shells = publish(newShells);
+            index(shell);
+        }
+        notifyListeners(shells);
+    }
+
+    /**
+     * Remove a shell.
+     *
+     * @return Returns {@code true} if the shell was registered.
+     */
+    public boolean remove(@Nullable T shell) {
+        if (shell == null) return false;
+        List<T> shells;
+        synchronized (mWriteLock) {
+            Integer index = mIndexes.get(shell);
+            if (index == null) return false;
+            List<T> newShells = new ArrayList<>(mShells);
+            newShells.remove((int) index);
+            unindex(shell);
+            shells = publish(newShells);
+        }
+        notifyListeners(shells);
+        return true;
+    }
+
+    /** Update the handle, shell name and pid indexes of a shell after they have changed. */
+    public void reindex(@Nullable T shell) {
+        if (shell == null) return;
+        synchronized (mWriteLock) {
+            if (!mIndexedKeys.containsKey(shell)) return;
+            unindex(shell);
+            index(shell);
+        }
+    }
+
+    /** Get the immutable snapshot of all shells in the order they were added. */
+    @NonNull
+    public List<T> getShells() {
+        return mShells;
+    }
+
+    public int size() {
+        return mShells.size();
+    }
+
+    public boolean isEmpty() {
+        return mShells.isEmpty();
+    }
+
+    @Nullable
+    public T get(int index) {
+        List<T> shells = mShells;
+        return index >= 0 && index < shells.size() ? shells.get(index) : null;
+    }
+
+    @Nullable
+    public T getLast() {
+        List<T> shells = mShells;
+        return shells.isEmpty() ? null : shells.get(shells.size() - 1);
+    }
+
+    /** Get the index of a shell in {@link #getShells()}, or {@code -1} if not registered. */
+    public int indexOf(@Nullable T shell) {
+        if (shell == null) return -1;
+        Integer index = mIndexes.get(shell);
+        return index != null ? index : -1;
+    }
+
+    public boolean contains(@Nullable T shell) {
+        return indexOf(shell) >= 0;
+    }
+
+    @Nullable
+    public T getForHandle(@Nullable String handle) {
+        return DataUtils.isNullOrEmpty(handle) ? null : mShellsByHandle.get(handle);
+    }
+
+    @Nullable
+    public T getForShellName(@Nullable String shellName) {
+        return DataUtils.isNullOrEmpty(shellName) ? null : mShellsByName.get(shellName);
+    }
+
+    @Nullable
+    public T getForPid(int pid) {
+        return pid > 0 ? mShellsByPid.get(pid) : null;
+    }
+
+    public void addListener(@NonNull Listener<T> listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener<T> listener) {
+        mListeners.remove(listener);
+    }
+
+
+
+    /** Publish a new snapshot and its index map. Must be called with {@link #mWriteLock} held. */
+    private List<T> publish(List<T> newShells) {
+        Map<T, Integer> indexes = new IdentityHashMap<>(newShells.size());
+        for (int i = 0; i < newShells.size(); i++)
+            indexes.put(newShells.get(i), i);
+        List<T> shells = Collections.unmodifiableList(newShells);
+        mIndexes = indexes;
+        mShells = shells;
+        return shells;
+    }
+
+    /** Must be called with {@link #mWriteLock} held. */
+    private void index(T shell) {
+        String handle = mKeyExtractor.getHandle(shell);
+        String shellName = mKeyExtractor.getShellName(shell);
+        int pid = mKeyExtractor.getPid(shell);
+
+        if (!DataUtils.isNullOrEmpty(handle)) mShellsByHandle.put(handle, shell);
+        // If multiple shells have the same name, the first one added is returned like the old linear scan did
+        if (!DataUtils.isNullOrEmpty(shellName)) mShellsByName.putIfAbsent(shellName, shell);
+        if (pid > 0) mShellsByPid.put(pid, shell);
+        mIndexedKeys.put(shell, new Object[]{handle, shellName, pid});
+    }
+
+    /** Must be called with {@link #mWriteLock} held. */
+    private void unindex(T shell) {
+        Object[] keys = mIndexedKeys.remove(shell);
+        if (keys == null) return;
+
+        if (keys[0] != null) mShellsByHandle.remove((String) keys[0], shell);
+        if (keys[2] != null && (int) keys[2] > 0) mShellsByPid.remove((Integer) keys[2], shell);
+        String shellName = (String) keys[1];
+        if (shellName != null && mShellsByName.remove(shellName, shell)) {
+            // Promote the next shell with the same name, if any
+            for (T other : mShells) {
+                if (other != shell && shellName.equals(indexedShellName(other))) {
+                    mShellsByName.put(shellName, other);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private String indexedShellName(T shell) {
+        Object[] keys = mIndexedKeys.get(shell);
+        return keys != null ? (String) keys[1] : null;
+    }
+
+    private void notifyListeners(List<T> shells) {
+        for (Listener<T> listener : mListeners)
+            listener.onShellsChanged(shells);
+    }
+
+}
@@ -51,6 +51,9 @@ public class ShellUtils {
     public static String getTerminalSessionTranscriptText(TerminalSession terminalSession, boolean linesJoined, boolean trim) {
         if (terminalSession == null) return null;
 
+        // The transcript is only kept by the full engine, so materialize it if the session is lightweight
+        terminalSession.materialize();
+
         TerminalEmulator terminalEmulator = terminalSession.getEmulator();
         if (terminalEmulator == null) return null;
 
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
-import java.util.Locale;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -29,6 +28,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.result.OutputCapture;
 
 /**
  * Thread utility class continuously reading from an InputStream
@@ -77,13 +77,15 @@ public class StreamGobbler extends Thread {
     private final String shell;
     @NonNull
     private final InputStream inputStream;
-    @NonNull
+    @Nullable
     private final BufferedReader reader;
     @Nullable
     private final List<String> listWriter;
     @Nullable
     private final StringBuilder stringWriter;
     @Nullable
+    private final OutputCapture outputCapture;
+    @Nullable
     private final OnLineListener lineListener;
     @Nullable
     private final OnStreamClosedListener streamClosedListener;
@@ -92,6 +94,8 @@ public class StreamGobbler extends Thread {
     private volatile boolean active = true;
     private volatile boolean calledOnClose = false;
 
+    private static final int BUFFER_SIZE = 8192;
+
     private static final String LOG_TAG = "StreamGobbler";
 
     /**
@@ -119,6 +123,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = outputList;
         stringWriter = null;
+        outputCapture = null;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -151,6 +156,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = outputString;
+        outputCapture = null;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -183,37 +189,72 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = null;
+        outputCapture = null;
         lineListener = onLineListener;
 
         mLogLevel = logLevel;
     }
 
+    /**
+     * <p>StreamGobbler constructor</p>
+     *
+     * <p>Reads the stream as bytes into a reusable buffer instead of as lines, so that binary
+     * output and line endings are preserved and memory usage is bounded by the {@link OutputCapture}.
+     * Lines are only decoded if logging is enabled.</p>
+     *
+     * @param shell Name of the shell
+     * @param inputStream InputStream to read from
+     * @param outputCapture {@link OutputCapture} to write to. It is closed when the stream ends.
+     * @param onStreamClosedListener OnStreamClosedListener callback
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     */
+    @AnyThread
+    public StreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                         @NonNull OutputCapture outputCapture,
+                         @Nullable OnStreamClosedListener onStreamClosedListener,
+                         @Nullable Integer logLevel) {
+        super("Gobbler#" + incThreadCounter());
+        this.shell = shell;
+        this.inputStream = inputStream;
+        reader = null;
+        streamClosedListener = onStreamClosedListener;
+
+        listWriter = null;
+        stringWriter = null;
+        this.outputCapture = outputCapture;
+        lineListener = null;
+
+        mLogLevel = logLevel;
+    }
+
     @Override
     public void run() {
-        String defaultLogTag = Logger.getDefaultLogTag();
         boolean loggingEnabled = Logger.shouldEnableLoggingForCustomLogLevel(mLogLevel);
-        if (loggingEnabled)
+        // The tag and line prefix are built once instead of formatting every logged line
+        String logTag = null;
+        String logLinePrefix = null;
+        if (loggingEnabled) {
             Logger.logVerbose(LOG_TAG, "Using custom log level: " + mLogLevel + ", current log level: " + Logger.getLogLevel());
+            logTag = Logger.getDefaultLogTag() + "Command";
+            logLinePrefix = "[" + shell + "] ";
+        }
 
         // keep reading the InputStream until it ends (or an error occurs)
         // optionally pausing when a command is executed that consumes the InputStream itself
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (loggingEnabled)
-                    Logger.logVerboseForce(defaultLogTag + "Command", String.format(Locale.ENGLISH, "[%s] %s", shell, line)); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
-
-                if (stringWriter != null) stringWriter.append(line).append("\n");
-                if (listWriter != null) listWriter.add(line);
-                if (lineListener != null) lineListener.onLine(line);
-                while (!active) {
-                    synchronized (this) {
-                        try {
-                            this.wait(128);
-                        } catch (InterruptedException e) {
-                            // no action
-                        }
-                    }
+            if (reader == null) {
+                gobbleBytes(logTag, logLinePrefix);
+            } else {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (loggingEnabled)
+                        logLine(logTag, logLinePrefix, line);
+
+                    if (stringWriter != null) stringWriter.append(line).append("\n");
+                    if (listWriter != null) listWriter.add(line);
+                    if (lineListener != null) lineListener.onLine(line);
+                    waitWhileSuspended();
                 }
             }
         } catch (IOException e) {
@@ -226,11 +267,17 @@ public class StreamGobbler extends Thread {
 
         // make sure our stream is closed and resources will be freed
         try {
-            reader.close();
+            if (reader != null)
+                reader.close();
+            else
+                inputStream.close();
         } catch (IOException e) {
             // read already closed
         }
 
+        if (outputCapture != null)
+            outputCapture.close();
+
         if (!calledOnClose) {
             if (streamClosedListener != null) {
                 calledOnClose = true;
@@ -239,6 +286,39 @@ public class StreamGobbler extends Thread {
         }
     }
 
+    /** Read the stream into the {@link #outputCapture} until it ends. */
+    private void gobbleBytes(@Nullable String logTag, @Nullable String logLinePrefix) throws IOException {
+        if (outputCapture == null) return;
+        LineDecoder lineDecoder = logTag != null ? new LineDecoder(line -> logLine(logTag, logLinePrefix, line)) : null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputCapture.write(buffer, 0, count);
+                if (lineDecoder != null) lineDecoder.decode(buffer, 0, count);
+                waitWhileSuspended();
+            }
+        } finally {
+            if (lineDecoder != null) lineDecoder.finish();
+        }
+    }
+
+    private static void logLine(@NonNull String logTag, @NonNull String logLinePrefix, @NonNull CharSequence line) {
+        Logger.logVerboseForce(logTag, logLinePrefix + line); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+    }
+
+    private void waitWhileSuspended() {
+        while (!active) {
+            synchronized (this) {
+                try {
+                    this.wait(128);
+                } catch (InterruptedException e) {
+                    // no action
+                }
+            }
+        }
+    }
+
     /**
      * <p>Resume consuming the input from the stream</p>
      */
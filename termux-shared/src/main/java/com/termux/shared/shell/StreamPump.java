@@ -0,0 +1,349 @@
+package com.termux.shared.shell;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.result.OutputCapture;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the output streams of many processes on a single thread instead of one {@link StreamGobbler}
+ * thread per stream.
+ *
+ * The pipe file descriptors are multiplexed with {@link Os#poll(StructPollfd[], int)} and data is
+ * only read from a stream once it is readable, so the pump thread never blocks on a single stream.
+ * Output is either written as bytes to an {@link OutputCapture}, or split into lines with a
+ * {@link LineDecoder} and appended to a {@link StringBuilder} with a trailing newline. Lines are
+ * logged like {@link StreamGobbler} does.
+ *
+ * Reads always go through the {@link InputStream} of the {@link Process} and never through the
+ * file descriptor directly, since the process reaper may drain the remaining pipe data into the
+ * stream and close the pipe when the process exits. A duplicate of the file descriptor is only
+ * polled for readiness. Streams whose file descriptor cannot be found are read with blocking reads
+ * on a fallback thread instead.
+ */
+public final class StreamPump {
+
+    /** Stream closed callback interface */
+    public interface OnStreamClosedListener {
+        /** Called on the pump thread after the stream has reached end of file and has been closed. */
+        void onStreamClosed();
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static StreamPump sInstance;
+
+    private final Queue<Stream> mPendingStreams = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+    private final FileDescriptor mWakeupReadFd;
+    private final FileDescriptor mWakeupWriteFd;
+
+    private final ExecutorService mFallbackExecutor;
+
+    private static final String LOG_TAG = "StreamPump";
+
+    private StreamPump() throws ErrnoException {
+        FileDescriptor[] wakeupPipe = Os.pipe();
+        mWakeupReadFd = wakeupPipe[0];
+        mWakeupWriteFd = wakeupPipe[1];
+
+        AtomicInteger fallbackThreadCounter = new AtomicInteger();
+        mFallbackExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "StreamPumpFallback#" + fallbackThreadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread thread = new Thread(this::run, "StreamPump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the {@link StreamPump} instance. The pump thread is started on first call.
+     *
+     * @return Returns the {@link StreamPump}, or {@code null} if the wakeup pipe could not be created.
+     */
+    @Nullable
+    public static synchronized StreamPump getInstance() {
+        if (sInstance == null) {
+            try {
+                sInstance = new StreamPump();
+            } catch (ErrnoException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create StreamPump wakeup pipe", e);
+                return null;
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start reading an {@link InputStream} until it reaches end of file. The stream is closed
+     * afterwards.
+     *
+     * @param shell Name of the shell, used in log lines.
+     * @param inputStream The {@link InputStream} to read from.
+     * @param outputString The {@link StringBuilder} to append lines to. It must not be accessed by
+     *                     other threads until {@code onStreamClosedListener} is called.
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     * @param onStreamClosedListener The {@link OnStreamClosedListener} to call after the stream is closed.
+     */
+    public void pump(@NonNull String shell, @NonNull InputStream inputStream,
+                     @NonNull StringBuilder outputString, @Nullable Integer logLevel,
+                     @NonNull OnStreamClosedListener onStreamClosedListener) {
+        pump(new Stream(shell, inputStream, outputString, null, logLevel, onStreamClosedListener));
+    }
+
+    /**
+     * Start reading an {@link InputStream} as bytes into an {@link OutputCapture} until it reaches
+     * end of file. The stream and the capture are closed afterwards. Lines are only decoded if
+     * logging is enabled.
+     *
+     * @param shell Name of the shell, used in log lines.
+     * @param inputStream The {@link InputStream} to read from.
+     * @param outputCapture The {@link OutputCapture} to write to.
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     * @param onStreamClosedListener The {@link OnStreamClosedListener} to call after the stream is closed.
+     */
+    public void pump(@NonNull String shell, @NonNull InputStream inputStream,
+                     @NonNull OutputCapture outputCapture, @Nullable Integer logLevel,
+                     @NonNull OnStreamClosedListener onStreamClosedListener) {
+        pump(new Stream(shell, inputStream, null, outputCapture, logLevel, onStreamClosedListener));
+    }
+
+    private void pump(@NonNull Stream stream) {
+        if (stream.loggingEnabled)
+            Logger.logVerbose(LOG_TAG, "Using custom log level: " + stream.logLevel + ", current log level: " + Logger.getLogLevel());
+
+        stream.pollFd = dupFileDescriptor(stream.inputStream);
+        if (stream.pollFd == null) {
+            fallback(stream);
+            return;
+        }
+
+        mPendingStreams.add(stream);
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (!mWakeupPending.compareAndSet(false, true)) return;
+        try {
+            Os.write(mWakeupWriteFd, new byte[]{1}, 0, 1);
+        } catch (ErrnoException | InterruptedIOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to wake up StreamPump", e);
+        }
+    }
+
+    private void run() {
+        List<Stream> streams = new ArrayList<>();
+        byte[] wakeupBuffer = new byte[64];
+        // All streams are read on this thread, so they can share one buffer
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        while (true) {
+            Stream pending;
+            while ((pending = mPendingStreams.poll()) != null)
+                streams.add(pending);
+
+            StructPollfd[] pollFds = new StructPollfd[streams.size() + 1];
+            pollFds[0] = newPollFd(mWakeupReadFd);
+            for (int i = 0; i < streams.size(); i++)
+                pollFds[i + 1] = newPollFd(streams.get(i).pollFd);
+
+            try {
+                Os.poll(pollFds, -1);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EINTR) continue;
+                Logger.logStackTraceWithMessage(LOG_TAG, "StreamPump poll failed", e);
+                // Hand over all streams to blocking reads so that they are not leaked
+                for (Stream stream : streams)
+                    fallback(stream);
+                streams.clear();
+                continue;
+            }
+
+            if (pollFds[0].revents != 0) {
+                mWakeupPending.set(false);
+                try {
+                    Os.read(mWakeupReadFd, wakeupBuffer, 0, wakeupBuffer.length);
+                } catch (ErrnoException | InterruptedIOException ignored) {
+                }
+            }
+
+            for (int i = streams.size() - 1; i >= 0; i--) {
+                short revents = pollFds[i + 1].revents;
+                if (revents == 0) continue;
+
+                Stream stream = streams.get(i);
+                if ((revents & OsConstants.POLLNVAL) != 0) {
+                    // Should not happen since the fd is our own duplicate, but never block the pump on it
+                    streams.remove(i);
+                    fallback(stream);
+                } else if (!stream.read(buffer)) {
+                    // Readable with POLLIN or at end of file with POLLHUP, so reading does not block
+                    streams.remove(i);
+                    stream.close();
+                }
+            }
+        }
+    }
+
+    private void fallback(@NonNull Stream stream) {
+        mFallbackExecutor.execute(() -> {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (stream.read(buffer)) { /* read until end of file */ }
+            stream.close();
+        });
+    }
+
+    @NonNull
+    private static StructPollfd newPollFd(@NonNull FileDescriptor fd) {
+        StructPollfd pollFd = new StructPollfd();
+        pollFd.fd = fd;
+        pollFd.events = (short) OsConstants.POLLIN;
+        return pollFd;
+    }
+
+    /**
+     * Find the pipe {@link FileDescriptor} of a {@link Process} stream and duplicate it for polling.
+     *
+     * The stream is locked while doing so, since the process reaper replaces the wrapped stream and
+     * closes the pipe while holding the same lock when the process exits.
+     *
+     * @return Returns the duplicated {@link FileDescriptor}, or {@code null} if not found.
+     */
+    @Nullable
+    private static FileDescriptor dupFileDescriptor(@NonNull InputStream inputStream) {
+        synchronized (inputStream) {
+            try {
+                InputStream in = inputStream;
+                Field inField = FilterInputStream.class.getDeclaredField("in");
+                inField.setAccessible(true);
+                while (in instanceof FilterInputStream)
+                    in = (InputStream) inField.get(in);
+                if (!(in instanceof FileInputStream)) return null;
+
+                FileDescriptor fd = ((FileInputStream) in).getFD();
+                return fd.valid() ? Os.dup(fd) : null;
+            } catch (Exception e) {
+                Logger.logDebug(LOG_TAG, "Failed to get stream file descriptor, using blocking reads: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+
+
+    private static final class Stream {
+
+        final String shell;
+        final InputStream inputStream;
+        @Nullable final StringBuilder outputString;
+        @Nullable final OutputCapture outputCapture;
+        @Nullable final Integer logLevel;
+        final boolean loggingEnabled;
+        final OnStreamClosedListener onStreamClosedListener;
+        /** The tag and line prefix for logged lines, which are only built if logging is enabled. */
+        @Nullable final String logTag;
+        @Nullable final String logLinePrefix;
+
+        /** Only needed if lines are appended to {@link #outputString} or logged. */
+        @Nullable final LineDecoder lineDecoder;
+
+        FileDescriptor pollFd;
+
+        Stream(String shell, InputStream inputStream, StringBuilder outputString, OutputCapture outputCapture,
+               Integer logLevel, OnStreamClosedListener onStreamClosedListener) {
+            this.shell = shell;
+            this.inputStream = inputStream;
+            this.outputString = outputString;
+            this.outputCapture = outputCapture;
+            this.logLevel = logLevel;
+            this.loggingEnabled = Logger.shouldEnableLoggingForCustomLogLevel(logLevel);
+            this.logTag = loggingEnabled ? Logger.getDefaultLogTag() + "Command" : null;
+            this.logLinePrefix = loggingEnabled ? "[" + shell + "] " : null;
+            this.onStreamClosedListener = onStreamClosedListener;
+            this.lineDecoder = (outputString != null || loggingEnabled) ? new LineDecoder(this::onLine) : null;
+        }
+
+        /**
+         * Read once from the stream into {@code buffer} and process the bytes.
+         *
+         * @return Returns {@code false} if end of file was reached or reading failed.
+         */
+        boolean read(@NonNull byte[] buffer) {
+            int count;
+            try {
+                count = inputStream.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                // Stream probably closed, expected exit condition
+                count = -1;
+            }
+
+            if (count < 0) {
+                if (lineDecoder != null)
+                    lineDecoder.finish();
+                return false;
+            }
+
+            if (outputCapture != null)
+                outputCapture.write(buffer, 0, count);
+            if (lineDecoder != null)
+                lineDecoder.decode(buffer, 0, count);
+            return true;
+        }
+
+        private void onLine(@NonNull CharSequence line) {
+            if (loggingEnabled)
+                Logger.logVerboseForce(logTag, logLinePrefix + line); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+            if (outputString != null)
+                outputString.append(line).append("\n");
+        }
+
+        void close() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Stream already closed
+            }
+
+            if (outputCapture != null)
+                outputCapture.close();
+
+            if (pollFd != null) {
+                try {
+                    Os.close(pollFd);
+                } catch (ErrnoException e) {
+                    // Already closed
+                }
+            }
+
+            onStreamClosedListener.onStreamClosed();
+        }
+    }
+
+}
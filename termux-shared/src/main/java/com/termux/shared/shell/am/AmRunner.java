@@ -0,0 +1,195 @@
+package com.termux.shared.shell.am;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.termux.am.Am;
+import com.termux.shared.R;
+import com.termux.shared.android.PackageUtils;
+import com.termux.shared.android.PermissionUtils;
+import com.termux.shared.errors.Error;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.ArgumentTokenizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Runs am commands with termux-am-library. Each thread gets its own {@link AmRunner} from
+ * {@link #getInstance(Context)}, which keeps the same {@link Am} instance and stdout and stderr
+ * buffers for all the commands run on that thread, so that running a command does not need to
+ * create them again. The output of a command stays in the buffers until the next command is run
+ * and can be written directly to a stream with {@link #writeStdoutTo(OutputStream)} and
+ * {@link #writeStderrTo(OutputStream)}.
+ */
+public class AmRunner {
+
+    /** The max size of an output buffer that is kept for the next command. Larger buffers are released. */
+    public static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    /** The am command run by {@link #warmUp(Context)}. It only converts an intent to an uri. */
+    private static final String WARM_UP_AM_COMMAND = "to-intent-uri -a android.intent.action.VIEW -d file:///dev/null";
+
+    private static final ThreadLocal<AmRunner> RUNNER = new ThreadLocal<>();
+
+    private static final String LOG_TAG = "AmRunner";
+
+    private final Application mApplication;
+
+    private ByteArrayOutputStream mStdout;
+    private ByteArrayOutputStream mStderr;
+    private PrintStream mStdoutPrintStream;
+    private PrintStream mStderrPrintStream;
+    private Am mAm;
+
+    private AmRunner(@NonNull Application application) {
+        mApplication = application;
+        init();
+    }
+
+    private void init() {
+        mStdout = new ByteArrayOutputStream();
+        mStderr = new ByteArrayOutputStream();
+        mStdoutPrintStream = new PrintStream(mStdout);
+        mStderrPrintStream = new PrintStream(mStderr);
+        mAm = new Am(mStdoutPrintStream, mStderrPrintStream, mApplication);
+    }
+
+    /**
+     * Get the {@link AmRunner} for the current thread.
+     *
+     * @param context The {@link Context} whose {@link Application} the am commands are run with.
+     * @return Returns the {@link AmRunner}.
+     */
+    @NonNull
+    public static AmRunner getInstance(@NonNull Context context) {
+        Application application = (Application) context.getApplicationContext();
+        AmRunner amRunner = RUNNER.get();
+        if (amRunner == null || amRunner.mApplication != application) {
+            amRunner = new AmRunner(application);
+            RUNNER.set(amRunner);
+        }
+        return amRunner;
+    }
+
+    /**
+     * Load the termux-am-library classes and run its intent parsing once on a background thread,
+     * so that the first am command received by the server does not pay for it.
+     *
+     * @param context The {@link Context} whose {@link Application} the am commands are run with.
+     */
+    public static void warmUp(@NonNull Context context) {
+        Context applicationContext = context.getApplicationContext();
+        Thread thread = new Thread(() -> {
+            try {
+                AmRunner amRunner = getInstance(applicationContext);
+                String[] amCommandArray = ArgumentTokenizer.tokenize(WARM_UP_AM_COMMAND).toArray(new String[0]);
+                Error error = amRunner.run(amCommandArray, false);
+                if (error != null)
+                    Logger.logDebug(LOG_TAG, () -> "Warm up am command failed\n" + error);
+                amRunner.reset();
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to warm up am runner", e);
+            } finally {
+                RUNNER.remove();
+            }
+        }, "AmRunnerWarmUp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run an am command. The stdout and stderr buffers are reset before the command is run.
+     *
+     * @param amCommandArray The am command array.
+     * @param checkDisplayOverAppsPermission Check if {@link Manifest.permission#SYSTEM_ALERT_WINDOW}
+     *                                       has been granted if running on Android `>= 10` and
+     *                                       starting activity or service.
+     * @return Returns the {@code error} if am command failed, otherwise {@code null}.
+     */
+    public Error run(@NonNull String[] amCommandArray, boolean checkDisplayOverAppsPermission) {
+        reset();
+
+        try {
+            if (checkDisplayOverAppsPermission && amCommandArray.length >= 1 &&
+                (amCommandArray[0].equals("start") || amCommandArray[0].equals("startservice")) &&
+                !PermissionUtils.validateDisplayOverOtherAppsPermissionForPostAndroid10(mApplication, true)) {
+                throw new IllegalStateException(mApplication.getString(R.string.error_display_over_other_apps_permission_not_granted,
+                    PackageUtils.getAppNameForPackage(mApplication)));
+            }
+
+            mAm.run(amCommandArray);
+        } catch (Exception e) {
+            return AmSocketServerErrno.ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION.getError(e, Arrays.toString(amCommandArray), e.getMessage());
+        } finally {
+            mStdoutPrintStream.flush();
+            mStderrPrintStream.flush();
+        }
+
+        return null;
+    }
+
+    /**
+     * Reset the stdout and stderr buffers. If the buffers have grown larger than
+     * {@link #MAX_RETAINED_BUFFER_SIZE}, then they are released and a new {@link Am} is created.
+     */
+    public void reset() {
+        mStdoutPrintStream.flush();
+        mStderrPrintStream.flush();
+        if (mStdout.size() > MAX_RETAINED_BUFFER_SIZE || mStderr.size() > MAX_RETAINED_BUFFER_SIZE) {
+            init();
+        } else {
+            mStdout.reset();
+            mStderr.reset();
+        }
+    }
+
+    /** Append {@code error} to stderr, separated from any existing stderr with an empty line. */
+    public void appendError(@NonNull Error error) {
+        mStderrPrintStream.flush();
+        if (mStderr.size() > 0)
+            mStderrPrintStream.print("\n\n");
+        mStderrPrintStream.print(error);
+        mStderrPrintStream.flush();
+    }
+
+    /** Get the size in bytes of the stdout of the last command. */
+    public int getStdoutSize() {
+        return mStdout.size();
+    }
+
+    /** Get the size in bytes of the stderr of the last command. */
+    public int getStderrSize() {
+        return mStderr.size();
+    }
+
+    /** Write the stdout bytes of the last command to {@code outputStream} without copying them. */
+    public void writeStdoutTo(@NonNull OutputStream outputStream) throws IOException {
+        mStdout.writeTo(outputStream);
+    }
+
+    /** Write the stderr bytes of the last command to {@code outputStream} without copying them. */
+    public void writeStderrTo(@NonNull OutputStream outputStream) throws IOException {
+        mStderr.writeTo(outputStream);
+    }
+
+    /** Get the stdout of the last command as a {@link String}. */
+    @NonNull
+    public String getStdout() {
+        return new String(mStdout.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Get the stderr of the last command as a {@link String}. */
+    @NonNull
+    public String getStderr() {
+        return new String(mStderr.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
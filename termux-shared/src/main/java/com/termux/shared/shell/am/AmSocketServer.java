@@ -1,29 +1,29 @@
 package com.termux.shared.shell.am;
 
 import android.Manifest;
-import android.app.Application;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.termux.am.Am;
-import com.termux.shared.R;
-import com.termux.shared.android.PackageUtils;
-import com.termux.shared.android.PermissionUtils;
+import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Error;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.net.socket.local.ILocalSocketManager;
 import com.termux.shared.net.socket.local.LocalClientSocket;
 import com.termux.shared.net.socket.local.LocalServerSocket;
+import com.termux.shared.net.socket.local.LocalSocketErrno;
 import com.termux.shared.net.socket.local.LocalSocketManager;
 import com.termux.shared.net.socket.local.LocalSocketManagerClientBase;
 import com.termux.shared.net.socket.local.LocalSocketRunConfig;
 import com.termux.shared.shell.ArgumentTokenizer;
 import com.termux.shared.shell.command.ExecutionCommand;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +40,21 @@ import java.util.List;
  * back in the format `exit_code\0stdout\0stderr\0` where `\0` represents a null character.
  * Check termux/termux-am-socket for implementation of a native c client.
  *
+ * Clients that need to run multiple am commands can instead use the framed protocol to send all
+ * of them over a single connection. The client must first send {@link #FRAMED_PROTOCOL_HEADER},
+ * which the server sends back. Each request is then sent as `request_id` and `length` followed
+ * by `length` bytes of the UTF-8 am command, and the server replies for each request in order with
+ * `request_id`, `exit_code`, `stdout_length`, `stdout`, `stderr_length` and `stderr`. All
+ * integers are 4 byte big endian values. Requests may be pipelined, the client does not need to
+ * wait for a result before sending the next request. The client closes its output stream once
+ * done, after which the server closes the connection. The server also closes the connection if
+ * the client does not send a request within {@link LocalSocketRunConfig#getDeadline()}.
+ *
+ * Since a framed connection keeps a client thread for as long as it is open, only
+ * {@link AmSocketServerRunConfig#getMaxFramedClients()} framed connections are allowed at the same
+ * time, and further framed connections are closed without sending back the header, so that they
+ * cannot starve the legacy clients of client threads.
+ *
  * Usage:
  * 1. Optionally extend {@link AmSocketServerClient}, the implementation for
  *    {@link ILocalSocketManager} that will receive call backs from the server including
@@ -61,6 +76,16 @@ public class AmSocketServer {
 
     public static final String LOG_TAG = "AmSocketServer";
 
+    /**
+     * The header a client must send at the start of the connection to use the framed protocol.
+     * It starts with a null character since that will never be the first character of an
+     * am command sent with the legacy protocol.
+     */
+    public static final byte[] FRAMED_PROTOCOL_HEADER = new byte[] {0, 'T', 'A', 'M', 'F', 'R', 'M', '1'};
+
+    /** The max size in bytes of an am command that can be sent with the framed protocol. */
+    public static final int MAX_FRAMED_REQUEST_SIZE = 1024 * 1024;
+
     /**
      * Create the {@link AmSocketServer} {@link LocalServerSocket} and start listening for new {@link LocalClientSocket}.
      *
@@ -76,52 +101,223 @@ public class AmSocketServer {
             return null;
         }
 
+        AmRunner.warmUp(context);
+
         return localSocketManager;
     }
 
+    /**
+     * Process a {@link LocalClientSocket} that connected to the am socket server. If the first
+     * byte sent by the client is a null character, then the client is expected to use the framed
+     * protocol and {@link #processFramedAmClient(LocalSocketManager, LocalClientSocket)} is called,
+     * otherwise the single am command sent by the client is run and its result sent back.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that connected.
+     */
     public static void processAmClient(@NonNull LocalSocketManager localSocketManager,
                                        @NonNull LocalClientSocket clientSocket) {
         Error error;
 
+        // Check if client wants to use the framed protocol
+        LocalClientSocket.MutableInt firstByte = new LocalClientSocket.MutableInt(-1);
+        error = clientSocket.peek(firstByte);
+        if (error == null && firstByte.value == 0) {
+            processFramedAmClient(localSocketManager, clientSocket);
+            return;
+        }
+
         // Read amCommandString client sent and close input stream
         StringBuilder data = new StringBuilder();
-        error = clientSocket.readDataOnInputStream(data, true);
+        if (error == null)
+            error = clientSocket.readDataOnInputStream(data, true);
         if (error != null) {
             sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
             return;
         }
 
-        String amCommandString = data.toString();
+        // Run am command and send its result to the client
+        AmRunner amRunner = AmRunner.getInstance(localSocketManager.getContext());
+        int exitCode = processAmCommand(localSocketManager, clientSocket, data.toString(), amRunner);
+        sendResultToClient(localSocketManager, clientSocket, exitCode, amRunner);
+    }
+
+    /**
+     * Process a {@link LocalClientSocket} that uses the framed protocol. Multiple am commands
+     * are read and run one after the other on the same connection until the client closes its
+     * output stream. The client may send the next request before receiving the result of the
+     * previous one, results are always sent in the order the requests were received. The
+     * {@link LocalSocketRunConfig#getDeadline()} applies to each request separately, and a client
+     * that stays idle past it is closed like at end of file. If
+     * {@link AmSocketServerRunConfig#getMaxFramedClients()} framed connections are already open,
+     * then the client is closed without sending back the header.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that connected.
+     */
+    public static void processFramedAmClient(@NonNull LocalSocketManager localSocketManager,
+                                             @NonNull LocalClientSocket clientSocket) {
+        AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
+        if (!amSocketServerRunConfig.tryAcquireFramedClient()) {
+            Logger.logWarn(LOG_TAG, "Rejecting framed protocol client since " + amSocketServerRunConfig.getMaxFramedClients() +
+                " framed connections are already open: " + clientSocket.getPeerCred().getMinimalString());
+            return;
+        }
+
+        try {
+            runFramedAmClient(localSocketManager, clientSocket);
+        } finally {
+            amSocketServerRunConfig.releaseFramedClient();
+        }
+    }
+
+    private static void runFramedAmClient(@NonNull LocalSocketManager localSocketManager,
+                                          @NonNull LocalClientSocket clientSocket) {
+        Error error;
+
+        try {
+            DataInputStream inputStream = new DataInputStream(clientSocket.getInputStream());
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+
+            byte[] header = new byte[FRAMED_PROTOCOL_HEADER.length];
+            inputStream.readFully(header);
+            if (!Arrays.equals(header, FRAMED_PROTOCOL_HEADER)) {
+                localSocketManager.onError(clientSocket, AmSocketServerErrno.ERRNO_INVALID_FRAMED_PROTOCOL_HEADER.getError(
+                    clientSocket.getPeerCred().getMinimalString()));
+                return;
+            }
+            outputStream.write(FRAMED_PROTOCOL_HEADER);
+            outputStream.flush();
+
+            AmRunner amRunner = AmRunner.getInstance(localSocketManager.getContext());
+            LocalClientSocket.MutableInt nextByte = new LocalClientSocket.MutableInt(-1);
+            while (true) {
+                // Wait for next request or end of file
+                clientSocket.startDeadline();
+                error = clientSocket.peek(nextByte);
+                if (error != null) {
+                    // The client did not send a request before the deadline or receive timeout, which
+                    // is a normal close of an idle connection and not an error
+                    Logger.logDebug(LOG_TAG, "Closing idle framed protocol client " + clientSocket.getPeerCred().getMinimalString() +
+                        ": " + error.getMinimalErrorString());
+                    outputStream.flush();
+                    return;
+                }
+                if (nextByte.value == -1) {
+                    outputStream.flush();
+                    return;
+                }
+
+                int requestId = inputStream.readInt();
+                int length = inputStream.readInt();
+                if (length < 0 || length > MAX_FRAMED_REQUEST_SIZE) {
+                    localSocketManager.onError(clientSocket, AmSocketServerErrno.ERRNO_FRAMED_REQUEST_TOO_LARGE.getError(
+                        clientSocket.getPeerCred().getMinimalString(), length, MAX_FRAMED_REQUEST_SIZE));
+                    return;
+                }
+                byte[] amCommandBytes = new byte[length];
+                inputStream.readFully(amCommandBytes);
+
+                int exitCode = processAmCommand(localSocketManager, clientSocket,
+                    new String(amCommandBytes, StandardCharsets.UTF_8), amRunner);
+
+                outputStream.writeInt(requestId);
+                outputStream.writeInt(sanitizeExitCode(clientSocket, exitCode));
+                outputStream.writeInt(amRunner.getStdoutSize());
+                amRunner.writeStdoutTo(outputStream);
+                outputStream.writeInt(amRunner.getStderrSize());
+                amRunner.writeStderrTo(outputStream);
+
+                // Only flush once all pipelined requests that have already been received are processed
+                if (inputStream.available() == 0)
+                    outputStream.flush();
+            }
+        } catch (IOException e) {
+            localSocketManager.onError(clientSocket, AmSocketServerErrno.ERRNO_FRAMED_PROTOCOL_FAILED_WITH_EXCEPTION.getError(e,
+                clientSocket.getPeerCred().getMinimalString(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Parse and run an am command received from a {@link LocalClientSocket}.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that sent the am command.
+     * @param amCommandString The am command {@link String} without the initial "am" arg.
+     * @param amRunner The {@link AmRunner} to run the am command with. Its stdout and stderr will
+     *                 contain the output of the am command, with the error appended to stderr
+     *                 if parsing or running the am command failed.
+     * @return Returns the exit code to send to the client.
+     */
+    public static int processAmCommand(@NonNull LocalSocketManager localSocketManager,
+                                       @NonNull LocalClientSocket clientSocket,
+                                       @NonNull String amCommandString,
+                                       @NonNull AmRunner amRunner) {
+        Error error;
+
+        amRunner.reset();
 
-        Logger.logVerbose(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+        Logger.logVerbose(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\nam command: `" + amCommandString + "`");
 
         // Parse am command string and convert it to a list of arguments
         List<String> amCommandList = new ArrayList<>();
         error = parseAmCommand(amCommandString, amCommandList);
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+            amRunner.appendError(error);
+            return 1;
         }
 
         String[] amCommandArray = amCommandList.toArray(new String[0]);
 
-        Logger.logDebug(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+        Logger.logDebug(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\n" + ExecutionCommand.getArgumentsLogString("am command", amCommandArray));
 
         AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
 
-        // Run am command and send its result to the client
-        StringBuilder stdout = new StringBuilder();
-        StringBuilder stderr = new StringBuilder();
-        error = runAmCommand(localSocketManager.getContext(), amCommandArray, stdout, stderr,
-            amSocketServerRunConfig.shouldCheckDisplayOverAppsPermission());
+        // Run am command
+        error = amRunner.run(amCommandArray, amSocketServerRunConfig.shouldCheckDisplayOverAppsPermission());
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, stdout.toString(),
-                !stderr.toString().isEmpty() ? stderr + "\n\n" + error : error.toString());
+            amRunner.appendError(error);
+            return 1;
         }
 
-        sendResultToClient(localSocketManager, clientSocket, 0, stdout.toString(), stderr.toString());
+        return 0;
+    }
+
+    /**
+     * Send result of the last am command run by {@code amRunner} to {@link LocalClientSocket} that
+     * requested the am command to be run. The stdout and stderr bytes are written directly to the
+     * socket without converting them to a {@link String}.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} to which the result is to be sent.
+     * @param exitCode The exit code value to send.
+     * @param amRunner The {@link AmRunner} that ran the am command.
+     */
+    public static void sendResultToClient(@NonNull LocalSocketManager localSocketManager,
+                                          @NonNull LocalClientSocket clientSocket,
+                                          int exitCode,
+                                          @NonNull AmRunner amRunner) {
+        OutputStream outputStream = clientSocket.getOutputStream();
+        try {
+            byte[] exitCodeBytes = (sanitizeExitCode(clientSocket, exitCode) + "\0").getBytes(StandardCharsets.UTF_8);
+            outputStream.write(exitCodeBytes, 0, exitCodeBytes.length);
+            amRunner.writeStdoutTo(outputStream);
+            outputStream.write(0);
+            amRunner.writeStderrTo(outputStream);
+            outputStream.flush();
+        } catch (IOException e) {
+            localSocketManager.onError(clientSocket, LocalSocketErrno.ERRNO_SEND_DATA_TO_OUTPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
+                localSocketManager.getLocalSocketRunConfig().getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1)));
+        } finally {
+            // Close output stream
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
     }
 
     /**
@@ -196,7 +392,7 @@ public class AmSocketServer {
     }
 
     /**
-     * Call termux-am-library to run the am command.
+     * Call termux-am-library to run the am command with the {@link AmRunner} of the current thread.
      *
      * @param context The {@link Context} to run am command with.
      * @param amCommandArray The am command array.
@@ -211,32 +407,14 @@ public class AmSocketServer {
                                      String[] amCommandArray,
                                      @NonNull StringBuilder stdout, @NonNull StringBuilder stderr,
                                      boolean checkDisplayOverAppsPermission) {
-        try (ByteArrayOutputStream stdoutByteStream = new ByteArrayOutputStream();
-             PrintStream stdoutPrintStream = new PrintStream(stdoutByteStream);
-             ByteArrayOutputStream stderrByteStream = new ByteArrayOutputStream();
-             PrintStream stderrPrintStream = new PrintStream(stderrByteStream)) {
-
-            if (checkDisplayOverAppsPermission && amCommandArray.length >= 1 &&
-                (amCommandArray[0].equals("start") || amCommandArray[0].equals("startservice")) &&
-                !PermissionUtils.validateDisplayOverOtherAppsPermissionForPostAndroid10(context, true)) {
-                throw new IllegalStateException(context.getString(R.string.error_display_over_other_apps_permission_not_granted,
-                    PackageUtils.getAppNameForPackage(context)));
-            }
-
-            new Am(stdoutPrintStream, stderrPrintStream, (Application) context.getApplicationContext()).run(amCommandArray);
-
-            // Set stdout to value set by am command in stdoutPrintStream
-            stdoutPrintStream.flush();
-            stdout.append(stdoutByteStream.toString(StandardCharsets.UTF_8.name()));
-
-            // Set stderr to value set by am command in stderrPrintStream
-            stderrPrintStream.flush();
-            stderr.append(stderrByteStream.toString(StandardCharsets.UTF_8.name()));
-        } catch (Exception e) {
-            return AmSocketServerErrno.ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION.getError(e, Arrays.toString(amCommandArray), e.getMessage());
-        }
-
-        return null;
+        AmRunner amRunner = AmRunner.getInstance(context);
+        Error error = amRunner.run(amCommandArray, checkDisplayOverAppsPermission);
+
+        // Set stdout and stderr to values set by am command
+        stdout.append(amRunner.getStdout());
+        stderr.append(amRunner.getStderr());
+        amRunner.reset();
+        return error;
     }
 
 
@@ -10,6 +10,9 @@ public class AmSocketServerErrno extends Errno {
     /** Errors for {@link AmSocketServer} (100-150) */
     public static final Errno ERRNO_PARSE_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 100, "Parse am command `%1$s` failed.\nException: %2$s");
     public static final Errno ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 101, "Run am command `%1$s` failed.\nException: %2$s");
+    public static final Errno ERRNO_INVALID_FRAMED_PROTOCOL_HEADER = new Errno(TYPE, 102, "Invalid framed protocol header received from peer %1$s.");
+    public static final Errno ERRNO_FRAMED_REQUEST_TOO_LARGE = new Errno(TYPE, 103, "Framed request size %2$s received from peer %1$s is invalid or exceeds the max size of %3$s bytes.");
+    public static final Errno ERRNO_FRAMED_PROTOCOL_FAILED_WITH_EXCEPTION = new Errno(TYPE, 104, "Framed protocol communication with peer %1$s failed.\nException: %2$s");
 
     AmSocketServerErrno(final String type, final int code, final String message) {
         super(type, code, message);
@@ -9,7 +9,10 @@ import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.net.socket.local.ILocalSocketManager;
 import com.termux.shared.net.socket.local.LocalSocketRunConfig;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Run config for {@link AmSocketServer}.
@@ -26,6 +29,21 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
     private Boolean mCheckDisplayOverAppsPermission;
     public static final boolean DEFAULT_CHECK_DISPLAY_OVER_APPS_PERMISSION = true;
 
+    /**
+     * The max number of framed protocol connections that can be open at the same time. Each one
+     * keeps a client thread until it is closed, so it must be well below
+     * {@link #getMaxClientThreads()} to leave threads for the legacy clients.
+     * Defaults to a quarter of {@link #getMaxClientThreads()}, and at least 1.
+     */
+    private Integer mMaxFramedClients;
+
+    /**
+     * The number of framed protocol connections currently open. It is not serialized, since the
+     * connections belong to the server that was running with this config, and is reset in
+     * {@link #readObject(ObjectInputStream)}.
+     */
+    private transient AtomicInteger mFramedClientsCount = new AtomicInteger();
+
     /**
      * Create an new instance of {@link AmSocketServerRunConfig}.
      *
@@ -48,6 +66,45 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
         mCheckDisplayOverAppsPermission = checkDisplayOverAppsPermission;
     }
 
+    /** Get {@link #mMaxFramedClients} if set, otherwise a quarter of {@link #getMaxClientThreads()}. */
+    public int getMaxFramedClients() {
+        return mMaxFramedClients != null ? mMaxFramedClients : Math.max(1, getMaxClientThreads() / 4);
+    }
+
+    /**
+     * Set {@link #mMaxFramedClients}. Value must be greater than 0 and less than {@link #getMaxClientThreads()}.
+     * If {@code null}, then the default is used.
+     */
+    public void setMaxFramedClients(Integer maxFramedClients) {
+        if (maxFramedClients == null || (maxFramedClients > 0 && maxFramedClients < getMaxClientThreads()))
+            mMaxFramedClients = maxFramedClients;
+    }
+
+    /**
+     * Reserve a slot for a framed protocol connection.
+     *
+     * @return Returns {@code true} if a slot was reserved, otherwise {@code false} if
+     * {@link #getMaxFramedClients()} framed connections are already open.
+     */
+    public boolean tryAcquireFramedClient() {
+        int maxFramedClients = getMaxFramedClients();
+        while (true) {
+            int count = mFramedClientsCount.get();
+            if (count >= maxFramedClients) return false;
+            if (mFramedClientsCount.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /** Release a slot reserved with {@link #tryAcquireFramedClient()}. */
+    public void releaseFramedClient() {
+        mFramedClientsCount.decrementAndGet();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        mFramedClientsCount = new AtomicInteger();
+    }
+
 
 
     /**
@@ -70,6 +127,7 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         logString.append("Am Command:");
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxFramedClients", getMaxFramedClients(), "-"));
 
         return logString.toString();
     }
@@ -93,6 +151,7 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         markdownString.append("## ").append("Am Command");
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxFramedClients", getMaxFramedClients(), "-"));
 
         return markdownString.toString();
     }
@@ -63,7 +63,13 @@ public class ExecutionCommand {
         TERMINAL_SESSION("terminal-session"),
 
         /** Run command in {@link AppShell}. */
-        APP_SHELL("app-shell");
+        APP_SHELL("app-shell"),
+
+        /**
+         * Run command in a headless {@link TerminalSession} that has a pseudo terminal but no
+         * terminal emulator until the user opens it.
+         */
+        HEADLESS_SESSION("headless-session");
 
         ///** Run command in {@link AdbShell}. */
         //ADB_SHELL("adb-shell"),
@@ -235,6 +241,11 @@ public class ExecutionCommand {
     /** Defines if processing results already called for this {@link ExecutionCommand}. */
     public boolean processingResultsAlreadyCalled;
 
+    /** The cached {@link #getCommandIdAndLabelLogString()} and the values it was built for. */
+    private volatile String mCommandIdAndLabelLogString;
+    private Integer mCommandIdAndLabelLogStringId;
+    private String mCommandIdAndLabelLogStringLabel;
+
     private static final String LOG_TAG = "ExecutionCommand";
 
 
@@ -548,7 +559,17 @@ public class ExecutionCommand {
     }
 
     public String getCommandIdAndLabelLogString() {
-        return getIdLogString() + getCommandLabelLogString();
+        // Cached since it is logged many times for every command, but id and commandLabel may change
+        Integer currentId = id;
+        String currentCommandLabel = commandLabel;
+        String logString = mCommandIdAndLabelLogString;
+        if (logString == null || currentId != mCommandIdAndLabelLogStringId || currentCommandLabel != mCommandIdAndLabelLogStringLabel) {
+            logString = getIdLogString() + getCommandLabelLogString();
+            mCommandIdAndLabelLogStringId = currentId;
+            mCommandIdAndLabelLogStringLabel = currentCommandLabel;
+            mCommandIdAndLabelLogString = logString;
+        }
+        return logString;
     }
 
     public String getExecutableLogString() {
@@ -83,7 +83,7 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
     @Override
     public HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                                 @NonNull ExecutionCommand executionCommand) {
-        HashMap<String, String> environment = getEnvironment(currentPackageContext, executionCommand.isFailsafe);
+        HashMap<String, String> environment = getEnvironmentTemplate(currentPackageContext, executionCommand.isFailsafe).copyEnvironment();
 
         String workingDirectory = executionCommand.workingDirectory;
         environment.put(ENV_PWD,
@@ -97,4 +97,12 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
         return environment;
     }
 
+    @NonNull
+    @Override
+    public String[] convertEnvironmentToEnviron(@NonNull Context currentPackageContext,
+                                                @NonNull ExecutionCommand executionCommand,
+                                                @NonNull HashMap<String, String> environment) {
+        return getEnvironmentTemplate(currentPackageContext, executionCommand.isFailsafe).toEnviron(environment);
+    }
+
 }
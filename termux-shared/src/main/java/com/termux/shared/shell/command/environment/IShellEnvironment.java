@@ -7,7 +7,9 @@ import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 public interface IShellEnvironment {
 
@@ -49,4 +51,22 @@ public interface IShellEnvironment {
     HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                          @NonNull ExecutionCommand executionCommand);
 
+    /**
+     * Convert the environment returned by {@link #setupShellCommandEnvironment(Context, ExecutionCommand)}
+     * to a sorted `environ` array to pass to the process.
+     *
+     * @param currentPackageContext The {@link Context} for the current package.
+     * @param executionCommand The {@link ExecutionCommand} for which the environment was set.
+     * @param environment The environment, including any additional variables.
+     * @return Should return the sorted `environ` array.
+     */
+    @NonNull
+    default String[] convertEnvironmentToEnviron(@NonNull Context currentPackageContext,
+                                                 @NonNull ExecutionCommand executionCommand,
+                                                 @NonNull HashMap<String, String> environment) {
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
 }
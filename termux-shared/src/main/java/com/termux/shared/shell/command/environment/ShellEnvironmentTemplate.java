@@ -0,0 +1,99 @@
+package com.termux.shared.shell.command.environment;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable base environment, like returned by {@link UnixShellEnvironment#getEnvironment(android.content.Context, boolean)},
+ * that is kept both as a map and as a sorted `environ` array, so that environments of commands
+ * built upon it can be converted to a sorted `environ` array without sorting all the variables again.
+ *
+ * The order of the `environ` array is the same as {@link Collections#sort(List)} on the
+ * `name=value` items returned by {@link ShellEnvironmentUtils#convertEnvironmentToEnviron(HashMap)}.
+ */
+public final class ShellEnvironmentTemplate {
+
+    private final Map<String, String> mEnvironment;
+    private final String[] mEnviron;
+    private final String[] mNames;
+
+    public ShellEnvironmentTemplate(@NonNull HashMap<String, String> environment) {
+        List<String> environList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environList);
+        mEnviron = environList.toArray(new String[0]);
+        mNames = new String[mEnviron.length];
+
+        HashMap<String, String> validEnvironment = new HashMap<>();
+        for (int i = 0; i < mEnviron.length; i++) {
+            int separator = mEnviron[i].indexOf('=');
+            mNames[i] = mEnviron[i].substring(0, separator);
+            validEnvironment.put(mNames[i], mEnviron[i].substring(separator + 1));
+        }
+        mEnvironment = Collections.unmodifiableMap(validEnvironment);
+    }
+
+    /** Get the environment. The returned map must not be modified. */
+    @NonNull
+    public Map<String, String> getEnvironment() {
+        return mEnvironment;
+    }
+
+    /** Get a modifiable copy of the environment. */
+    @NonNull
+    public HashMap<String, String> copyEnvironment() {
+        return new HashMap<>(mEnvironment);
+    }
+
+    /**
+     * Convert an environment built upon this template to a sorted `environ` array. The result is
+     * the same as sorting the items returned by {@link ShellEnvironmentUtils#convertEnvironmentToEnviron(HashMap)}
+     * for {@code environment}, but only the variables that were added to the template are sorted,
+     * and the items of variables that were not changed are reused.
+     *
+     * @param environment The environment. Variables of the template missing from it are not included.
+     * @return Returns the sorted `environ` array.
+     */
+    @NonNull
+    public String[] toEnviron(@NonNull HashMap<String, String> environment) {
+        List<String> added = null;
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            if (mEnvironment.containsKey(variable.getKey())) continue;
+            if (!ShellEnvironmentUtils.isValidEnvironmentVariableNameValuePair(variable.getKey(), variable.getValue(), true)) continue;
+            if (added == null) added = new ArrayList<>();
+            added.add(variable.getKey() + "=" + variable.getValue());
+        }
+        if (added != null)
+            Collections.sort(added);
+
+        List<String> environ = new ArrayList<>(mEnviron.length + (added != null ? added.size() : 0));
+        int addedIndex = 0;
+        for (int i = 0; i < mEnviron.length; i++) {
+            String value = environment.get(mNames[i]);
+            if (value == null) continue;
+
+            String item;
+            if (value.equals(mEnvironment.get(mNames[i])))
+                item = mEnviron[i];
+            else if (ShellEnvironmentUtils.isValidEnvironmentVariableValue(value))
+                item = mNames[i] + "=" + value;
+            else
+                continue;
+
+            // Names are unique and cannot contain '=', so the order of items is decided by their
+            // "name=" prefix alone and an item with a changed value keeps its position
+            while (added != null && addedIndex < added.size() && added.get(addedIndex).compareTo(item) < 0)
+                environ.add(added.get(addedIndex++));
+            environ.add(item);
+        }
+        while (added != null && addedIndex < added.size())
+            environ.add(added.get(addedIndex++));
+
+        return environ.toArray(new String[0]);
+    }
+
+}
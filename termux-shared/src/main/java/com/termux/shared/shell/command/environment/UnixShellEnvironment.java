@@ -61,6 +61,16 @@ public abstract class UnixShellEnvironment implements IShellEnvironment {
     public abstract HashMap<String, String> getEnvironment(@NonNull Context currentPackageContext,
                                                            boolean isFailSafe);
 
+    /**
+     * Get the {@link ShellEnvironmentTemplate} for {@link #getEnvironment(Context, boolean)}.
+     * Subclasses whose environment is expensive to build may cache it.
+     */
+    @NonNull
+    public ShellEnvironmentTemplate getEnvironmentTemplate(@NonNull Context currentPackageContext,
+                                                           boolean isFailSafe) {
+        return new ShellEnvironmentTemplate(getEnvironment(currentPackageContext, isFailSafe));
+    }
+
     @NonNull
     @Override
     public abstract String getDefaultWorkingDirectoryPath();
@@ -0,0 +1,425 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A bounded, byte-level capture of a command output stream.
+ *
+ * The first {@code headSize} bytes and the last {@code tailSize} bytes are kept in memory. If the
+ * output grows beyond that, the full output is spilled to a temp file, optionally up to a size
+ * limit, so that it can still be read with {@link #getInputStream()} without keeping it in memory.
+ * Output that fits in memory never touches the disk.
+ *
+ * Bytes are stored as is and only decoded as UTF-8 when {@link #toString()} is called, so binary
+ * output and line endings are preserved in the {@link InputStream}.
+ *
+ * All bytes can additionally be copied to a tee {@link OutputStream} as they are written, like
+ * for streaming the output to a caller with {@link ResultStreamWriter}.
+ *
+ * The capture must only be written by one thread. It may be read after {@link #close()}.
+ */
+public final class OutputCapture implements Closeable {
+
+    private final byte[] mHead;
+    private int mHeadLength;
+
+    private final byte[] mTail;
+    /** The index in {@link #mTail} where the next byte is written. */
+    private int mTailPosition;
+    private int mTailLength;
+
+    /** The total number of bytes written. */
+    private long mSize;
+
+    @Nullable private final File mSpillDirectory;
+    @Nullable private final String mSpillFilePrefix;
+    private final long mSpillLimit;
+    @Nullable private File mSpillFile;
+    @Nullable private FileOutputStream mSpillOutputStream;
+    private long mSpillLength;
+    private boolean mSpillFailed;
+    /** Whether {@link #delete()} was called, after which no spill file is created anymore. */
+    private boolean mDeleted;
+
+    @Nullable private OutputStream mTee;
+
+    private String mDecoded;
+
+    private static final String LOG_TAG = "OutputCapture";
+
+    /**
+     * Create an {@link OutputCapture} that only keeps the head and tail of the output.
+     *
+     * @param headSize The number of bytes to keep from the start of the output.
+     * @param tailSize The number of bytes to keep from the end of the output.
+     */
+    public OutputCapture(int headSize, int tailSize) {
+        this(headSize, tailSize, null, null, 0);
+    }
+
+    /**
+     * Create an {@link OutputCapture}.
+     *
+     * @param headSize The number of bytes to keep from the start of the output.
+     * @param tailSize The number of bytes to keep from the end of the output.
+     * @param spillDirectory The directory to create the spill file in, or {@code null} to not spill.
+     * @param spillFilePrefix The prefix for the spill file name.
+     * @param spillLimit The max number of bytes to write to the spill file, or {@code <= 0} for no limit.
+     */
+    public OutputCapture(int headSize, int tailSize, @Nullable File spillDirectory,
+                         @Nullable String spillFilePrefix, long spillLimit) {
+        mHead = new byte[headSize];
+        mTail = new byte[tailSize];
+        mSpillDirectory = spillDirectory;
+        mSpillFilePrefix = spillFilePrefix;
+        mSpillLimit = spillLimit > 0 ? spillLimit : Long.MAX_VALUE;
+    }
+
+    /**
+     * Set the {@link OutputStream} that all bytes written after this call are copied to. It is
+     * closed by {@link #close()}. If writing to it fails, it is closed and no longer written to.
+     */
+    public synchronized void setTee(@Nullable OutputStream tee) {
+        mTee = tee;
+    }
+
+    public synchronized void write(@NonNull byte[] buffer, int offset, int length) {
+        mSize += length;
+        mDecoded = null;
+
+        if (mTee != null)
+            tee(buffer, offset, length);
+
+        if (mHeadLength < mHead.length) {
+            int count = Math.min(length, mHead.length - mHeadLength);
+            System.arraycopy(buffer, offset, mHead, mHeadLength, count);
+            mHeadLength += count;
+            offset += count;
+            length -= count;
+            if (length == 0) return;
+        }
+
+        // Start spilling once the tail would overflow
+        if (mSpillOutputStream == null && mTailLength + length > mTail.length)
+            openSpillFile();
+        if (mSpillOutputStream != null)
+            spill(buffer, offset, length);
+
+        if (length >= mTail.length) {
+            System.arraycopy(buffer, offset + length - mTail.length, mTail, 0, mTail.length);
+            mTailPosition = 0;
+            mTailLength = mTail.length;
+            return;
+        }
+
+        int count = Math.min(length, mTail.length - mTailPosition);
+        System.arraycopy(buffer, offset, mTail, mTailPosition, count);
+        System.arraycopy(buffer, offset + count, mTail, 0, length - count);
+        mTailPosition = (mTailPosition + length) % mTail.length;
+        mTailLength = Math.min(mTailLength + length, mTail.length);
+    }
+
+    /** Create the spill file and write the output kept in memory so far to it. */
+    private void openSpillFile() {
+        if (mSpillFailed || mDeleted || mSpillDirectory == null) return;
+
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            mSpillDirectory.mkdirs();
+            mSpillFile = File.createTempFile(mSpillFilePrefix != null ? mSpillFilePrefix + "-" : "output-", ".out", mSpillDirectory);
+            mSpillOutputStream = new FileOutputStream(mSpillFile);
+        } catch (IOException e) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to create output spill file in \"" + mSpillDirectory + "\": " + e.getMessage());
+            mSpillFailed = true;
+            deleteSpillFile();
+            return;
+        }
+
+        // Nothing has been dropped from the tail yet, so head + tail is the full output
+        spill(mHead, 0, mHeadLength);
+        byte[] tail = getTail();
+        spill(tail, 0, tail.length);
+    }
+
+    private void spill(byte[] buffer, int offset, int length) {
+        if (mSpillOutputStream == null) return;
+        int count = (int) Math.min(length, mSpillLimit - mSpillLength);
+        if (count <= 0) return;
+
+        try {
+            mSpillOutputStream.write(buffer, offset, count);
+            mSpillLength += count;
+        } catch (IOException e) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to write to output spill file \"" + mSpillFile + "\": " + e.getMessage());
+            mSpillFailed = true;
+            closeSpillOutputStream();
+        }
+    }
+
+    private void tee(byte[] buffer, int offset, int length) {
+        try {
+            mTee.write(buffer, offset, length);
+        } catch (IOException e) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to write to output tee: " + e.getMessage());
+            closeTee();
+        }
+    }
+
+    /** Close the spill file and the tee. The capture can still be read afterwards. */
+    @Override
+    public synchronized void close() {
+        closeSpillOutputStream();
+        closeTee();
+    }
+
+    private void closeTee() {
+        if (mTee == null) return;
+        try {
+            mTee.close();
+        } catch (IOException e) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to close output tee: " + e.getMessage());
+        }
+        mTee = null;
+    }
+
+    private void closeSpillOutputStream() {
+        if (mSpillOutputStream == null) return;
+        try {
+            mSpillOutputStream.close();
+        } catch (IOException e) {
+            mSpillFailed = true;
+        }
+        mSpillOutputStream = null;
+    }
+
+    /**
+     * Close the tee and close and delete the spill file, if any. The head and tail remain readable.
+     * Output written afterwards, like by a command that is still running, is no longer spilled.
+     */
+    public synchronized void delete() {
+        mDeleted = true;
+        closeSpillOutputStream();
+        closeTee();
+        deleteSpillFile();
+    }
+
+    private void deleteSpillFile() {
+        if (mSpillFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            mSpillFile.delete();
+            mSpillFile = null;
+            mSpillLength = 0;
+        }
+    }
+
+    /** Get the total number of bytes written, including bytes that were not kept. */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /** Get whether some of the output is not available from {@link #getInputStream()}. */
+    public synchronized boolean isTruncated() {
+        return getOmittedSize() > 0;
+    }
+
+    /** Get the spill file, or {@code null} if the output fit in memory or spilling failed. */
+    @Nullable
+    public synchronized File getSpillFile() {
+        return mSpillFailed ? null : mSpillFile;
+    }
+
+    /**
+     * Get an {@link InputStream} for the captured bytes. This is the full output if it fit in
+     * memory or in the spill file, otherwise a {@link #getOmittedMarker(long)} is inserted where
+     * bytes were dropped.
+     */
+    @NonNull
+    public synchronized InputStream getInputStream() {
+        List<InputStream> streams = new ArrayList<>(3);
+        long tailStart = mSize - mTailLength;
+
+        // The number of bytes from the start of the output that are read from the spill file or head
+        long kept = 0;
+        if (mSpillFile != null && !mSpillFailed) {
+            try {
+                streams.add(new BoundedInputStream(new FileInputStream(mSpillFile), mSpillLength));
+                kept = mSpillLength;
+            } catch (IOException e) {
+                Logger.logErrorExtended(LOG_TAG, "Failed to open output spill file \"" + mSpillFile + "\": " + e.getMessage());
+            }
+        }
+        if (streams.isEmpty()) {
+            streams.add(new ByteArrayInputStream(mHead, 0, mHeadLength));
+            kept = mHeadLength;
+        }
+
+        if (tailStart > kept)
+            streams.add(new ByteArrayInputStream(getOmittedMarker(tailStart - kept).getBytes(StandardCharsets.UTF_8)));
+
+        // The part of the tail that was already read from the spill file or head is skipped
+        byte[] tail = getTail();
+        int skip = (int) Math.min(tail.length, Math.max(0, kept - tailStart));
+        streams.add(new ByteArrayInputStream(tail, skip, tail.length - skip));
+
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Write the same bytes that {@link #getInputStream()} returns to a channel. The spill file is
+     * transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so the
+     * output is not copied through the Java heap.
+     *
+     * @param target The channel to write to.
+     * @return Returns the number of bytes written.
+     */
+    public synchronized long transferTo(@NonNull WritableByteChannel target) throws IOException {
+        long written = 0;
+        long tailStart = mSize - mTailLength;
+
+        long kept = -1;
+        if (mSpillFile != null && !mSpillFailed) {
+            try (FileInputStream spillInputStream = new FileInputStream(mSpillFile)) {
+                FileChannel spillChannel = spillInputStream.getChannel();
+                long count = Math.min(mSpillLength, spillChannel.size());
+                while (written < count) {
+                    long transferred = spillChannel.transferTo(written, count - written, target);
+                    if (transferred <= 0) break;
+                    written += transferred;
+                }
+                kept = written;
+            }
+        }
+        if (kept < 0) {
+            written += writeFully(target, ByteBuffer.wrap(mHead, 0, mHeadLength));
+            kept = mHeadLength;
+        }
+
+        if (tailStart > kept)
+            written += writeFully(target, ByteBuffer.wrap(getOmittedMarker(tailStart - kept).getBytes(StandardCharsets.UTF_8)));
+
+        byte[] tail = getTail();
+        int skip = (int) Math.min(tail.length, Math.max(0, kept - tailStart));
+        written += writeFully(target, ByteBuffer.wrap(tail, skip, tail.length - skip));
+
+        return written;
+    }
+
+    private static int writeFully(@NonNull WritableByteChannel target, @NonNull ByteBuffer buffer) throws IOException {
+        int count = buffer.remaining();
+        while (buffer.hasRemaining())
+            target.write(buffer);
+        return count;
+    }
+
+    /** Get the captured bytes decoded as UTF-8, with the omitted bytes replaced by a marker. */
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        if (mDecoded != null) return mDecoded;
+
+        long omitted = mSize - mHeadLength - mTailLength;
+        byte[] tail = getTail();
+        if (omitted <= 0) {
+            byte[] bytes = Arrays.copyOf(mHead, mHeadLength + tail.length);
+            System.arraycopy(tail, 0, bytes, mHeadLength, tail.length);
+            mDecoded = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            // Do not split characters at the cut points
+            int headEnd = getUtf8CharacterBoundary(mHead, mHeadLength);
+            int tailStart = 0;
+            while (tailStart < tail.length && tailStart < 3 && (tail[tailStart] & 0xC0) == 0x80)
+                tailStart++;
+
+            mDecoded = new String(mHead, 0, headEnd, StandardCharsets.UTF_8) +
+                getOmittedMarker(omitted + (mHeadLength - headEnd) + tailStart) +
+                new String(tail, tailStart, tail.length - tailStart, StandardCharsets.UTF_8);
+        }
+        return mDecoded;
+    }
+
+    /** Get the number of bytes that are neither in the spill file nor in memory. */
+    private long getOmittedSize() {
+        long kept = (mSpillFile != null && !mSpillFailed) ? mSpillLength : mHeadLength;
+        return Math.max(0, mSize - mTailLength - kept);
+    }
+
+    /** Get the tail bytes in order. */
+    @NonNull
+    private byte[] getTail() {
+        byte[] tail = new byte[mTailLength];
+        int start = (mTailPosition - mTailLength + mTail.length) % Math.max(1, mTail.length);
+        int count = Math.min(mTailLength, mTail.length - start);
+        System.arraycopy(mTail, start, tail, 0, count);
+        System.arraycopy(mTail, 0, tail, count, mTailLength - count);
+        return tail;
+    }
+
+    /** Get the length of the prefix of {@code bytes} that does not end in an incomplete UTF-8 character. */
+    private static int getUtf8CharacterBoundary(@NonNull byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0 && i >= length - 4; i--) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) == 0x80) continue; // continuation byte
+            int expected = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return length - i >= expected ? length : i;
+        }
+        return length;
+    }
+
+    @NonNull
+    public static String getOmittedMarker(long omitted) {
+        return String.format(Locale.ENGLISH, "\n[... %d bytes omitted ...]\n", omitted);
+    }
+
+
+
+    /** An {@link InputStream} that returns at most {@code limit} bytes of the wrapped stream. */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long mRemaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            mRemaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining <= 0) return -1;
+            int count = super.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (count > 0) mRemaining -= count;
+            return count;
+        }
+    }
+
+}
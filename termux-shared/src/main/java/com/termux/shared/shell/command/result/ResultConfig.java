@@ -49,6 +49,10 @@ public class ResultConfig {
     /** Defines the suffix of the result files that should be created in {@link #resultDirectoryPath}
      * if {@link #resultSingleFile} is {@code true}. */
     public String resultFilesSuffix;
+    /** Defines whether stdout and stderr should be streamed to the result files in
+     * {@link #resultDirectoryPath} while the command is running if {@link #resultSingleFile} is
+     * {@code false}. Check {@link ResultStreamWriter} for the file protocol. */
+    public boolean resultStreaming;
 
 
     public ResultConfig() {
@@ -135,6 +139,8 @@ public class ResultConfig {
             resultDirectoryVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result File Error Format", resultFileErrorFormat, "-"));
         if (!ignoreNull || resultFilesSuffix != null)
             resultDirectoryVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Files Suffix", resultFilesSuffix, "-"));
+        if (!ignoreNull || resultStreaming)
+            resultDirectoryVariablesString.append("\n").append(Logger.getSingleLineLogStringEntry("Result Streaming", resultStreaming, "-"));
 
         return resultDirectoryVariablesString.toString();
     }
@@ -162,6 +168,7 @@ public class ResultConfig {
             markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Result File Output Format", resultConfig.resultFileOutputFormat, "-"));
             markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Result File Error Format", resultConfig.resultFileErrorFormat, "-"));
             markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Result Files Suffix", resultConfig.resultFilesSuffix, "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Result Streaming", resultConfig.resultStreaming, "-"));
         }
 
         return markdownString.toString();
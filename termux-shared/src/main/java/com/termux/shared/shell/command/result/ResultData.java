@@ -8,17 +8,33 @@ import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.errors.Errno;
 import com.termux.shared.errors.Error;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class ResultData implements Serializable {
 
-    /** The stdout of command. */
+    /**
+     * The stdout of command. If {@link #stdoutCapture} is set, then this is only set after the
+     * command exits and is the truncated {@link OutputCapture#toString()}.
+     */
     public final StringBuilder stdout = new StringBuilder();
-    /** The stderr of command. */
+    /**
+     * The stderr of command. If {@link #stderrCapture} is set, then this is only set after the
+     * command exits and is the truncated {@link OutputCapture#toString()}.
+     */
     public final StringBuilder stderr = new StringBuilder();
+    /** The byte-level capture of stdout of command, if it was captured as bytes. */
+    public transient OutputCapture stdoutCapture;
+    /** The byte-level capture of stderr of command, if it was captured as bytes. */
+    public transient OutputCapture stderrCapture;
+    /** Whether stdout and stderr were streamed to the result files by {@link ResultStreamWriter}
+     * while the command was running, in which case they must not be written again. */
+    public transient boolean outputStreamed;
     /** The exit code of command. */
     public Integer exitCode;
 
@@ -30,6 +46,33 @@ public class ResultData implements Serializable {
     }
 
 
+    /**
+     * Get an {@link InputStream} for the stdout of command. This will be the full output spilled by
+     * the {@link #stdoutCapture} if set, otherwise the {@link #stdout}.
+     */
+    @NonNull
+    public InputStream getStdoutInputStream() {
+        OutputCapture capture = stdoutCapture;
+        return capture != null ? capture.getInputStream() : new ByteArrayInputStream(stdout.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get an {@link InputStream} for the stderr of command. This will be the full output spilled by
+     * the {@link #stderrCapture} if set, otherwise the {@link #stderr}.
+     */
+    @NonNull
+    public InputStream getStderrInputStream() {
+        OutputCapture capture = stderrCapture;
+        return capture != null ? capture.getInputStream() : new ByteArrayInputStream(stderr.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Delete the spill files of {@link #stdoutCapture} and {@link #stderrCapture}, if any. */
+    public void deleteOutputCaptures() {
+        if (stdoutCapture != null) stdoutCapture.delete();
+        if (stderrCapture != null) stderrCapture.delete();
+    }
+
+
     public void clearStdout() {
         stdout.setLength(0);
     }
@@ -0,0 +1,223 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.base.Strings;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.file.FileUtilsErrno;
+import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.markdown.MarkdownUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Formatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes result files for {@link ResultSender} directly to a {@link FileChannel}.
+ *
+ * {@link CharSequence} sources like {@link ResultData#stdout} are encoded as UTF-8 through a fixed
+ * size buffer without first being converted to a {@link String}, and {@link OutputCapture} sources
+ * are written with {@link OutputCapture#transferTo(java.nio.channels.WritableByteChannel)}, so the
+ * memory used does not depend on the size of the output.
+ */
+public final class ResultFileWriter implements Closeable {
+
+    /** The content of a result file. */
+    public interface Content {
+        void writeTo(@NonNull ResultFileWriter writer) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The {@link Formatter} specifiers that {@link #writeFormat(String, Content...)} supports. */
+    private static final Pattern FORMAT_SPECIFIER_PATTERN = Pattern.compile("%(?:([1-9][0-9]*)\\$)?([sn%])");
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private static final String LOG_TAG = "ResultFileWriter";
+
+    private ResultFileWriter(@NonNull FileChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Write a result file. Any existing file is truncated.
+     *
+     * @param label The label for the file.
+     * @param filePath The path for the file.
+     * @param content The content to write.
+     * @return Returns the {@link Error} if failed to write the file, otherwise {@code null}.
+     */
+    public static Error writeToFile(String label, @NonNull String filePath, @NonNull Content content) {
+        label = (label == null || label.isEmpty() ? "" : label + " ");
+
+        Logger.logVerbose(LOG_TAG, "Writing result to " + label + "file at path \"" + filePath + "\"");
+
+        // If file exists but not a regular file
+        FileType fileType = FileUtils.getFileType(filePath, false);
+        if (fileType != FileType.NO_EXIST && fileType != FileType.REGULAR)
+            return FileUtilsErrno.ERRNO_NON_REGULAR_FILE_FOUND.getError(label + "file", filePath).setLabel(label + "file");
+
+        try (ResultFileWriter writer = new ResultFileWriter(FileChannel.open(new File(filePath).toPath(),
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            content.writeTo(writer);
+            writer.flush();
+        } catch (Exception e) {
+            return FileUtilsErrno.ERRNO_WRITING_TEXT_TO_FILE_FAILED_WITH_EXCEPTION.getError(e, label + "file", filePath, e.getMessage());
+        }
+
+        return null;
+    }
+
+    /** Write {@code text} encoded as UTF-8. */
+    @NonNull
+    public ResultFileWriter write(@NonNull CharSequence text) throws IOException {
+        if (text.length() == 0) return this;
+
+        // CharBuffer.wrap() does not copy the chars of the CharSequence
+        CharBuffer chars = CharBuffer.wrap(text);
+        mEncoder.reset();
+        while (true) {
+            CoderResult result = mEncoder.encode(chars, mBuffer, true);
+            if (result.isUnderflow())
+                result = mEncoder.flush(mBuffer);
+            if (result.isOverflow()) {
+                drain();
+                continue;
+            }
+            if (result.isError())
+                result.throwException();
+            break;
+        }
+        return this;
+    }
+
+    /** Write the bytes of {@code capture}. */
+    @NonNull
+    public ResultFileWriter write(@NonNull OutputCapture capture) throws IOException {
+        flush();
+        capture.transferTo(mChannel);
+        return this;
+    }
+
+    /**
+     * Write {@code text} as a markdown code block, the same as
+     * {@link MarkdownUtils#getMarkdownCodeForString(String, boolean)} would return for it.
+     */
+    @NonNull
+    public ResultFileWriter writeMarkdownCodeBlock(@NonNull CharSequence text) throws IOException {
+        if (text.length() == 0) return this;
+
+        String backticks = Strings.repeat(MarkdownUtils.backtick, getMaxConsecutiveBackTicksCount(text) + 3);
+        return write(backticks).write("\n").write(text).write("\n").write(backticks);
+    }
+
+    /**
+     * Write a {@link Formatter} format string whose {@code %s} arguments are {@link Content}s,
+     * without building the formatted {@link String}. Only the {@code %s}, {@code %<index>$s},
+     * {@code %n} and {@code %%} specifiers are supported.
+     *
+     * @param format The format string. It must be supported as checked with {@link #isFormatSupported(String, int)}.
+     * @param args The arguments for the format string.
+     */
+    @NonNull
+    public ResultFileWriter writeFormat(@NonNull String format, @NonNull Content... args) throws IOException {
+        Matcher matcher = FORMAT_SPECIFIER_PATTERN.matcher(format);
+        int start = 0;
+        int nextArg = 0;
+        while (matcher.find()) {
+            write(format.subSequence(start, matcher.start()));
+            start = matcher.end();
+
+            char conversion = format.charAt(matcher.end() - 1);
+            if (conversion == 'n') {
+                write(System.lineSeparator());
+            } else if (conversion == '%') {
+                write("%");
+            } else {
+                String index = matcher.group(1);
+                args[index != null ? Integer.parseInt(index) - 1 : nextArg++].writeTo(this);
+            }
+        }
+        write(format.subSequence(start, format.length()));
+        return this;
+    }
+
+    /**
+     * Check if a {@link Formatter} format string can be written with {@link #writeFormat(String, Content...)}
+     * and produces the same output as {@link String#format(String, Object...)} would for
+     * {@link String} arguments.
+     *
+     * @param format The format string to check.
+     * @param argsCount The number of arguments that will be passed.
+     * @return Returns {@code true} if the format is supported, otherwise {@code false}.
+     */
+    public static boolean isFormatSupported(@NonNull String format, int argsCount) {
+        Matcher matcher = FORMAT_SPECIFIER_PATTERN.matcher(format);
+        int position = 0;
+        int nextArg = 0;
+        while ((position = format.indexOf('%', position)) != -1) {
+            if (!matcher.find(position) || matcher.start() != position)
+                return false;
+            String conversion = matcher.group(2);
+            if (conversion.equals("s")) {
+                String index = matcher.group(1);
+                int arg = index != null ? Integer.parseInt(index) : ++nextArg;
+                if (arg > argsCount) return false;
+            } else if (matcher.group(1) != null) {
+                return false;
+            }
+            position = matcher.end();
+        }
+        return true;
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void flush() throws IOException {
+        if (mBuffer.position() > 0)
+            drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    private static int getMaxConsecutiveBackTicksCount(@NonNull CharSequence text) {
+        int maxCount = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '`') {
+                count++;
+                if (count > maxCount) maxCount = count;
+            } else {
+                count = 0;
+            }
+        }
+        return maxCount;
+    }
+
+}
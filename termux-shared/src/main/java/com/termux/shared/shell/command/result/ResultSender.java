@@ -6,6 +6,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 
+import androidx.annotation.NonNull;
+
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.markdown.MarkdownUtils;
@@ -165,9 +167,6 @@ public class ResultSender {
 
         Error error;
 
-        String resultDataStdout = resultData.stdout.toString();
-        String resultDataStderr = resultData.stderr.toString();
-
         String resultDataExitCode = "";
         if (resultData.exitCode != null)
             resultDataExitCode = String.valueOf(resultData.exitCode);
@@ -196,6 +195,8 @@ public class ResultSender {
             return error;
         }
 
+        // The stdout and stderr are written from their buffers with ResultFileWriter instead of
+        // being formatted into a String first, since they may be large
         if (resultConfig.resultSingleFile) {
             // If resultFileBasename is null, empty or contains forward slashes "/"
             if (DataUtils.isNullOrEmpty(resultConfig.resultFileBasename) ||
@@ -204,54 +205,69 @@ public class ResultSender {
                 return error;
             }
 
-            String error_or_output;
+            ResultFileWriter.Content error_or_output;
 
+            final String errCode = String.valueOf(resultData.getErrCode());
+            final String errmsg = resultDataErrmsg;
+            final String exitCode = resultDataExitCode;
             if (resultData.isStateFailed()) {
-                try {
-                    if (DataUtils.isNullOrEmpty(resultConfig.resultFileErrorFormat)) {
-                        error_or_output = String.format(RESULT_SENDER.FORMAT_FAILED_ERR__ERRMSG__STDOUT__STDERR__EXIT_CODE,
-                            MarkdownUtils.getMarkdownCodeForString(String.valueOf(resultData.getErrCode()), false),
-                            MarkdownUtils.getMarkdownCodeForString(resultDataErrmsg, true),
-                            MarkdownUtils.getMarkdownCodeForString(resultDataStdout, true),
-                            MarkdownUtils.getMarkdownCodeForString(resultDataStderr, true),
-                            MarkdownUtils.getMarkdownCodeForString(resultDataExitCode, false));
-                    } else {
-                        error_or_output = String.format(resultConfig.resultFileErrorFormat,
-                            resultData.getErrCode(), resultDataErrmsg, resultDataStdout, resultDataStderr, resultDataExitCode);
+                if (DataUtils.isNullOrEmpty(resultConfig.resultFileErrorFormat)) {
+                    error_or_output = writer -> writer.writeFormat(RESULT_SENDER.FORMAT_FAILED_ERR__ERRMSG__STDOUT__STDERR__EXIT_CODE,
+                        w -> w.write(MarkdownUtils.getMarkdownCodeForString(errCode, false)),
+                        w -> w.write(MarkdownUtils.getMarkdownCodeForString(errmsg, true)),
+                        w -> w.writeMarkdownCodeBlock(resultData.stdout),
+                        w -> w.writeMarkdownCodeBlock(resultData.stderr),
+                        w -> w.write(MarkdownUtils.getMarkdownCodeForString(exitCode, false)));
+                } else if (ResultFileWriter.isFormatSupported(resultConfig.resultFileErrorFormat, 5)) {
+                    error_or_output = writer -> writer.writeFormat(resultConfig.resultFileErrorFormat,
+                        w -> w.write(errCode), w -> w.write(errmsg), w -> w.write(resultData.stdout),
+                        w -> w.write(resultData.stderr), w -> w.write(exitCode));
+                } else {
+                    final String formatted;
+                    try {
+                        formatted = String.format(resultConfig.resultFileErrorFormat,
+                            resultData.getErrCode(), resultDataErrmsg, resultData.stdout.toString(), resultData.stderr.toString(), resultDataExitCode);
+                    } catch (Exception e) {
+                        error = ResultSenderErrno.ERROR_FORMAT_RESULT_ERROR_FAILED_WITH_EXCEPTION.getError(e.getMessage());
+                        return error;
                     }
-                } catch (Exception e) {
-                    error = ResultSenderErrno.ERROR_FORMAT_RESULT_ERROR_FAILED_WITH_EXCEPTION.getError(e.getMessage());
-                    return error;
+                    error_or_output = writer -> writer.write(formatted);
                 }
             } else {
-                try {
-                    if (DataUtils.isNullOrEmpty(resultConfig.resultFileOutputFormat)) {
-                        if (resultDataStderr.isEmpty() && resultDataExitCode.equals("0"))
-                            error_or_output = String.format(RESULT_SENDER.FORMAT_SUCCESS_STDOUT, resultDataStdout);
-                        else if (resultDataStderr.isEmpty())
-                            error_or_output = String.format(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__EXIT_CODE,
-                                resultDataStdout,
-                                MarkdownUtils.getMarkdownCodeForString(resultDataExitCode, false));
-                        else
-                            error_or_output = String.format(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__STDERR__EXIT_CODE,
-                                MarkdownUtils.getMarkdownCodeForString(resultDataStdout, true),
-                                MarkdownUtils.getMarkdownCodeForString(resultDataStderr, true),
-                                MarkdownUtils.getMarkdownCodeForString(resultDataExitCode, false));
-                    } else {
-                        error_or_output = String.format(resultConfig.resultFileOutputFormat,
-                            resultDataStdout, resultDataStderr, resultDataExitCode);
+                if (DataUtils.isNullOrEmpty(resultConfig.resultFileOutputFormat)) {
+                    if (resultData.stderr.length() == 0 && resultDataExitCode.equals("0"))
+                        error_or_output = writer -> writer.writeFormat(RESULT_SENDER.FORMAT_SUCCESS_STDOUT,
+                            w -> w.write(resultData.stdout));
+                    else if (resultData.stderr.length() == 0)
+                        error_or_output = writer -> writer.writeFormat(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__EXIT_CODE,
+                            w -> w.write(resultData.stdout),
+                            w -> w.write(MarkdownUtils.getMarkdownCodeForString(exitCode, false)));
+                    else
+                        error_or_output = writer -> writer.writeFormat(RESULT_SENDER.FORMAT_SUCCESS_STDOUT__STDERR__EXIT_CODE,
+                            w -> w.writeMarkdownCodeBlock(resultData.stdout),
+                            w -> w.writeMarkdownCodeBlock(resultData.stderr),
+                            w -> w.write(MarkdownUtils.getMarkdownCodeForString(exitCode, false)));
+                } else if (ResultFileWriter.isFormatSupported(resultConfig.resultFileOutputFormat, 3)) {
+                    error_or_output = writer -> writer.writeFormat(resultConfig.resultFileOutputFormat,
+                        w -> w.write(resultData.stdout), w -> w.write(resultData.stderr), w -> w.write(exitCode));
+                } else {
+                    final String formatted;
+                    try {
+                        formatted = String.format(resultConfig.resultFileOutputFormat,
+                            resultData.stdout.toString(), resultData.stderr.toString(), resultDataExitCode);
+                    } catch (Exception e) {
+                        error = ResultSenderErrno.ERROR_FORMAT_RESULT_OUTPUT_FAILED_WITH_EXCEPTION.getError(e.getMessage());
+                        return error;
                     }
-                } catch (Exception e) {
-                    error = ResultSenderErrno.ERROR_FORMAT_RESULT_OUTPUT_FAILED_WITH_EXCEPTION.getError(e.getMessage());
-                    return error;
+                    error_or_output = writer -> writer.write(formatted);
                 }
             }
 
             // Write error or output to temp file
             // Check errCode file creation below for explanation for why temp file is used
             String temp_filename = resultConfig.resultFileBasename + "-" + AndroidUtils.getCurrentMilliSecondLocalTimeStamp();
-            error = FileUtils.writeTextToFile(temp_filename, resultConfig.resultDirectoryPath + "/" + temp_filename,
-                null, error_or_output, false);
+            error = ResultFileWriter.writeToFile(temp_filename, resultConfig.resultDirectoryPath + "/" + temp_filename,
+                error_or_output);
             if (error != null) {
                 return error;
             }
@@ -277,21 +293,22 @@ public class ResultSender {
 
             // Write result to result files under resultDirectoryPath
 
-            // Write stdout to file
-            if (!resultDataStdout.isEmpty()) {
+            // Write stdout to file, unless it was already streamed by ResultStreamWriter
+            // If the full stdout was captured, then it is transferred from its spill file
+            if (!resultData.outputStreamed && !isOutputEmpty(resultData.stdout, resultData.stdoutCapture)) {
                 filename = RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStdout, false);
+                error = ResultFileWriter.writeToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    getOutputContent(resultData.stdout, resultData.stdoutCapture));
                 if (error != null) {
                     return error;
                 }
             }
 
-            // Write stderr to file
-            if (!resultDataStderr.isEmpty()) {
+            // Write stderr to file, unless it was already streamed by ResultStreamWriter
+            if (!resultData.outputStreamed && !isOutputEmpty(resultData.stderr, resultData.stderrCapture)) {
                 filename = RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStderr, false);
+                error = ResultFileWriter.writeToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    getOutputContent(resultData.stderr, resultData.stderrCapture));
                 if (error != null) {
                     return error;
                 }
@@ -346,4 +363,16 @@ public class ResultSender {
         return null;
     }
 
+    private static boolean isOutputEmpty(@NonNull StringBuilder output, OutputCapture capture) {
+        return capture != null ? capture.getSize() == 0 : output.length() == 0;
+    }
+
+    @NonNull
+    private static ResultFileWriter.Content getOutputContent(@NonNull StringBuilder output, OutputCapture capture) {
+        if (capture != null)
+            return writer -> writer.write(capture);
+        else
+            return writer -> writer.write(output);
+    }
+
 }
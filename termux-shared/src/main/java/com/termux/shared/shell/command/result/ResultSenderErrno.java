@@ -13,6 +13,8 @@ public class ResultSenderErrno extends Errno {
     public static final Errno ERROR_RESULT_FILES_SUFFIX_INVALID = new Errno(TYPE, 101, "The result files suffix \"%1$s\" contains forward slashes \"/\".");
     public static final Errno ERROR_FORMAT_RESULT_ERROR_FAILED_WITH_EXCEPTION = new Errno(TYPE, 102, "Formatting result error failed.\nException: %1$s");
     public static final Errno ERROR_FORMAT_RESULT_OUTPUT_FAILED_WITH_EXCEPTION = new Errno(TYPE, 103, "Formatting result output failed.\nException: %1$s");
+    public static final Errno ERROR_RESULT_STREAM_FILE_NOT_REGULAR_FILE = new Errno(TYPE, 104, "The result stream file at path \"%1$s\" exists but is of type \"%2$s\" instead of a regular file.");
+    public static final Errno ERROR_OPENING_RESULT_STREAM_FILE_FAILED_WITH_EXCEPTION = new Errno(TYPE, 105, "Opening result stream file at path \"%1$s\" failed.\nException: %2$s");
 
 
     ResultSenderErrno(final String type, final int code, final String message) {
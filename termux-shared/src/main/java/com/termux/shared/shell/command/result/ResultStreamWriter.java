@@ -0,0 +1,121 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.errors.Error;
+import com.termux.shared.errors.FunctionErrno;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ShellCommandConstants.RESULT_SENDER;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Streams the stdout and stderr of a running command to the result files in
+ * {@link ResultConfig#resultDirectoryPath} if {@link ResultConfig#resultStreaming} is {@code true}
+ * and {@link ResultConfig#resultSingleFile} is {@code false}, so that callers can tail the output
+ * instead of waiting for the command to finish.
+ *
+ * The file protocol for a result directory with the files suffix {@code <suffix>} is:
+ *
+ * 1. When the command starts, any {@code err<suffix>}, {@code errmsg<suffix>} and
+ *    {@code exit_code<suffix>} files left over from an earlier command are deleted, and empty
+ *    {@code stdout<suffix>} and {@code stderr<suffix>} files are created, replacing existing files.
+ * 2. While the command is running, its raw output bytes are appended to the {@code stdout<suffix>}
+ *    and {@code stderr<suffix>} files as soon as they are read from the process, with one
+ *    {@code write()} per read and no {@code fsync()}. Callers can follow them with {@code tail -f}
+ *    or by polling their size. The output is not truncated and is not decoded.
+ * 3. After the command has exited and its output has been fully written, the
+ *    {@code exit_code<suffix>} file is written if the command ran and the {@code errmsg<suffix>}
+ *    file is written if it failed. Finally, the small {@code err<suffix>} status file is created
+ *    atomically by renaming a temp file. Once {@code err<suffix>} exists, all other result files
+ *    are complete.
+ *
+ * If streaming cannot be started, like if the command failed before starting or the result files
+ * could not be opened, then all the result files are written by
+ * {@link ResultSender#sendCommandResultDataToDirectory} after the command exits, like when
+ * streaming is disabled, and the same protocol for the {@code err<suffix>} file applies.
+ */
+public class ResultStreamWriter {
+
+    private static final String LOG_TAG = "ResultStreamWriter";
+
+    /**
+     * Start streaming the stdout and stderr of a command to the result files. The files are written
+     * by {@link ResultData#stdoutCapture} and {@link ResultData#stderrCapture} and closed when they
+     * are closed. On success, {@link ResultData#outputStreamed} is set to {@code true}.
+     *
+     * The {@link ResultConfig#resultDirectoryPath} must already have been canonicalized.
+     *
+     * @param logTag The log tag to use for logging.
+     * @param label The label for the command.
+     * @param resultConfig The {@link ResultConfig} object containing information on how to send the result.
+     * @param resultData The {@link ResultData} object whose output captures must be set.
+     * @return Returns the {@link Error} if failed to start streaming, otherwise {@code null}.
+     */
+    public static Error start(String logTag, String label, ResultConfig resultConfig, @NonNull ResultData resultData) {
+        if (resultConfig == null || DataUtils.isNullOrEmpty(resultConfig.resultDirectoryPath) ||
+            resultData.stdoutCapture == null || resultData.stderrCapture == null)
+            return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError("resultConfig, resultConfig.resultDirectoryPath, resultData.stdoutCapture or resultData.stderrCapture", "start");
+
+        logTag = DataUtils.getDefaultIfNull(logTag, LOG_TAG);
+
+        Error error = FileUtils.validateDirectoryFileExistenceAndPermissions("result", resultConfig.resultDirectoryPath,
+            resultConfig.resultDirectoryAllowedParentPath, true,
+            FileUtils.APP_WORKING_DIRECTORY_PERMISSIONS, true, true,
+            true, true);
+        if (error != null)
+            return error;
+
+        // Default to no suffix, same as ResultSender
+        if (resultConfig.resultFilesSuffix == null)
+            resultConfig.resultFilesSuffix = "";
+        if (resultConfig.resultFilesSuffix.contains("/"))
+            return ResultSenderErrno.ERROR_RESULT_FILES_SUFFIX_INVALID.getError(resultConfig.resultFilesSuffix);
+
+        // Delete status files of an earlier command so that callers do not assume the command already finished
+        for (String prefix : new String[]{RESULT_SENDER.RESULT_FILE_ERR_PREFIX, RESULT_SENDER.RESULT_FILE_ERRMSG_PREFIX, RESULT_SENDER.RESULT_FILE_EXIT_CODE_PREFIX}) {
+            String filename = prefix + resultConfig.resultFilesSuffix;
+            error = FileUtils.deleteRegularFile(filename, resultConfig.resultDirectoryPath + "/" + filename, true);
+            if (error != null)
+                return error;
+        }
+
+        String stdoutPath = resultConfig.resultDirectoryPath + "/" + RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
+        String stderrPath = resultConfig.resultDirectoryPath + "/" + RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
+
+        // Only regular files are written, since opening a fifo would block until it has a reader
+        for (String path : new String[]{stdoutPath, stderrPath}) {
+            FileType fileType = FileUtils.getFileType(path, false);
+            if (fileType != FileType.NO_EXIST && fileType != FileType.REGULAR)
+                return ResultSenderErrno.ERROR_RESULT_STREAM_FILE_NOT_REGULAR_FILE.getError(path, fileType.getName());
+        }
+
+        FileOutputStream stdout;
+        FileOutputStream stderr;
+        try {
+            stdout = new FileOutputStream(stdoutPath);
+        } catch (IOException e) {
+            return ResultSenderErrno.ERROR_OPENING_RESULT_STREAM_FILE_FAILED_WITH_EXCEPTION.getError(e, stdoutPath, e.getMessage());
+        }
+        try {
+            stderr = new FileOutputStream(stderrPath);
+        } catch (IOException e) {
+            try {
+                stdout.close();
+            } catch (IOException ignored) {}
+            return ResultSenderErrno.ERROR_OPENING_RESULT_STREAM_FILE_FAILED_WITH_EXCEPTION.getError(e, stderrPath, e.getMessage());
+        }
+
+        resultData.stdoutCapture.setTee(stdout);
+        resultData.stderrCapture.setTee(stderr);
+        resultData.outputStreamed = true;
+
+        Logger.logDebug(logTag, "Streaming output of command \"" + label + "\" to result directory \"" + resultConfig.resultDirectoryPath + "\"");
+        return null;
+    }
+
+}
@@ -12,45 +12,75 @@ import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+import com.termux.shared.shell.command.result.OutputCapture;
+import com.termux.shared.shell.command.result.ResultConfig;
 import com.termux.shared.shell.command.result.ResultData;
+import com.termux.shared.shell.command.result.ResultStreamWriter;
 import com.termux.shared.errors.Errno;
+import com.termux.shared.errors.Error;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand.ExecutionState;
 import com.termux.shared.shell.command.environment.IShellEnvironment;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.StreamGobbler;
+import com.termux.shared.shell.StreamPump;
+import com.termux.terminal.NativeProcess;
 
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A class that maintains info for background app shells run with {@link Runtime#exec(String[], String[], File)}.
+ * A class that maintains info for background app shells run with {@link NativeProcess#start(String[], String[], File)},
+ * or {@link Runtime#exec(String[], String[], File)} if the native library is not available.
  * It also provides a way to link each {@link Process} with the {@link ExecutionCommand}
  * that started it. The shell is run in the app user context.
+ *
+ * Asynchronous commands are queued on the {@link AppShellScheduler} and the process is only
+ * started once a worker is free, so {@link #getProcess()} is {@code null} until then. The output
+ * of all commands is read by the shared {@link StreamPump} thread, and no thread waits for a
+ * running process, which is reaped after it closed its output.
+ *
+ * If the {@link WarmShellPool} is enabled, then asynchronous plugin commands without stdin are run
+ * in one of its already started shells instead, in which case {@link #getProcess()} stays {@code null}.
  */
 public final class AppShell {
 
-    private final Process mProcess;
+    private volatile Process mProcess;
+    /** The stdin of the {@link #mProcess}, closed once the process has exited. */
+    private volatile DataOutputStream mStdin;
+    /** The pid of the command while it is running in a {@link WarmShellPool} shell, otherwise {@code -1}. */
+    private volatile int mWarmShellPid = -1;
     private final ExecutionCommand mExecutionCommand;
     private final AppShellClient mAppShellClient;
+    /** The directory to spill large output to. If {@code null}, output is read as lines instead of captured as bytes. */
+    @Nullable private final File mOutputSpillDirectory;
+
+    /** The number of bytes kept in memory from the start and from the end of captured output. */
+    public static final int OUTPUT_CAPTURE_HEAD_SIZE = 64 * 1024; // 64KB
+    public static final int OUTPUT_CAPTURE_TAIL_SIZE = 64 * 1024; // 64KB
+    /** The max size of the file captured output is spilled to. */
+    public static final long OUTPUT_SPILL_FILE_LIMIT = 256 * 1024 * 1024; // 256MB
+    /** The name of the directory under the app cache directory that captured output is spilled to. */
+    public static final String OUTPUT_SPILL_DIRECTORY_NAME = "app-shell-output";
 
     private static final String LOG_TAG = "AppShell";
 
-    private AppShell(@NonNull final Process process, @NonNull final ExecutionCommand executionCommand,
-                     final AppShellClient appShellClient) {
-        this.mProcess = process;
+    private AppShell(@NonNull final ExecutionCommand executionCommand,
+                     final AppShellClient appShellClient, @Nullable File outputSpillDirectory) {
         this.mExecutionCommand = executionCommand;
         this.mAppShellClient = appShellClient;
+        this.mOutputSpillDirectory = outputSpillDirectory;
     }
 
     /**
-     * Start execution of an {@link ExecutionCommand} with {@link Runtime#exec(String[], String[], File)}.
+     * Start execution of an {@link ExecutionCommand} with {@link NativeProcess#start(String[], String[], File)}
+     * or {@link Runtime#exec(String[], String[], File)}.
      *
      * The {@link ExecutionCommand#executable}, must be set.
      * The  {@link ExecutionCommand#commandLabel}, {@link ExecutionCommand#arguments} and
@@ -71,8 +101,13 @@ public final class AppShell {
      * @param isSynchronous If set to {@code true}, then the command will be executed in the
      *                      caller thread and results returned synchronously in the {@link ExecutionCommand}
      *                      sub object of the {@link AppShell} returned.
-     *                      If set to {@code false}, then a new thread is started run the commands
-     *                      asynchronously in the background and control is returned to the caller thread.
+     *                      If set to {@code false}, then the command is queued on the
+     *                      {@link AppShellScheduler} to run asynchronously in the background and
+     *                      control is returned to the caller thread. If the process then fails
+     *                      to start, the failure is reported with {@link AppShellClient#onAppShellExited(AppShell)}.
+     *                      The output is captured as bytes in {@link ResultData#stdoutCapture}
+     *                      and {@link ResultData#stderrCapture}, which the caller must delete
+     *                      with {@link ResultData#deleteOutputCaptures()} when done.
      * @return Returns the {@link AppShell}. This will be {@code null} if failed to start the execution command.
      */
     public static AppShell execute(@NonNull final Context currentPackageContext, @NonNull ExecutionCommand executionCommand,
@@ -109,9 +144,8 @@ public final class AppShell {
             executionCommand);
         if (additionalEnvironment != null)
             environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.convertEnvironmentToEnviron(currentPackageContext,
+            executionCommand, environment);
 
         if (!executionCommand.setState(ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -120,46 +154,83 @@ public final class AppShell {
         }
 
         // No need to log stdin if logging is disabled, like for app internal scripts
-        Logger.logDebugExtended(LOG_TAG, ExecutionCommand.getExecutionInputLogString(executionCommand,
+        Logger.logDebugExtended(LOG_TAG, () -> ExecutionCommand.getExecutionInputLogString(executionCommand,
             true, Logger.shouldEnableLoggingForCustomLogLevel(executionCommand.backgroundCustomLogLevel)));
-        Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
+        Logger.logVerboseExtended(LOG_TAG, () -> "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
-        // Exec the process
-        final Process process;
-        try {
-            process = Runtime.getRuntime().exec(commandArray, environmentArray, new File(executionCommand.workingDirectory));
-        } catch (IOException e) {
-            executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()), e);
-            AppShell.processAppShellResult(null, executionCommand);
-            return null;
-        }
-
-        final AppShell appShell = new AppShell(process, executionCommand, appShellClient);
+        final AppShell appShell = new AppShell(executionCommand, appShellClient,
+            isSynchronous ? null : new File(currentPackageContext.getCacheDir(), OUTPUT_SPILL_DIRECTORY_NAME));
         if (isSynchronous) {
+            if (!appShell.startProcess(currentPackageContext, commandArray, environmentArray)) {
+                AppShell.processAppShellResult(null, executionCommand);
+                return null;
+            }
+
             try {
                 appShell.executeInner(currentPackageContext);
             } catch (IllegalThreadStateException | InterruptedException e) {
                 // TODO: Should either of these be handled or returned?
             }
         } else {
-            new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        appShell.executeInner(currentPackageContext);
-                    } catch (IllegalThreadStateException | InterruptedException e) {
-                        // TODO: Should either of these be handled or returned?
-                    }
+            AppShellScheduler.getInstance().schedule(appShell, done -> {
+                // If killed while queued, then the result has already been processed
+                if (executionCommand.isStateFailed()) {
+                    Logger.logDebug(LOG_TAG, () -> "Not starting \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell since it has already failed");
+                    done.run();
+                    return;
+                }
+
+                // Plugin commands are usually short, so most of their latency is starting the process.
+                // Commands with stdin get it written to a new process, like all other commands.
+                if (executionCommand.isPluginExecutionCommand && DataUtils.isNullOrEmpty(executionCommand.stdin) &&
+                    WarmShellPool.getInstance().isEnabled() &&
+                    appShell.executeInWarmShell(currentPackageContext, commandArray, environment)) {
+                    done.run();
+                    return;
+                }
+
+                if (!appShell.startProcess(currentPackageContext, commandArray, environmentArray)) {
+                    AppShell.processAppShellResult(appShell, null);
+                    done.run();
+                    return;
                 }
-            }.start();
+
+                appShell.executeInnerAsync(currentPackageContext, done);
+            });
         }
 
         return appShell;
     }
 
     /**
-     * Sets up stdout and stderr readers for the {@link #mProcess} and waits for the process to end.
+     * Exec the {@link #mProcess}. On failure, the {@link #mExecutionCommand} state is set to failed.
+     *
+     * @return Returns {@code true} if the process was started.
+     */
+    private boolean startProcess(@NonNull final Context context, @NonNull String[] commandArray, @NonNull String[] environmentArray) {
+        try {
+            // The native spawner avoids the ProcessBuilder machinery of Runtime.exec() and gives
+            // plain pipe fds that the StreamPump can poll directly
+            if (NativeProcess.isAvailable())
+                mProcess = NativeProcess.start(commandArray, environmentArray, new File(mExecutionCommand.workingDirectory));
+            else
+                mProcess = Runtime.getRuntime().exec(commandArray, environmentArray, new File(mExecutionCommand.workingDirectory));
+        } catch (IOException e) {
+            mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_failed_to_execute_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString()), e);
+            return false;
+        }
+
+        // If killed while the process was being started, then it must be killed now
+        if (mExecutionCommand.isStateFailed())
+            kill();
+
+        return true;
+    }
+
+    /**
+     * Registers stdout and stderr of the {@link #mProcess} with the {@link StreamPump} and waits
+     * for the process to end.
      *
      * If the processes finishes, then sets {@link ResultData#stdout}, {@link ResultData#stderr}
      * and {@link ResultData#exitCode} for the {@link #mExecutionCommand} of the {@code appShell}
@@ -168,20 +239,79 @@ public final class AppShell {
      * @param context The {@link Context} for operations.
      */
     private void executeInner(@NonNull final Context context) throws IllegalThreadStateException, InterruptedException {
+        CountDownLatch streamsClosed = new CountDownLatch(1);
+        if (!startExecution(context, streamsClosed::countDown))
+            return;
+
+        // wait for our process to finish, while the streams are pumped in the background
+        int exitCode = mProcess.waitFor();
+
+        // make sure our streams are done pumping
+        // and the process is destroyed - while the latter shouldn't be
+        // needed in theory, and may even produce warnings, in "normal" Java
+        // they are required for guaranteed cleanup of resources, so lets be
+        // safe and do this on Android as well
+        closeStdin();
+        streamsClosed.await();
+        mProcess.destroy();
+
+        onExited(exitCode);
+    }
+
+    /**
+     * Like {@link #executeInner(Context)}, but without blocking the calling worker thread while the
+     * process runs. Once the {@link StreamPump} reports that stdout and stderr have been closed,
+     * the {@link AppShellScheduler} reaps the process and the result is processed on a worker thread.
+     *
+     * @param context The {@link Context} for operations.
+     * @param done Called after the result has been processed.
+     */
+    private void executeInnerAsync(@NonNull final Context context, @NonNull final Runnable done) {
+        // If writing stdin fails, the process is killed and its streams are closed, so it is still
+        // reaped here, but the result has already been processed
+        startExecution(context, () -> AppShellScheduler.getInstance().reapWhenExited(mProcess, exitCode -> {
+            try {
+                closeStdin();
+                mProcess.destroy();
+                onExited(exitCode);
+            } finally {
+                done.run();
+            }
+        }));
+    }
+
+    /**
+     * Registers stdout and stderr of the {@link #mProcess} with the {@link StreamPump} and writes
+     * the stdin of the {@link #mExecutionCommand}.
+     *
+     * @param context The {@link Context} for operations.
+     * @param onStreamsClosed Called once both stdout and stderr have been closed.
+     * @return Returns {@code false} if writing stdin failed, in which case the result has already
+     * been processed and the process has been killed.
+     */
+    private boolean startExecution(@NonNull final Context context, @NonNull final Runnable onStreamsClosed) {
         mExecutionCommand.mPid = ShellUtils.getPid(mProcess);
 
-        Logger.logDebug(LOG_TAG, "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid);
+        Logger.logDebug(LOG_TAG, () -> "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid);
+
+        if (mAppShellClient != null)
+            mAppShellClient.onAppShellStarted(this);
 
         mExecutionCommand.resultData.exitCode = null;
 
-        // setup stdin, and stdout and stderr gobblers
+        // setup stdin, and start pumping stdout and stderr
         DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
-        StreamGobbler STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
-        StreamGobbler STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
-
-        // start gobbling
-        STDOUT.start();
-        STDERR.start();
+        mStdin = STDIN;
+        AtomicInteger openStreams = new AtomicInteger(2);
+        Runnable onStreamClosed = () -> {
+            if (openStreams.decrementAndGet() == 0)
+                onStreamsClosed.run();
+        };
+        ResultData resultData = mExecutionCommand.resultData;
+        if (mOutputSpillDirectory != null)
+            setupOutputCaptures(String.valueOf(mExecutionCommand.mPid));
+        pumpStream(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), resultData.stdout, resultData.stdoutCapture, onStreamClosed);
+        pumpStream(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), resultData.stderr, resultData.stderrCapture, onStreamClosed);
 
         if (!DataUtils.isNullOrEmpty(mExecutionCommand.stdin)) {
             try {
@@ -203,37 +333,124 @@ public final class AppShell {
                     mExecutionCommand.resultData.exitCode = 1;
                     AppShell.processAppShellResult(this, null);
                     kill();
-                    return;
+                    return false;
                 }
             }
         }
 
-        // wait for our process to finish, while we gobble away in the background
-        int exitCode = mProcess.waitFor();
+        return true;
+    }
 
-        // make sure our threads are done gobbling
-        // and the process is destroyed - while the latter shouldn't be
-        // needed in theory, and may even produce warnings, in "normal" Java
-        // they are required for guaranteed cleanup of resources, so lets be
-        // safe and do this on Android as well
+    private void closeStdin() {
+        DataOutputStream stdin = mStdin;
+        if (stdin == null) return;
         try {
-            STDIN.close();
+            stdin.close();
         } catch (IOException e) {
             // might be closed already
         }
-        STDOUT.join();
-        STDERR.join();
-        mProcess.destroy();
+    }
+
+    /**
+     * Run the command in a shell of the {@link WarmShellPool} instead of starting a new process.
+     * Output is always captured, since the shell is only used for asynchronous commands.
+     *
+     * @param context The {@link Context} for operations.
+     * @param commandArray The command and its arguments.
+     * @param environment The environment of the command.
+     * @return Returns {@code false} if no warm shell was available and the command was not run,
+     * in which case it must be run in a new process.
+     */
+    private boolean executeInWarmShell(@NonNull final Context context, @NonNull String[] commandArray,
+                                       @NonNull HashMap<String, String> environment) {
+        WarmShellPool pool = WarmShellPool.getInstance();
+        WarmShellPool.WarmShell warmShell = pool.acquire(environment);
+        if (warmShell == null) return false;
+
+        mExecutionCommand.resultData.exitCode = null;
+        ResultData resultData = mExecutionCommand.resultData;
+        // The pid is not known until the command starts, so the command id names the spill files
+        setupOutputCaptures("warm-" + mExecutionCommand.id);
+
+        int exitCode;
+        try {
+            exitCode = warmShell.execute(commandArray, environment, mExecutionCommand.workingDirectory,
+                resultData.stdoutCapture, resultData.stderrCapture, pid -> {
+                    mWarmShellPid = pid;
+                    mExecutionCommand.mPid = pid;
+
+                    Logger.logDebug(LOG_TAG, () -> "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + pid + " in warm shell");
+
+                    // If killed while the command was being started, then it must be killed now
+                    if (mExecutionCommand.isStateFailed())
+                        kill();
+
+                    if (mAppShellClient != null)
+                        mAppShellClient.onAppShellStarted(this);
+                });
+        } catch (IOException e) {
+            mWarmShellPid = -1;
+            pool.release(warmShell);
+            resultData.stdoutCapture.close();
+            resultData.stderrCapture.close();
+            mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
+            AppShell.processAppShellResult(this, null);
+            return true;
+        }
+
+        mWarmShellPid = -1;
+        pool.release(warmShell);
+        resultData.stdoutCapture.close();
+        resultData.stderrCapture.close();
+
+        onExited(exitCode);
+        return true;
+    }
+
+    /**
+     * Create the {@link OutputCapture}s for stdout and stderr and start streaming them to result
+     * files if requested.
+     *
+     * @param spillFilePrefix The prefix for the names of the spill files.
+     */
+    private void setupOutputCaptures(@NonNull String spillFilePrefix) {
+        ResultData resultData = mExecutionCommand.resultData;
+        resultData.stdoutCapture = new OutputCapture(OUTPUT_CAPTURE_HEAD_SIZE, OUTPUT_CAPTURE_TAIL_SIZE,
+            mOutputSpillDirectory, spillFilePrefix + "-stdout", OUTPUT_SPILL_FILE_LIMIT);
+        resultData.stderrCapture = new OutputCapture(OUTPUT_CAPTURE_HEAD_SIZE, OUTPUT_CAPTURE_TAIL_SIZE,
+            mOutputSpillDirectory, spillFilePrefix + "-stderr", OUTPUT_SPILL_FILE_LIMIT);
+
+        ResultConfig resultConfig = mExecutionCommand.resultConfig;
+        if (resultConfig.resultStreaming && resultConfig.resultDirectoryPath != null && !resultConfig.resultSingleFile) {
+            Error error = ResultStreamWriter.start(LOG_TAG, mExecutionCommand.getCommandIdAndLabelLogString(), resultConfig, resultData);
+            if (error != null)
+                Logger.logErrorExtended(LOG_TAG, "Failed to stream output of \"" + mExecutionCommand.getCommandIdAndLabelLogString() +
+                    "\" AppShell, it will be written after the command exits\n" + error.getMinimalErrorString());
+        }
+    }
+
+    /**
+     * Set {@link ResultData#stdout}, {@link ResultData#stderr} and {@link ResultData#exitCode}
+     * after the command exited and call {@link #processAppShellResult(AppShell, ExecutionCommand)}.
+     */
+    private void onExited(int exitCode) {
+        ResultData resultData = mExecutionCommand.resultData;
+
+        // Decode the truncated output for users of the stdout and stderr strings
+        if (resultData.stdoutCapture != null)
+            resultData.stdout.append(resultData.stdoutCapture.toString());
+        if (resultData.stderrCapture != null)
+            resultData.stderr.append(resultData.stderrCapture.toString());
 
         // Process result
         if (exitCode == 0)
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
         else
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
 
         // If the execution command has already failed, like SIGKILL was sent, then don't continue
         if (mExecutionCommand.isStateFailed()) {
-            Logger.logDebug(LOG_TAG, "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell state to ExecutionState.EXECUTED and processing results since it has already failed");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell state to ExecutionState.EXECUTED and processing results since it has already failed");
             return;
         }
 
@@ -256,11 +473,11 @@ public final class AppShell {
     public void killIfExecuting(@NonNull final Context context, boolean processResult) {
         // If execution command has already finished executing, then no need to process results or send SIGKILL
         if (mExecutionCommand.hasExecuted()) {
-            Logger.logDebug(LOG_TAG, "Ignoring sending SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell since it has already finished executing");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring sending SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell since it has already finished executing");
             return;
         }
 
-        Logger.logDebug(LOG_TAG, "Send SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell");
+        Logger.logDebug(LOG_TAG, () -> "Send SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell");
 
         if (mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_sending_sigkill_to_process))) {
             if (processResult) {
@@ -275,10 +492,46 @@ public final class AppShell {
     }
 
     /**
-     * Kill this {@link AppShell} by sending a {@link OsConstants#SIGILL} to its {@link #mProcess}.
+     * Read a stream of the {@link #mProcess} with the {@link StreamPump}, or with a {@link Thread}
+     * if the pump is not available. If {@code outputCapture} is set, the stream is captured as bytes,
+     * otherwise lines are appended to {@code outputString}.
+     */
+    private void pumpStream(@NonNull String shell, @NonNull InputStream inputStream,
+                            @NonNull StringBuilder outputString, @Nullable OutputCapture outputCapture,
+                            @NonNull Runnable onClosed) {
+        Integer logLevel = mExecutionCommand.backgroundCustomLogLevel;
+        StreamPump streamPump = StreamPump.getInstance();
+        if (streamPump != null) {
+            if (outputCapture != null)
+                streamPump.pump(shell, inputStream, outputCapture, logLevel, onClosed);
+            else
+                streamPump.pump(shell, inputStream, outputString, logLevel, onClosed);
+        } else {
+            StreamGobbler streamGobbler;
+            if (outputCapture != null) {
+                streamGobbler = new StreamGobbler(shell, inputStream, outputCapture, onClosed, logLevel);
+            } else {
+                streamGobbler = new StreamGobbler(shell, inputStream, outputString, logLevel) {
+                    @Override
+                    public void run() {
+                        super.run();
+                        onClosed.run();
+                    }
+                };
+            }
+            streamGobbler.start();
+        }
+    }
+
+    /**
+     * Kill this {@link AppShell} by sending a {@link OsConstants#SIGILL} to its {@link #mProcess},
+     * or to its command running in a {@link WarmShellPool} shell.
+     * Does nothing if the process has not been started yet.
      */
     public void kill() {
-        int pid = ShellUtils.getPid(mProcess);
+        Process process = mProcess;
+        int pid = process != null ? ShellUtils.getPid(process) : mWarmShellPid;
+        if (pid <= 0) return;
         try {
             // Send SIGKILL to process
             Os.kill(pid, OsConstants.SIGKILL);
@@ -307,13 +560,14 @@ public final class AppShell {
             executionCommand = appShell.mExecutionCommand;
 
         if (executionCommand == null) return;
+        final ExecutionCommand command = executionCommand;
 
         if (executionCommand.shouldNotProcessResults()) {
-            Logger.logDebug(LOG_TAG, "Ignoring duplicate call to process \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell result");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring duplicate call to process \"" + command.getCommandIdAndLabelLogString() + "\" AppShell result");
             return;
         }
 
-        Logger.logDebug(LOG_TAG, "Processing \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell result");
+        Logger.logDebug(LOG_TAG, () -> "Processing \"" + command.getCommandIdAndLabelLogString() + "\" AppShell result");
 
         if (appShell != null && appShell.mAppShellClient != null) {
             appShell.mAppShellClient.onAppShellExited(appShell);
@@ -325,6 +579,8 @@ public final class AppShell {
         }
     }
 
+    /** Get the {@link Process}. This will be {@code null} while the command is queued or if it failed to start. */
+    @Nullable
     public Process getProcess() {
         return mProcess;
     }
@@ -344,6 +600,14 @@ public final class AppShell {
          */
         void onAppShellExited(AppShell appShell);
 
+        /**
+         * Callback function for when the process of an {@link AppShell} has been started and its
+         * {@link ExecutionCommand#mPid} has been set.
+         *
+         * @param appShell The {@link AppShell} that started.
+         */
+        default void onAppShellStarted(AppShell appShell) {}
+
     }
 
 }
@@ -0,0 +1,343 @@
+package com.termux.shared.shell.command.runner.app;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * A scheduler that runs asynchronous {@link AppShell} commands on worker threads with a bounded
+ * number of slots.
+ *
+ * A command must hold one of {@link #getMaxConcurrency()} slots to start. Further commands wait in
+ * a queue ordered by priority and then in the order they were scheduled. App internal commands get
+ * {@link #PRIORITY_HIGH} and plugin commands get {@link #PRIORITY_NORMAL}, so that a flood of
+ * plugin commands does not delay the app's own commands.
+ *
+ * A command releases its slot when it finishes, or after {@link #SLOT_HOLD_MILLIS} if it is still
+ * running by then. This bounds the process starts and short commands that run at the same time,
+ * while long-running commands, like servers started by plugins, keep running without blocking
+ * the queue for their whole lifetime.
+ *
+ * The worker threads are bounded by {@link #getMaxConcurrency()}. A worker thread only starts the
+ * process and writes its stdin, and a running command then holds no thread of its own: its stdout
+ * and stderr are read by the shared {@link com.termux.shared.shell.StreamPump} thread, and once
+ * both are closed the process is reaped by {@link #reapWhenExited(Process, IntConsumer)} on the
+ * shared timer thread. Only commands run in a {@link WarmShellPool} shell wait on their worker
+ * thread, which the pool bounds like any other. Idle threads are stopped after
+ * {@link #KEEP_ALIVE_SECONDS}.
+ */
+public final class AppShellScheduler {
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+    /** The max time a running command holds its slot before it is released for the next command. */
+    public static final long SLOT_HOLD_MILLIS = 2000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    /** The first and max delay between checks whether a command whose streams are closed has exited. */
+    private static final long REAP_INITIAL_DELAY_MILLIS = 5;
+    private static final long REAP_MAX_DELAY_MILLIS = 500;
+
+    private static AppShellScheduler sInstance;
+
+    /** The worker threads, at most {@link #mMaxConcurrency}. */
+    private final ThreadPoolExecutor mExecutor;
+    /** The timer that releases the slots of long-running commands and reaps exited commands. */
+    private final ScheduledThreadPoolExecutor mTimer;
+    /** The commands waiting for a slot, guarded by this. */
+    private final PriorityQueue<ScheduledTask> mQueue = new PriorityQueue<>();
+    /** The number of slots currently held, guarded by this. */
+    private int mSlotsInUse;
+    /** The max number of slots, guarded by this. */
+    private int mMaxConcurrency;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicInteger mThreadCounter = new AtomicInteger();
+
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicInteger mRunning = new AtomicInteger();
+    private final AtomicInteger mPeakRunning = new AtomicInteger();
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mTotalQueueTimeNanos = new AtomicLong();
+    private final AtomicLong mMaxQueueTimeNanos = new AtomicLong();
+    private final AtomicLong mSlotsReleasedEarly = new AtomicLong();
+
+    private static final String LOG_TAG = "AppShellScheduler";
+
+    private AppShellScheduler(int maxConcurrency) {
+        mMaxConcurrency = maxConcurrency;
+        // Tasks are only queued in mExecutor while the threads of a lowered max concurrency finish
+        mExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "AppShell#" + mThreadCounter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "AppShellTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mTimer.setRemoveOnCancelPolicy(true);
+        mTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mTimer.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    public static synchronized AppShellScheduler getInstance() {
+        if (sInstance == null)
+            sInstance = new AppShellScheduler(DEFAULT_MAX_CONCURRENCY);
+        return sInstance;
+    }
+
+    /**
+     * Set the max number of slots, i.e. of commands that are started and executed concurrently
+     * until they release their slot, and of worker threads. Commands that are already running are
+     * not affected.
+     *
+     * @param maxConcurrency The max number of concurrent commands. Must be {@code >= 1}.
+     */
+    public synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1 || maxConcurrency == mMaxConcurrency) return;
+
+        Logger.logDebug(LOG_TAG, "Setting max concurrency to " + maxConcurrency);
+        // The core pool size must never be larger than the max pool size
+        if (maxConcurrency > mMaxConcurrency) {
+            mExecutor.setMaximumPoolSize(maxConcurrency);
+            mExecutor.setCorePoolSize(maxConcurrency);
+        } else {
+            mExecutor.setCorePoolSize(maxConcurrency);
+            mExecutor.setMaximumPoolSize(maxConcurrency);
+        }
+        mMaxConcurrency = maxConcurrency;
+        dispatch();
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return mMaxConcurrency;
+    }
+
+    /**
+     * Queue a task that starts an {@link AppShell}.
+     *
+     * @param appShell The {@link AppShell} the task is for.
+     * @param task The task to run on a worker thread.
+     */
+    void schedule(@NonNull AppShell appShell, @NonNull Task task) {
+        ExecutionCommand executionCommand = appShell.getExecutionCommand();
+        int priority = executionCommand.isPluginExecutionCommand ? PRIORITY_NORMAL : PRIORITY_HIGH;
+
+        mQueued.incrementAndGet();
+        synchronized (this) {
+            mQueue.add(new ScheduledTask(executionCommand, task, priority, mSequence.getAndIncrement()));
+            dispatch();
+        }
+    }
+
+    /** Start queued commands on worker threads while there are free slots. */
+    private synchronized void dispatch() {
+        while (mSlotsInUse < mMaxConcurrency && !mQueue.isEmpty()) {
+            ScheduledTask scheduledTask = mQueue.poll();
+            mSlotsInUse++;
+            mExecutor.execute(scheduledTask);
+        }
+    }
+
+    /** Release the slot of {@code scheduledTask} if it still holds it and start the next queued command. */
+    private void releaseSlot(@NonNull ScheduledTask scheduledTask) {
+        if (!scheduledTask.holdsSlot.compareAndSet(true, false)) return;
+        synchronized (this) {
+            mSlotsInUse--;
+            dispatch();
+        }
+    }
+
+    /**
+     * Reap a process whose stdout and stderr have been closed without a thread waiting for it.
+     *
+     * A process usually exits right after closing its streams, so it is checked right away and then
+     * with a growing delay, in case it closed them on its own and keeps running.
+     *
+     * @param process The {@link Process} to reap.
+     * @param onExit Called with the exit code on a worker thread once the process has exited.
+     */
+    void reapWhenExited(@NonNull Process process, @NonNull IntConsumer onExit) {
+        mTimer.execute(new Reaper(process, onExit));
+    }
+
+    /** Get a snapshot of the scheduler metrics. */
+    @NonNull
+    public Metrics getMetrics() {
+        long started = mStarted.get();
+        return new Metrics(getMaxConcurrency(), mQueued.get(), mRunning.get(), mPeakRunning.get(), started,
+            started > 0 ? TimeUnit.NANOSECONDS.toMillis(mTotalQueueTimeNanos.get() / started) : 0,
+            TimeUnit.NANOSECONDS.toMillis(mMaxQueueTimeNanos.get()), mSlotsReleasedEarly.get());
+    }
+
+    private void onTaskStarted(@NonNull ScheduledTask scheduledTask) {
+        long queueTimeNanos = System.nanoTime() - scheduledTask.scheduledTimeNanos;
+        int queued = mQueued.decrementAndGet();
+        int running = mRunning.incrementAndGet();
+        mPeakRunning.accumulateAndGet(running, Math::max);
+        mStarted.incrementAndGet();
+        mTotalQueueTimeNanos.addAndGet(queueTimeNanos);
+        mMaxQueueTimeNanos.accumulateAndGet(queueTimeNanos, Math::max);
+
+        Logger.logVerbose(LOG_TAG, "Starting \"" + scheduledTask.executionCommand.getCommandIdAndLabelLogString() +
+            "\" AppShell after " + TimeUnit.NANOSECONDS.toMillis(queueTimeNanos) + "ms in queue (running: " + running + ", queued: " + queued + ")");
+    }
+
+
+
+    /** A task that starts an {@link AppShell} on a worker thread. */
+    interface Task {
+        /**
+         * Start the command.
+         *
+         * @param done Must be called once the command has finished, from any thread. It must be
+         *             called exactly once, unless this throws.
+         */
+        void run(@NonNull Runnable done);
+    }
+
+    private final class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+
+        final ExecutionCommand executionCommand;
+        final Task task;
+        final int priority;
+        final long sequence;
+        final long scheduledTimeNanos = System.nanoTime();
+        final AtomicBoolean holdsSlot = new AtomicBoolean(true);
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile ScheduledFuture<?> slotRelease;
+
+        ScheduledTask(ExecutionCommand executionCommand, Task task, int priority, long sequence) {
+            this.executionCommand = executionCommand;
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            onTaskStarted(this);
+            slotRelease = mTimer.schedule(this::onSlotHoldTimeElapsed, SLOT_HOLD_MILLIS, TimeUnit.MILLISECONDS);
+            try {
+                task.run(this::onFinished);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Unexpected exception while running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell", e);
+                onFinished();
+            }
+        }
+
+        private void onFinished() {
+            if (!finished.compareAndSet(false, true)) return;
+            slotRelease.cancel(false);
+            mRunning.decrementAndGet();
+            releaseSlot(this);
+        }
+
+        private void onSlotHoldTimeElapsed() {
+            if (!holdsSlot.get()) return;
+            Logger.logVerbose(LOG_TAG, "Releasing slot of \"" + executionCommand.getCommandIdAndLabelLogString() +
+                "\" AppShell since it is still running after " + SLOT_HOLD_MILLIS + "ms");
+            mSlotsReleasedEarly.incrementAndGet();
+            releaseSlot(this);
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+
+
+    private final class Reaper implements Runnable {
+
+        final Process process;
+        final IntConsumer onExit;
+        long delayMillis = REAP_INITIAL_DELAY_MILLIS;
+
+        Reaper(Process process, IntConsumer onExit) {
+            this.process = process;
+            this.onExit = onExit;
+        }
+
+        @Override
+        public void run() {
+            if (process.isAlive()) {
+                mTimer.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+                delayMillis = Math.min(delayMillis * 2, REAP_MAX_DELAY_MILLIS);
+                return;
+            }
+
+            // Process the result on a worker thread so that a slow client does not delay the timer
+            mExecutor.execute(() -> {
+                try {
+                    onExit.accept(process.exitValue());
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Unexpected exception while processing the result of an exited AppShell", e);
+                }
+            });
+        }
+    }
+
+
+
+    /** A snapshot of the {@link AppShellScheduler} metrics. */
+    public static final class Metrics {
+
+        /** The max number of commands started and executed concurrently until they release their slot. */
+        public final int maxConcurrency;
+        /** The number of commands waiting in the queue. */
+        public final int queued;
+        /** The number of commands currently executing, including those that released their slot. */
+        public final int running;
+        /** The max number of commands that were executing at the same time. */
+        public final int peakRunning;
+        /** The number of commands that have been started. */
+        public final long started;
+        /** The average time started commands waited in the queue. */
+        public final long averageQueueTimeMillis;
+        /** The max time a started command waited in the queue. */
+        public final long maxQueueTimeMillis;
+        /** The number of commands that released their slot after {@link #SLOT_HOLD_MILLIS} since they were still running. */
+        public final long slotsReleasedEarly;
+
+        Metrics(int maxConcurrency, int queued, int running, int peakRunning, long started,
+                long averageQueueTimeMillis, long maxQueueTimeMillis, long slotsReleasedEarly) {
+            this.maxConcurrency = maxConcurrency;
+            this.queued = queued;
+            this.running = running;
+            this.peakRunning = peakRunning;
+            this.started = started;
+            this.averageQueueTimeMillis = averageQueueTimeMillis;
+            this.maxQueueTimeMillis = maxQueueTimeMillis;
+            this.slotsReleasedEarly = slotsReleasedEarly;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "maxConcurrency: %d, queued: %d, running: %d, peakRunning: %d, started: %d, averageQueueTime: %dms, maxQueueTime: %dms, slotsReleasedEarly: %d",
+                maxConcurrency, queued, running, peakRunning, started, averageQueueTimeMillis, maxQueueTimeMillis, slotsReleasedEarly);
+        }
+    }
+
+}
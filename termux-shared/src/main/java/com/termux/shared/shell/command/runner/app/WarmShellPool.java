@@ -0,0 +1,531 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.result.OutputCapture;
+import com.termux.terminal.NativeProcess;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A pool of pre-started shells that {@link AppShell} commands can be run in, so that a command
+ * does not pay for starting a process with a full environment, which makes up most of the latency
+ * of short plugin commands.
+ *
+ * Each {@link WarmShell} is a {@code sh} process started with the environment of the first command
+ * that needed it, which reads commands from its stdin. Every command is run in a subshell that
+ * changes to the working directory of the command, applies the difference between the command
+ * environment and the shell environment, and then replaces itself with the command with
+ * {@code exec}, so the pid reported for the command is the pid of the command itself and it can
+ * be killed like a normal process. The stdin of the command is {@code /dev/null}, so commands
+ * with stdin must be run in a new process, which gets the same bytes as the stdin of any other
+ * {@link AppShell} command.
+ *
+ * The boundaries of the output of each command are marked on stdout and stderr with a random
+ * token that is unique per shell and command. The start markers also carry the pid of the command
+ * and the end markers carry the exit code, e.g. {@code <token> P 1234\n} and
+ * {@code \n<token> E 0\n}. Any output before the start marker, like from a background process
+ * left behind by a previous command, is discarded.
+ *
+ * The pool is disabled by default. At most {@link #getMaxSize()} shells are kept, and shells that
+ * have been idle for longer than the idle timeout are stopped. If all shells are busy, then
+ * {@link #acquire(Map)} returns {@code null} and the caller should start a new process instead.
+ */
+public final class WarmShellPool {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    /** Only variables that can be exported by the shell can be applied to a warm shell. */
+    private static final Pattern ENVIRONMENT_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private static WarmShellPool sInstance;
+
+    private final ArrayDeque<WarmShell> mIdleShells = new ArrayDeque<>();
+    private int mSize;
+    private int mMaxSize;
+    private long mIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    @Nullable private String mShellPath;
+    @Nullable private ScheduledExecutorService mEvictor;
+
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private static final String LOG_TAG = "WarmShellPool";
+
+    private WarmShellPool() {}
+
+    @NonNull
+    public static synchronized WarmShellPool getInstance() {
+        if (sInstance == null)
+            sInstance = new WarmShellPool();
+        return sInstance;
+    }
+
+    /**
+     * Configure the pool. Idle shells beyond the new max size or started with a different shell
+     * are stopped. Shells that are running a command are stopped when they are released.
+     *
+     * @param shellPath The path to the {@code sh} to start shells with.
+     * @param maxSize The max number of shells. If {@code 0}, then the pool is disabled.
+     * @param idleTimeoutMillis The time after which idle shells are stopped.
+     */
+    public synchronized void configure(@Nullable String shellPath, int maxSize, long idleTimeoutMillis) {
+        maxSize = Math.max(0, maxSize);
+        if (maxSize != mMaxSize)
+            Logger.logDebug(LOG_TAG, "Setting max size to " + maxSize);
+
+        if (shellPath == null || !shellPath.equals(mShellPath)) {
+            while (!mIdleShells.isEmpty())
+                stopIdleShell(mIdleShells.pollFirst());
+        }
+
+        mShellPath = shellPath;
+        mMaxSize = maxSize;
+        mIdleTimeoutMillis = idleTimeoutMillis;
+
+        // Stop the least recently used shells first
+        while (mIdleShells.size() > 0 && mSize > mMaxSize)
+            stopIdleShell(mIdleShells.pollLast());
+
+        if (mMaxSize > 0 && mEvictor == null) {
+            mEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "WarmShellPool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000, mIdleTimeoutMillis / 2);
+            mEvictor.scheduleWithFixedDelay(this::evictIdleShells, period, period, TimeUnit.MILLISECONDS);
+        } else if (mMaxSize == 0 && mEvictor != null) {
+            mEvictor.shutdown();
+            mEvictor = null;
+        }
+    }
+
+    /** Stop all idle shells and disable the pool. */
+    public void shutdown() {
+        configure(null, 0, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /** Check if commands can be run in warm shells. */
+    public synchronized boolean isEnabled() {
+        return mMaxSize > 0 && mShellPath != null && NativeProcess.isAvailable();
+    }
+
+    /**
+     * Get an idle shell, or start a new one with {@code environment} if the pool is not full.
+     * The shell must be returned with {@link #release(WarmShell)}.
+     *
+     * @param environment The environment of the command that will be run.
+     * @return Returns the {@link WarmShell}, or {@code null} if the pool is disabled or full,
+     * the environment cannot be applied in a shell or a shell failed to start.
+     */
+    @Nullable
+    public WarmShell acquire(@NonNull Map<String, String> environment) {
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            if (!ENVIRONMENT_NAME_PATTERN.matcher(variable.getKey()).matches() || variable.getValue().indexOf('\0') != -1)
+                return null;
+        }
+
+        String shellPath;
+        synchronized (this) {
+            if (!isEnabled()) return null;
+
+            WarmShell shell = mIdleShells.pollFirst();
+            if (shell != null) return shell;
+
+            if (mSize >= mMaxSize) return null;
+            mSize++;
+            shellPath = mShellPath;
+        }
+
+        // Start outside the lock so that other commands can get idle shells meanwhile
+        List<String> environmentList = new ArrayList<>(environment.size());
+        for (Map.Entry<String, String> variable : environment.entrySet())
+            environmentList.add(variable.getKey() + "=" + variable.getValue());
+
+        byte[] randomBytes = new byte[8];
+        mRandom.nextBytes(randomBytes);
+        StringBuilder token = new StringBuilder("__termux_warm_shell_");
+        for (byte b : randomBytes)
+            token.append(String.format(Locale.ROOT, "%02x", b));
+
+        try {
+            NativeProcess process = NativeProcess.start(new String[]{shellPath},
+                environmentList.toArray(new String[0]), null);
+            Logger.logDebug(LOG_TAG, "Started warm shell with pid " + process.getPid());
+            return new WarmShell(process, shellPath, environment, token.toString());
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start warm shell", e);
+            synchronized (this) {
+                mSize--;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Return a shell acquired with {@link #acquire(Map)} to the pool. The shell is stopped instead
+     * if it is no longer usable or the pool has shrunk.
+     */
+    public void release(@NonNull WarmShell shell) {
+        synchronized (this) {
+            if (shell.isUsable() && mSize <= mMaxSize && shell.mShellPath.equals(mShellPath)) {
+                shell.mLastUsedTime = System.currentTimeMillis();
+                mIdleShells.addFirst(shell);
+                return;
+            }
+            mSize--;
+        }
+        shell.stop();
+    }
+
+    private synchronized void stopIdleShell(@NonNull WarmShell shell) {
+        mSize--;
+        shell.stop();
+    }
+
+    private synchronized void evictIdleShells() {
+        long now = System.currentTimeMillis();
+        Iterator<WarmShell> iterator = mIdleShells.iterator();
+        while (iterator.hasNext()) {
+            WarmShell shell = iterator.next();
+            if (now - shell.mLastUsedTime >= mIdleTimeoutMillis) {
+                iterator.remove();
+                Logger.logDebug(LOG_TAG, "Stopping warm shell with pid " + shell.mProcess.getPid() + " after being idle");
+                stopIdleShell(shell);
+            }
+        }
+    }
+
+
+
+    /** Receives the pid of a command once it has started in a {@link WarmShell}. */
+    public interface OnCommandStartedListener {
+        void onCommandStarted(int pid);
+    }
+
+    /** A shell of the {@link WarmShellPool}. A shell runs one command at a time. */
+    public static final class WarmShell {
+
+        private final NativeProcess mProcess;
+        private final Map<String, String> mEnvironment;
+        private final String mToken;
+        private final String mShellPath;
+        private final OutputStream mControl;
+        private final FileDescriptor mStdoutFd;
+        private final FileDescriptor mStderrFd;
+        private long mSequence;
+        private long mLastUsedTime;
+        private boolean mUsable = true;
+
+        private WarmShell(@NonNull NativeProcess process, @NonNull String shellPath,
+                          @NonNull Map<String, String> environment, @NonNull String token) throws IOException {
+            mProcess = process;
+            mShellPath = shellPath;
+            mEnvironment = new HashMap<>(environment);
+            mToken = token;
+            mControl = process.getOutputStream();
+            mStdoutFd = ((FileInputStream) process.getInputStream()).getFD();
+            mStderrFd = ((FileInputStream) process.getErrorStream()).getFD();
+        }
+
+        boolean isUsable() {
+            return mUsable;
+        }
+
+        /**
+         * Run a command in the shell and wait for it to exit.
+         *
+         * @param commandArray The command and its arguments.
+         * @param environment The environment of the command.
+         * @param workingDirectory The working directory of the command.
+         * @param stdout The capture for the stdout of the command.
+         * @param stderr The capture for the stderr of the command.
+         * @param listener The listener to notify with the pid of the command.
+         * @return Returns the exit code of the command.
+         * @throws IOException If the shell exited or failed while running the command. The shell
+         * is no longer usable in that case.
+         */
+        public int execute(@NonNull String[] commandArray, @NonNull Map<String, String> environment,
+                           @NonNull String workingDirectory, @NonNull OutputCapture stdout, @NonNull OutputCapture stderr,
+                           @NonNull OnCommandStartedListener listener) throws IOException {
+            String token = mToken + "_" + (mSequence++);
+            try {
+                mControl.write(buildScript(token, commandArray, environment, workingDirectory).getBytes(StandardCharsets.UTF_8));
+                mControl.flush();
+
+                MarkedStream stdoutStream = new MarkedStream(token, stdout);
+                MarkedStream stderrStream = new MarkedStream(token, stderr);
+                readOutput(stdoutStream, stderrStream, listener);
+                return stdoutStream.mEndValue;
+            } catch (IOException e) {
+                mUsable = false;
+                throw e;
+            }
+        }
+
+        @NonNull
+        private String buildScript(@NonNull String token, @NonNull String[] commandArray,
+                                   @NonNull Map<String, String> environment, @NonNull String workingDirectory) {
+            StringBuilder script = new StringBuilder();
+            // The first field of /proc/self/stat is the pid of the subshell, which exec keeps
+            script.append("( read -r __p __r < /proc/self/stat; ")
+                .append("printf '%s P %s\\n' ").append(quote(token)).append(" \"$__p\"; ")
+                .append("printf '%s P %s\\n' ").append(quote(token)).append(" \"$__p\" >&2; ")
+                .append("unset __p __r; ");
+            script.append("cd -- ").append(quote(workingDirectory)).append(" || exit 1; ");
+
+            for (String name : mEnvironment.keySet()) {
+                if (!environment.containsKey(name))
+                    script.append("unset ").append(name).append("; ");
+            }
+            for (Map.Entry<String, String> variable : environment.entrySet()) {
+                if (!variable.getValue().equals(mEnvironment.get(variable.getKey())))
+                    script.append("export ").append(variable.getKey()).append('=').append(quote(variable.getValue())).append("; ");
+            }
+
+            script.append("exec");
+            for (String argument : commandArray)
+                script.append(' ').append(quote(argument));
+            script.append(" ) < /dev/null\n");
+
+            script.append("printf '\\n%s E %d\\n' ").append(quote(token)).append(" $?; ")
+                .append("printf '\\n%s E 0\\n' ").append(quote(token)).append(" >&2\n");
+            return script.toString();
+        }
+
+        private void readOutput(@NonNull MarkedStream stdout, @NonNull MarkedStream stderr,
+                                @NonNull OnCommandStartedListener listener) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            boolean started = false;
+            while (!stdout.isDone() || !stderr.isDone()) {
+                StructPollfd stdoutPollFd = newPollFd(stdout.isDone() ? null : mStdoutFd);
+                StructPollfd stderrPollFd = newPollFd(stderr.isDone() ? null : mStderrFd);
+                try {
+                    Os.poll(new StructPollfd[]{stdoutPollFd, stderrPollFd}, -1);
+                } catch (ErrnoException e) {
+                    if (e.errno == OsConstants.EINTR) continue;
+                    throw new IOException("Failed to poll warm shell output", e);
+                }
+
+                if (stdoutPollFd.revents != 0)
+                    read(mStdoutFd, stdout, buffer);
+                if (stderrPollFd.revents != 0)
+                    read(mStderrFd, stderr, buffer);
+
+                if (!started && stderr.mStartValue != null) {
+                    started = true;
+                    listener.onCommandStarted(stderr.mStartValue);
+                }
+            }
+        }
+
+        private static StructPollfd newPollFd(@Nullable FileDescriptor fd) {
+            StructPollfd pollFd = new StructPollfd();
+            // poll() ignores negative fds, which are used for streams that are already done
+            pollFd.fd = fd != null ? fd : new FileDescriptor();
+            pollFd.events = (short) OsConstants.POLLIN;
+            return pollFd;
+        }
+
+        private void read(@NonNull FileDescriptor fd, @NonNull MarkedStream stream, @NonNull byte[] buffer) throws IOException {
+            int count;
+            try {
+                count = Os.read(fd, buffer, 0, buffer.length);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EINTR || e.errno == OsConstants.EAGAIN) return;
+                throw new IOException("Failed to read warm shell output", e);
+            } catch (InterruptedIOException e) {
+                return;
+            }
+            if (count <= 0)
+                throw new IOException("Warm shell with pid " + mProcess.getPid() + " exited while running a command");
+            stream.feed(buffer, 0, count);
+        }
+
+        private void stop() {
+            mUsable = false;
+            try {
+                mControl.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            mProcess.destroy();
+            try {
+                mProcess.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Quote a string as a single shell word. */
+        @NonNull
+        static String quote(@NonNull String string) {
+            return "'" + string.replace("'", "'\\''") + "'";
+        }
+
+    }
+
+
+
+    /**
+     * Splits the output of a {@link WarmShell} stream at the start and end markers of a command.
+     * The markers are searched for with the KMP algorithm, so that markers split across reads are
+     * found without buffering the output.
+     */
+    static final class MarkedStream {
+
+        private static final int STATE_START = 0;
+        private static final int STATE_START_VALUE = 1;
+        private static final int STATE_BODY = 2;
+        private static final int STATE_END_VALUE = 3;
+        private static final int STATE_DONE = 4;
+
+        private final byte[] mStartMarker;
+        private final int[] mStartFailure;
+        private final byte[] mEndMarker;
+        private final int[] mEndFailure;
+        private final OutputCapture mCapture;
+
+        private int mState = STATE_START;
+        private int mMatched;
+        private int mValue;
+        private boolean mNegative;
+        Integer mStartValue;
+        int mEndValue;
+
+        MarkedStream(@NonNull String token, @NonNull OutputCapture capture) {
+            mStartMarker = (token + " P ").getBytes(StandardCharsets.UTF_8);
+            mStartFailure = failureFunction(mStartMarker);
+            mEndMarker = ("\n" + token + " E ").getBytes(StandardCharsets.UTF_8);
+            mEndFailure = failureFunction(mEndMarker);
+            mCapture = capture;
+        }
+
+        boolean isDone() {
+            return mState == STATE_DONE;
+        }
+
+        void feed(@NonNull byte[] buffer, int offset, int length) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end && mState != STATE_DONE) {
+                switch (mState) {
+                    case STATE_START:
+                        i = match(buffer, i, end, mStartMarker, mStartFailure, false);
+                        if (mMatched == mStartMarker.length)
+                            startValue(STATE_START_VALUE);
+                        break;
+                    case STATE_BODY:
+                        i = match(buffer, i, end, mEndMarker, mEndFailure, true);
+                        if (mMatched == mEndMarker.length)
+                            startValue(STATE_END_VALUE);
+                        break;
+                    default:
+                        byte b = buffer[i++];
+                        if (b == '-') {
+                            mNegative = true;
+                        } else if (b >= '0' && b <= '9') {
+                            mValue = mValue * 10 + (b - '0');
+                        } else if (b == '\n') {
+                            int value = mNegative ? -mValue : mValue;
+                            if (mState == STATE_START_VALUE) {
+                                mStartValue = value;
+                                mState = STATE_BODY;
+                            } else {
+                                mEndValue = value;
+                                mState = STATE_DONE;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void startValue(int state) {
+            mState = state;
+            mMatched = 0;
+            mValue = 0;
+            mNegative = false;
+        }
+
+        /**
+         * Advance the match of {@code marker} over {@code buffer} until it is fully matched or the
+         * end of the buffer. If {@code emit} is set, bytes that are not part of the marker are
+         * written to the capture.
+         *
+         * @return Returns the index after the last byte consumed.
+         */
+        private int match(@NonNull byte[] buffer, int start, int end, @NonNull byte[] marker,
+                          @NonNull int[] failure, boolean emit) {
+            int runStart = start;
+            for (int i = start; i < end; i++) {
+                byte b = buffer[i];
+                if (mMatched == 0 && b != marker[0]) continue;
+
+                if (emit && i > runStart) mCapture.write(buffer, runStart, i - runStart);
+                runStart = i + 1;
+
+                // Release the part of the held partial match that can no longer match
+                while (mMatched > 0 && marker[mMatched] != b) {
+                    int fallback = failure[mMatched - 1];
+                    if (emit) mCapture.write(marker, 0, mMatched - fallback);
+                    mMatched = fallback;
+                }
+
+                if (marker[mMatched] == b) {
+                    mMatched++;
+                    if (mMatched == marker.length)
+                        return i + 1;
+                } else if (emit) {
+                    mCapture.write(buffer, i, 1);
+                }
+            }
+            if (emit && end > runStart) mCapture.write(buffer, runStart, end - runStart);
+            return end;
+        }
+
+        @NonNull
+        private static int[] failureFunction(@NonNull byte[] marker) {
+            int[] failure = new int[marker.length];
+            int k = 0;
+            for (int i = 1; i < marker.length; i++) {
+                while (k > 0 && marker[i] != marker[k])
+                    k = failure[k - 1];
+                if (marker[i] == marker[k])
+                    k++;
+                failure[i] = k;
+            }
+            return failure;
+        }
+
+    }
+
+}
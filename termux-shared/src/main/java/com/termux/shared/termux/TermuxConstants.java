@@ -12,7 +12,7 @@ import java.util.Formatter;
 import java.util.List;
 
 /*
- * Version: v0.53.0
+ * Version: v0.57.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -282,6 +282,21 @@ import java.util.List;
  * - 0.53.0 (2025-01-12)
  *      - Renamed `TERMUX_API`, `TERMUX_STYLING`, `TERMUX_TASKER`, `TERMUX_WIDGET` classes with `_APP` suffix added.
  *      - Added `TERMUX_*_MAIN_ACTIVITY_NAME` and `TERMUX_*_LAUNCHER_ACTIVITY_NAME` constants to each app class.
+ *
+ * - 0.54.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMINAL_SNAPSHOTS_DIR_PATH`.
+ *
+ * - 0.55.0 (2026-10-19)
+ *      - Added `TERMUX_APP.HEADLESS_SESSIONS_OUTPUT_DIR_PATH`.
+ *
+ * - 0.56.0 (2026-10-19)
+ *      - Added following to `TERMUX_APP.TERMUX_SERVICE`:
+ *          `EXTRA_RESULT_STREAMING`.
+ *      - Added following to `TERMUX_APP.RUN_COMMAND_SERVICE`:
+ *          `EXTRA_RESULT_STREAMING`.
+ *
+ * - 0.57.0 (2026-10-19)
+ *      - Added `TERMUX_APP.LOGS_DIR_PATH`.
  */
 
 /**
@@ -923,6 +938,15 @@ public final class TermuxConstants {
         /** termux-am socket file path */
         public static final String TERMUX_AM_SOCKET_FILE_PATH = APPS_DIR_PATH + "/termux-am/am.sock"; // Default: "/data/user/0/com.termux/files/apps/com.termux/termux-am/am.sock"
 
+        /** Terminal session state snapshots directory path */
+        public static final String TERMINAL_SNAPSHOTS_DIR_PATH = APPS_DIR_PATH + "/terminal-snapshots"; // Default: "/data/user/0/com.termux/files/apps/com.termux/terminal-snapshots"
+
+        /** Headless terminal sessions spilled output directory path */
+        public static final String HEADLESS_SESSIONS_OUTPUT_DIR_PATH = APPS_DIR_PATH + "/headless-sessions"; // Default: "/data/user/0/com.termux/files/apps/com.termux/headless-sessions"
+
+        /** Termux app persistent log files directory path */
+        public static final String LOGS_DIR_PATH = APPS_DIR_PATH + "/logs"; // Default: "/data/user/0/com.termux/files/apps/com.termux/logs"
+
 
         /** Termux app BuildConfig class name */
         public static final String BUILD_CONFIG_CLASS_NAME = TERMUX_PACKAGE_NAME + ".BuildConfig"; // Default: "com.termux.BuildConfig"
@@ -1051,6 +1075,10 @@ public final class TermuxConstants {
              * be created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".execute.result_files_suffix"; // Default: "com.termux.execute.result_files_suffix"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be streamed to the
+             * result files in {@link #EXTRA_RESULT_DIRECTORY} while the command is running if
+             * {@link #EXTRA_RESULT_SINGLE_FILE} is {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_RESULT_STREAMING = TERMUX_PACKAGE_NAME + ".execute.result_streaming"; // Default: "com.termux.execute.result_streaming"
 
 
 
@@ -1189,6 +1217,10 @@ public final class TermuxConstants {
              * created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_FILES_SUFFIX"; // Default: "com.termux.RUN_COMMAND_RESULT_FILES_SUFFIX"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be streamed to the
+             * result files in {@link #EXTRA_RESULT_DIRECTORY} while the command is running if
+             * {@link #EXTRA_RESULT_SINGLE_FILE} is {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_RESULT_STREAMING = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_STREAMING"; // Default: "com.termux.RUN_COMMAND_RESULT_STREAMING"
 
         }
     }
@@ -17,6 +17,7 @@ import com.termux.shared.crash.CrashHandler;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Error;
 import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.LogFile;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.models.ReportInfo;
@@ -29,6 +30,7 @@ import com.termux.shared.termux.notification.TermuxNotificationUtils;
 import com.termux.shared.termux.settings.preferences.TermuxAppSharedPreferences;
 import com.termux.shared.termux.settings.preferences.TermuxPreferenceConstants;
 
+import java.io.File;
 import java.nio.charset.Charset;
 
 public class TermuxCrashUtils implements CrashHandler.CrashHandlerClient {
@@ -173,12 +175,11 @@ public class TermuxCrashUtils implements CrashHandler.CrashHandlerClient {
             return;
 
         Error error;
-        StringBuilder reportStringBuilder = new StringBuilder();
 
         // Read report string from crash log file
-        error = FileUtils.readTextFromFile("crash log", TermuxConstants.TERMUX_CRASH_LOG_FILE_PATH, Charset.defaultCharset(), reportStringBuilder, false);
-        if (error != null) {
-            Logger.logErrorExtended(logTag, error.toString());
+        FileUtils.ReadTextResult result = FileUtils.readTextFromFileAsCharSequence("crash log", TermuxConstants.TERMUX_CRASH_LOG_FILE_PATH, Charset.defaultCharset(), false);
+        if (result.error != null) {
+            Logger.logErrorExtended(logTag, result.error.toString());
             return;
         }
 
@@ -188,13 +189,18 @@ public class TermuxCrashUtils implements CrashHandler.CrashHandlerClient {
             Logger.logErrorExtended(logTag, error.toString());
         }
 
-        String reportString = reportStringBuilder.toString();
-
-        if (reportString.isEmpty())
+        if (result.text == null || result.text.length() == 0)
             return;
 
+        String reportString = result.text.toString();
+
         Logger.logDebug(logTag, "A crash log file found at \"" + TermuxConstants.TERMUX_CRASH_LOG_FILE_PATH +  "\".");
 
+        // Add the messages logged before the crash from the persistent log files
+        String logMarkdownString = LogFile.getLogMarkdownString(new File(TERMUX_APP.LOGS_DIR_PATH), LogFile.DEFAULT_REPORT_LOG_SIZE);
+        if (logMarkdownString != null)
+            reportString = reportString + "\n\n" + logMarkdownString;
+
         sendCrashReportNotification(context, logTag, null, null, reportString, false, false, null, false);
     }
 
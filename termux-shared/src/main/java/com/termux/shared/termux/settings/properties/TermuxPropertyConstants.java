@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.21.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,15 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-19)
+ *      - Add `*KEY_TERMINAL_MAX_SESSIONS*`.
+ *
+ * - 0.20.0 (2026-10-19)
+ *      - Add `*KEY_BACKGROUND_TASKS_MAX_CONCURRENCY*`.
+ *
+ * - 0.21.0 (2026-10-19)
+ *      - Add `*KEY_WARM_SHELL_POOL_SIZE*`.
  */
 
 /**
@@ -255,6 +264,30 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the max number of terminal sessions */
+    public static final String KEY_TERMINAL_MAX_SESSIONS =  "terminal-max-sessions"; // Default: "terminal-max-sessions"
+    public static final int IVALUE_TERMINAL_MAX_SESSIONS_MIN = 1;
+    public static final int IVALUE_TERMINAL_MAX_SESSIONS_MAX = 256;
+    public static final int DEFAULT_IVALUE_TERMINAL_MAX_SESSIONS = 8;
+
+
+
+    /** Defines the key for the max number of background tasks that are executed concurrently */
+    public static final String KEY_BACKGROUND_TASKS_MAX_CONCURRENCY =  "background-tasks-max-concurrency"; // Default: "background-tasks-max-concurrency"
+    public static final int IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MIN = 1;
+    public static final int IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MAX = 64;
+    public static final int DEFAULT_IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY = 8;
+
+
+
+    /** Defines the key for the max number of pre-started shells that plugin commands are run in, 0 to disable */
+    public static final String KEY_WARM_SHELL_POOL_SIZE =  "warm-shell-pool-size"; // Default: "warm-shell-pool-size"
+    public static final int IVALUE_WARM_SHELL_POOL_SIZE_MIN = 0;
+    public static final int IVALUE_WARM_SHELL_POOL_SIZE_MAX = 8;
+    public static final int DEFAULT_IVALUE_WARM_SHELL_POOL_SIZE = 0;
+
+
+
 
 
     /* float */
@@ -406,13 +439,16 @@ public final class TermuxPropertyConstants {
         TermuxConstants.PROP_ALLOW_EXTERNAL_APPS,
 
         /* int */
+        KEY_BACKGROUND_TASKS_MAX_CONCURRENCY,
         KEY_BELL_BEHAVIOUR,
         KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
+        KEY_TERMINAL_MAX_SESSIONS,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
+        KEY_WARM_SHELL_POOL_SIZE,
 
         /* float */
         KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR,
@@ -259,6 +259,8 @@ public abstract class TermuxSharedProperties {
          */
         switch (key) {
             /* int */
+            case TermuxPropertyConstants.KEY_BACKGROUND_TASKS_MAX_CONCURRENCY:
+                return (int) getBackgroundTasksMaxConcurrencyInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_BELL_BEHAVIOUR:
                 return (int) getBellBehaviourInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT:
@@ -271,8 +273,12 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalMarginHorizontalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL:
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_MAX_SESSIONS:
+                return (int) getTerminalMaxSessionsInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_WARM_SHELL_POOL_SIZE:
+                return (int) getWarmShellPoolSizeInternalPropertyValueFromValue(value);
 
             /* float */
             case TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR:
@@ -420,6 +426,42 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_SESSIONS_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_SESSIONS_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_MAX_SESSIONS}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalMaxSessionsInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_MAX_SESSIONS,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_SESSIONS),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_SESSIONS,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MAX_SESSIONS_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_MAX_SESSIONS_MAX,
+            true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getBackgroundTasksMaxConcurrencyInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_BACKGROUND_TASKS_MAX_CONCURRENCY,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY),
+            TermuxPropertyConstants.DEFAULT_IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY,
+            TermuxPropertyConstants.IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MIN,
+            TermuxPropertyConstants.IVALUE_BACKGROUND_TASKS_MAX_CONCURRENCY_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN} and
@@ -438,6 +480,24 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_WARM_SHELL_POOL_SIZE_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_WARM_SHELL_POOL_SIZE_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_WARM_SHELL_POOL_SIZE}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getWarmShellPoolSizeInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_WARM_SHELL_POOL_SIZE,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_WARM_SHELL_POOL_SIZE),
+            TermuxPropertyConstants.DEFAULT_IVALUE_WARM_SHELL_POOL_SIZE,
+            TermuxPropertyConstants.IVALUE_WARM_SHELL_POOL_SIZE_MIN,
+            TermuxPropertyConstants.IVALUE_WARM_SHELL_POOL_SIZE_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR_MIN} and
@@ -626,6 +686,10 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_FULLSCREEN_WORKAROUND, true);
     }
 
+    public int getBackgroundTasksMaxConcurrency() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_BACKGROUND_TASKS_MAX_CONCURRENCY, true);
+    }
+
     public int getBellBehaviour() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_BELL_BEHAVIOUR, true);
     }
@@ -650,10 +714,18 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL, true);
     }
 
+    public int getTerminalMaxSessions() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MAX_SESSIONS, true);
+    }
+
     public int getTerminalTranscriptRows() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
 
+    public int getWarmShellPoolSize() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_WARM_SHELL_POOL_SIZE, true);
+    }
+
     public float getTerminalToolbarHeightScaleFactor() {
         return (float) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR, true);
     }
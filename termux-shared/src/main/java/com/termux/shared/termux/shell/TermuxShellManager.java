@@ -2,17 +2,18 @@ package com.termux.shared.termux.shell;
 
 import android.content.Context;
 import android.content.Intent;
-import android.widget.ArrayAdapter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.termux.shared.shell.ShellRegistry;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.runner.app.AppShell;
 import com.termux.shared.termux.settings.preferences.TermuxAppSharedPreferences;
 import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TermuxShellManager {
 
@@ -23,22 +24,42 @@ public class TermuxShellManager {
     protected final Context mContext;
 
     /**
-     * The foreground TermuxSessions which this service manages.
-     * Note that this list is observed by an activity, like TermuxActivity.mTermuxSessionListViewController,
-     * so any changes must be made on the UI thread and followed by a call to
-     * {@link ArrayAdapter#notifyDataSetChanged()}.
+     * The foreground TermuxSessions which this service manages, indexed by {@link com.termux.terminal.TerminalSession#mHandle},
+     * shell name and pid. The immutable snapshot returned by {@link ShellRegistry#getShells()} is
+     * observed by an activity, like TermuxActivity.mTermuxSessionListViewController, which should
+     * register a {@link ShellRegistry.Listener} to get the new snapshot on changes.
      */
-    public final List<TermuxSession> mTermuxSessions = new ArrayList<>();
+    public final ShellRegistry<TermuxSession> mTermuxSessions = new ShellRegistry<>(new ShellRegistry.KeyExtractor<TermuxSession>() {
+        @Nullable @Override public String getHandle(@NonNull TermuxSession termuxSession) {
+            return termuxSession.getTerminalSession() != null ? termuxSession.getTerminalSession().mHandle : null;
+        }
+        @Nullable @Override public String getShellName(@NonNull TermuxSession termuxSession) {
+            return termuxSession.getExecutionCommand().shellName;
+        }
+        @Override public int getPid(@NonNull TermuxSession termuxSession) {
+            return termuxSession.getExecutionCommand().mPid;
+        }
+    });
 
     /**
-     * The background TermuxTasks which this service manages.
+     * The background TermuxTasks which this service manages, indexed by shell name and pid.
      */
-    public final List<AppShell> mTermuxTasks = new ArrayList<>();
+    public final ShellRegistry<AppShell> mTermuxTasks = new ShellRegistry<>(new ShellRegistry.KeyExtractor<AppShell>() {
+        @Nullable @Override public String getHandle(@NonNull AppShell appShell) {
+            return null;
+        }
+        @Nullable @Override public String getShellName(@NonNull AppShell appShell) {
+            return appShell.getExecutionCommand().shellName;
+        }
+        @Override public int getPid(@NonNull AppShell appShell) {
+            return appShell.getExecutionCommand().mPid;
+        }
+    });
 
     /**
      * The pending plugin ExecutionCommands that have yet to be processed by this service.
      */
-    public final List<ExecutionCommand> mPendingPluginExecutionCommands = new ArrayList<>();
+    public final List<ExecutionCommand> mPendingPluginExecutionCommands = new CopyOnWriteArrayList<>();
 
     /**
      * The {@link ExecutionCommand.Runner#APP_SHELL} number after app process was started/restarted.
@@ -161,12 +161,21 @@ public class TermuxAppShellEnvironment {
         }
     }
 
-    /** Update {@link #ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED} value in {@code environment}. */
-    public synchronized static void updateTermuxAppAMSocketServerEnabled(@NonNull Context currentPackageContext) {
-        if (termuxAppEnvironment == null) return;
-        termuxAppEnvironment.remove(ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED);
-        ShellEnvironmentUtils.putToEnvIfSet(termuxAppEnvironment, ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED,
-            TermuxAmSocketServer.getTermuxAppAMSocketServerEnabled(currentPackageContext));
+    /**
+     * Update {@link #ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED} value in {@code environment}.
+     *
+     * The {@link TermuxShellEnvironment} cache is invalidated after releasing the
+     * {@link TermuxAppShellEnvironment} lock, since {@link TermuxShellEnvironment} takes its own lock
+     * before calling {@link #setTermuxAppEnvironment(Context)}.
+     */
+    public static void updateTermuxAppAMSocketServerEnabled(@NonNull Context currentPackageContext) {
+        synchronized (TermuxAppShellEnvironment.class) {
+            if (termuxAppEnvironment == null) return;
+            termuxAppEnvironment.remove(ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED);
+            ShellEnvironmentUtils.putToEnvIfSet(termuxAppEnvironment, ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED,
+                TermuxAmSocketServer.getTermuxAppAMSocketServerEnabled(currentPackageContext));
+        }
+        TermuxShellEnvironment.invalidateEnvironmentCache();
     }
 
 }
@@ -11,12 +11,14 @@ import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.environment.AndroidShellEnvironment;
 import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.ShellCommandShellEnvironment;
+import com.termux.shared.shell.command.environment.ShellEnvironmentTemplate;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.shell.TermuxShellUtils;
 
 import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Environment for Termux.
@@ -28,6 +30,18 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
     /** Environment variable for the termux {@link TermuxConstants#TERMUX_PREFIX_DIR_PATH}. */
     public static final String ENV_PREFIX = "PREFIX";
 
+    /**
+     * The cached {@link ShellEnvironmentTemplate} for the normal and failsafe environments of the
+     * Termux app, which are invalidated with {@link #invalidateEnvironmentCache()}.
+     *
+     * They are volatile references that are built without holding any lock and only swapped, since
+     * building them locks {@link TermuxAppShellEnvironment}, which itself invalidates the cache.
+     */
+    private static volatile ShellEnvironmentTemplate environmentTemplate;
+    private static volatile ShellEnvironmentTemplate failsafeEnvironmentTemplate;
+    /** Incremented on each invalidation so that a template built before it is not cached. */
+    private static final AtomicInteger environmentCacheGeneration = new AtomicInteger();
+
     public TermuxShellEnvironment() {
         super();
         shellCommandShellEnvironment = new TermuxShellCommandShellEnvironment();
@@ -39,6 +53,16 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
         TermuxAppShellEnvironment.setTermuxAppEnvironment(currentPackageContext);
     }
 
+    /**
+     * Invalidate the cached environment, like when a Termux plugin app is installed, updated or
+     * removed, or a property exported in the environment is changed.
+     */
+    public static void invalidateEnvironmentCache() {
+        environmentCacheGeneration.incrementAndGet();
+        environmentTemplate = null;
+        failsafeEnvironmentTemplate = null;
+    }
+
     /** Init {@link TermuxShellEnvironment} constants and caches. */
     public synchronized static void writeEnvironmentToFile(@NonNull Context currentPackageContext) {
         HashMap<String, String> environmentMap = new TermuxShellEnvironment().getEnvironment(currentPackageContext, false);
@@ -95,6 +119,38 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
         return environment;
     }
 
+    /**
+     * Get the {@link ShellEnvironmentTemplate} for {@link #getEnvironment(Context, boolean)}.
+     *
+     * It is cached if the current package is the Termux app, since building it requires package
+     * manager and SELinux queries. Other apps always build it again since the Termux app and its
+     * plugins may be installed/updated/deleted in the background without them being notified.
+     */
+    @NonNull
+    @Override
+    public ShellEnvironmentTemplate getEnvironmentTemplate(@NonNull Context currentPackageContext, boolean isFailSafe) {
+        if (!TermuxConstants.TERMUX_PACKAGE_NAME.equals(currentPackageContext.getPackageName()))
+            return super.getEnvironmentTemplate(currentPackageContext, isFailSafe);
+
+        ShellEnvironmentTemplate template = isFailSafe ? failsafeEnvironmentTemplate : environmentTemplate;
+        if (template != null)
+            return template;
+
+        // Build without holding the TermuxShellEnvironment lock and only cache the template if the
+        // cache was not invalidated while it was being built
+        int generation = environmentCacheGeneration.get();
+        template = super.getEnvironmentTemplate(currentPackageContext, isFailSafe);
+        synchronized (TermuxShellEnvironment.class) {
+            if (environmentCacheGeneration.get() == generation) {
+                if (isFailSafe)
+                    failsafeEnvironmentTemplate = template;
+                else
+                    environmentTemplate = template;
+            }
+        }
+        return template;
+    }
+
 
     @NonNull
     @Override
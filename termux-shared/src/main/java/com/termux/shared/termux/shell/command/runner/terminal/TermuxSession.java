@@ -9,7 +9,6 @@ import androidx.annotation.Nullable;
 import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.UnixShellEnvironment;
 import com.termux.shared.shell.command.result.ResultData;
 import com.termux.shared.errors.Errno;
@@ -20,9 +19,8 @@ import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
 import java.io.File;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.List;
 
 /**
  * A class that maintains info for foreground Termux sessions.
@@ -138,9 +136,8 @@ public class TermuxSession {
             executionCommand);
         if (additionalEnvironment != null)
             environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.convertEnvironmentToEnviron(currentPackageContext,
+            executionCommand, environment);
 
         if (!executionCommand.setState(ExecutionCommand.ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_termux_session_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -148,11 +145,11 @@ public class TermuxSession {
             return null;
         }
 
-        Logger.logDebugExtended(LOG_TAG, executionCommand.toString());
-        Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession Environment:\n" +
+        Logger.logDebugExtended(LOG_TAG, executionCommand::toString);
+        Logger.logVerboseExtended(LOG_TAG, () -> "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
-        Logger.logDebug(LOG_TAG, "Running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
+        Logger.logDebug(LOG_TAG, () -> "Running \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
         TerminalSession terminalSession = new TerminalSession(executionCommand.executable,
             executionCommand.workingDirectory, executionCommand.arguments, environmentArray,
             executionCommand.terminalTranscriptRows, terminalSessionClient);
@@ -180,20 +177,20 @@ public class TermuxSession {
         int exitCode = mTerminalSession.getExitStatus();
 
         if (exitCode == 0)
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession exited normally");
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession exited normally");
         else
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession exited with code: " + exitCode);
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession exited with code: " + exitCode);
 
         // If the execution command has already failed, like SIGKILL was sent, then don't continue
         if (mExecutionCommand.isStateFailed()) {
-            Logger.logDebug(LOG_TAG, "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession state to ExecutionState.EXECUTED and processing results since it has already failed");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring setting \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession state to ExecutionState.EXECUTED and processing results since it has already failed");
             return;
         }
 
         mExecutionCommand.resultData.exitCode = exitCode;
 
         if (this.mSetStdoutOnExit)
-            mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+            mExecutionCommand.resultData.stdout.append(getTerminalSessionOutput());
 
         if (!mExecutionCommand.setState(ExecutionCommand.ExecutionState.EXECUTED))
             return;
@@ -212,18 +209,18 @@ public class TermuxSession {
     public void killIfExecuting(@NonNull final Context context, boolean processResult) {
         // If execution command has already finished executing, then no need to process results or send SIGKILL
         if (mExecutionCommand.hasExecuted()) {
-            Logger.logDebug(LOG_TAG, "Ignoring sending SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession since it has already finished executing");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring sending SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession since it has already finished executing");
             return;
         }
 
-        Logger.logDebug(LOG_TAG, "Send SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
+        Logger.logDebug(LOG_TAG, () -> "Send SIGKILL to \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession");
         if (mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_sending_sigkill_to_process))) {
             if (processResult) {
                 mExecutionCommand.resultData.exitCode = 137; // SIGKILL
 
                 // Get whatever output has been set till now in case its needed
                 if (this.mSetStdoutOnExit)
-                    mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+                    mExecutionCommand.resultData.stdout.append(getTerminalSessionOutput());
 
                 TermuxSession.processTermuxSessionResult(this, null);
             }
@@ -254,13 +251,14 @@ public class TermuxSession {
             executionCommand = termuxSession.mExecutionCommand;
 
         if (executionCommand == null) return;
+        final ExecutionCommand command = executionCommand;
 
         if (executionCommand.shouldNotProcessResults()) {
-            Logger.logDebug(LOG_TAG, "Ignoring duplicate call to process \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession result");
+            Logger.logDebug(LOG_TAG, () -> "Ignoring duplicate call to process \"" + command.getCommandIdAndLabelLogString() + "\" TermuxSession result");
             return;
         }
 
-        Logger.logDebug(LOG_TAG, "Processing \"" + executionCommand.getCommandIdAndLabelLogString() + "\" TermuxSession result");
+        Logger.logDebug(LOG_TAG, () -> "Processing \"" + command.getCommandIdAndLabelLogString() + "\" TermuxSession result");
 
         if (termuxSession != null && termuxSession.mTermuxSessionClient != null) {
             termuxSession.mTermuxSessionClient.onTermuxSessionExited(termuxSession);
@@ -272,6 +270,19 @@ public class TermuxSession {
         }
     }
 
+    /**
+     * Get the output of {@link #mTerminalSession}. For headless sessions, this is the raw output
+     * including any terminal control sequences, so that the session does not have to be
+     * materialized only to get its transcript.
+     */
+    private String getTerminalSessionOutput() {
+        if (mTerminalSession.isHeadless()) {
+            byte[] output = mTerminalSession.readHeadlessOutput();
+            return output != null ? new String(output, StandardCharsets.UTF_8) : null;
+        }
+        return ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false);
+    }
+
     public TerminalSession getTerminalSession() {
         return mTerminalSession;
     }